@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava.benchmarks;
+
+import com.pwolfgang.numjava.Array;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Array.apply, Array.copyOf and the copy of a transposed view.
+ *
+ * @author Paul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ApplyCopyBenchmark {
+
+    @Param({"256", "1024"})
+    int n;
+
+    @Param({Data.CONTIGUOUS, Data.STRIDED})
+    String layout;
+
+    Array matrix;
+
+    @Setup
+    public void setUp() {
+        matrix = Data.randomFloats(new Random(1), layout, n, n);
+    }
+
+    @Benchmark
+    public Array apply() {
+        return matrix.apply(x -> 1.0 / (1.0 + Math.exp(-x)));
+    }
+
+    @Benchmark
+    public Array copyOf() {
+        return Array.copyOf(matrix);
+    }
+
+    @Benchmark
+    public Array copyOfTranspose() {
+        return Array.copyOf(matrix.transpose());
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava.benchmarks;
+
+import com.pwolfgang.numjava.Array;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Array.dot with an N-D left operand, against a 1-D and an M-D right
+ * operand.
+ *
+ * @author Paul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BatchedDotBenchmark {
+
+    @Param({"4"})
+    int batch;
+
+    @Param({"16", "64", "128"})
+    int n;
+
+    @Param({Data.CONTIGUOUS, Data.STRIDED})
+    String layout;
+
+    Array tensorA;
+    Array tensorB;
+    Array vector;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        tensorA = Data.randomFloats(random, layout, batch, n, n);
+        tensorB = Data.randomFloats(random, layout, batch, n, n);
+        vector = Data.randomFloats(random, layout, n);
+    }
+
+    @Benchmark
+    public Array nDtimes1D() {
+        return tensorA.dot(vector);
+    }
+
+    @Benchmark
+    public Array nDtimesMd() {
+        return tensorA.dot(tensorB);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava.benchmarks;
+
+import com.pwolfgang.numjava.Array;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleUnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A dense layer activation, sigmoid(x * w + b), computed eagerly and as a
+ * fused lazy expression.
+ *
+ * @author Paul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ChainBenchmark {
+
+    private static final DoubleUnaryOperator SIGMOID = v -> 1.0 / (1.0 + Math.exp(-v));
+
+    @Param({"256", "2048"})
+    int n;
+
+    Array x;
+    Array w;
+    Array b;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        x = Data.randomFloats(random, Data.CONTIGUOUS, n, n);
+        w = Data.randomFloats(random, Data.CONTIGUOUS, n, n);
+        b = Data.randomFloats(random, Data.CONTIGUOUS, n);
+    }
+
+    @Benchmark
+    public Array eager() {
+        return x.mul(w).add(b).apply(SIGMOID);
+    }
+
+    @Benchmark
+    public Array lazy() {
+        return x.lazy().mul(w).add(b).apply(SIGMOID).eval();
+    }
+
+}
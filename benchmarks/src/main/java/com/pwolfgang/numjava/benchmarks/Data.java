@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava.benchmarks;
+
+import com.pwolfgang.numjava.Array;
+import java.util.Random;
+
+/**
+ * Builds the operands used by the benchmarks.
+ *
+ * @author Paul
+ */
+final class Data {
+
+    /** Operands stored in row-major order without gaps. */
+    static final String CONTIGUOUS = "contiguous";
+    /** Operands that are views of every other element of a larger array. */
+    static final String STRIDED = "strided";
+
+    private Data() {
+    }
+
+    /**
+     * Create a float array of random values in [-1, 1).
+     * @param random The source of the values
+     * @param layout CONTIGUOUS or STRIDED
+     * @param shape The shape of the result
+     * @return An Array with the requested shape and layout.
+     */
+    static Array randomFloats(Random random, String layout, int... shape) {
+        int spacing = layout.equals(STRIDED) ? 2 : 1;
+        int size = 1;
+        for (int d : shape) {
+            size *= d;
+        }
+        float[] data = new float[size * spacing];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 2.0f * random.nextFloat() - 1.0f;
+        }
+        int[] stride = new int[shape.length];
+        int s = spacing;
+        for (int i = shape.length - 1; i >= 0; i--) {
+            stride[i] = s;
+            s *= shape[i];
+        }
+        return new Array(shape, stride, float.class, 0, data);
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava.benchmarks;
+
+import com.pwolfgang.numjava.Array;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The element-wise arithmetic operators, with the right operand the same
+ * shape as the left, a row that is broadcast over the left, or a scalar.
+ *
+ * @author Paul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ElementwiseBenchmark {
+
+    @Param({"256", "1024"})
+    int n;
+
+    @Param({"add", "sub", "mul", "div"})
+    String op;
+
+    @Param({"none", "row", "scalar"})
+    String broadcast;
+
+    @Param({Data.CONTIGUOUS, Data.STRIDED})
+    String layout;
+
+    Array left;
+    Array right;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        left = Data.randomFloats(random, layout, n, n);
+        switch (broadcast) {
+            case "none":
+                right = Data.randomFloats(random, layout, n, n);
+                break;
+            case "row":
+                right = Data.randomFloats(random, layout, n);
+                break;
+            default:
+                right = new Array(0.5f);
+        }
+    }
+
+    @Benchmark
+    public Array operator() {
+        switch (op) {
+            case "add":
+                return left.add(right);
+            case "sub":
+                return left.sub(right);
+            case "mul":
+                return left.mul(right);
+            default:
+                return left.div(right);
+        }
+    }
+
+}
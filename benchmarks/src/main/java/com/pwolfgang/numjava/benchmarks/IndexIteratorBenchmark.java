@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava.benchmarks;
+
+import com.pwolfgang.numjava.IndexIterator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full traversal of an index space with IndexIterator.
+ *
+ * @author Paul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class IndexIteratorBenchmark {
+
+    /** The shape to traverse, as comma separated sizes. */
+    @Param({"1024,1024", "16,64,32,32"})
+    String shape;
+
+    int[] dims;
+
+    @Setup
+    public void setUp() {
+        String[] sizes = shape.split(",");
+        dims = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            dims[i] = Integer.parseInt(sizes[i]);
+        }
+    }
+
+    @Benchmark
+    public long traverse() {
+        long sum = 0;
+        IndexIterator itr = new IndexIterator(dims);
+        while (itr.hasNext()) {
+            int[] idx = itr.next();
+            sum += idx[idx.length - 1];
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava.benchmarks;
+
+import com.pwolfgang.numjava.Array;
+import com.pwolfgang.numjava.ReadMNIST;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ReadMNIST.readImages on a synthetic IDX file with MNIST sized images.
+ *
+ * @author Paul
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ReadMNISTBenchmark {
+
+    @Param({"10000"})
+    int numImages;
+
+    File imageFile;
+
+    @Setup(Level.Trial)
+    public void writeImages() throws IOException {
+        imageFile = File.createTempFile("images", ".idx3-ubyte");
+        Random random = new Random(1);
+        byte[] image = new byte[28 * 28];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(imageFile)))) {
+            out.writeInt(2051);
+            out.writeInt(numImages);
+            out.writeInt(28);
+            out.writeInt(28);
+            for (int i = 0; i < numImages; i++) {
+                random.nextBytes(image);
+                out.write(image);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteImages() {
+        imageFile.delete();
+    }
+
+    @Benchmark
+    public Array readImages() {
+        return ReadMNIST.readImages(imageFile.getPath());
+    }
+
+}
@@ -16,6 +16,8 @@
  */
 package com.pwolfgang.numjava;
 
+import com.pwolfgang.numjava.ElementwiseKernels.Op;
+import com.pwolfgang.numjava.MathKernels.Function;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -25,7 +27,6 @@ import java.util.StringJoiner;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleSupplier;
 import java.util.function.DoubleUnaryOperator;
-import java.util.function.IntBinaryOperator;
 
 /**
  * This class is similar to the NumPY ndarray.
@@ -67,10 +68,15 @@ public class Array {
     public Array(Object data) {
         Class<?> dataClass = data.getClass();
         if (!dataClass.isArray()) {
-            if (dataClass == Integer.class || dataClass == Float.class) {
+            if (dataClass == Integer.class || dataClass == Float.class
+                    || dataClass == Long.class || dataClass == Double.class) {
                 this.data = data;
                 if (dataClass == Integer.class) {
                     this.dataType = int.class;
+                } else if (dataClass == Long.class) {
+                    this.dataType = long.class;
+                } else if (dataClass == Double.class) {
+                    this.dataType = double.class;
                 } else {
                     this.dataType = float.class;
                 }
@@ -82,18 +88,14 @@ public class Array {
                 throw new IllegalArgumentException("Unrecognized data type");
             }
         } else {
-            Class<?> parentClass = dataClass;
-            Object currentLevel = data;
             List<Integer> sizes = new ArrayList<>();
-            Class<?> componentType;
-            while (true) {
+            Object currentLevel = data;
+            Class<?> componentType = dataClass.getComponentType();
+            sizes.add(java.lang.reflect.Array.getLength(data));
+            while (componentType.isArray()) {
+                currentLevel = ((Object[])currentLevel)[0];
                 sizes.add(java.lang.reflect.Array.getLength(currentLevel));
-                componentType = parentClass.getComponentType();
-                if (!componentType.isArray()) {
-                    break;
-                }
-                parentClass = componentType;
-                currentLevel = java.lang.reflect.Array.get(currentLevel, 0);
+                componentType = componentType.getComponentType();
             }
             if (!componentType.isPrimitive()) {
                 throw new IllegalArgumentException(componentType + " is not a primitive type");
@@ -103,47 +105,164 @@ public class Array {
             for (int i = 0; i < sizes.size(); i++) {
                 shape[i] = sizes.get(i);
             }
-            stride = new int[numDim];
-            stride[numDim - 1] = 1;
-            for (int i = numDim - 2; i >= 0; i--) {
-                stride[i] = stride[i + 1] * shape[i + 1];
-            }
+            stride = contiguousStride(shape);
             dataType = componentType;
-            int totalSize = 1;
-            for (int d : shape) {
-                totalSize *= d;
-            }
-            this.data = java.lang.reflect.Array.newInstance(dataType, totalSize);
+            this.data = java.lang.reflect.Array.newInstance(dataType, size());
             offset = 0;
-            copyData(data, 0);
+            copyData(data, 0, 0);
         }
     }
     
+    /**
+     * Create a float Array whose elements are given by a supplier, which is
+     * called for each element in row-major order.
+     * @param supplier The source of the values
+     * @param shape The shape
+     * @return The new Array.
+     */
     public static Array generate(DoubleSupplier supplier, int... shape) {
-        Object data = java.lang.reflect.Array.newInstance(float.class, shape);
-        IndexIterator itr = new IndexIterator(shape);
-        while (itr.hasNext()) {
-            int[] idx = itr.next();
-            setData(data, supplier, idx);
+        float[] data = new float[product(shape, 0, shape.length)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float)supplier.getAsDouble();
         }
-        return new Array(data);
+        return new Array(shape.clone(), contiguousStride(shape), float.class, 0, data);
     }
     
-    private static void setData(Object data, DoubleSupplier supplier, int[] idx) {
-        if (idx.length == 1) {
-            java.lang.reflect.Array.setFloat(data, idx[0], (float)supplier.getAsDouble());
+    /**
+     * Create an Array of zeros.
+     * @param dataType The data type, such as float.class or {@link UInt8}.
+     * @param shape The shape
+     * @return The new Array.
+     * @throws IllegalArgumentException if the type is not supported.
+     */
+    public static Array zeros(Class<?> dataType, int... shape) {
+        DataTypes.computeType(dataType);
+        return new Array(shape.clone(), contiguousStride(shape), dataType, 0,
+                DataTypes.newData(dataType, product(shape, 0, shape.length)));
+    }
+
+    /**
+     * Create an Array of ones.
+     * @see #full
+     */
+    public static Array ones(Class<?> dataType, int... shape) {
+        return full(dataType, 1, shape);
+    }
+
+    /**
+     * Create an Array with every element set to a value.
+     * @param dataType The data type
+     * @param value The value, converted to the type as {@link #set} does.
+     * @param shape The shape
+     * @return The new Array.
+     * @throws IllegalArgumentException if the type is not supported.
+     */
+    public static Array full(Class<?> dataType, Number value, int... shape) {
+        Array result = zeros(dataType, shape);
+        Object first = DataTypes.newData(dataType, 1);
+        DataTypes.set(dataType, first, 0, value);
+        Object data = result.data;
+        if (data instanceof float[]) {
+            Arrays.fill((float[])data, ((float[])first)[0]);
+        } else if (data instanceof int[]) {
+            Arrays.fill((int[])data, ((int[])first)[0]);
+        } else if (data instanceof double[]) {
+            Arrays.fill((double[])data, ((double[])first)[0]);
+        } else if (data instanceof long[]) {
+            Arrays.fill((long[])data, ((long[])first)[0]);
+        } else if (data instanceof short[]) {
+            Arrays.fill((short[])data, ((short[])first)[0]);
         } else {
-            int firstIndex = idx[0];
-            int[] remainingIndicies = new int[idx.length - 1];
-            System.arraycopy(idx, 1, remainingIndicies, 0, idx.length-1);
-            int numRows = java.lang.reflect.Array.getLength(data);
-            for (int i = 0; i < numRows; i++) {
-                Object row = java.lang.reflect.Array.get(data, i);
-                setData(row, supplier, remainingIndicies);
-            }
+            Arrays.fill((byte[])data, ((byte[])first)[0]);
         }
+        return result;
     }
-    
+
+    /**
+     * Create the int Array {0, 1, ..., stop - 1}.
+     * @see #arange(int, int, int)
+     */
+    public static Array arange(int stop) {
+        return arange(0, stop, 1);
+    }
+
+    /**
+     * Create a 1-dimensional int Array of the values from start up to, but
+     * not including, stop, step apart.
+     * @param start The first value
+     * @param stop The bound
+     * @param step The difference between values, which may be negative.
+     * @return The new Array, which is empty if start is past stop.
+     * @throws IllegalArgumentException if step is zero.
+     */
+    public static Array arange(int start, int stop, int step) {
+        if (step == 0) {
+            throw new IllegalArgumentException("step may not be zero");
+        }
+        long count = ((long)stop - start + step + (step > 0 ? -1 : 1)) / step;
+        int[] values = new int[(int)Math.max(0, count)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = start + i * step;
+        }
+        return new Array(values);
+    }
+
+    /**
+     * Create a 1-dimensional float Array of the values start + i * step
+     * that are before stop. Each value is computed from its index rather
+     * than by adding step repeatedly, so rounding errors do not build up.
+     * @see #arange(int, int, int)
+     */
+    public static Array arange(float start, float stop, float step) {
+        if (step == 0 || Float.isNaN(step)) {
+            throw new IllegalArgumentException(
+                    String.format("step %s is not a valid step", step));
+        }
+        double count = Math.ceil(((double)stop - start) / step);
+        float[] values = new float[(int)Math.max(0, count)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float)(start + (double)i * step);
+        }
+        return new Array(values);
+    }
+
+    /**
+     * Create a float Array of values uniformly distributed in [low, high).
+     * The values are drawn in parallel, but depend only on the seed and
+     * the number of elements; see {@link RandomKernels}.
+     * @param seed The seed
+     * @param low The smallest value
+     * @param high The bound on the values
+     * @param shape The shape
+     * @return The new Array.
+     * @throws IllegalArgumentException if low is not less than high or the
+     * range is not finite.
+     */
+    public static Array uniform(long seed, float low, float high, int... shape) {
+        if (!(low < high) || Float.isInfinite(high - low)) {
+            throw new IllegalArgumentException(
+                    String.format("[%s, %s) is not a valid range", low, high));
+        }
+        float[] data = new float[product(shape, 0, shape.length)];
+        RandomKernels.uniform(seed, low, high, data);
+        return new Array(shape.clone(), contiguousStride(shape), float.class, 0, data);
+    }
+
+    /**
+     * Create a float Array of normally distributed values.
+     * @param seed The seed
+     * @param mean The mean
+     * @param std The standard deviation
+     * @param shape The shape
+     * @return The new Array.
+     * @see #uniform
+     */
+    public static Array normal(long seed, float mean, float std, int... shape) {
+        float[] data = new float[product(shape, 0, shape.length)];
+        RandomKernels.normal(seed, mean, std, data);
+        return new Array(shape.clone(), contiguousStride(shape), float.class, 0, data);
+    }
+
     public int size() {
         int s = 1;
         for (int d : shape) {
@@ -155,69 +274,323 @@ public class Array {
     /**
      * Make a copy of an array. If the source array is a subArray or a transpose 
      * the result will only contain the selected in row column order.
+     * The elements are moved by {@link CopyKernels}.
      */
     public static Array copyOf(Array source) {
         if (source.numDim == 0) {
             return new Array(source.data);
         }
-        int sourceSize = 1;
-        for (int d : source.shape) {
-            sourceSize *= d;
+        int sourceSize = source.size();
+        if (source.data instanceof Storage) {
+            return gather(source, sourceSize);
+        }
+        Object resultData = ArrayArena.allocate(source.dataType, sourceSize);
+        CopyKernels.copy(source.data, source.shape, source.stride, source.offset, resultData, 0);
+        return new Array(source.shape.clone(), contiguousStride(source.shape), 
+                source.dataType, 0, resultData);
+    }
+
+    /**
+     * Copy the elements of an Array held in a Storage into a heap array.
+     */
+    private static Array gather(Array source, int sourceSize) {
+        Storage storage = (Storage)source.data;
+        Object resultData = ArrayArena.allocate(source.dataType, sourceSize);
+        Layout layout = Layout.of(source.shape, source.stride);
+        int n = layout.innerSize();
+        int runStride = layout.innerStride(0);
+        OffsetCursor cursor = layout.outer(0, source.offset);
+        for (int i = 0; cursor.hasNext(); i += n) {
+            storage.get(cursor.next(), runStride, resultData, i, n);
+        }
+        return new Array(source.shape.clone(), contiguousStride(source.shape), 
+                source.dataType, 0, resultData);
+    }
+
+    /**
+     * Store the elements of values, an Array with the shape of this, into
+     * the Storage of this Array.
+     */
+    private Array scatter(Array values) {
+        Storage storage = (Storage)data;
+        if (values.data instanceof Storage || !values.isContiguous()) {
+            values = copyOf(values);
+        }
+        Layout layout = Layout.of(shape, stride, values.stride);
+        int n = layout.innerSize();
+        int runStride = layout.innerStride(0);
+        OffsetCursor cursor = layout.outer(0, offset);
+        OffsetCursor valuesCursor = layout.outer(1, values.offset);
+        while (cursor.hasNext()) {
+            storage.put(cursor.next(), runStride, values.data, valuesCursor.next(), n);
+        }
+        return this;
+    }
+
+    /**
+     * Create a C-contiguous Array that uses the elements of a Storage. The
+     * Array shares the storage, so heap storage gives an ordinary Array of
+     * its int[] or float[], and direct storage gives an Array whose
+     * elements stay outside the Java heap.
+     * @param storage The storage
+     * @param shape The shape, with at least one dimension.
+     * @throws IllegalArgumentException if the storage is too small for the
+     * shape.
+     */
+    public Array(Storage storage, int... shape) {
+        this(shape.clone(), contiguousStride(shape), storage.getDataType(), 0, 
+                storageData(storage, shape));
+    }
+
+    private static Object storageData(Storage storage, int[] shape) {
+        if (shape.length == 0) {
+            throw new IllegalArgumentException("shape must have at least one dimension");
         }
-        if (sourceSize == java.lang.reflect.Array.getLength(source.data) 
-                && source.shape[source.numDim-1] == 1) {
-            Object copy = java.lang.reflect.Array.newInstance(source.dataType, sourceSize);
-            System.arraycopy(source.data, 0, copy, 0, sourceSize);
-            return new Array(source.shape, source.stride, source.dataType, source.offset, copy);
+        long size = 1;
+        for (int d : shape) {
+            size *= d;
         }
-        Object resultData = java.lang.reflect.Array.newInstance(source.dataType, sourceSize);
-        IndexIterator itr = new IndexIterator(source.shape);
-        for (int i = 0; i < sourceSize; i++) {
-            int[] idx = itr.next();
-            int index = source.computeIndex(idx);
-            java.lang.reflect.Array.set(resultData, i, java.lang.reflect.Array.get(source.data, index));
+        if (size > storage.length()) {
+            throw new IllegalArgumentException(
+                    String.format("shape: %s needs %d elements but storage holds %d", 
+                            Arrays.toString(shape), size, storage.length()));
         }
-        int[] newStride = new int[source.numDim];
-        newStride[source.numDim - 1] = 1;
-        for (int i = source.numDim - 2; i >= 0; i--) {
-            newStride[i] = newStride[i + 1] * source.shape[i + 1];
+        return storage.isDirect() ? storage : storage.array();
+    }
+
+    /**
+     * Create a zero-filled Array whose elements are held outside the Java
+     * heap. Close its storage to release the memory.
+     * @param dataType int.class, float.class, byte.class or {@link UInt8}
+     * @param shape The shape
+     * @return The new Array.
+     * @see Storage#allocateDirect
+     */
+    public static Array allocateDirect(Class<?> dataType, int... shape) {
+        return new Array(Storage.allocateDirect(dataType, product(shape, 0, shape.length)), shape);
+    }
+
+    /**
+     * Return a copy of this Array whose elements are held outside the Java
+     * heap.
+     * @throws IllegalArgumentException if this Array has no dimensions.
+     */
+    public Array toDirect() {
+        if (numDim == 0) {
+            throw new IllegalArgumentException("A 0-dimensional Array cannot be direct");
         }
-        return new Array(source.shape, newStride, source.dataType, 0, resultData);
+        return allocateDirect(dataType, shape).scatter(this);
     }
 
     /**
-     * Method to a row (may be multidimensional) from a Java array to the data
-     * array.
-     *
-     * @param data The destination data array.
-     * @param index The start index in this data array
-     * @return Updated value of index.
+     * Return this Array if its elements are on the Java heap, otherwise a
+     * heap copy of them.
+     */
+    public Array toHeap() {
+        return data instanceof Storage ? copyOf(this) : this;
+    }
+
+    /**
+     * Return this Array on the heap with the type it is computed as: int in
+     * place of the compact integer types and float in place of the 16-bit
+     * floating point types. The code paths that have no widening kernel,
+     * such as the reductions, work from this.
+     */
+    private Array widened() {
+        return converted(DataTypes.computeType(dataType));
+    }
+
+    /**
+     * Return this Array on the heap with elements of type int, long, float
+     * or double, converting a copy if necessary.
+     */
+    private Array converted(Class<?> type) {
+        if (numDim == 0) {
+            return dataType == type ? this : broadcastTo(1).converted(type).getSubArray(0);
+        }
+        if (dataType == type) {
+            return toHeap();
+        }
+        Array source = toHeap();
+        Object values = ArrayArena.allocate(type, size());
+        Layout layout = Layout.of(shape, source.stride);
+        int n = layout.innerSize();
+        int runStride = layout.innerStride(0);
+        OffsetCursor cursor = layout.outer(0, source.offset);
+        for (int i = 0; cursor.hasNext(); i += n) {
+            int index = cursor.next();
+            if (type == int.class) {
+                DataTypes.loadInts(dataType, source.data, index, runStride, (int[])values, i, n);
+            } else if (type == long.class) {
+                DataTypes.loadLongs(dataType, source.data, index, runStride, (long[])values, i, n);
+            } else if (type == float.class) {
+                DataTypes.loadFloats(dataType, source.data, index, runStride, (float[])values, i, n);
+            } else {
+                DataTypes.loadDoubles(dataType, source.data, index, runStride, (double[])values, i, n);
+            }
+        }
+        return new Array(shape.clone(), contiguousStride(shape), type, 0, values);
+    }
+
+    /**
+     * Return a copy of this Array converted to another data type. Values
+     * are converted as a Java cast does, so the integer types keep their
+     * low order bits, and are rounded to the nearest value of the 16-bit
+     * floating point types. Converting float weights to {@link BFloat16}
+     * or {@link Float16} halves their memory; they are widened back to
+     * float as they are used.
+     * @param type int, long, float, double, byte, short, or one of
+     * {@link UInt8}, {@link UInt16}, {@link BFloat16} and {@link Float16}.
+     * @return A new Array on the heap with the shape of this.
+     * @throws IllegalArgumentException if the type is not supported.
      */
-    private int copyData(Object data, int index) {
-        if (data.getClass().getComponentType().isPrimitive()) {
-            return copyRow(this.data, data, index);
+    public Array asType(Class<?> type) {
+        Class<?> computeType = DataTypes.computeType(type);
+        if (numDim == 0) {
+            if (computeType != type) {
+                throw new IllegalArgumentException(
+                        String.format("A 0-dimensional Array cannot be %s", type));
+            }
+            Array value = converted(type);
+            return value == this ? new Array(data) : value;
+        }
+        Array values = converted(computeType);
+        if (computeType == type) {
+            return values == this ? copyOf(this) : values;
+        }
+        int n = values.size();
+        Object result = ArrayArena.allocate(type, n);
+        if (computeType == int.class) {
+            DataTypes.storeInts(type, (int[])values.data, result, n);
         } else {
-            int length = java.lang.reflect.Array.getLength(data);
-            for (int i = 0; i < length; i++) {
-                Object level = java.lang.reflect.Array.get(data, i);
-                index = copyData(level, index);
+            DataTypes.storeFloats(type, (float[])values.data, result, n);
+        }
+        return new Array(shape.clone(), contiguousStride(shape), type, 0, result);
+    }
+
+    /**
+     * Return a view of a byte or short Array that reads its elements as
+     * unsigned, with the data type {@link UInt8} or {@link UInt16}.
+     * @return The view, or this if it is already unsigned.
+     * @throws IllegalArgumentException if this is not a byte or short Array.
+     */
+    public Array asUnsigned() {
+        if (dataType == UInt8.class || dataType == UInt16.class) {
+            return this;
+        }
+        if (dataType != byte.class && dataType != short.class) {
+            throw new IllegalArgumentException(
+                    String.format("%s cannot be viewed as unsigned", dataType));
+        }
+        return new Array(shape, stride, dataType == byte.class ? UInt8.class : UInt16.class, 
+                offset, data);
+    }
+
+    /**
+     * Return a view of an unsigned Array that reads its elements as byte or
+     * short.
+     * @return The view, or this if it is already signed.
+     * @throws IllegalArgumentException if this is not an integer Array.
+     */
+    public Array asSigned() {
+        if (dataType == UInt8.class || dataType == UInt16.class) {
+            return new Array(shape, stride, DataTypes.storageClass(dataType), offset, data);
+        }
+        if (!DataTypes.isIntegral(dataType)) {
+            throw new IllegalArgumentException(
+                    String.format("%s cannot be viewed as signed", dataType));
+        }
+        return this;
+    }
+
+    /**
+     * Return true if the elements of this Array are held outside the Java
+     * heap.
+     */
+    public boolean isDirect() {
+        return data instanceof Storage;
+    }
+
+    /**
+     * Return the Storage that holds the elements of this Array. The
+     * elements of a view are found at offset and stride within it. Heap
+     * storage ends after the last element this Array reaches, even if its
+     * array is longer, as a pooled buffer may be.
+     * @throws IllegalArgumentException if this Array has no dimensions.
+     */
+    public Storage getStorage() {
+        if (numDim == 0) {
+            throw new IllegalArgumentException("A 0-dimensional Array has no storage");
+        }
+        return data instanceof Storage ? (Storage)data : Storage.of(data, extent());
+    }
+
+    /**
+     * Return one more than the largest index of an element of this Array,
+     * or the offset if it has no elements.
+     */
+    private int extent() {
+        int last = offset;
+        for (int i = 0; i < numDim; i++) {
+            if (shape[i] == 0) {
+                return offset;
             }
-            return index;
+            last += (shape[i] - 1) * stride[i];
         }
+        return last + 1;
     }
 
     /**
-     * Method to copy the actual single-dimension row segment.
+     * Copy the rows of a nested Java array into the data array, checking
+     * that they have the shape found from the first element of each level.
      *
-     * @param data The source array.
-     * @param row The destination array.
-     * @param index The start index in the source
-     * @return updated value of source.
+     * @param level The array at dimension dim of the source.
+     * @param dim The dimension
+     * @param index The start index in this data array
+     * @return Updated value of index.
      */
-    private int copyRow(Object data, Object row, int index) {
-        int rowSize = java.lang.reflect.Array.getLength(row);
-        System.arraycopy(row, 0, data, index, rowSize);
-        return index + rowSize;
+    private int copyData(Object level, int dim, int index) {
+        if (dim == numDim - 1) {
+            checkLength(java.lang.reflect.Array.getLength(level), dim);
+            System.arraycopy(level, 0, data, index, shape[dim]);
+            return index + shape[dim];
+        }
+        if (dim == numDim - 2 && level instanceof float[][]) {
+            float[][] rows = (float[][])level;
+            float[] values = (float[])data;
+            checkLength(rows.length, dim);
+            for (float[] row : rows) {
+                checkLength(row.length, dim + 1);
+                System.arraycopy(row, 0, values, index, row.length);
+                index += row.length;
+            }
+            return index;
+        }
+        if (dim == numDim - 2 && level instanceof int[][]) {
+            int[][] rows = (int[][])level;
+            int[] values = (int[])data;
+            checkLength(rows.length, dim);
+            for (int[] row : rows) {
+                checkLength(row.length, dim + 1);
+                System.arraycopy(row, 0, values, index, row.length);
+                index += row.length;
+            }
+            return index;
+        }
+        Object[] rows = (Object[])level;
+        checkLength(rows.length, dim);
+        for (Object row : rows) {
+            index = copyData(row, dim + 1, index);
+        }
+        return index;
+    }
+
+    private void checkLength(int length, int dim) {
+        if (length != shape[dim]) {
+            throw new IllegalArgumentException(
+                    String.format("Ragged array: dimension %d has lengths %d and %d",
+                            dim, shape[dim], length));
+        }
     }
 
     /**
@@ -243,7 +616,8 @@ public class Array {
      *
      * @param idx The index.
      * @return The value at this index
-     * @throws ClassCastException if the dataType is not int.
+     * @throws ClassCastException if the dataType is not int or one of the
+     * compact integer types.
      */
     public int getInt(int... idx) {
         if (numDim == 0) {
@@ -253,7 +627,10 @@ public class Array {
             throw new IllegalArgumentException("Indices must match shape to get signle element");
         }
         int index = computeIndex(idx);
-        return ((int[]) data)[index];
+        if (data instanceof Storage) {
+            return ((Storage)data).getInt(index);
+        }
+        return DataTypes.getInt(dataType, data, index);
     }
 
     /**
@@ -261,7 +638,8 @@ public class Array {
      *
      * @param idx The index.
      * @return The value at this index
-     * @throws ClassCastException if the dataType is not float.
+     * @throws ClassCastException if the dataType is not float or one of
+     * the 16-bit floating point types.
      */
     public float getFloat(int... idx) {
         if (numDim == 0) {
@@ -271,43 +649,550 @@ public class Array {
             throw new IllegalArgumentException("Indices must match shape to get signle element");
         }
         int index = computeIndex(idx);
-        return ((float[]) data)[index];
+        if (data instanceof Storage) {
+            return ((Storage)data).getFloat(index);
+        }
+        return DataTypes.getFloat(dataType, data, index);
+    }
+
+    /**
+     * Get a long value from the array.
+     *
+     * @param idx The index.
+     * @return The value at this index
+     * @throws ClassCastException if the dataType is not long, int or one
+     * of the compact integer types.
+     */
+    public long getLong(int... idx) {
+        if (numDim == 0) {
+            return dataType == long.class ? (Long)data : (Integer)data;
+        }
+        if (idx.length != numDim) {
+            throw new IllegalArgumentException("Indices must match shape to get signle element");
+        }
+        int index = computeIndex(idx);
+        if (data instanceof Storage) {
+            return ((Storage)data).getInt(index);
+        }
+        return DataTypes.getLong(dataType, data, index);
+    }
+
+    /**
+     * Get a double value from the array.
+     *
+     * @param idx The index.
+     * @return The value at this index
+     * @throws ClassCastException if the dataType is not double, float or
+     * one of the 16-bit floating point types.
+     */
+    public double getDouble(int... idx) {
+        if (numDim == 0) {
+            return dataType == double.class ? (Double)data : (Float)data;
+        }
+        if (idx.length != numDim) {
+            throw new IllegalArgumentException("Indices must match shape to get signle element");
+        }
+        int index = computeIndex(idx);
+        if (data instanceof Storage) {
+            return ((Storage)data).getDouble(index);
+        }
+        if (dataType == double.class) {
+            return ((double[]) data)[index];
+        }
+        return DataTypes.getFloat(dataType, data, index);
     }
     
+    /**
+     * Return the sum of the elements over the given axes.
+     * @param axes The axes to reduce. Negative axes count from the end. If
+     * none are given, all axes are reduced.
+     * @return The sums, with the reduced axes removed.
+     */
+    public Array sum(int... axes) {
+        return sum(false, axes);
+    }
+
+    /**
+     * Return the sum of the elements over the given axes.
+     * @param keepDims If true the reduced axes are kept with size 1, so
+     * that the result broadcasts against this Array.
+     * @param axes The axes to reduce, or none for all.
+     * @return The sums.
+     */
+    public Array sum(boolean keepDims, int... axes) {
+        return reduce(Reductions.Kind.SUM, keepDims, axes);
+    }
+
+    public Array max(int... axes) {
+        return max(false, axes);
+    }
+
+    /**
+     * Return the maximum of the elements over the given axes. A float
+     * maximum is NaN if any of the elements is NaN.
+     * @see #sum(boolean, int...)
+     * @throws IllegalArgumentException if the reduced axes are empty.
+     */
+    public Array max(boolean keepDims, int... axes) {
+        return reduce(Reductions.Kind.MAX, keepDims, axes);
+    }
+
+    public Array min(int... axes) {
+        return min(false, axes);
+    }
+
+    /**
+     * Return the minimum of the elements over the given axes.
+     * @see #max(boolean, int...)
+     */
+    public Array min(boolean keepDims, int... axes) {
+        return reduce(Reductions.Kind.MIN, keepDims, axes);
+    }
+
+    public Array mean(int... axes) {
+        return mean(false, axes);
+    }
+
+    /**
+     * Return the mean of the elements over the given axes. The result is
+     * double for a double Array and otherwise float.
+     * @see #sum(boolean, int...)
+     */
+    public Array mean(boolean keepDims, int... axes) {
+        if (dataType == double.class) {
+            Array source = numDim == 0 ? broadcastTo(1) : toHeap();
+            boolean[] reduced = source.reducedAxes(axes);
+            double[] result = source.doubleMeans(reduced);
+            return reductionResult(source, result, double.class, reduced, keepDims);
+        }
+        Array source = floatSource();
+        boolean[] reduced = source.reducedAxes(axes);
+        float[] result = source.means(reduced);
+        return reductionResult(source, result, float.class, reduced, keepDims);
+    }
+
+    public Array var(int... axes) {
+        return var(false, axes);
+    }
+
+    /**
+     * Return the variance of the elements over the given axes, the mean of
+     * the squared deviations from their mean. The result is double for a
+     * double Array and otherwise float.
+     * @see #sum(boolean, int...)
+     */
+    public Array var(boolean keepDims, int... axes) {
+        if (dataType == double.class) {
+            Array source = numDim == 0 ? broadcastTo(1) : toHeap();
+            boolean[] reduced = source.reducedAxes(axes);
+            double[] result = source.doubleVariances(reduced);
+            return reductionResult(source, result, double.class, reduced, keepDims);
+        }
+        Array source = floatSource();
+        boolean[] reduced = source.reducedAxes(axes);
+        float[] result = source.variances(reduced);
+        return reductionResult(source, result, float.class, reduced, keepDims);
+    }
+
+    public Array std(int... axes) {
+        return std(false, axes);
+    }
+
+    /**
+     * Return the standard deviation of the elements over the given axes.
+     * @see #var(boolean, int...)
+     */
+    public Array std(boolean keepDims, int... axes) {
+        if (dataType == double.class) {
+            Array source = numDim == 0 ? broadcastTo(1) : toHeap();
+            boolean[] reduced = source.reducedAxes(axes);
+            double[] result = source.doubleVariances(reduced);
+            for (int i = 0; i < result.length; i++) {
+                result[i] = Math.sqrt(result[i]);
+            }
+            return reductionResult(source, result, double.class, reduced, keepDims);
+        }
+        Array source = floatSource();
+        boolean[] reduced = source.reducedAxes(axes);
+        float[] result = source.variances(reduced);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (float)Math.sqrt(result[i]);
+        }
+        return reductionResult(source, result, float.class, reduced, keepDims);
+    }
+
+    private Array reduce(Reductions.Kind kind, boolean keepDims, int... axes) {
+        Array source = numDim == 0 ? broadcastTo(1) : widened();
+        boolean[] reduced = source.reducedAxes(axes);
+        if (source.dataType == int.class) {
+            return reductionResult(source, Reductions.reduceInt(source, reduced, kind),
+                    int.class, reduced, keepDims);
+        }
+        if (source.dataType == long.class) {
+            return reductionResult(source, Reductions.reduceLong(source, reduced, kind),
+                    long.class, reduced, keepDims);
+        }
+        if (source.dataType == double.class) {
+            return reductionResult(source, Reductions.reduceDouble(source, reduced, kind, null),
+                    double.class, reduced, keepDims);
+        }
+        return reductionResult(source, Reductions.reduceFloat(source, reduced, kind, null),
+                float.class, reduced, keepDims);
+    }
+
+    private float[] means(boolean[] reduced) {
+        float[] result = Reductions.reduceFloat(this, reduced, Reductions.Kind.SUM, null);
+        float count = reducedCount(reduced);
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= count;
+        }
+        return result;
+    }
+
+    private float[] variances(boolean[] reduced) {
+        float[] result = Reductions.reduceFloat(this, reduced, 
+                Reductions.Kind.SQUARED_DEVIATION, means(reduced));
+        float count = reducedCount(reduced);
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= count;
+        }
+        return result;
+    }
+
+    private double[] doubleMeans(boolean[] reduced) {
+        double[] result = Reductions.reduceDouble(this, reduced, Reductions.Kind.SUM, null);
+        double count = reducedCount(reduced);
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= count;
+        }
+        return result;
+    }
+
+    private double[] doubleVariances(boolean[] reduced) {
+        double[] result = Reductions.reduceDouble(this, reduced, 
+                Reductions.Kind.SQUARED_DEVIATION, doubleMeans(reduced));
+        double count = reducedCount(reduced);
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= count;
+        }
+        return result;
+    }
+
+    /**
+     * Return this as a float Array with at least one dimension, converting
+     * a copy if necessary.
+     */
+    private Array floatSource() {
+        Array source = numDim == 0 ? broadcastTo(1) : toHeap();
+        if (source.dataType != float.class) {
+            source = copyOf(source);
+            source.convertToFloat();
+        }
+        return source;
+    }
+
+    /**
+     * Convert a list of axes into a flag for each dimension.
+     * @throws IllegalArgumentException if an axis is out of range or is
+     * repeated.
+     */
+    private boolean[] reducedAxes(int... axes) {
+        boolean[] reduced = new boolean[numDim];
+        if (axes.length == 0) {
+            Arrays.fill(reduced, true);
+            return reduced;
+        }
+        for (int axis : axes) {
+            int a = axis < 0 ? axis + numDim : axis;
+            if (a < 0 || a >= numDim) {
+                throw new IllegalArgumentException(
+                        String.format("axis %d is out of range for shape %s", 
+                                axis, Arrays.toString(shape)));
+            }
+            if (reduced[a]) {
+                throw new IllegalArgumentException(
+                        String.format("axis %d is repeated", axis));
+            }
+            reduced[a] = true;
+        }
+        return reduced;
+    }
+
+    private int reducedCount(boolean[] reduced) {
+        int count = 1;
+        for (int i = 0; i < numDim; i++) {
+            if (reduced[i]) {
+                count *= shape[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Wrap the values of a reduction in an Array.
+     */
+    private static Array reductionResult(Array source, Object values, Class<?> type, 
+            boolean[] reduced, boolean keepDims) {
+        int numKept = 0;
+        for (boolean r : reduced) {
+            if (!r) {
+                numKept++;
+            }
+        }
+        int[] newShape = new int[keepDims ? reduced.length : numKept];
+        int k = 0;
+        for (int i = 0; i < reduced.length; i++) {
+            if (!reduced[i]) {
+                newShape[k++] = source.shape[i];
+            } else if (keepDims) {
+                newShape[k++] = 1;
+            }
+        }
+        if (newShape.length == 0) {
+            return new Array(java.lang.reflect.Array.get(values, 0));
+        }
+        return new Array(newShape, contiguousStride(newShape), type, 0, values);
+    }
+
     /**
      * Return the index of the maximum value within the flattened array.
+     * If the maximum occurs more than once the first index is returned; a
+     * NaN is taken to be the maximum.
      * @return The index of the maximum value.
+     * @throws IllegalArgumentException if this Array is empty.
      */
     public int argMax() {
-        int start = offset;
-        int idx[] = Arrays.copyOf(shape, shape.length);
-        for (int i = 0; i < idx.length-1; i++) {
-            idx[i]--;
+        return flatArg(true);
+    }
+
+    /**
+     * Return the index of the minimum value within the flattened array.
+     * @return The index of the minimum value.
+     * @see #argMax()
+     */
+    public int argMin() {
+        return flatArg(false);
+    }
+
+    /**
+     * Return the indices of the maximum values along an axis. For a batch
+     * of predictions of shape [n, classes], argMax(1) gives the predicted
+     * class of each row.
+     * @param axis The axis to search. Negative axes count from the end.
+     * @return An int Array with the shape of this without the axis.
+     * @throws IllegalArgumentException if the axis is out of range or has
+     * size 0.
+     */
+    public Array argMax(int axis) {
+        return axisArg(axis, true);
+    }
+
+    /**
+     * Return the indices of the minimum values along an axis.
+     * @see #argMax(int)
+     */
+    public Array argMin(int axis) {
+        return axisArg(axis, false);
+    }
+
+    private int flatArg(boolean max) {
+        if (numDim == 0) {
+            return 0;
         }
-        int end = computeIndex(idx);
+        if (isDirect() || DataTypes.computeType(dataType) != dataType) {
+            return widened().flatArg(max);
+        }
+        int n = size();
+        if (n == 0) {
+            throw new IllegalArgumentException("Cannot search an empty array");
+        }
+        Layout layout = Layout.of(shape, stride);
+        int runLength = layout.innerSize();
+        int runStride = layout.innerStride(0);
+        OffsetCursor cursor = layout.outer(0, offset);
+        int best = 0;
+        int position = 0;
         if (dataType == int.class) {
             int[] intData = (int[])data;
-            int maxIndex = 0;
-            int maxV = intData[0];
-            for (int i = start; i < end; i++) {
-                if (intData[i] > maxV) {
-                    maxV = intData[i];
-                    maxIndex = i;
+            int bestValue = 0;
+            while (cursor.hasNext()) {
+                int start = cursor.next();
+                int i = max ? Reductions.argMax(intData, start, runStride, runLength)
+                        : Reductions.argMin(intData, start, runStride, runLength);
+                int v = intData[start + i * runStride];
+                if (position == 0 || (max ? v > bestValue : v < bestValue)) {
+                    bestValue = v;
+                    best = position + i;
+                }
+                position += runLength;
+            }
+        } else if (dataType == long.class) {
+            long[] longData = (long[])data;
+            long bestValue = 0;
+            while (cursor.hasNext()) {
+                int start = cursor.next();
+                int i = max ? Reductions.argMax(longData, start, runStride, runLength)
+                        : Reductions.argMin(longData, start, runStride, runLength);
+                long v = longData[start + i * runStride];
+                if (position == 0 || (max ? v > bestValue : v < bestValue)) {
+                    bestValue = v;
+                    best = position + i;
+                }
+                position += runLength;
+            }
+        } else if (dataType == double.class) {
+            double[] doubleData = (double[])data;
+            double bestValue = 0.0;
+            while (cursor.hasNext()) {
+                int start = cursor.next();
+                int i = max ? Reductions.argMax(doubleData, start, runStride, runLength)
+                        : Reductions.argMin(doubleData, start, runStride, runLength);
+                double v = doubleData[start + i * runStride];
+                if (v != v) {
+                    return position + i;
+                }
+                if (position == 0 || (max ? v > bestValue : v < bestValue)) {
+                    bestValue = v;
+                    best = position + i;
                 }
+                position += runLength;
             }
-            return maxIndex - start;
         } else {
             float[] floatData = (float[])data;
-            int maxIndex = 0;
-            float maxV = floatData[0];
-            for (int i = start; i < end; i++) {
-                if (floatData[i] > maxV) {
-                    maxV = floatData[i];
-                    maxIndex = i;
+            float bestValue = 0.0f;
+            while (cursor.hasNext()) {
+                int start = cursor.next();
+                int i = max ? Reductions.argMax(floatData, start, runStride, runLength)
+                        : Reductions.argMin(floatData, start, runStride, runLength);
+                float v = floatData[start + i * runStride];
+                if (v != v) {
+                    return position + i;
+                }
+                if (position == 0 || (max ? v > bestValue : v < bestValue)) {
+                    bestValue = v;
+                    best = position + i;
+                }
+                position += runLength;
+            }
+        }
+        return best;
+    }
+
+    private Array axisArg(int axis, boolean max) {
+        if (isDirect() || DataTypes.computeType(dataType) != dataType) {
+            return widened().axisArg(axis, max);
+        }
+        int a = axis < 0 ? axis + numDim : axis;
+        if (a < 0 || a >= numDim) {
+            throw new IllegalArgumentException(
+                    String.format("axis %d is out of range for shape %s", 
+                            axis, Arrays.toString(shape)));
+        }
+        int n = shape[a];
+        int axisStride = stride[a];
+        int[] newShape = new int[numDim - 1];
+        int[] outerStride = new int[numDim - 1];
+        for (int i = 0, k = 0; i < numDim; i++) {
+            if (i != a) {
+                newShape[k] = shape[i];
+                outerStride[k++] = stride[i];
+            }
+        }
+        int outputs = product(newShape, 0, newShape.length);
+        if (n == 0 && outputs > 0) {
+            throw new IllegalArgumentException("Cannot search an empty axis");
+        }
+        int[] result = new int[outputs];
+        int grain = Math.max(1, Reductions.PARALLEL_THRESHOLD / Math.max(1, n));
+        Parallel.forRange(outputs, grain, (from, to) -> {
+            OffsetCursor cursor = new OffsetCursor(newShape, outerStride, offset);
+            cursor.seek(from);
+            for (int i = from; i < to; i++) {
+                int start = cursor.next();
+                if (dataType == int.class) {
+                    int[] intData = (int[])data;
+                    result[i] = max ? Reductions.argMax(intData, start, axisStride, n)
+                            : Reductions.argMin(intData, start, axisStride, n);
+                } else if (dataType == long.class) {
+                    long[] longData = (long[])data;
+                    result[i] = max ? Reductions.argMax(longData, start, axisStride, n)
+                            : Reductions.argMin(longData, start, axisStride, n);
+                } else if (dataType == double.class) {
+                    double[] doubleData = (double[])data;
+                    result[i] = max ? Reductions.argMax(doubleData, start, axisStride, n)
+                            : Reductions.argMin(doubleData, start, axisStride, n);
+                } else {
+                    float[] floatData = (float[])data;
+                    result[i] = max ? Reductions.argMax(floatData, start, axisStride, n)
+                            : Reductions.argMin(floatData, start, axisStride, n);
                 }
             }
-            return maxIndex - start;  
+        });
+        if (newShape.length == 0) {
+            return new Array(result[0]);
         }
+        return new Array(newShape, contiguousStride(newShape), int.class, 0, result);
+    }
+
+    /**
+     * Count the elements of this Array that are equal to the corresponding
+     * elements of other, without forming an intermediate array. other is
+     * broadcast as by add(Array). To measure the accuracy of a batch of
+     * predictions against int labels use
+     * <code>predictions.argMax(1).countEquals(labels)</code>.
+     * @param other The Array to compare with
+     * @return The number of equal elements.
+     */
+    public int countEquals(Array other) {
+        Class<?> type = DataTypes.promote(dataType, other.dataType);
+        Array left = converted(type);
+        Array right = other.converted(type);
+        int[] resultShape = broadcastShape(left.shape, right.shape);
+        if (resultShape.length == 0) {
+            if (type == int.class || type == long.class) {
+                return ((Number)left.data).longValue() == ((Number)right.data).longValue() ? 1 : 0;
+            }
+            return ((Number)left.data).doubleValue() == ((Number)right.data).doubleValue() ? 1 : 0;
+        }
+        left = left.broadcastTo(resultShape);
+        right = right.broadcastTo(resultShape);
+        Layout layout = Layout.of(resultShape, left.stride, right.stride);
+        int n = layout.innerSize();
+        int leftStride = layout.innerStride(0);
+        int rightStride = layout.innerStride(1);
+        OffsetCursor leftCursor = layout.outer(0, left.offset);
+        OffsetCursor rightCursor = layout.outer(1, right.offset);
+        int count = 0;
+        while (leftCursor.hasNext()) {
+            int index1 = leftCursor.next();
+            int index2 = rightCursor.next();
+            if (left.dataType == int.class) {
+                int[] leftData = (int[])left.data;
+                int[] rightData = (int[])right.data;
+                for (int i = 0; i < n; i++, index1 += leftStride, index2 += rightStride) {
+                    count += leftData[index1] == rightData[index2] ? 1 : 0;
+                }
+            } else if (left.dataType == long.class) {
+                long[] leftData = (long[])left.data;
+                long[] rightData = (long[])right.data;
+                for (int i = 0; i < n; i++, index1 += leftStride, index2 += rightStride) {
+                    count += leftData[index1] == rightData[index2] ? 1 : 0;
+                }
+            } else if (left.dataType == double.class) {
+                double[] leftData = (double[])left.data;
+                double[] rightData = (double[])right.data;
+                for (int i = 0; i < n; i++, index1 += leftStride, index2 += rightStride) {
+                    count += leftData[index1] == rightData[index2] ? 1 : 0;
+                }
+            } else {
+                float[] leftData = (float[])left.data;
+                float[] rightData = (float[])right.data;
+                for (int i = 0; i < n; i++, index1 += leftStride, index2 += rightStride) {
+                    count += leftData[index1] == rightData[index2] ? 1 : 0;
+                }
+            }
+        }
+        return count;
     }
     
     /**
@@ -326,10 +1211,14 @@ public class Array {
             throw new IllegalArgumentException("Indices must match shape to get signle element");
         }
         int index = computeIndex(idx);
-        if (dataType == int.class) {
-            ((int[])data)[index] = x.intValue();
+        if (data instanceof Storage) {
+            if (DataTypes.isIntegral(dataType)) {
+                ((Storage)data).setInt(index, x.intValue());
+            } else {
+                ((Storage)data).setFloat(index, x.floatValue());
+            }
         } else {
-            ((float[])data)[index] = x.floatValue();
+            DataTypes.set(dataType, data, index, x);
         }
         return this;
     }
@@ -350,18 +1239,11 @@ public class Array {
         }
         int index = 0;
         for (int i = 0; i < idx.length; i++) {
-            index += stride[i] * idx[i];
-        }
-        return index + offset;
-    }
-    
-    private int computeLastIndex() {
-        int index = 0;
-        for (int i = 0; i < shape.length; i++) {
-            index += stride[i] * (shape[i] - 1);
+            index += stride[i] * idx[i];
         }
         return index + offset;
     }
+    
 
     /**
      * Get a sub-array (slice)
@@ -376,11 +1258,15 @@ public class Array {
             throw new IllegalArgumentException("Too many indices");
         }
         if (idx.length == numDim) {
-            int index = computeIndex(idx);
-            if (dataType == int.class) {
-                return new Array(((int[])data)[index]);
+            Class<?> computeType = DataTypes.computeType(dataType);
+            if (computeType == int.class) {
+                return new Array(getInt(idx));
+            } else if (computeType == long.class) {
+                return new Array(getLong(idx));
+            } else if (computeType == double.class) {
+                return new Array(getDouble(idx));
             } else {
-                return new Array(((float[])data)[index]);
+                return new Array(getFloat(idx));
             }
         }
         int[] idxPrime = new int[numDim];
@@ -476,12 +1362,55 @@ public class Array {
     }
     
     /**
-     * Multiply each member by a scalar value.
+     * Multiply each member by a scalar value. The scalar does not widen
+     * the result: a float Array times a Double is a float Array, and an
+     * int Array times a Long that fits in an int is an int Array. A Double
+     * makes an int Array float.
      * @param s The scalar value
      * @return A new Array with each element multiplied by the scalar value.
      */
     public Array mul(Number s) {
-        return mul(new Array(s));
+        return mul(scalar(s));
+    }
+
+    /**
+     * Multiply each member by a scalar value, replacing the values of this
+     * Array.
+     * @param s The scalar value
+     * @return This Array
+     */
+    public Array mulInPlace(Number s) {
+        return mulInPlace(scalar(s));
+    }
+
+    /**
+     * Multiply each member by a scalar value and store the result in out.
+     * @param s The scalar value
+     * @param out The destination
+     * @return out
+     * @see #mul(Array, Array)
+     */
+    public Array mul(Number s, Array out) {
+        return mul(scalar(s), out);
+    }
+
+    /**
+     * Make an operand of a Java scalar. Java scalars are weak: a Double or
+     * Float is taken as float unless this Array is double, and an integer
+     * is taken as int unless this Array is long or the value needs a long.
+     * So a scalar never widens the Array it is combined with, while an
+     * Array operand is promoted as usual.
+     */
+    private Array scalar(Number s) {
+        if (s instanceof Double || s instanceof Float) {
+            return dataType == double.class ? new Array(s.doubleValue()) : new Array(s.floatValue());
+        }
+        if (s instanceof Integer || s instanceof Long || s instanceof Short || s instanceof Byte) {
+            long value = s.longValue();
+            return dataType == long.class || value != (int) value
+                    ? new Array(value) : new Array((int) value);
+        }
+        return new Array(s);
     }
     
     /**
@@ -496,11 +1425,8 @@ public class Array {
      * @return 
      */
     public Array dot(Array other) {
-        if (numDim == 0) {
-            return other.mul((Number) data);
-        }
-        if (other.numDim == 0) {
-            return mul((Number)other.data);
+        if (numDim == 0 || other.numDim == 0) {
+            return mul(other);
         }
         if (shape.length == 1 && other.shape.length == 1) {
             return innerProduct(this, other);
@@ -519,6 +1445,14 @@ public class Array {
         return nDtimesMd(this, other);
     }
     
+    /**
+     * Compute the dot product of an n-dim array with a one-dim array. The
+     * leading dimensions of a are treated as the rows of a matrix which is
+     * multiplied by b with a single matrix-vector product.
+     * @param a The left operand
+     * @param b The right operand
+     * @return An Array of shape a.shape[:-1]
+     */
     static Array nDtimes1D(Array a, Array b) {
         int aNumDim = a.numDim;
         if (a.shape[aNumDim-1] != b.shape[0]) {
@@ -527,23 +1461,53 @@ public class Array {
                     Arrays.toString(a.shape), Arrays.toString(b.shape)));
         }
         int[] resultShape = Arrays.copyOf(a.shape, aNumDim-1);
-        Class<?> resultDataType;
-        if (a.dataType == int.class && b.dataType == int.class) {
-            resultDataType = int.class;
+        Class<?> resultDataType = DataTypes.promote(a.dataType, b.dataType);
+        if (resultDataType == long.class || resultDataType == double.class 
+                || a.dataType == long.class) {
+            a = a.converted(resultDataType);
+        }
+        if (!a.leadingDimsCollapse(aNumDim - 1)
+                || a.isDirect() && DataTypes.isCompact(a.dataType)) {
+            a = copyOf(a);
+        }
+        b = b.converted(resultDataType);
+        int nRows = product(resultShape, 0, resultShape.length);
+        int innerCount = b.shape[0];
+        int aRowStride = a.stride[aNumDim-2];
+        int aColStride = a.stride[aNumDim-1];
+        Object resultData;
+        if (DataTypes.isCompact(a.dataType) || DataTypes.isHalf(a.dataType)) {
+            resultData = DotProduct.compactGEMV(nRows, innerCount, a.offset, aRowStride, aColStride, 
+                    a.dataType, a.data, b.offset, b.stride[0], b.data);
+        } else if (resultDataType == long.class) {
+            resultData = DotProduct.lXlGEMV(nRows, innerCount, a.offset, aRowStride, aColStride, 
+                    (long[])a.data, b.offset, b.stride[0], (long[])b.data);
+        } else if (resultDataType == double.class) {
+            resultData = DotProduct.dXdGEMV(nRows, innerCount, a.offset, aRowStride, aColStride, 
+                    (double[])a.data, b.offset, b.stride[0], (double[])b.data);
+        } else if (resultDataType == int.class) {
+            resultData = DotProduct.iXiGEMV(nRows, innerCount, a.offset, aRowStride, aColStride, 
+                    a.getStorage(), b.offset, b.stride[0], b.getStorage());
+        } else if (a.dataType == int.class) {
+            resultData = DotProduct.iXfGEMV(nRows, innerCount, a.offset, aRowStride, aColStride, 
+                    a.getStorage(), b.offset, b.stride[0], b.getStorage());
         } else {
-            resultDataType = float.class;
-        }
-        Object result = java.lang.reflect.Array.newInstance(resultDataType, resultShape);
-        Array resultArray = new Array(result);
-        IndexIterator itr = new IndexIterator(resultShape);
-        while (itr.hasNext()) {
-            int[] idx = itr.next();
-            Array x = a.getSubArray(idx).dot(b);
-            resultArray.set((Number)x.data, idx);
+            resultData = DotProduct.fXfGEMV(nRows, innerCount, a.offset, aRowStride, aColStride, 
+                    a.getStorage(), b.offset, b.stride[0], b.getStorage());
         }
-        return resultArray;
+        return new Array(resultShape, contiguousStride(resultShape), resultDataType, 0, resultData);
     }
     
+    /**
+     * Compute the dot product of an n-dim array with an m-dim array (m &gt; 1).
+     * The result is the sum product over the last axis of a and the 
+     * second-to-last axis of b. The leading dimensions of b are treated as
+     * a batch of matrices and each is multiplied by a (viewed as a matrix)
+     * with one call to the blocked matrix multiply.
+     * @param a The left operand
+     * @param b The right operand
+     * @return An Array of shape a.shape[:-1] + b.shape[:-2] + b.shape[-1:]
+     */
     static Array nDtimesMd(Array a, Array b) {
         int aNumDim = a.numDim;
         int bNumDim = b.numDim;
@@ -554,47 +1518,185 @@ public class Array {
             String.format("shapes %s and %s not alligned",
                     Arrays.toString(a.shape), Arrays.toString(b.shape)));
         }
-        int[] aSubShape = Arrays.copyOf(a.shape, aNumDim-1);
-        int[] bSubShape = new int[bNumDim-1];
-        System.arraycopy(b.shape, 0, bSubShape, 0, bNumDim-1);
-        bSubShape[bNumDim-2] = b.shape[bNumDim-1];
         int[] resultShape = new int[aNumDim + bNumDim - 2];
-        System.arraycopy(aSubShape, 0, resultShape, 0, aNumDim-1);
-        System.arraycopy(bSubShape, 0, resultShape, aNumDim-1, bNumDim-1);
-        Class<?> resultDataType;
-        if (a.dataType == int.class && b.dataType == int.class) {
-            resultDataType = int.class;
+        System.arraycopy(a.shape, 0, resultShape, 0, aNumDim-1);
+        System.arraycopy(b.shape, 0, resultShape, aNumDim-1, bNumDim-2);
+        resultShape[resultShape.length-1] = b.shape[bNumDim-1];
+        Class<?> type = DataTypes.promote(a.dataType, b.dataType);
+        a = a.mixedOperand(type).toHeap();
+        b = b.mixedOperand(type).toHeap();
+        if (!a.leadingDimsCollapse(aNumDim - 1)) {
+            a = copyOf(a);
+        }
+        int m = product(a.shape, 0, aNumDim - 1);
+        int k = aVlength;
+        int n = b.shape[bNumDim-1];
+        int aRowStride = aNumDim > 1 ? a.stride[aNumDim-2] : 0;
+        int aColStride = a.stride[aNumDim-1];
+        int bRowStride = b.stride[bNumDim-2];
+        int bColStride = b.stride[bNumDim-1];
+        int[] bOffsets = matrixOffsets(b);
+        int batch = bOffsets.length;
+        int cRowStride = batch * n;
+        int resultSize = m * cRowStride;
+        Object resultData;
+        if (type == int.class) {
+            int[] aData = (int[])a.data;
+            int[] bData = (int[])b.data;
+            int[] cData = (int[])ArrayArena.allocate(int.class, resultSize);
+            int aOffset = a.offset;
+            multiplyBatch(batch, (s, parallel) -> {
+                if (parallel) {
+                    ParallelGemm.igemm(m, n, k, aData, aOffset, aRowStride, aColStride,
+                            bData, bOffsets[s], bRowStride, bColStride, cData, s * n, cRowStride);
+                } else {
+                    Gemm.igemm(m, n, k, aData, aOffset, aRowStride, aColStride,
+                            bData, bOffsets[s], bRowStride, bColStride, cData, s * n, cRowStride);
+                }
+            });
+            resultData = cData;
+        } else if (type == long.class) {
+            long[] aData = (long[])a.data;
+            long[] bData = (long[])b.data;
+            long[] cData = (long[])ArrayArena.allocate(long.class, resultSize);
+            int aOffset = a.offset;
+            multiplyBatch(batch, (s, parallel) -> {
+                if (parallel) {
+                    ParallelGemm.lgemm(m, n, k, aData, aOffset, aRowStride, aColStride,
+                            bData, bOffsets[s], bRowStride, bColStride, cData, s * n, cRowStride);
+                } else {
+                    Gemm.lgemm(m, n, k, aData, aOffset, aRowStride, aColStride,
+                            bData, bOffsets[s], bRowStride, bColStride, cData, s * n, cRowStride);
+                }
+            });
+            resultData = cData;
+        } else if (type == double.class) {
+            double[] aData = (double[])a.data;
+            double[] bData = (double[])b.data;
+            double[] cData = (double[])ArrayArena.allocate(double.class, resultSize);
+            int aOffset = a.offset;
+            multiplyBatch(batch, (s, parallel) -> {
+                if (parallel) {
+                    ParallelGemm.dgemm(m, n, k, aData, aOffset, aRowStride, aColStride,
+                            bData, bOffsets[s], bRowStride, bColStride, cData, s * n, cRowStride);
+                } else {
+                    Gemm.dgemm(m, n, k, aData, aOffset, aRowStride, aColStride,
+                            bData, bOffsets[s], bRowStride, bColStride, cData, s * n, cRowStride);
+                }
+            });
+            resultData = cData;
+        } else {
+            // Either operand may be an int[], converted as it is packed.
+            Object aData = a.data;
+            Object bData = b.data;
+            float[] cData = (float[])ArrayArena.allocate(float.class, resultSize);
+            int aOffset = a.offset;
+            multiplyBatch(batch, (s, parallel) -> {
+                if (parallel) {
+                    ParallelGemm.sgemm(m, n, k, aData, aOffset, aRowStride, aColStride,
+                            bData, bOffsets[s], bRowStride, bColStride, cData, s * n, cRowStride);
+                } else {
+                    Gemm.sgemm(m, n, k, aData, aOffset, aRowStride, aColStride,
+                            bData, bOffsets[s], bRowStride, bColStride, cData, s * n, cRowStride);
+                }
+            });
+            resultData = cData;
+        }
+        return new Array(resultShape, contiguousStride(resultShape), type, 0, resultData);
+    }
+    
+    /**
+     * One matrix multiply of a batch.
+     */
+    private interface BatchTask {
+        /**
+         * @param s The index within the batch
+         * @param parallel true if the multiply should itself use threads.
+         */
+        void multiply(int s, boolean parallel);
+    }
+    
+    /**
+     * Run a batch of matrix multiplies. If there are enough of them to keep
+     * every thread busy they are spread across threads, otherwise they are
+     * run in turn and each one is split across threads.
+     */
+    private static void multiplyBatch(int batch, BatchTask task) {
+        if (batch >= Parallel.parallelism()) {
+            Parallel.forRange(batch, 1, (from, to) -> {
+                for (int s = from; s < to; s++) {
+                    task.multiply(s, false);
+                }
+            });
         } else {
-            resultDataType = float.class;
-        }
-        Object result = java.lang.reflect.Array.newInstance(resultDataType, resultShape);
-        Array resultArray = new Array(result);
-        IndexIterator itrA = new IndexIterator(aSubShape);
-        while (itrA.hasNext()) {
-            int[] idxA = itrA.next();
-            Array row = a.getSubArray(idxA);
-            IndexIterator itrB = new IndexIterator(bSubShape);
-            while (itrB.hasNext()) {
-                int[] idxB = itrB.next();
-                Array col = getSecondToLast(b, idxB);
-                int[] idxC = new int[resultArray.numDim];
-                System.arraycopy(idxA, 0, idxC, 0, idxA.length);
-                System.arraycopy(idxB, 0, idxC, idxA.length, idxB.length);
-                Array x = row.dot(col);
-                resultArray.set((Number)x.data, idxC);
+            for (int s = 0; s < batch; s++) {
+                task.multiply(s, true);
+            }
+        }
+    }
+    
+    /**
+     * Determine if the first count dimensions can be addressed as a single
+     * dimension.
+     */
+    private boolean leadingDimsCollapse(int count) {
+        for (int i = 0; i < count - 1; i++) {
+            if (stride[i] != stride[i + 1] * shape[i + 1]) {
+                return false;
             }
         }
-        return resultArray;      
+        return true;
+    }
+    
+    /**
+     * Compute the offset of each matrix held in the last two dimensions
+     * of an array, in row-major order of the leading dimensions.
+     */
+    private static int[] matrixOffsets(Array b) {
+        int[] batchShape = Arrays.copyOf(b.shape, b.numDim - 2);
+        int batch = product(batchShape, 0, batchShape.length);
+        int[] offsets = new int[batch];
+        OffsetCursor cursor = new OffsetCursor(batchShape, b.stride, b.offset);
+        for (int s = 0; s < batch; s++) {
+            offsets[s] = cursor.next();
+        }
+        return offsets;
     }
     
-    static Array getSecondToLast(Array b, int[] idx) {
-        int[] subIndex = Arrays.copyOf(idx, idx.length-1);
-        int i = idx[idx.length-1];
-        return b.getSubArray(subIndex).transpose().getSubArray(i);
+    /**
+     * Compute the product of shape[from] through shape[to - 1].
+     */
+    static int product(int[] shape, int from, int to) {
+        int p = 1;
+        for (int i = from; i < to; i++) {
+            p *= shape[i];
+        }
+        return p;
     }
     
+    /**
+     * Compute the row-major stride of an array with the given shape.
+     */
+    static int[] contiguousStride(int[] shape) {
+        int[] newStride = new int[shape.length];
+        int s = 1;
+        for (int i = shape.length - 1; i >= 0; i--) {
+            newStride[i] = s;
+            s *= shape[i];
+        }
+        return newStride;
+    }
     
+    /**
+     * Multiply two matrices. The result has the type given by
+     * {@link DataTypes#promote}. An int operand of a float product is
+     * converted by the kernel as it is packed, otherwise both operands are
+     * converted to the result type.
+     */
     static Array mmul(Array a, Array b) {
+        Class<?> resultDataType = DataTypes.promote(a.dataType, b.dataType);
+        a = a.mixedOperand(resultDataType);
+        b = b.mixedOperand(resultDataType);
         int nRows = a.shape[0];
         int nCols = b.shape[1];
         int[] resultShape = new int[]{nRows, nCols};
@@ -604,340 +1706,1103 @@ public class Array {
         int aColStride = a.stride[1];
         int bRowStride = b.stride[0];
         int bColStride = b.stride[1];
-        Object resultData = null;
-        Class<?> resultDataType = null;
-        if (a.dataType == int.class && b.dataType == int.class) {
-            resultDataType = int.class;
-            int[] aData = (int[])a.data;
-            int[] bData = (int[])b.data;
-            resultData = DotProduct.iXiMMUL(nRows, nCols, innerCount, a.offset, aColStride, b.offset, bRowStride, aData, bData, bColStride, aRowStride);
-        } else if (a.dataType == float.class && b.dataType == float.class) {
-            resultDataType = float.class;
-            float[] aData = (float[])a.data;
-            float[] bData = (float[])b.data;
-            resultData = DotProduct.fXfMMUL(nRows, nCols, innerCount, a.offset, aColStride, b.offset, bRowStride, aData, bData, bColStride, aRowStride);
+        Object resultData;
+        if (resultDataType == int.class) {
+            resultData = DotProduct.iXiMMUL(nRows, nCols, innerCount, a.offset, aColStride, b.offset, bRowStride, a.getStorage(), b.getStorage(), bColStride, aRowStride);
+        } else if (a.dataType == int.class) {
+            resultData = DotProduct.iXfMMUL(nRows, nCols, innerCount, a.offset, aColStride, b.offset, bRowStride, a.getStorage(), b.getStorage(), bColStride, aRowStride);
+        } else if (b.dataType == int.class) {
+            resultData = DotProduct.fXiMMUL(nRows, nCols, innerCount, a.offset, aColStride, b.offset, bRowStride, a.getStorage(), b.getStorage(), bColStride, aRowStride);
+        } else if (resultDataType == float.class) {
+            resultData = DotProduct.fXfMMUL(nRows, nCols, innerCount, a.offset, aColStride, b.offset, bRowStride, a.getStorage(), b.getStorage(), bColStride, aRowStride);
+        } else if (resultDataType == long.class) {
+            resultData = DotProduct.lXlMMUL(nRows, nCols, innerCount, a.offset, aColStride, b.offset, bRowStride, (long[])a.data, (long[])b.data, bColStride, aRowStride);
         } else {
-            throw new RuntimeException("mixed mmul not allowed");
+            resultData = DotProduct.dXdMMUL(nRows, nCols, innerCount, a.offset, aColStride, b.offset, bRowStride, (double[])a.data, (double[])b.data, bColStride, aRowStride);
         }
         return new Array(resultShape, resultStride, resultDataType, 0, resultData);
     }
 
+    /**
+     * Return this Array as an operand of a product of the given type: as
+     * it is if it already has that type, or if the product is float and
+     * this is int, and otherwise converted to the type. The compact types
+     * are widened to int, which the float kernels load directly.
+     */
+    private Array mixedOperand(Class<?> type) {
+        if (dataType == type) {
+            return this;
+        }
+        if (type == float.class && DataTypes.isIntegral(dataType)) {
+            return dataType == int.class ? this : widened();
+        }
+        return converted(type);
+    }
     
     private static Array innerProduct(Array left, Array right) {
         if (left.shape[0] != right.shape[0]) {
             throw new IllegalArgumentException("Arrays must be the same size");
         }
+        Class<?> type = DataTypes.promote(left.dataType, right.dataType);
+        left = left.mixedOperand(type).toHeap();
+        right = right.mixedOperand(type).toHeap();
+        int n = left.shape[0];
         int leftStride = left.stride[0];
-        int leftLastIndex = leftStride * left.shape[0] + left.offset;
         int leftIndex = left.offset;
         int rightStride = right.stride[0];
-        int rightLastIndex = rightStride * right.shape[0] + right.offset;
         int rightIndex = right.offset;
-        if (left.dataType == int.class) {
+        if (type == long.class) {
+            return new Array(DotProduct.longXlongDot(n, leftIndex, leftStride,
+                    rightIndex, rightStride, (long[])left.data, (long[])right.data));
+        } else if (type == double.class) {
+            return new Array(DotProduct.doubleXdoubleDot(n, leftIndex, leftStride,
+                    rightIndex, rightStride, (double[])left.data, (double[])right.data));
+        } else if (left.dataType == int.class) {
             if (right.dataType == int.class) {
-                return new Array(DotProduct.intXintInnerProduct(leftStride, leftLastIndex, leftIndex, 
-                    rightStride, rightIndex, (int[])left.data, (int[])right.data));
+                return new Array(DotProduct.intXintDot(n, leftIndex, leftStride,
+                    rightIndex, rightStride, (int[])left.data, (int[])right.data));
+            } else {
+                return new Array(DotProduct.intXfloatDot(n, leftIndex, leftStride,
+                    rightIndex, rightStride, (int[])left.data, (float[])right.data));
+            }
+        } else if (left.dataType == float.class) {
+            if (right.dataType == float.class) {
+                return new Array(DotProduct.floatXfloatDot(n, leftIndex, leftStride,
+                    rightIndex, rightStride, (float[])left.data, (float[])right.data));
+            } else {
+                return new Array(DotProduct.floatXintDot(n, leftIndex, leftStride,
+                    rightIndex, rightStride, (float[])left.data, (int[])right.data));
+            }
+        }
+        throw new RuntimeException("Cannot Get Here");
+    }
+    
+    
+    
+    public String toStringDebug() {
+        String dataString;
+        if (numDim == 0) {
+            dataString = ((Number)data).toString();
+        } else if (isDirect()) {
+            dataString = String.format("direct storage of %d elements", ((Storage)data).length());
+        } else if (dataType == int.class) {
+            dataString = Arrays.toString((int[])data);
+        } else if (dataType == long.class) {
+            dataString = Arrays.toString((long[])data);
+        } else if (dataType == double.class) {
+            dataString = Arrays.toString((double[])data);
+        } else if (data instanceof byte[]) {
+            dataString = Arrays.toString((byte[])data);
+        } else if (data instanceof short[]) {
+            dataString = Arrays.toString((short[])data);
+        } else {
+            dataString = Arrays.toString((float[])data);
+        }
+        return String.format("Shape: %s%nStride: %s%nOffset: %s%nDataType: %s%nData: %s%n",
+                Arrays.toString(shape), Arrays.toString(stride), offset, 
+                dataType.toString(), dataString);
+    }
+
+    @Override
+    public String toString() {
+        if (numDim == 0) {
+            return ((Number)data).toString();
+        }
+        return toString(widened());
+    }
+    
+    private String toString(Array a) {
+        if (a.numDim == 1) {
+            StringJoiner sj = new StringJoiner(", ", "{", "}");
+            int deltaIndex = a.stride[0];
+            int index = a.offset;
+            for (int i = 0; i < a.shape[0]; i++, index += deltaIndex) {
+                sj.add(java.lang.reflect.Array.get(a.data, index).toString());
+            }
+            return sj.toString();
+        } else {
+            int numRows = a.shape[0];
+            StringJoiner sj = new StringJoiner(", ", "{", "}");
+            for (int r = 0; r < numRows; r++) {
+                Array row = a.getSubArray(r);
+                sj.add(toString(row));
+            }
+            return sj.toString();
+        }
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null) return false;
+        if (this.getClass() == o.getClass()) {
+            Array other = (Array)o;
+            if (this.dataType != other.dataType) return false;
+            if (!Arrays.equals(this.shape, other.shape)) return false;
+            if (!Arrays.equals(this.stride, other.stride)) return false;
+            if (numDim == 0) {
+                return this.data.equals(other.data);
+            }
+            Array leftArray = widened();
+            Array rightArray = other.widened();
+            OffsetCursor left = new OffsetCursor(leftArray);
+            OffsetCursor right = new OffsetCursor(rightArray);
+            if (leftArray.dataType == int.class) {
+                return equalInts((int[])leftArray.data, left, (int[])rightArray.data, right);
+            } else if (leftArray.dataType == float.class) {
+                return equalFloats((float[])leftArray.data, left, (float[])rightArray.data, right);
+            } else if (leftArray.dataType == long.class) {
+                return equalLongs((long[])leftArray.data, left, (long[])rightArray.data, right);
+            } else {
+                return equalDoubles((double[])leftArray.data, left, (double[])rightArray.data, right);
+            }
+        } else {
+            return false;
+        }
+    }
+    
+    private boolean equalInts(int[] left, OffsetCursor leftCursor,
+            int[] right, OffsetCursor rightCursor) {
+            while(leftCursor.hasNext()) {
+                if (left[leftCursor.next()] != right[rightCursor.next()]) {
+                    return false;
+                }
+            }
+            return true;
+    }
+
+    private boolean equalFloats(float[] left, OffsetCursor leftCursor,
+            float[] right, OffsetCursor rightCursor) {
+            while(leftCursor.hasNext()) {
+                if (left[leftCursor.next()] != right[rightCursor.next()]) {
+                    return false;
+                }
+            }
+            return true;
+    }
+    
+    private boolean equalLongs(long[] left, OffsetCursor leftCursor,
+            long[] right, OffsetCursor rightCursor) {
+            while(leftCursor.hasNext()) {
+                if (left[leftCursor.next()] != right[rightCursor.next()]) {
+                    return false;
+                }
+            }
+            return true;
+    }
+
+    private boolean equalDoubles(double[] left, OffsetCursor leftCursor,
+            double[] right, OffsetCursor rightCursor) {
+            while(leftCursor.hasNext()) {
+                if (left[leftCursor.next()] != right[rightCursor.next()]) {
+                    return false;
+                }
+            }
+            return true;
+    }
+    
+    /**
+     * Start a lazily evaluated expression with this Array as its operand.
+     * Chained element-wise operations on the result are evaluated together
+     * in one pass when {@link LazyArray#eval()} is called.
+     * @return An expression whose value is this Array.
+     * @throws IllegalArgumentException if this Array is computed as long
+     * or double.
+     */
+    public LazyArray lazy() {
+        return new LazyArray(this);
+    }
+
+    /**
+     * Returns a modified copy of this Array after applying the supplied operator
+     * to each value.
+     * @param op The operatior to be applied
+     * @return A modified Array, which is double if this is double and
+     * otherwise float.
+     */
+    public Array apply(DoubleUnaryOperator op) {
+        Class<?> type = functionType(dataType);
+        if (numDim == 0) {
+            double value = op.applyAsDouble(((Number)data).doubleValue());
+            return new Array(type == double.class ? (Number)value : (Number)(float)value);
+        }
+        Array out = new Array(shape.clone(), contiguousStride(shape), type, 0,
+                ArrayArena.allocate(type, size()));
+        return apply(op, out);
+    }
+
+    /**
+     * Apply the supplied operator to each value of this Array, replacing
+     * the values.
+     * @param op The operator to be applied
+     * @return This Array
+     * @throws IllegalArgumentException if this is not a float or double
+     * Array.
+     */
+    public Array applyInPlace(DoubleUnaryOperator op) {
+        return apply(op, this);
+    }
+
+    /**
+     * Apply the supplied operator to each value of this Array and store the
+     * results in out. out may be this Array or a strided view.
+     * @param op The operator to be applied
+     * @param out The destination, with the shape of this. It is a double
+     * Array if this is double and otherwise a float Array.
+     * @return out
+     * @throws IllegalArgumentException if out is not of that type and
+     * shape.
+     */
+    public Array apply(DoubleUnaryOperator op, Array out) {
+        Class<?> type = functionType(dataType);
+        checkOut(shape, out, type);
+        if (numDim == 0) {
+            double value = op.applyAsDouble(((Number)data).doubleValue());
+            out.data = type == double.class ? (Number)value : (Number)(float)value;
+            return out;
+        }
+        if (out.isDirect()) {
+            return out.scatter(apply(op));
+        }
+        Array source = toHeap();
+        if (type == double.class) {
+            applyDouble(op, source, out);
+            return out;
+        }
+        if (source.dataType != float.class) {
+            source = copyOf(source);
+            source.convertToFloat();
+        }
+        Layout layout = Layout.of(out.shape, out.stride, source.stride);
+        int n = layout.innerSize();
+        int outStride = layout.innerStride(0);
+        int sourceStride = layout.innerStride(1);
+        OffsetCursor outCursor = layout.outer(0, out.offset);
+        OffsetCursor sourceCursor = layout.outer(1, source.offset);
+        float[] outData = (float[])out.data;
+        float[] sourceData = (float[])source.data;
+        while (outCursor.hasNext()) {
+            int index0 = outCursor.next();
+            int index1 = sourceCursor.next();
+            if (outStride == 1 && sourceStride == 1) {
+                for (int i = 0; i < n; i++) {
+                    outData[index0 + i] = (float)op.applyAsDouble(sourceData[index1 + i]);
+                }
             } else {
-                return new Array(DotProduct.intXfloatInnerProduct(leftStride, leftLastIndex, leftIndex, 
-                    rightStride, rightIndex, (int[])left.data, (float[])right.data));
+                for (int i = 0; i < n; i++) {
+                    outData[index0] = (float)op.applyAsDouble(sourceData[index1]);
+                    index0 += outStride;
+                    index1 += sourceStride;
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Return the type of the result of applying a function to an Array of
+     * the given type: double for double and otherwise float.
+     */
+    private static Class<?> functionType(Class<?> type) {
+        return type == double.class ? double.class : float.class;
+    }
+
+    /**
+     * Apply op to each element of a double source and store the results
+     * in a double out of the same shape.
+     */
+    private static void applyDouble(DoubleUnaryOperator op, Array source, Array out) {
+        Layout layout = Layout.of(out.shape, out.stride, source.stride);
+        int n = layout.innerSize();
+        int outStride = layout.innerStride(0);
+        int sourceStride = layout.innerStride(1);
+        OffsetCursor outCursor = layout.outer(0, out.offset);
+        OffsetCursor sourceCursor = layout.outer(1, source.offset);
+        double[] outData = (double[])out.data;
+        double[] sourceData = (double[])source.data;
+        while (outCursor.hasNext()) {
+            int index0 = outCursor.next();
+            int index1 = sourceCursor.next();
+            for (int i = 0; i < n; i++) {
+                outData[index0] = op.applyAsDouble(sourceData[index1]);
+                index0 += outStride;
+                index1 += sourceStride;
+            }
+        }
+    }
+
+    /**
+     * Compute e raised to the power of each element.
+     * @return A new float Array
+     * @see MathKernels
+     */
+    public Array exp() {
+        return performFunction(Function.EXP, null);
+    }
+
+    /**
+     * Compute e raised to the power of each element and store the results in out.
+     * @param out The destination, a float Array with the shape of this.
+     * @return out
+     */
+    public Array exp(Array out) {
+        return performFunction(Function.EXP, out);
+    }
+
+    /**
+     * Compute the natural logarithm of each element.
+     * @return A new float Array
+     * @see MathKernels
+     */
+    public Array log() {
+        return performFunction(Function.LOG, null);
+    }
+
+    /**
+     * Compute the natural logarithm of each element and store the results in out.
+     * @param out The destination, a float Array with the shape of this.
+     * @return out
+     */
+    public Array log(Array out) {
+        return performFunction(Function.LOG, out);
+    }
+
+    /**
+     * Compute the hyperbolic tangent of each element.
+     * @return A new float Array
+     * @see MathKernels
+     */
+    public Array tanh() {
+        return performFunction(Function.TANH, null);
+    }
+
+    /**
+     * Compute the hyperbolic tangent of each element and store the results in out.
+     * @param out The destination, a float Array with the shape of this.
+     * @return out
+     */
+    public Array tanh(Array out) {
+        return performFunction(Function.TANH, out);
+    }
+
+    /**
+     * Compute the logistic function 1 / (1 + e^-x) of each element.
+     * @return A new float Array
+     * @see MathKernels
+     */
+    public Array sigmoid() {
+        return performFunction(Function.SIGMOID, null);
+    }
+
+    /**
+     * Compute the logistic function 1 / (1 + e^-x) of each element and store the results in out.
+     * @param out The destination, a float Array with the shape of this.
+     * @return out
+     */
+    public Array sigmoid(Array out) {
+        return performFunction(Function.SIGMOID, out);
+    }
+
+    /**
+     * Compute max(x, 0) for each element x.
+     * @return A new float Array
+     * @see MathKernels
+     */
+    public Array relu() {
+        return performFunction(Function.RELU, null);
+    }
+
+    /**
+     * Compute max(x, 0) for each element x and store the results in out.
+     * @param out The destination, a float Array with the shape of this.
+     * @return out
+     */
+    public Array relu(Array out) {
+        return performFunction(Function.RELU, out);
+    }
+
+    /**
+     * Compute log(1 + e^x) for each element x.
+     * @return A new float Array
+     * @see MathKernels
+     */
+    public Array softplus() {
+        return performFunction(Function.SOFTPLUS, null);
+    }
+
+    /**
+     * Compute log(1 + e^x) for each element x and store the results in out.
+     * @param out The destination, a float Array with the shape of this.
+     * @return out
+     */
+    public Array softplus(Array out) {
+        return performFunction(Function.SOFTPLUS, out);
+    }
+
+    /**
+     * Apply one of the functions of MathKernels to each element.
+     * @param f The function
+     * @param out The destination, or null to allocate one.
+     */
+    private Array performFunction(Function f, Array out) {
+        if (out == null) {
+            if (numDim == 0) {
+                return new Array(MathKernels.apply(f, ((Number)data).floatValue()));
+            }
+            out = new Array(shape.clone(), contiguousStride(shape), float.class, 0,
+                    ArrayArena.allocate(float.class, size()));
+        } else {
+            checkOut(shape, out, float.class);
+            if (numDim == 0) {
+                out.data = MathKernels.apply(f, ((Number)data).floatValue());
+                return out;
             }
-        } else if (left.dataType == float.class) {
-            if (right.dataType == float.class) {
-                return new Array(DotProduct.floatXfloatInnerProduct(leftStride, leftLastIndex, leftIndex, 
-                    rightStride, rightIndex, (float[])left.data, (float[])right.data));                
-            } else {
-                return new Array(DotProduct.intXfloatInnerProduct(rightStride, rightLastIndex, rightIndex, 
-                    leftStride, leftIndex, (int[])left.data, (float[])right.data));                
+            if (out.isDirect() || out.partlyOverlaps(this)) {
+                return out.assign(performFunction(f, null));
             }
         }
-        throw new RuntimeException("Cannot Get Here");
-    }
-    
-    
-    
-    public String toStringDebug() {
-        String dataString;
-        if (numDim == 0) {
-            dataString = ((Number)data).toString();
-        } else if (dataType == int.class) {
-            dataString = Arrays.toString((int[])data);
-        } else {
-            dataString = Arrays.toString((float[])data);
+        Array source = toHeap();
+        if (source.dataType != float.class) {
+            source = copyOf(source);
+            source.convertToFloat();
         }
-        return String.format("Shape: %s%nStride: %s%nOffset: %s%nDataType: %s%nData: %s%n",
-                Arrays.toString(shape), Arrays.toString(stride), offset, 
-                dataType.toString(), dataString);
+        MathKernels.apply(f, source, out);
+        return out;
     }
 
-    @Override
-    public String toString() {
-        if (numDim == 0) {
-            return ((Number)data).toString();
+    /**
+     * Returns the result of applying the supplied operator to each pair of
+     * values of this Array and other. other is broadcast as by add(Array).
+     * @param other The right operand
+     * @param op The operator to be applied
+     * @return A new float Array
+     */
+    public Array apply(Array other, DoubleBinaryOperator op) {
+        return performOperation(other, null, null, op);
+    }
+
+    /**
+     * Apply the supplied operator to each pair of values of this Array and
+     * other and store the results in out.
+     * @param other The right operand
+     * @param op The operator to be applied
+     * @param out The destination, a float Array with the broadcast shape.
+     * @return out
+     * @see #add(Array, Array)
+     */
+    public Array apply(Array other, DoubleBinaryOperator op, Array out) {
+        return performOperation(other, out, null, op);
+    }
+
+    /**
+     * Verify that out can hold a result of the given shape and type.
+     */
+    private static void checkOut(int[] shape, Array out, Class<?> type) {
+        if (out.dataType != type) {
+            throw new IllegalArgumentException(
+                String.format("out data type: %s is not the result data type: %s", 
+                        out.dataType, type));
+        }
+        if (!Arrays.equals(shape, out.shape)) {
+            throw new IllegalArgumentException(
+                String.format("out shape: %s is not equal to result shape: %s", 
+                        Arrays.toString(out.shape), Arrays.toString(shape)));
         }
-        return toString(this);
     }
-    
-    private String toString(Array a) {
-        if (a.numDim == 1) {
-            StringJoiner sj = new StringJoiner(", ", "{", "}");
-            int deltaIndex = a.stride[0];
-            for (int i = a.offset; i < a.offset + a.shape[0]*deltaIndex; i += deltaIndex) {
-                sj.add(java.lang.reflect.Array.get(a.data, i).toString());
+
+    /**
+     * Compute this op other. op is one of the built-in operators, or null
+     * to apply the function fn. The operands are broadcast together and
+     * the result has the type given by {@link DataTypes#promote}, except
+     * that a function gives float unless an operand is double.
+     * @param out The destination, or null to allocate one.
+     */
+    private Array performOperation(Array other, Array out, Op op, DoubleBinaryOperator fn) {
+        Class<?> type = DataTypes.promote(dataType, other.dataType);
+        if (op == null) {
+            type = functionType(type);
+        }
+        int[] resultShape = broadcastShape(shape, other.shape);
+        if (out == null) {
+            if (resultShape.length == 0) {
+                return new Array(scalarOperation(type, (Number)data, (Number)other.data, op, fn));
             }
-            return sj.toString();
+            out = new Array(resultShape, contiguousStride(resultShape), type, 0, 
+                    ArrayArena.allocate(type, product(resultShape, 0, resultShape.length)));
         } else {
-            int numRows = shape[0];
-            StringJoiner sj = new StringJoiner(", ", "{", "}");
-            for (int r = 0; r < numRows; r++) {
-                Array row = a.getSubArray(r);
-                sj.add(toString(row));
+            checkOut(resultShape, out, type);
+            if (out.numDim == 0) {
+                out.data = scalarOperation(type, (Number)data, (Number)other.data, op, fn);
+                return out;
             }
-            return sj.toString();
+            if (out.isDirect() || out.partlyOverlaps(this) || out.partlyOverlaps(other)) {
+                return out.assign(performOperation(other, null, op, fn));
+            }
+        }
+        Array left = toHeap().broadcastTo(resultShape);
+        Array right = other.toHeap().broadcastTo(resultShape);
+        if (type == int.class) {
+            performIntOperation(out, left, right, op);
+        } else if (type == long.class) {
+            performLongOperation(out, left, right, op);
+        } else if (type == float.class) {
+            performFloatOperation(out, left, right, op, fn);
+        } else {
+            performDoubleOperation(out, left, right, op, fn);
         }
+        return out;
     }
-    
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null) return false;
-        if (this.getClass() == o.getClass()) {
-            Array other = (Array)o;
-            if (this.dataType != other.dataType) return false;
-            if (!Arrays.equals(this.shape, other.shape)) return false;
-            if (!Arrays.equals(this.stride, other.stride)) return false;
-            if (numDim == 0) {
-                return this.data.equals(other.data);
+
+    /**
+     * Compute x op y, or fn(x, y) if op is null, in the given type.
+     */
+    private static Number scalarOperation(Class<?> type, Number x, Number y, 
+            Op op, DoubleBinaryOperator fn) {
+        if (op == null) {
+            double result = fn.applyAsDouble(x.doubleValue(), y.doubleValue());
+            return type == double.class ? (Number)result : (Number)(float)result;
+        }
+        if (type == int.class) {
+            return ElementwiseKernels.apply(op, x.intValue(), y.intValue());
+        } else if (type == long.class) {
+            return ElementwiseKernels.apply(op, x.longValue(), y.longValue());
+        } else if (type == float.class) {
+            return ElementwiseKernels.apply(op, x.floatValue(), y.floatValue());
+        }
+        return ElementwiseKernels.apply(op, x.doubleValue(), y.doubleValue());
+    }
+
+    /**
+     * Elements per block when operands of another type are widened as
+     * they are loaded.
+     */
+    private static final int WIDEN_BLOCK = 1024;
+
+    /**
+     * Compute out = op(left, right) element by element. The three arrays
+     * have the same shape but may have any strides, including the zero
+     * strides of broadcast views. Operands of a compact integer type are
+     * widened to int a block at a time.
+     */
+    private static void performIntOperation(Array out, Array left, Array right, Op op) {
+        Layout layout = Layout.of(out.shape, out.stride, left.stride, right.stride);
+        int n = layout.innerSize();
+        int outStride = layout.innerStride(0);
+        int leftStride = layout.innerStride(1);
+        int rightStride = layout.innerStride(2);
+        OffsetCursor outCursor = layout.outer(0, out.offset);
+        OffsetCursor leftCursor = layout.outer(1, left.offset);
+        OffsetCursor rightCursor = layout.outer(2, right.offset);
+        int[] outData = (int[])out.data;
+        if (left.dataType == int.class && right.dataType == int.class) {
+            int[] leftData = (int[])left.data;
+            int[] rightData = (int[])right.data;
+            while (outCursor.hasNext()) {
+                ElementwiseKernels.run(op, n, leftData, leftCursor.next(), leftStride,
+                        rightData, rightCursor.next(), rightStride,
+                        outData, outCursor.next(), outStride);
             }
-            int lastIndexLeft = this.computeLastIndex();
-            int lastIndexRight = other.computeLastIndex();
-            int firstIndexLeft = this.offset;
-            int firstIndexRight = other.offset;
-            if (dataType == int.class) {
-                return equalInts((int[])this.data, firstIndexLeft, lastIndexLeft,
-                        (int[])other.data, firstIndexRight, lastIndexRight);
-            } else if (dataType == float.class) {
-                return equalFloats((float[])this.data, firstIndexLeft, lastIndexLeft,
-                        (float[])other.data, firstIndexRight, lastIndexRight);
-            } else {
-                throw new RuntimeException("Unrecognized datatype");
+            return;
+        }
+        int[] leftBlock = new int[Math.min(n, WIDEN_BLOCK)];
+        int[] rightBlock = new int[leftBlock.length];
+        while (outCursor.hasNext()) {
+            int index0 = outCursor.next();
+            int index1 = leftCursor.next();
+            int index2 = rightCursor.next();
+            for (int start = 0; start < n; start += WIDEN_BLOCK) {
+                int m = Math.min(WIDEN_BLOCK, n - start);
+                DataTypes.loadInts(left.dataType, left.data, index1 + start * leftStride, 
+                        leftStride, leftBlock, 0, m);
+                DataTypes.loadInts(right.dataType, right.data, index2 + start * rightStride, 
+                        rightStride, rightBlock, 0, m);
+                ElementwiseKernels.run(op, m, leftBlock, 0, 1, rightBlock, 0, 1,
+                        outData, index0 + start * outStride, outStride);
             }
-        } else {
-            return false;
         }
     }
-    
-    private boolean equalInts(int[] left, int indexLeft, int lastIndexLeft,
-            int[] right, int indexRight, int lastIndexRight) {
-            while(indexLeft < lastIndexLeft && indexRight < lastIndexRight) {
-                if (left[indexLeft++] != right[indexRight++]) {
-                    return false;
+
+    /**
+     * Compute out = op(left, right) element by element. The three arrays
+     * have the same shape but may have any strides, including the zero
+     * strides of broadcast views. The built-in operators run the kernels
+     * of ElementwiseKernels; if op is null the function fn is applied.
+     * Operands that are not float are converted a block at a time as they
+     * are loaded.
+     */
+    private static void performFloatOperation(Array out, Array left, Array right, 
+            Op op, DoubleBinaryOperator fn) {
+        Layout layout = Layout.of(out.shape, out.stride, left.stride, right.stride);
+        int n = layout.innerSize();
+        int outStride = layout.innerStride(0);
+        int leftStride = layout.innerStride(1);
+        int rightStride = layout.innerStride(2);
+        OffsetCursor outCursor = layout.outer(0, out.offset);
+        OffsetCursor leftCursor = layout.outer(1, left.offset);
+        OffsetCursor rightCursor = layout.outer(2, right.offset);
+        float[] outData = (float[])out.data;
+        boolean leftFloat = left.dataType == float.class;
+        boolean rightFloat = right.dataType == float.class;
+        int block = leftFloat && rightFloat ? Math.max(n, 1) : WIDEN_BLOCK;
+        float[] leftBlock = leftFloat ? null : new float[Math.min(n, block)];
+        float[] rightBlock = rightFloat ? null : new float[Math.min(n, block)];
+        while (outCursor.hasNext()) {
+            int index0 = outCursor.next();
+            int index1 = leftCursor.next();
+            int index2 = rightCursor.next();
+            for (int start = 0; start < n; start += block) {
+                int m = Math.min(block, n - start);
+                float[] x = leftBlock;
+                int xi = 0;
+                int xs = 1;
+                if (leftFloat) {
+                    x = (float[])left.data;
+                    xi = index1 + start * leftStride;
+                    xs = leftStride;
+                } else {
+                    DataTypes.loadFloats(left.dataType, left.data, index1 + start * leftStride, 
+                            leftStride, leftBlock, 0, m);
+                }
+                float[] y = rightBlock;
+                int yi = 0;
+                int ys = 1;
+                if (rightFloat) {
+                    y = (float[])right.data;
+                    yi = index2 + start * rightStride;
+                    ys = rightStride;
+                } else {
+                    DataTypes.loadFloats(right.dataType, right.data, index2 + start * rightStride, 
+                            rightStride, rightBlock, 0, m);
+                }
+                int zi = index0 + start * outStride;
+                if (op != null) {
+                    ElementwiseKernels.run(op, m, x, xi, xs, y, yi, ys, outData, zi, outStride);
+                } else {
+                    for (int i = 0; i < m; i++) {
+                        outData[zi] = (float)fn.applyAsDouble(x[xi], y[yi]);
+                        zi += outStride;
+                        xi += xs;
+                        yi += ys;
+                    }
                 }
             }
-            return true;
+        }
     }
 
-    private boolean equalFloats(float[] left, int indexLeft, int lastIndexLeft,
-            float[] right, int indexRight, int lastIndexRight) {
-            while(indexLeft < lastIndexLeft && indexRight < lastIndexRight) {
-                if (left[indexLeft++] != right[indexRight++]) {
-                    return false;
-                }
+    /**
+     * Compute out = op(left, right) element by element in long arithmetic.
+     * Operands that are not long are widened a block at a time.
+     * @see #performIntOperation(Array, Array, Array, Op)
+     */
+    private static void performLongOperation(Array out, Array left, Array right, Op op) {
+        Layout layout = Layout.of(out.shape, out.stride, left.stride, right.stride);
+        int n = layout.innerSize();
+        int outStride = layout.innerStride(0);
+        int leftStride = layout.innerStride(1);
+        int rightStride = layout.innerStride(2);
+        OffsetCursor outCursor = layout.outer(0, out.offset);
+        OffsetCursor leftCursor = layout.outer(1, left.offset);
+        OffsetCursor rightCursor = layout.outer(2, right.offset);
+        long[] outData = (long[])out.data;
+        if (left.dataType == long.class && right.dataType == long.class) {
+            long[] leftData = (long[])left.data;
+            long[] rightData = (long[])right.data;
+            while (outCursor.hasNext()) {
+                ElementwiseKernels.run(op, n, leftData, leftCursor.next(), leftStride,
+                        rightData, rightCursor.next(), rightStride,
+                        outData, outCursor.next(), outStride);
             }
-            return true;
-    }
-    
-    private Array performIntOperation(Array other, IntBinaryOperator op) {
-        Array result = copyOf(this);
-        if (result.numDim == 0 && other.numDim == 0) {
-            result.data = op.applyAsInt((Integer)result.data, (Integer)other.data);
-        }
-        if (other.numDim == 0) {
-            int[] left = (int[])result.data;
-            int right = other.getInt(0);
-            for (int i = 0; i < left.length; i++) {
-                left[i] = op.applyAsInt(left[i], right);
-        }
-            return result;
-        }
-        if (result.numDim == other.numDim) {
-            if (!Arrays.equals(result.shape, other.shape)) {
-                throw new IllegalArgumentException(
-                String.format("this shape: %s is not equal to other shape: %s", 
-                        Arrays.toString(this.shape), Arrays.toString(other.shape)));
+            return;
+        }
+        long[] leftBlock = new long[Math.min(n, WIDEN_BLOCK)];
+        long[] rightBlock = new long[leftBlock.length];
+        while (outCursor.hasNext()) {
+            int index0 = outCursor.next();
+            int index1 = leftCursor.next();
+            int index2 = rightCursor.next();
+            for (int start = 0; start < n; start += WIDEN_BLOCK) {
+                int m = Math.min(WIDEN_BLOCK, n - start);
+                DataTypes.loadLongs(left.dataType, left.data, index1 + start * leftStride, 
+                        leftStride, leftBlock, 0, m);
+                DataTypes.loadLongs(right.dataType, right.data, index2 + start * rightStride, 
+                        rightStride, rightBlock, 0, m);
+                ElementwiseKernels.run(op, m, leftBlock, 0, 1, rightBlock, 0, 1,
+                        outData, index0 + start * outStride, outStride);
             }
-            performIntOperation(result, other, op);
-            return result;
-        }
-        if (result.numDim < other.numDim) {
-                throw new IllegalArgumentException(
-                String.format("this shape: %s is not compatible with other shape: %s", 
-                        Arrays.toString(this.shape), Arrays.toString(other.shape)));            
-        }
-        int deltaDim = result.numDim - other.numDim;
-        int[] extraDims = new int[deltaDim];
-        System.arraycopy(result.shape, 0, extraDims, 0, deltaDim);
-        int[] matchingDims = new int[other.numDim];
-        System.arraycopy(result.shape, deltaDim, matchingDims, 0, other.numDim);
-        if (!Arrays.equals(matchingDims, other.shape)) {
-                throw new IllegalArgumentException(
-                String.format("this shape: %s is not compatible with other shape: %s", 
-                        Arrays.toString(this.shape), Arrays.toString(other.shape)));                        
-        }
-        IndexIterator itr = new IndexIterator(extraDims);
-        while (itr.hasNext()) {
-            int[] idx = itr.next();
-            Array subArray = result.getSubArray(idx);
-            performIntOperation(subArray, other, op);
         }
-        return result;
     }
-    
+
     /**
-     * Returns a modified copy of this Array after applying the supplied operator
-     * to each value.
-     * @param op The operatior to be applied
-     * @return A modified Array
+     * Compute out = op(left, right) element by element in double
+     * arithmetic, or apply fn if op is null. Operands that are not double
+     * are widened a block at a time.
+     * @see #performFloatOperation(Array, Array, Array, Op, DoubleBinaryOperator)
      */
-    public Array apply(DoubleUnaryOperator op) {
-        Array result = copyOf(this);
-        if (result.dataType != float.class) {
-            result.convertToFloat();
-        }
-        IndexIterator itr = new IndexIterator(result.shape);
-        float[] floatData = (float[])result.data;
-        while (itr.hasNext()) {
-            int[] idx = itr.next();
-            int index = result.computeIndex(idx);
-            floatData[index] = (float)op.applyAsDouble(floatData[index]);
+    private static void performDoubleOperation(Array out, Array left, Array right, 
+            Op op, DoubleBinaryOperator fn) {
+        Layout layout = Layout.of(out.shape, out.stride, left.stride, right.stride);
+        int n = layout.innerSize();
+        int outStride = layout.innerStride(0);
+        int leftStride = layout.innerStride(1);
+        int rightStride = layout.innerStride(2);
+        OffsetCursor outCursor = layout.outer(0, out.offset);
+        OffsetCursor leftCursor = layout.outer(1, left.offset);
+        OffsetCursor rightCursor = layout.outer(2, right.offset);
+        double[] outData = (double[])out.data;
+        double[] leftBlock = new double[Math.min(n, WIDEN_BLOCK)];
+        double[] rightBlock = new double[leftBlock.length];
+        while (outCursor.hasNext()) {
+            int index0 = outCursor.next();
+            int index1 = leftCursor.next();
+            int index2 = rightCursor.next();
+            for (int start = 0; start < n; start += WIDEN_BLOCK) {
+                int m = Math.min(WIDEN_BLOCK, n - start);
+                DataTypes.loadDoubles(left.dataType, left.data, index1 + start * leftStride, 
+                        leftStride, leftBlock, 0, m);
+                DataTypes.loadDoubles(right.dataType, right.data, index2 + start * rightStride, 
+                        rightStride, rightBlock, 0, m);
+                int zi = index0 + start * outStride;
+                if (op != null) {
+                    ElementwiseKernels.run(op, m, leftBlock, 0, 1, rightBlock, 0, 1,
+                            outData, zi, outStride);
+                } else {
+                    for (int i = 0; i < m; i++, zi += outStride) {
+                        outData[zi] = fn.applyAsDouble(leftBlock[i], rightBlock[i]);
+                    }
+                }
+            }
         }
-        return result;
     }
-       
-    private void performIntOperation(Array left, Array right, IntBinaryOperator op) {
-        IndexIterator itr1 = new IndexIterator(left.shape);
-        IndexIterator itr2 = new IndexIterator(right.shape);
-        int[] leftData = (int[])left.data;
-        int[] rightData = (int[])right.data;
-        while (itr1.hasNext()) {
-            int[] idx1 = itr1.next();
-            int[] idx2 = itr2.next();
-            int index1 = left.computeIndex(idx1);
-            int index2 = right.computeIndex(idx2);
-            leftData[index1] = op.applyAsInt(leftData[index1], rightData[index2]);
+
+    /**
+     * Compute the shape that two shapes broadcast to. The shapes are aligned
+     * at their last dimension, and each pair of dimensions must either be
+     * equal or one of them must be 1.
+     * @param a The first shape
+     * @param b The second shape
+     * @return The broadcast shape.
+     * @throws IllegalArgumentException if the shapes are not compatible.
+     */
+    static int[] broadcastShape(int[] a, int[] b) {
+        int numDim = Math.max(a.length, b.length);
+        int[] result = new int[numDim];
+        for (int i = 1; i <= numDim; i++) {
+            int aDim = i <= a.length ? a[a.length - i] : 1;
+            int bDim = i <= b.length ? b[b.length - i] : 1;
+            if (aDim != bDim && aDim != 1 && bDim != 1) {
+                throw new IllegalArgumentException(
+                String.format("shape: %s is not compatible with shape: %s", 
+                        Arrays.toString(a), Arrays.toString(b)));
+            }
+            result[numDim - i] = aDim == 1 ? bDim : aDim;
         }
+        return result;
     }
-    
-    private Array performFloatOperation(Array other, DoubleBinaryOperator op) {
-        Array result = copyOf(this);
-        if (result.dataType != float.class) {
-            result.convertToFloat();
-        }
-        if (other.dataType != float.class) {
-            other = copyOf(other);
-            other.convertToFloat();
-        }
-        if (result.numDim == 0 && other.numDim == 0) {
-            result.data = (float)op.applyAsDouble((Float)result.data, (Float)other.data);
-            return result;
-        }
-        if (other.numDim == 0) {
-            float[] left = (float[])result.data;
-            float right = other.getFloat(0);
-            for (int i = 0; i < left.length; i++) {
-                left[i] = (float)op.applyAsDouble(left[i], right);
+
+    /**
+     * Return a view of this array broadcast to a larger shape. Dimensions
+     * that are added on the left, or that have size 1 in this array, are
+     * given a stride of 0 so that every index along them reads the same
+     * element. No data is copied, except that a singleton is placed in a
+     * one element data array.
+     * @param newShape The shape to broadcast to
+     * @return A view with the new shape.
+     * @throws IllegalArgumentException if this array cannot be broadcast to
+     * newShape.
+     */
+    public Array broadcastTo(int... newShape) {
+        if (Arrays.equals(shape, newShape)) {
+            return this;
         }
-            return result;
+        int deltaDim = newShape.length - numDim;
+        if (deltaDim < 0) {
+            throw new IllegalArgumentException(
+                String.format("shape: %s cannot be broadcast to shape: %s", 
+                        Arrays.toString(shape), Arrays.toString(newShape)));
         }
-        if (result.numDim == other.numDim) {
-            if (!Arrays.equals(result.shape, other.shape)) {
+        int[] newStride = new int[newShape.length];
+        for (int i = 0; i < numDim; i++) {
+            if (shape[i] == newShape[i + deltaDim]) {
+                newStride[i + deltaDim] = shape[i] == 1 ? 0 : stride[i];
+            } else if (shape[i] != 1) {
                 throw new IllegalArgumentException(
-                String.format("this shape: %s is not equal to other shape: %s", 
-                        Arrays.toString(this.shape), Arrays.toString(other.shape)));
+                String.format("shape: %s cannot be broadcast to shape: %s", 
+                        Arrays.toString(shape), Arrays.toString(newShape)));
             }
-            performFloatOperation(result, other, op);
-            return result;
-        }
-        if (result.numDim < other.numDim) {
-                throw new IllegalArgumentException(
-                String.format("this shape: %s is not compatible with other shape: %s", 
-                        Arrays.toString(this.shape), Arrays.toString(other.shape)));            
-        }
-        int deltaDim = result.numDim - other.numDim;
-        int[] extraDims = new int[deltaDim];
-        System.arraycopy(result.shape, 0, extraDims, 0, deltaDim);
-        int[] matchingDims = new int[other.numDim];
-        System.arraycopy(result.shape, deltaDim, matchingDims, 0, other.numDim);
-        if (!Arrays.equals(matchingDims, other.shape)) {
-                throw new IllegalArgumentException(
-                String.format("this shape: %s is not compatible with other shape: %s", 
-                        Arrays.toString(this.shape), Arrays.toString(other.shape)));                        
         }
-        IndexIterator itr = new IndexIterator(extraDims);
-        while (itr.hasNext()) {
-            int[] idx = itr.next();
-            Array subArray = result.getSubArray(idx);
-            performFloatOperation(subArray, other, op);
-        }
-        return result;
-    }
-    
-    private void performFloatOperation(Array left, Array right, DoubleBinaryOperator op) {
-        IndexIterator itr1 = new IndexIterator(left.shape);
-        IndexIterator itr2 = new IndexIterator(right.shape);
-        float[] leftData = (float[])left.data;
-        float[] rightData = (float[])right.data;
-        while (itr1.hasNext()) {
-            int[] idx1 = itr1.next();
-            int[] idx2 = itr2.next();
-            int index1 = left.computeIndex(idx1);
-            int index2 = right.computeIndex(idx2);
-            leftData[index1] = (float)op.applyAsDouble(leftData[index1], rightData[index2]);
+        Object newData = data;
+        int newOffset = offset;
+        if (numDim == 0) {
+            newOffset = 0;
+            if (dataType == int.class) {
+                newData = new int[]{(Integer)data};
+            } else if (dataType == long.class) {
+                newData = new long[]{(Long)data};
+            } else if (dataType == double.class) {
+                newData = new double[]{(Double)data};
+            } else {
+                newData = new float[]{(Float)data};
+            }
         }
+        return new Array(newShape.clone(), newStride, dataType, newOffset, newData);
     }
     
     private void convertToFloat() {
-        dataType =float.class;
         if (numDim == 0) {
             data = ((Number)data).floatValue();
         } else {
-            int[] dataAsInt = (int[])data;
-            float[] newData = new float[dataAsInt.length];
-            for (int i = 0; i < dataAsInt.length; i++) {
-                newData[i] = dataAsInt[i];
-            }
+            int length = java.lang.reflect.Array.getLength(data);
+            float[] newData = new float[length];
+            DataTypes.loadFloats(dataType, data, 0, 1, newData, 0, length);
             data = newData;
         }   
+        dataType = float.class;
+    }
+
+    /**
+     * Determine if this array is stored in row-major order without gaps.
+     * @return true if the elements occupy consecutive data locations.
+     */
+    private boolean isContiguous() {
+        if (numDim == 0 || stride[numDim - 1] != 1) {
+            return false;
+        }
+        for (int i = numDim - 2; i >= 0; i--) {
+            if (stride[i] != stride[i + 1] * shape[i + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Determine if this Array, used as an output, shares data with an
+     * operand that is not the same view of it. Writing an element could
+     * then change an operand element that has not been read yet.
+     */
+    private boolean partlyOverlaps(Array operand) {
+        if (numDim == 0 || data != operand.data) {
+            return false;
+        }
+        return offset != operand.offset || !Arrays.equals(shape, operand.shape)
+                || !Arrays.equals(stride, operand.stride);
+    }
+
+    /**
+     * Copy values, an Array with the shape and type of this, into this.
+     * @return this
+     */
+    private Array assign(Array values) {
+        if (isDirect()) {
+            return scatter(values);
+        }
+        Layout layout = Layout.of(shape, stride, values.stride);
+        int n = layout.innerSize();
+        int runStride = layout.innerStride(0);
+        int valuesRunStride = layout.innerStride(1);
+        OffsetCursor cursor = layout.outer(0, offset);
+        OffsetCursor valuesCursor = layout.outer(1, values.offset);
+        while (cursor.hasNext()) {
+            CopyKernels.copyRun(values.data, valuesCursor.next(), valuesRunStride,
+                    data, cursor.next(), runStride, n);
+        }
+        return this;
+    }
+
+    /**
+     * Determine if a vectorized kernel can combine this and other directly.
+     * Both must be contiguous float arrays of the same shape.
+     */
+    private boolean useSimd(Array other) {
+        return Simd.ENABLED && data instanceof float[] && other.data instanceof float[]
+                && Arrays.equals(shape, other.shape) 
+                && isContiguous() && other.isContiguous();
+    }
+    
+    /**
+     * Allocate a contiguous float array with the same shape as this.
+     */
+    private Array newFloatArrayLike() {
+        return new Array(shape, contiguousStride(shape), float.class, 0,
+                ArrayArena.allocate(float.class, size()));
     }
 
     public Array sub(Array other) {
-        if (this.dataType == int.class && other.dataType == int.class) {
-            return performIntOperation(other, (int x, int y) -> x - y);
-        } else {
-            return performFloatOperation(other, (double x, double y) -> x - y);
+        if (useSimd(other)) {
+            Array result = newFloatArrayLike();
+            Simd.sub((float[])data, offset, (float[])other.data, other.offset, 
+                    (float[])result.data, 0, size());
+            return result;
         }
+        return performOperation(other, null, Op.SUB, null);
+    }
+
+    /**
+     * Compute this - other and store the result in out. other is
+     * broadcast as by sub(Array). out may be this, other, or a strided
+     * view. If it shares elements with an operand other than as the same
+     * view, the result is computed into a temporary and copied to out.
+     * @param other The right operand
+     * @param out The destination. It must have the broadcast shape and the
+     * type of the result, int, long, float or double as given by the types
+     * of the operands.
+     * @return out
+     * @throws IllegalArgumentException if out has the wrong shape or type.
+     */
+    public Array sub(Array other, Array out) {
+        if (useSimd(other) && out.useSimd(this) && !out.partlyOverlaps(this)
+                && !out.partlyOverlaps(other)) {
+            Simd.sub((float[])data, offset, (float[])other.data, other.offset, 
+                    (float[])out.data, out.offset, size());
+            return out;
+        }
+        return performOperation(other, out, Op.SUB, null);
+    }
+
+    /**
+     * Compute this - other, replacing the values of this Array.
+     * @param other The right operand, which must broadcast to this shape.
+     * It may share elements with this, such as when it is the transpose.
+     * @return This Array
+     * @throws IllegalArgumentException if other does not broadcast to the
+     * shape of this, or the result would not have the type of this.
+     */
+    public Array subInPlace(Array other) {
+        return sub(other, this);
     }
+
     public Array add(Array other) {
-        if (this.dataType == int.class && other.dataType == int.class) {
-            return performIntOperation(other, (int x, int y) -> x + y);
-        } else {
-            return performFloatOperation(other, (double x, double y) -> x + y);
+        if (useSimd(other)) {
+            Array result = newFloatArrayLike();
+            Simd.add((float[])data, offset, (float[])other.data, other.offset, 
+                    (float[])result.data, 0, size());
+            return result;
         }
+        return performOperation(other, null, Op.ADD, null);
+    }
+
+    /**
+     * Compute this + other and store the result in out. other is
+     * broadcast as by add(Array). out may be this, other, or a strided
+     * view. If it shares elements with an operand other than as the same
+     * view, the result is computed into a temporary and copied to out.
+     * @param other The right operand
+     * @param out The destination. It must have the broadcast shape and the
+     * type of the result, int, long, float or double as given by the types
+     * of the operands.
+     * @return out
+     * @throws IllegalArgumentException if out has the wrong shape or type.
+     */
+    public Array add(Array other, Array out) {
+        if (useSimd(other) && out.useSimd(this) && !out.partlyOverlaps(this)
+                && !out.partlyOverlaps(other)) {
+            Simd.add((float[])data, offset, (float[])other.data, other.offset, 
+                    (float[])out.data, out.offset, size());
+            return out;
+        }
+        return performOperation(other, out, Op.ADD, null);
+    }
+
+    /**
+     * Compute this + other, replacing the values of this Array.
+     * @param other The right operand, which must broadcast to this shape.
+     * It may share elements with this, such as when it is the transpose.
+     * @return This Array
+     * @throws IllegalArgumentException if other does not broadcast to the
+     * shape of this, or the result would not have the type of this.
+     */
+    public Array addInPlace(Array other) {
+        return add(other, this);
     }
+
     public Array mul(Array other) {
-        if (this.dataType == int.class && other.dataType == int.class) {
-            return performIntOperation(other, (int x, int y) -> x * y);
-        } else {
-            return performFloatOperation(other, (double x, double y) -> x * y);
+        if (useSimd(other)) {
+            Array result = newFloatArrayLike();
+            Simd.mul((float[])data, offset, (float[])other.data, other.offset, 
+                    (float[])result.data, 0, size());
+            return result;
         }
+        return performOperation(other, null, Op.MUL, null);
+    }
+
+    /**
+     * Compute this * other and store the result in out. other is
+     * broadcast as by mul(Array). out may be this, other, or a strided
+     * view. If it shares elements with an operand other than as the same
+     * view, the result is computed into a temporary and copied to out.
+     * @param other The right operand
+     * @param out The destination. It must have the broadcast shape and the
+     * type of the result, int, long, float or double as given by the types
+     * of the operands.
+     * @return out
+     * @throws IllegalArgumentException if out has the wrong shape or type.
+     */
+    public Array mul(Array other, Array out) {
+        if (useSimd(other) && out.useSimd(this) && !out.partlyOverlaps(this)
+                && !out.partlyOverlaps(other)) {
+            Simd.mul((float[])data, offset, (float[])other.data, other.offset, 
+                    (float[])out.data, out.offset, size());
+            return out;
+        }
+        return performOperation(other, out, Op.MUL, null);
+    }
+
+    /**
+     * Compute this * other, replacing the values of this Array.
+     * @param other The right operand, which must broadcast to this shape.
+     * It may share elements with this, such as when it is the transpose.
+     * @return This Array
+     * @throws IllegalArgumentException if other does not broadcast to the
+     * shape of this, or the result would not have the type of this.
+     */
+    public Array mulInPlace(Array other) {
+        return mul(other, this);
     }
+
     public Array div(Array other) {
-        if (this.dataType == int.class && other.dataType == int.class) {
-            return performIntOperation(other, (int x, int y) -> x / y);
-        } else {
-            return performFloatOperation(other, (double x, double y) -> x / y);
+        if (useSimd(other)) {
+            Array result = newFloatArrayLike();
+            Simd.div((float[])data, offset, (float[])other.data, other.offset, 
+                    (float[])result.data, 0, size());
+            return result;
         }
-    }    
-    
+        return performOperation(other, null, Op.DIV, null);
+    }
+
+    /**
+     * Compute this / other and store the result in out. other is
+     * broadcast as by div(Array). out may be this, other, or a strided
+     * view. If it shares elements with an operand other than as the same
+     * view, the result is computed into a temporary and copied to out.
+     * @param other The right operand
+     * @param out The destination. It must have the broadcast shape and the
+     * type of the result, int, long, float or double as given by the types
+     * of the operands.
+     * @return out
+     * @throws IllegalArgumentException if out has the wrong shape or type.
+     */
+    public Array div(Array other, Array out) {
+        if (useSimd(other) && out.useSimd(this) && !out.partlyOverlaps(this)
+                && !out.partlyOverlaps(other)) {
+            Simd.div((float[])data, offset, (float[])other.data, other.offset, 
+                    (float[])out.data, out.offset, size());
+            return out;
+        }
+        return performOperation(other, out, Op.DIV, null);
+    }
+
+    /**
+     * Compute this / other, replacing the values of this Array.
+     * @param other The right operand, which must broadcast to this shape.
+     * It may share elements with this, such as when it is the transpose.
+     * @return This Array
+     * @throws IllegalArgumentException if other does not broadcast to the
+     * shape of this, or the result would not have the type of this.
+     */
+    public Array divInPlace(Array other) {
+        return div(other, this);
+    }
+
     /**
      * Return a PrimitiveIterator.OfDouble. If this is a
      * singleton, then the returned iterator::next method will return the value
@@ -953,13 +2818,16 @@ public class Array {
         if (numDim != 1) {
             throw new IllegalArgumentException("Can only iterate over singelton or single-dim array");
         }
+        if (isDirect()) {
+            return toHeap().iterator();
+        }
         if (dataType == int.class) {
             return new IteratorOverInt(this);
         }
         if (dataType == float.class) {
             return new IteratorOverFloat(this);
         }
-        throw new IllegalArgumentException("Only arrays of int or float are supported");
+        return new IteratorOverOther(this);
     }
     
     private static class SingletonIterator implements PrimitiveIterator.OfDouble {
@@ -995,20 +2863,20 @@ public class Array {
     private static class IteratorOverInt implements PrimitiveIterator.OfDouble {
         
         private final int stride;
-        private final int lastIndex;
+        private int remaining;
         private int index;
         private final int[] data;
     
         public IteratorOverInt(Array array) {
             this.stride = array.stride[0];
             this.index = array.offset;
-            this.lastIndex = index + stride * array.shape[0];
+            this.remaining = array.shape[0];
             this.data = (int[])array.data;
         }
         
         @Override
         public boolean hasNext() {
-            return index < lastIndex;
+            return remaining > 0;
         }
         
         @Override
@@ -1023,6 +2891,45 @@ public class Array {
             }
             double value = (double)data[index];
             index += stride;
+            remaining--;
+            return value;
+        }
+    }
+
+    private static class IteratorOverOther implements PrimitiveIterator.OfDouble {
+        
+        private final int stride;
+        private int remaining;
+        private int index;
+        private final Class<?> dataType;
+        private final Object data;
+    
+        public IteratorOverOther(Array array) {
+            this.stride = array.stride[0];
+            this.index = array.offset;
+            this.remaining = array.shape[0];
+            this.dataType = array.dataType;
+            this.data = array.data;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public double nextDouble() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            double value = DataTypes.getDouble(dataType, data, index);
+            index += stride;
+            remaining--;
             return value;
         }
     }
@@ -1030,20 +2937,20 @@ public class Array {
     private static class IteratorOverFloat implements PrimitiveIterator.OfDouble {
         
         private final int stride;
-        private final int lastIndex;
+        private int remaining;
         private int index;
         private final float[] data;
     
         public IteratorOverFloat(Array array) {
             this.stride = array.stride[0];
             this.index = array.offset;
-            this.lastIndex =  index + stride * array.shape[0];
+            this.remaining = array.shape[0];
             this.data = (float[])array.data;
         }
         
         @Override
         public boolean hasNext() {
-            return index < lastIndex;
+            return remaining > 0;
         }
         
         @Override
@@ -1055,6 +2962,7 @@ public class Array {
         public double nextDouble() {
             double value = (double)data[index];
             index += stride;
+            remaining--;
             return value;
         }
     }
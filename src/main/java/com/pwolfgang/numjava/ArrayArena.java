@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * A scope in which the results of Array operations are allocated from a
+ * {@link BufferPool} and given back to it when the scope is closed:
+ * <pre>
+ * try (ArrayArena arena = ArrayArena.open()) {
+ *     Array h = x.dot(w1).add(b1).relu();
+ *     Array y = arena.keep(h.dot(w2));
+ *     ...
+ * }
+ * </pre>
+ * While an arena is open on a thread, the heap results of copyOf, the
+ * element-wise operations, the math functions, dot and type
+ * conversions made on that thread take their buffers from it. When it is
+ * closed the buffers are reused, so an Array made in the arena must not
+ * be used afterward unless it was passed to {@link #keep}. Arenas may be
+ * nested, and must be closed on the thread that opened them in the
+ * reverse order.
+ *
+ * @author Paul
+ */
+public final class ArrayArena implements AutoCloseable {
+
+    private static final ThreadLocal<ArrayArena> CURRENT = new ThreadLocal<>();
+
+    private final BufferPool pool;
+    private final ArrayArena enclosing;
+    private final Set<Object> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean closed;
+
+    private ArrayArena(BufferPool pool, ArrayArena enclosing) {
+        this.pool = pool;
+        this.enclosing = enclosing;
+    }
+
+    /**
+     * Open an arena on the calling thread that uses the shared pool.
+     * @return The arena, which is current until it is closed.
+     */
+    public static ArrayArena open() {
+        return open(BufferPool.shared());
+    }
+
+    /**
+     * Open an arena on the calling thread.
+     * @param pool The pool to take buffers from
+     * @return The arena, which is current until it is closed.
+     */
+    public static ArrayArena open(BufferPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool may not be null");
+        }
+        ArrayArena arena = new ArrayArena(pool, CURRENT.get());
+        CURRENT.set(arena);
+        return arena;
+    }
+
+    /**
+     * Return the innermost open arena of the calling thread.
+     * @return The arena, or null if none is open.
+     */
+    public static ArrayArena current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Allocate a data array for the result of an operation, from the
+     * current arena if there is one.
+     */
+    static Object allocate(Class<?> type, int n) {
+        ArrayArena arena = CURRENT.get();
+        return arena == null ? DataTypes.newData(type, n) : arena.take(type, n);
+    }
+
+    /**
+     * Return a contiguous Array of zeros allocated from this arena.
+     * @param type The data type
+     * @param shape The shape
+     * @return The Array, which is valid until this arena is closed.
+     */
+    public Array zeros(Class<?> type, int... shape) {
+        DataTypes.computeType(type);
+        Object data = take(type, Array.product(shape, 0, shape.length));
+        return new Array(shape.clone(), Array.contiguousStride(shape), type, 0, data);
+    }
+
+    /**
+     * Keep the elements of an Array made in this arena after it is closed.
+     * The buffer is not given back to the pool.
+     * @param a The Array
+     * @return a
+     */
+    public Array keep(Array a) {
+        for (ArrayArena arena = this; arena != null; arena = arena.enclosing) {
+            arena.buffers.remove(a.data);
+        }
+        return a;
+    }
+
+    /**
+     * Give the buffers of this arena back to the pool.
+     * @throws IllegalStateException if this is not the innermost arena of
+     * the calling thread.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (CURRENT.get() != this) {
+            throw new IllegalStateException(
+                    "An arena must be closed by its thread after the arenas opened in it");
+        }
+        closed = true;
+        for (Object buffer : buffers) {
+            pool.release(buffer);
+        }
+        buffers.clear();
+        if (enclosing == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(enclosing);
+        }
+    }
+
+    private Object take(Class<?> type, int n) {
+        if (closed) {
+            throw new IllegalStateException("The arena is closed");
+        }
+        Object buffer = pool.acquire(type, n);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+}
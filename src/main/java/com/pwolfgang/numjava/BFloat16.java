@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+/**
+ * The data type of an Array of 16-bit brain floating point numbers. The
+ * data is a short[] holding the upper half of each float, so the range is
+ * that of float with 8 bits of precision. The elements are widened to
+ * float when they are used, and arithmetic on them is done in float.
+ * Use {@link Array#asType(Class)} to convert an Array to this type.
+ *
+ * @author Paul
+ */
+public final class BFloat16 {
+
+    private BFloat16() {
+    }
+
+    /**
+     * Widen a bfloat16 value to float. This is exact.
+     */
+    public static float toFloat(short bits) {
+        return Float.intBitsToFloat((bits & 0xffff) << 16);
+    }
+
+    /**
+     * Round a float to the nearest bfloat16 value, ties to even. NaN stays
+     * NaN.
+     */
+    public static short fromFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        if ((bits & 0x7fffffff) > 0x7f800000) {
+            return (short) ((bits >>> 16) | 0x40);
+        }
+        return (short) ((bits + 0x7fff + ((bits >>> 16) & 1)) >>> 16);
+    }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Streams fixed-size mini-batches of (examples, labels) from a pair of
+ * memory-mapped IDX files, so only the batches being used are held on the
+ * heap. Each file is mapped as one buffer by {@link IdxFile#map(String)},
+ * which limits it to 2 GB; a larger data set must be split into several
+ * files, each with its own loader.
+ * <p>
+ * A background thread decodes and scales the batches ahead of the
+ * training loop into a ring of reused buffers. At most
+ * {@link #prefetch(int)} batches are decoded ahead; the thread waits for
+ * the training loop to hand a buffer back before it fills another, so
+ * reading the files overlaps the training step without growing the
+ * heap.
+ * <pre>
+ * try (BatchLoader loader = new BatchLoader(images, labels, 64).shuffle(1).epochs(10)) {
+ *     while (loader.hasNext()) {
+ *         BatchLoader.Batch batch = loader.next();
+ *         train(batch.getExamples(), batch.getLabels());
+ *     }
+ * }
+ * </pre>
+ * The Arrays of a batch are reused once the next batch is taken, so copy
+ * them with {@link Array#copyOf} to keep them. Each epoch makes
+ * <code>n / batchSize</code> batches; the remaining examples are left out
+ * of that epoch, which when shuffling is a different set each time.
+ *
+ * @author Paul
+ */
+public final class BatchLoader implements Iterator<BatchLoader.Batch>, AutoCloseable {
+
+    /** The default number of batches decoded ahead. */
+    public static final int DEFAULT_PREFETCH = 2;
+
+    private final IdxFile examples;
+    private final IdxFile labels;
+    private final int batchSize;
+    private final int count;
+    private final int exampleSize;
+    private float divisor = 1.0f;
+    private boolean shuffle;
+    private long seed;
+    private int epochs = 1;
+    private int prefetch = DEFAULT_PREFETCH;
+
+    private Thread loader;
+    private BlockingQueue<Batch> free;
+    private BlockingQueue<Batch> ready;
+    private volatile Throwable failure;
+    private Batch current;
+    private long taken;
+    private boolean closed;
+
+    /** Put in the ready queue in place of a batch when loading fails. */
+    private static final Batch FAILED = new Batch(new int[]{0}, 0);
+
+    /**
+     * Create a loader that reads the examples in order for one epoch.
+     * @param examples The examples, whose first dimension indexes them.
+     * Each example is flattened into one row of a batch.
+     * @param labels The labels, an integer IDX file of rank 1.
+     * @param batchSize The number of examples in a batch
+     * @throws IllegalArgumentException if the files do not hold the same
+     * number of examples, the labels are not integers of rank 1, or the
+     * batch size is not between 1 and the number of examples.
+     */
+    public BatchLoader(IdxFile examples, IdxFile labels, int batchSize) {
+        int[] shape = examples.getShape();
+        int[] labelShape = labels.getShape();
+        if (shape.length == 0 || labelShape.length != 1 || shape[0] != labelShape[0]) {
+            throw new IllegalArgumentException(
+                    String.format("examples of shape %s do not match labels of shape %s",
+                            Arrays.toString(shape), Arrays.toString(labelShape)));
+        }
+        if (labels.getType() == IdxFile.FLOAT || labels.getType() == IdxFile.DOUBLE) {
+            throw new IllegalArgumentException("labels must be integers");
+        }
+        if (batchSize < 1 || batchSize > shape[0]) {
+            throw new IllegalArgumentException(
+                    String.format("batch size %d is not between 1 and %d", batchSize, shape[0]));
+        }
+        this.examples = examples;
+        this.labels = labels;
+        this.batchSize = batchSize;
+        this.count = shape[0];
+        this.exampleSize = Array.product(shape, 1, shape.length);
+    }
+
+    /**
+     * Divide every element of the examples by divisor, such as 255 to scale
+     * pixels to [0, 1].
+     * @return This loader
+     */
+    public BatchLoader scale(float divisor) {
+        checkNotStarted();
+        this.divisor = divisor;
+        return this;
+    }
+
+    /**
+     * Visit the examples in a new random order in each epoch.
+     * @param seed The seed of the random orders, so a run can be repeated.
+     * @return This loader
+     */
+    public BatchLoader shuffle(long seed) {
+        checkNotStarted();
+        this.shuffle = true;
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Set the number of passes over the examples.
+     * @return This loader
+     */
+    public BatchLoader epochs(int epochs) {
+        checkNotStarted();
+        if (epochs < 0) {
+            throw new IllegalArgumentException(
+                    String.format("epochs: %d is negative", epochs));
+        }
+        this.epochs = epochs;
+        return this;
+    }
+
+    /**
+     * Set the number of batches decoded ahead of the training loop.
+     * @return This loader
+     */
+    public BatchLoader prefetch(int prefetch) {
+        checkNotStarted();
+        if (prefetch < 1) {
+            throw new IllegalArgumentException(
+                    String.format("prefetch: %d is less than 1", prefetch));
+        }
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * Return the number of batches in an epoch.
+     */
+    public int batchesPerEpoch() {
+        return count / batchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !closed && taken < (long) epochs * batchesPerEpoch();
+    }
+
+    /**
+     * Return the next batch, waiting for it to be decoded if necessary.
+     * The batch returned before is handed back for reuse.
+     * @throws IllegalStateException if decoding failed or the waiting
+     * thread is interrupted.
+     */
+    @Override
+    public Batch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (loader == null) {
+            start();
+        }
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+        Batch batch;
+        try {
+            batch = ready.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batch", ex);
+        }
+        if (batch == FAILED) {
+            close();
+            throw new IllegalStateException("Loading a batch failed", failure);
+        }
+        taken++;
+        current = batch;
+        return batch;
+    }
+
+    /**
+     * Stop the background thread. The batches already taken stay valid.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (loader != null) {
+            loader.interrupt();
+            boolean interrupted = false;
+            while (loader.isAlive()) {
+                try {
+                    loader.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkNotStarted() {
+        if (loader != null || closed) {
+            throw new IllegalStateException("The loader has already started");
+        }
+    }
+
+    private void start() {
+        int slots = prefetch + 1;
+        free = new ArrayBlockingQueue<>(slots);
+        ready = new LinkedBlockingQueue<>();
+        for (int i = 0; i < slots; i++) {
+            free.add(new Batch(new int[]{batchSize, exampleSize}, batchSize));
+        }
+        loader = new Thread(this::load, "BatchLoader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * The body of the background thread.
+     */
+    private void load() {
+        try {
+            int[] order = shuffle ? identity(count) : null;
+            Random random = new Random(seed);
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                if (shuffle) {
+                    permute(order, random);
+                }
+                for (int b = 0; b < batchesPerEpoch(); b++) {
+                    Batch batch = free.take();
+                    fill(batch, order, b * batchSize);
+                    ready.put(batch);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Closed while waiting for a free buffer.
+        } catch (RuntimeException | Error ex) {
+            failure = ex;
+            ready.add(FAILED);
+        }
+    }
+
+    /**
+     * Decode the examples at positions first to first + batchSize of an
+     * epoch into a batch. A mapped file has fewer than 2^31 elements, so
+     * the element indices fit in an int.
+     */
+    private void fill(Batch batch, int[] order, int first) {
+        float[] x = (float[]) batch.examples.data;
+        int[] y = (int[]) batch.labels.data;
+        if (order == null) {
+            examples.readFloats(first * exampleSize, x, 0, batchSize * exampleSize, divisor);
+            labels.readInts(first, y, 0, batchSize);
+            return;
+        }
+        for (int i = 0; i < batchSize; i++) {
+            int example = order[first + i];
+            examples.readFloats(example * exampleSize, x, i * exampleSize, exampleSize, divisor);
+            labels.readInts(example, y, i, 1);
+        }
+    }
+
+    private static int[] identity(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    /**
+     * Shuffle order in place by the Fisher-Yates method.
+     */
+    private static void permute(int[] order, Random random) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+    }
+
+    /**
+     * One mini-batch: a float Array with one row per example and an int
+     * Array of their labels.
+     */
+    public static final class Batch {
+
+        private final Array examples;
+        private final Array labels;
+
+        private Batch(int[] shape, int n) {
+            examples = new Array(shape, Array.contiguousStride(shape), float.class, 0,
+                    new float[Array.product(shape, 0, shape.length)]);
+            labels = new Array(new int[]{n}, new int[]{1}, int.class, 0, new int[n]);
+        }
+
+        public Array getExamples() {
+            return examples;
+        }
+
+        public Array getLabels() {
+            return labels;
+        }
+    }
+
+}
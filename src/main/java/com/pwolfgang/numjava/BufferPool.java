@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of the primitive arrays that hold the elements of Arrays, so that
+ * a loop that makes results of the same shapes over and over can reuse
+ * them rather than allocate new ones.
+ * <p>
+ * Buffers are kept in size classes of powers of two, from 64 elements up
+ * to 2<sup>26</sup>; a request is served by a buffer of the class that
+ * holds it, so a buffer may be longer than asked for. Each thread keeps a
+ * few buffers of each of the smaller classes for itself and the rest are
+ * shared. Both count against a limit on the bytes the pool retains.
+ * Buffers are normally taken and given back through an {@link ArrayArena}.
+ *
+ * @author Paul
+ */
+public final class BufferPool {
+
+    /** The log2 of the smallest size class. */
+    static final int MIN_CLASS = 6;
+    /** The log2 of the largest size class. Longer buffers are not pooled. */
+    static final int MAX_CLASS = 26;
+    /** The number of buffers of each class a thread keeps for itself. */
+    static final int THREAD_CACHE_SIZE = 4;
+    /** The log2 of the largest size class kept by a thread for itself. */
+    static final int MAX_CACHED_CLASS = 16;
+    /** The default limit on the bytes held by a pool. */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 256L << 20;
+
+    private static final Class<?>[] KINDS = {
+        byte.class, short.class, int.class, long.class, float.class, double.class
+    };
+    private static final int[] KIND_BYTES = {1, 2, 4, 8, 4, 8};
+    private static final int NUM_CLASSES = MAX_CLASS - MIN_CLASS + 1;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_MAX_RETAINED_BYTES);
+
+    private final long maxRetainedBytes;
+    private final ConcurrentLinkedDeque<Object>[][] shared;
+    private final ThreadLocal<ArrayDeque<Object>[][]> caches;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+
+    /**
+     * Construct a pool.
+     * @param maxRetainedBytes The most bytes the pool may hold, counting
+     * the buffers kept by each thread.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException(
+                    String.format("maxRetainedBytes %d is negative", maxRetainedBytes));
+        }
+        this.maxRetainedBytes = maxRetainedBytes;
+        shared = new ConcurrentLinkedDeque[KINDS.length][NUM_CLASSES];
+        for (ConcurrentLinkedDeque<Object>[] kind : shared) {
+            for (int c = 0; c < NUM_CLASSES; c++) {
+                kind[c] = new ConcurrentLinkedDeque<>();
+            }
+        }
+        caches = ThreadLocal.withInitial(
+                () -> new ArrayDeque[KINDS.length][MAX_CACHED_CLASS - MIN_CLASS + 1]);
+    }
+
+    /**
+     * Return the pool used by {@link ArrayArena#open()}.
+     * @return The shared pool.
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Take a buffer for n elements of a data type. The first n elements
+     * are zero; the buffer may be longer.
+     * @param type The data type, such as float.class or {@link UInt8}.
+     * @param n The number of elements
+     * @return An array of the storage class of the type.
+     */
+    public Object acquire(Class<?> type, int n) {
+        requests.increment();
+        int kind = kindOf(DataTypes.storageClass(type));
+        int c = sizeClass(n);
+        if (kind < 0 || c < 0) {
+            return DataTypes.newData(type, n);
+        }
+        int bytes = KIND_BYTES[kind] << (c + MIN_CLASS);
+        ArrayDeque<Object> cache = threadCache(kind, c);
+        Object buffer = cache == null ? null : cache.pollLast();
+        if (buffer == null) {
+            buffer = shared[kind][c].pollLast();
+        }
+        if (buffer == null) {
+            return DataTypes.newData(type, 1 << (c + MIN_CLASS));
+        }
+        retainedBytes.addAndGet(-bytes);
+        hits.increment();
+        clear(buffer, n);
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool. A buffer whose length is not one of
+     * the size classes, or that would take the pool over its limit, is
+     * left to the garbage collector. The buffer must not be used again.
+     * Buffers of the classes up to MAX_CACHED_CLASS are kept by the
+     * calling thread while it has room for them, and the rest are shared.
+     * @param buffer An array returned by {@link #acquire}.
+     */
+    public void release(Object buffer) {
+        releases.increment();
+        int kind = kindOf(buffer.getClass().getComponentType());
+        int length = java.lang.reflect.Array.getLength(buffer);
+        int c = sizeClass(length);
+        if (kind < 0 || c < 0 || length != 1 << (c + MIN_CLASS)) {
+            discards.increment();
+            return;
+        }
+        long bytes = (long) KIND_BYTES[kind] * length;
+        if (retainedBytes.addAndGet(bytes) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-bytes);
+            discards.increment();
+            return;
+        }
+        if (c + MIN_CLASS <= MAX_CACHED_CLASS) {
+            ArrayDeque<Object>[] kindCache = caches.get()[kind];
+            if (kindCache[c] == null) {
+                kindCache[c] = new ArrayDeque<>(THREAD_CACHE_SIZE);
+            }
+            if (kindCache[c].size() < THREAD_CACHE_SIZE) {
+                kindCache[c].addLast(buffer);
+                return;
+            }
+        }
+        shared[kind][c].addLast(buffer);
+    }
+
+    /**
+     * Return the calling thread's cache of a class, or null if the class
+     * is not cached or the thread has not cached any buffer of it.
+     */
+    private ArrayDeque<Object> threadCache(int kind, int c) {
+        return c + MIN_CLASS <= MAX_CACHED_CLASS ? caches.get()[kind][c] : null;
+    }
+
+    /**
+     * Drop the shared buffers and those kept by the calling thread. The
+     * small buffers kept by other threads stay counted against the limit
+     * until those threads take them or trim the pool themselves.
+     */
+    public void trim() {
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            for (int c = 0; c < NUM_CLASSES; c++) {
+                long bytes = (long) KIND_BYTES[kind] << (c + MIN_CLASS);
+                ArrayDeque<Object> cache = threadCache(kind, c);
+                if (cache != null) {
+                    retainedBytes.addAndGet(-bytes * cache.size());
+                    cache.clear();
+                }
+                while (shared[kind][c].pollLast() != null) {
+                    retainedBytes.addAndGet(-bytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the statistics of this pool so far.
+     * @return A snapshot of the counts.
+     */
+    public Stats getStats() {
+        return new Stats(requests.sum(), hits.sum(), releases.sum(), discards.sum(),
+                retainedBytes.get());
+    }
+
+    /**
+     * Return the size class that holds n elements, or -1 if n is too large
+     * to be pooled.
+     */
+    static int sizeClass(int n) {
+        int log2 = n <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(n - 1);
+        if (log2 > MAX_CLASS) {
+            return -1;
+        }
+        return Math.max(log2, MIN_CLASS) - MIN_CLASS;
+    }
+
+    private static int kindOf(Class<?> storageClass) {
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            if (KINDS[kind] == storageClass) {
+                return kind;
+            }
+        }
+        return -1;
+    }
+
+    private static void clear(Object buffer, int n) {
+        if (buffer instanceof float[]) {
+            Arrays.fill((float[]) buffer, 0, n, 0.0f);
+        } else if (buffer instanceof int[]) {
+            Arrays.fill((int[]) buffer, 0, n, 0);
+        } else if (buffer instanceof double[]) {
+            Arrays.fill((double[]) buffer, 0, n, 0.0);
+        } else if (buffer instanceof long[]) {
+            Arrays.fill((long[]) buffer, 0, n, 0L);
+        } else if (buffer instanceof short[]) {
+            Arrays.fill((short[]) buffer, 0, n, (short) 0);
+        } else {
+            Arrays.fill((byte[]) buffer, 0, n, (byte) 0);
+        }
+    }
+
+    /**
+     * Counts of how a pool has been used.
+     */
+    public static final class Stats {
+
+        private final long requests;
+        private final long hits;
+        private final long releases;
+        private final long discards;
+        private final long retainedBytes;
+
+        Stats(long requests, long hits, long releases, long discards, long retainedBytes) {
+            this.requests = requests;
+            this.hits = hits;
+            this.releases = releases;
+            this.discards = discards;
+            this.retainedBytes = retainedBytes;
+        }
+
+        /** @return The number of buffers asked for. */
+        public long getRequests() {
+            return requests;
+        }
+
+        /** @return The number of requests served by a pooled buffer. */
+        public long getHits() {
+            return hits;
+        }
+
+        /** @return The fraction of requests that were hits, or 0 if none. */
+        public double getHitRate() {
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+
+        /** @return The number of buffers given back. */
+        public long getReleases() {
+            return releases;
+        }
+
+        /** @return The number of buffers given back that were not kept. */
+        public long getDiscards() {
+            return discards;
+        }
+
+        /** @return The bytes held by the pool, including thread caches. */
+        public long getRetainedBytes() {
+            return retainedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d hits=%d (%.1f%%) releases=%d discards=%d retained=%d bytes",
+                    requests, hits, 100 * getHitRate(), releases, discards, retainedBytes);
+        }
+    }
+
+}
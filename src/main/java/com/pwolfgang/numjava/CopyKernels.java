@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.Arrays;
+
+/**
+ * Typed kernels that copy the elements of a strided view into a row-major
+ * data array. Contiguous runs are moved with System.arraycopy, and a view
+ * whose rows are further apart than its columns, such as a transpose, is
+ * copied in square blocks so that both the reads and the writes stay in
+ * cache.
+ *
+ * @author Paul
+ */
+final class CopyKernels {
+
+    /** The side of the blocks that transposed views are copied in. */
+    static final int BLOCK = 64;
+
+    private CopyKernels() {
+    }
+
+    /**
+     * Copy the elements of a view to dst in row-major order.
+     * @param src A primitive data array
+     * @param shape The shape of the view
+     * @param stride The stride of the view
+     * @param offset The index of the first element of the view
+     * @param dst A primitive data array of the same class as src
+     * @param dstIndex The index in dst of the first element
+     */
+    static void copy(Object src, int[] shape, int[] stride, int offset, Object dst, int dstIndex) {
+        Layout layout = Layout.of(shape, stride);
+        int[] mergedShape = layout.shape;
+        int[] mergedStride = layout.strides[0];
+        int d = mergedShape.length;
+        if (d >= 2 && mergedStride[d - 2] > 0 && mergedStride[d - 2] < mergedStride[d - 1]) {
+            int rows = mergedShape[d - 2];
+            int cols = mergedShape[d - 1];
+            OffsetCursor cursor = new OffsetCursor(Arrays.copyOf(mergedShape, d - 2), mergedStride, offset);
+            while (cursor.hasNext()) {
+                transpose(src, cursor.next(), mergedStride[d - 2], mergedStride[d - 1], rows, cols, dst, dstIndex);
+                dstIndex += rows * cols;
+            }
+            return;
+        }
+        int n = layout.innerSize();
+        int runStride = layout.innerStride(0);
+        OffsetCursor cursor = layout.outer(0, offset);
+        while (cursor.hasNext()) {
+            copyRun(src, cursor.next(), runStride, dst, dstIndex, n);
+            dstIndex += n;
+        }
+    }
+
+    /**
+     * Copy n elements that are srcStride apart to consecutive locations.
+     */
+    static void copyRun(Object src, int srcIndex, int srcStride, Object dst, int dstIndex, int n) {
+        copyRun(src, srcIndex, srcStride, dst, dstIndex, 1, n);
+    }
+
+    /**
+     * Copy n elements that are srcStride apart to locations dstStride
+     * apart.
+     */
+    static void copyRun(Object src, int srcIndex, int srcStride,
+            Object dst, int dstIndex, int dstStride, int n) {
+        if (srcStride == 1 && dstStride == 1) {
+            System.arraycopy(src, srcIndex, dst, dstIndex, n);
+        } else if (src instanceof float[]) {
+            float[] s = (float[]) src;
+            float[] t = (float[]) dst;
+            for (int i = 0; i < n; i++, srcIndex += srcStride, dstIndex += dstStride) {
+                t[dstIndex] = s[srcIndex];
+            }
+        } else if (src instanceof int[]) {
+            int[] s = (int[]) src;
+            int[] t = (int[]) dst;
+            for (int i = 0; i < n; i++, srcIndex += srcStride, dstIndex += dstStride) {
+                t[dstIndex] = s[srcIndex];
+            }
+        } else if (src instanceof double[]) {
+            double[] s = (double[]) src;
+            double[] t = (double[]) dst;
+            for (int i = 0; i < n; i++, srcIndex += srcStride, dstIndex += dstStride) {
+                t[dstIndex] = s[srcIndex];
+            }
+        } else if (src instanceof long[]) {
+            long[] s = (long[]) src;
+            long[] t = (long[]) dst;
+            for (int i = 0; i < n; i++, srcIndex += srcStride, dstIndex += dstStride) {
+                t[dstIndex] = s[srcIndex];
+            }
+        } else if (src instanceof short[]) {
+            short[] s = (short[]) src;
+            short[] t = (short[]) dst;
+            for (int i = 0; i < n; i++, srcIndex += srcStride, dstIndex += dstStride) {
+                t[dstIndex] = s[srcIndex];
+            }
+        } else {
+            byte[] s = (byte[]) src;
+            byte[] t = (byte[]) dst;
+            for (int i = 0; i < n; i++, srcIndex += srcStride, dstIndex += dstStride) {
+                t[dstIndex] = s[srcIndex];
+            }
+        }
+    }
+
+    /**
+     * Copy a rows x cols matrix to consecutive row-major locations, a block
+     * at a time.
+     */
+    static void transpose(Object src, int srcOffset, int rowStride, int colStride,
+            int rows, int cols, Object dst, int dstOffset) {
+        for (int i0 = 0; i0 < rows; i0 += BLOCK) {
+            int i1 = Math.min(rows, i0 + BLOCK);
+            for (int j0 = 0; j0 < cols; j0 += BLOCK) {
+                int j1 = Math.min(cols, j0 + BLOCK);
+                for (int i = i0; i < i1; i++) {
+                    copyRun(src, srcOffset + i * rowStride + j0 * colStride, colStride,
+                            dst, dstOffset + i * cols + j0, j1 - j0);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+/**
+ * Loads and stores the elements of every data type. The compact integer
+ * types, byte, short, {@link UInt8} and {@link UInt16}, are computed as
+ * int, as Java does, and the 16-bit floating point types, {@link BFloat16}
+ * and {@link Float16}, are computed as float, so the kernels widen them as
+ * they are loaded rather than working from a converted copy.
+ * <p>
+ * The type of the result of an operation on two Arrays is given by
+ * {@link #promote}:
+ * <pre>
+ *              int     long    float   double
+ *     int      int     long    float   double
+ *     long     long    long    float   double
+ *     float    float   float   float   double
+ *     double   double  double  double  double
+ * </pre>
+ * where each operand is first taken as the type it is computed as. As in
+ * Java, long and float give float.
+ *
+ * @author Paul
+ */
+final class DataTypes {
+
+    /** The types that values are computed as, narrowest first. */
+    private static final Class<?>[] COMPUTE_TYPES = {
+        int.class, long.class, float.class, double.class
+    };
+
+    private DataTypes() {
+    }
+
+    /**
+     * Return true for the integer types narrower than int.
+     */
+    static boolean isCompact(Class<?> type) {
+        return type == byte.class || type == short.class
+                || type == UInt8.class || type == UInt16.class;
+    }
+
+    /**
+     * Return true for the 16-bit floating point types.
+     */
+    static boolean isHalf(Class<?> type) {
+        return type == BFloat16.class || type == Float16.class;
+    }
+
+    /**
+     * Return true for the types that are computed as int.
+     */
+    static boolean isIntegral(Class<?> type) {
+        return type == int.class || isCompact(type);
+    }
+
+    /**
+     * Return the type that the elements of a data type are computed as:
+     * int, long, float or double.
+     * @throws IllegalArgumentException if the type is not supported.
+     */
+    static Class<?> computeType(Class<?> type) {
+        if (isIntegral(type)) {
+            return int.class;
+        }
+        if (isHalf(type)) {
+            return float.class;
+        }
+        if (type == long.class || type == float.class || type == double.class) {
+            return type;
+        }
+        throw new IllegalArgumentException(
+                String.format("%s is not a supported data type", type));
+    }
+
+    /**
+     * Return the type that an operation on elements of types a and b is
+     * computed as and gives.
+     */
+    static Class<?> promote(Class<?> a, Class<?> b) {
+        return COMPUTE_TYPES[Math.max(rank(computeType(a)), rank(computeType(b)))];
+    }
+
+    private static int rank(Class<?> computeType) {
+        int rank = 0;
+        while (COMPUTE_TYPES[rank] != computeType) {
+            rank++;
+        }
+        return rank;
+    }
+
+    /**
+     * Return the component type of the data array of a data type.
+     */
+    static Class<?> storageClass(Class<?> type) {
+        if (type == UInt8.class) {
+            return byte.class;
+        }
+        if (type == UInt16.class || isHalf(type)) {
+            return short.class;
+        }
+        return type;
+    }
+
+    /**
+     * Allocate a data array for n elements of a data type.
+     */
+    static Object newData(Class<?> type, int n) {
+        return java.lang.reflect.Array.newInstance(storageClass(type), n);
+    }
+
+    /**
+     * Read an element of an integral type as an int.
+     */
+    static int getInt(Class<?> type, Object data, int index) {
+        if (type == int.class) {
+            return ((int[]) data)[index];
+        } else if (type == byte.class) {
+            return ((byte[]) data)[index];
+        } else if (type == UInt8.class) {
+            return ((byte[]) data)[index] & 0xff;
+        } else if (type == short.class) {
+            return ((short[]) data)[index];
+        } else if (type == UInt16.class) {
+            return ((short[]) data)[index] & 0xffff;
+        }
+        throw new ClassCastException(type + " is not an integer type");
+    }
+
+    /**
+     * Store an int into an element of an integral type, keeping its low
+     * order bits.
+     */
+    static void setInt(Class<?> type, Object data, int index, int value) {
+        if (type == int.class) {
+            ((int[]) data)[index] = value;
+        } else if (type == byte.class || type == UInt8.class) {
+            ((byte[]) data)[index] = (byte) value;
+        } else if (type == short.class || type == UInt16.class) {
+            ((short[]) data)[index] = (short) value;
+        } else {
+            throw new ClassCastException(type + " is not an integer type");
+        }
+    }
+
+    /**
+     * Read an element of long or an integral type as a long.
+     */
+    static long getLong(Class<?> type, Object data, int index) {
+        if (type == long.class) {
+            return ((long[]) data)[index];
+        }
+        return getInt(type, data, index);
+    }
+
+    /**
+     * Read an element of float or a 16-bit floating point type as a float.
+     */
+    static float getFloat(Class<?> type, Object data, int index) {
+        if (type == float.class) {
+            return ((float[]) data)[index];
+        } else if (type == BFloat16.class) {
+            return BFloat16.toFloat(((short[]) data)[index]);
+        } else if (type == Float16.class) {
+            return Float16.toFloat(((short[]) data)[index]);
+        }
+        throw new ClassCastException(type + " is not a float type");
+    }
+
+    /**
+     * Read an element of any type as a double.
+     */
+    static double getDouble(Class<?> type, Object data, int index) {
+        if (type == double.class) {
+            return ((double[]) data)[index];
+        } else if (type == long.class) {
+            return ((long[]) data)[index];
+        } else if (type == float.class || isHalf(type)) {
+            return getFloat(type, data, index);
+        }
+        return getInt(type, data, index);
+    }
+
+    /**
+     * Store a value into an element of any type, converting it as a Java
+     * cast does and rounding it to the nearest 16-bit float.
+     */
+    static void set(Class<?> type, Object data, int index, Number value) {
+        if (type == double.class) {
+            ((double[]) data)[index] = value.doubleValue();
+        } else if (type == long.class) {
+            ((long[]) data)[index] = value.longValue();
+        } else if (type == float.class) {
+            ((float[]) data)[index] = value.floatValue();
+        } else if (type == BFloat16.class) {
+            ((short[]) data)[index] = BFloat16.fromFloat(value.floatValue());
+        } else if (type == Float16.class) {
+            ((short[]) data)[index] = Float16.fromFloat(value.floatValue());
+        } else {
+            setInt(type, data, index, value.intValue());
+        }
+    }
+
+    /**
+     * Load n elements of any type, starting at index and stride apart,
+     * into dst as ints. The integral types are widened; the others are
+     * converted as a Java cast does.
+     */
+    static void loadInts(Class<?> type, Object data, int index, int stride,
+            int[] dst, int dstIndex, int n) {
+        if (type == int.class) {
+            int[] src = (int[]) data;
+            if (stride == 1) {
+                System.arraycopy(src, index, dst, dstIndex, n);
+            } else {
+                for (int i = 0; i < n; i++, index += stride) {
+                    dst[dstIndex + i] = src[index];
+                }
+            }
+        } else if (type == byte.class) {
+            byte[] src = (byte[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == UInt8.class) {
+            byte[] src = (byte[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index] & 0xff;
+            }
+        } else if (type == short.class) {
+            short[] src = (short[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == UInt16.class) {
+            short[] src = (short[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index] & 0xffff;
+            }
+        } else if (type == long.class) {
+            long[] src = (long[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = (int) src[index];
+            }
+        } else {
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = (int) getDouble(type, data, index);
+            }
+        }
+    }
+
+    /**
+     * Load n elements of any type, starting at index and stride apart,
+     * into dst as longs.
+     */
+    static void loadLongs(Class<?> type, Object data, int index, int stride,
+            long[] dst, int dstIndex, int n) {
+        if (type == long.class) {
+            long[] src = (long[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == int.class) {
+            int[] src = (int[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (isCompact(type)) {
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = getInt(type, data, index);
+            }
+        } else {
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = (long) getDouble(type, data, index);
+            }
+        }
+    }
+
+    /**
+     * Load n elements of any type, starting at index and stride apart,
+     * into dst as floats.
+     */
+    static void loadFloats(Class<?> type, Object data, int index, int stride,
+            float[] dst, int dstIndex, int n) {
+        if (type == float.class) {
+            float[] src = (float[]) data;
+            if (stride == 1) {
+                System.arraycopy(src, index, dst, dstIndex, n);
+            } else {
+                for (int i = 0; i < n; i++, index += stride) {
+                    dst[dstIndex + i] = src[index];
+                }
+            }
+        } else if (type == int.class) {
+            int[] src = (int[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == byte.class) {
+            byte[] src = (byte[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == UInt8.class) {
+            byte[] src = (byte[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index] & 0xff;
+            }
+        } else if (type == short.class) {
+            short[] src = (short[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == UInt16.class) {
+            short[] src = (short[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index] & 0xffff;
+            }
+        } else if (type == BFloat16.class) {
+            short[] src = (short[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = BFloat16.toFloat(src[index]);
+            }
+        } else if (type == Float16.class) {
+            short[] src = (short[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = Float16.toFloat(src[index]);
+            }
+        } else if (type == long.class) {
+            long[] src = (long[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == double.class) {
+            double[] src = (double[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = (float) src[index];
+            }
+        } else {
+            throw new IllegalArgumentException(
+                    String.format("%s is not a supported data type", type));
+        }
+    }
+
+    /**
+     * Load n elements of any type, starting at index and stride apart,
+     * into dst as doubles.
+     */
+    static void loadDoubles(Class<?> type, Object data, int index, int stride,
+            double[] dst, int dstIndex, int n) {
+        if (type == double.class) {
+            double[] src = (double[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == float.class) {
+            float[] src = (float[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else if (type == int.class) {
+            int[] src = (int[]) data;
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        } else {
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = getDouble(type, data, index);
+            }
+        }
+    }
+
+    /**
+     * Store n ints from src into the data of a compact integer type,
+     * keeping their low order bits.
+     */
+    static void storeInts(Class<?> type, int[] src, Object data, int n) {
+        if (type == byte.class || type == UInt8.class) {
+            byte[] dst = (byte[]) data;
+            for (int i = 0; i < n; i++) {
+                dst[i] = (byte) src[i];
+            }
+        } else {
+            short[] dst = (short[]) data;
+            for (int i = 0; i < n; i++) {
+                dst[i] = (short) src[i];
+            }
+        }
+    }
+
+    /**
+     * Store n floats from src into the data of a 16-bit floating point
+     * type, rounding each to the nearest value.
+     */
+    static void storeFloats(Class<?> type, float[] src, Object data, int n) {
+        short[] dst = (short[]) data;
+        if (type == BFloat16.class) {
+            for (int i = 0; i < n; i++) {
+                dst[i] = BFloat16.fromFloat(src[i]);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                dst[i] = Float16.fromFloat(src[i]);
+            }
+        }
+    }
+
+}
@@ -22,9 +22,68 @@ package com.pwolfgang.numjava;
  */
 public class DotProduct {
 
+    /**
+     * Compute the inner product of two float vectors. The scalar loop
+     * accumulates in double. When {@link Simd#ENABLED} is true and both
+     * vectors are contiguous, the vector kernel is used instead, and it
+     * accumulates in float lanes. The two differ by at most the error
+     * bound of a float sum, n * 2^-24 times the sum of |left[i] * right[i]|.
+     */
     public static float floatXfloatInnerProduct(int leftStride, int leftLastIndex, int leftIndex, int rightStride, int rightIndex, float[] leftData, float[] rightData) {
+        return floatXfloatDot(count(leftStride, leftLastIndex, leftIndex), leftIndex, leftStride,
+                rightIndex, rightStride, leftData, rightData);
+    }
+
+    public static float intXfloatInnerProduct(int leftStride, int leftLastIndex, int leftIndex, int rightStride, int rightIndex, int[] leftData, float[] rightData) {
+        return intXfloatDot(count(leftStride, leftLastIndex, leftIndex), leftIndex, leftStride,
+                rightIndex, rightStride, leftData, rightData);
+    }
+
+    /**
+     * Compute the inner product of a float vector and an int vector. The
+     * int elements are converted as they are loaded.
+     * @see #intXfloatInnerProduct
+     */
+    public static float floatXintInnerProduct(int leftStride, int leftLastIndex, int leftIndex, int rightStride, int rightIndex, float[] leftData, int[] rightData) {
+        return floatXintDot(count(leftStride, leftLastIndex, leftIndex), leftIndex, leftStride,
+                rightIndex, rightStride, leftData, rightData);
+    }
+
+    public static int intXintInnerProduct(int leftStride, int leftLastIndex, int leftIndex, int rightStride, int rightIndex, int[] leftData, int[] rightData) {
+        return intXintDot(count(leftStride, leftLastIndex, leftIndex), leftIndex, leftStride,
+                rightIndex, rightStride, leftData, rightData);
+    }
+
+    public static double doubleXdoubleInnerProduct(int leftStride, int leftLastIndex, int leftIndex, int rightStride, int rightIndex, double[] leftData, double[] rightData) {
+        return doubleXdoubleDot(count(leftStride, leftLastIndex, leftIndex), leftIndex, leftStride,
+                rightIndex, rightStride, leftData, rightData);
+    }
+
+    public static long longXlongInnerProduct(int leftStride, int leftLastIndex, int leftIndex, int rightStride, int rightIndex, long[] leftData, long[] rightData) {
+        return longXlongDot(count(leftStride, leftLastIndex, leftIndex), leftIndex, leftStride,
+                rightIndex, rightStride, leftData, rightData);
+    }
+
+    /**
+     * Return the number of elements from index up to lastIndex. A last
+     * index cannot describe a vector with a zero stride, such as a
+     * broadcast view, so the kernels below take a count instead.
+     */
+    private static int count(int stride, int lastIndex, int index) {
+        return stride > 0 && index < lastIndex ? (lastIndex - index + stride - 1) / stride : 0;
+    }
+
+    /**
+     * Compute the inner product of n elements of two float vectors. The
+     * strides may be zero.
+     * @see #floatXfloatInnerProduct
+     */
+    static float floatXfloatDot(int n, int leftIndex, int leftStride, int rightIndex, int rightStride, float[] leftData, float[] rightData) {
+        if (Simd.ENABLED && leftStride == 1 && rightStride == 1) {
+            return Simd.dot(leftData, leftIndex, rightData, rightIndex, n);
+        }
         double result = 0;
-        while (leftIndex < leftLastIndex) {
+        for (int i = 0; i < n; i++) {
             result += leftData[leftIndex] * rightData[rightIndex];
             leftIndex += leftStride;
             rightIndex += rightStride;
@@ -32,9 +91,9 @@ public class DotProduct {
         return (float) result;
     }
 
-    public static float intXfloatInnerProduct(int leftStride, int leftLastIndex, int leftIndex, int rightStride, int rightIndex, int[] leftData, float[] rightData) {
+    static float intXfloatDot(int n, int leftIndex, int leftStride, int rightIndex, int rightStride, int[] leftData, float[] rightData) {
         double result = 0;
-        while (leftIndex < leftLastIndex) {
+        for (int i = 0; i < n; i++) {
             result += leftData[leftIndex] * rightData[rightIndex];
             leftIndex += leftStride;
             rightIndex += rightStride;
@@ -42,9 +101,19 @@ public class DotProduct {
         return (float) result;
     }
 
-    public static int intXintInnerProduct(int leftStride, int leftLastIndex, int leftIndex, int rightStride, int rightIndex, int[] leftData, int[] rightData) {
+    static float floatXintDot(int n, int leftIndex, int leftStride, int rightIndex, int rightStride, float[] leftData, int[] rightData) {
+        double result = 0;
+        for (int i = 0; i < n; i++) {
+            result += leftData[leftIndex] * rightData[rightIndex];
+            leftIndex += leftStride;
+            rightIndex += rightStride;
+        }
+        return (float) result;
+    }
+
+    static int intXintDot(int n, int leftIndex, int leftStride, int rightIndex, int rightStride, int[] leftData, int[] rightData) {
         int result = 0;
-        while (leftIndex < leftLastIndex) {
+        for (int i = 0; i < n; i++) {
             result += leftData[leftIndex] * rightData[rightIndex];
             leftIndex += leftStride;
             rightIndex += rightStride;
@@ -52,62 +121,363 @@ public class DotProduct {
         return result;
     }
 
-    public static Object iXiMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, int[] aData, int[] bData, int bColStride, int aRowStride) {
-        Object resultData;
-        int[] result = new int[nRows * nCols];
-        int aRowIndex = 0;
-        int cijIndex = 0;
-        for (int i = 0; i < nRows; i++) {
-            int bColIndex = 0;
-            for (int j = 0; j < nCols; j++) {
-                int sum = 0;
-                int bRowIndex = 0;
-                int aColIndex = 0;
-                for (int k = 0; k < innerCount; k++) {
-                    //c[i][j] += a[i][k] * b[k][j]
-                    int aikIndex = aOffset + aRowIndex + aColIndex;
-                    int bkjIndex = bOffset + bRowIndex + bColIndex;
-                    sum += aData[aikIndex] * bData[bkjIndex];
-                    bRowIndex += bRowStride;
-                    aColIndex += aColStride;
-                }
-                bColIndex += bColStride;
-                result[cijIndex] = sum;
-                cijIndex++;
-            }
-            aRowIndex += aRowStride;
+    static double doubleXdoubleDot(int n, int leftIndex, int leftStride, int rightIndex, int rightStride, double[] leftData, double[] rightData) {
+        double result = 0;
+        for (int i = 0; i < n; i++) {
+            result += leftData[leftIndex] * rightData[rightIndex];
+            leftIndex += leftStride;
+            rightIndex += rightStride;
         }
-        resultData = result;
-        return resultData;
+        return result;
     }
 
+    static long longXlongDot(int n, int leftIndex, int leftStride, int rightIndex, int rightStride, long[] leftData, long[] rightData) {
+        long result = 0;
+        for (int i = 0; i < n; i++) {
+            result += leftData[leftIndex] * rightData[rightIndex];
+            leftIndex += leftStride;
+            rightIndex += rightStride;
+        }
+        return result;
+    }
+
+    /**
+     * Multiply two int matrices using the blocked kernel in {@link Gemm}.
+     * Large products are split across threads by {@link ParallelGemm}.
+     * @return The nRows x nCols product in row-major order as an int[]
+     */
+    public static Object iXiMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, int[] aData, int[] bData, int bColStride, int aRowStride) {
+        int[] result = (int[]) ArrayArena.allocate(int.class, nRows * nCols);
+        ParallelGemm.igemm(nRows, nCols, innerCount,
+                aData, aOffset, aRowStride, aColStride,
+                bData, bOffset, bRowStride, bColStride,
+                result, 0, nCols);
+        return result;
+    }
+
+    /**
+     * Multiply two float matrices using the blocked kernel in {@link Gemm}.
+     * Large products are split across threads by {@link ParallelGemm}.
+     * @return The nRows x nCols product in row-major order as a float[]
+     */
     public static Object fXfMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, float[] aData, float[] bData, int bColStride, int aRowStride) {
-        Object resultData;
-        float[] result = new float[nRows * nCols];
-        int aRowIndex = 0;
-        int cijIndex = 0;
-        for (int i = 0; i < nRows; i++) {
-            int bColIndex = 0;
-            for (int j = 0; j < nCols; j++) {
-                float sum = 0.0F;
-                int aColIndex = 0;
-                int bRowIndex = 0;
-                for (int k = 0; k < innerCount; k++) {
-                    //c[i][j] += a[i][k] * b[k][j]
-                    int aikIndex = aOffset + aRowIndex + aColIndex;
-                    int bkjIndex = bOffset + bRowIndex + bColIndex;
-                    sum += aData[aikIndex] * bData[bkjIndex];
-                    bRowIndex += bRowStride;
-                    aColIndex += aColStride;
+        float[] result = (float[]) ArrayArena.allocate(float.class, nRows * nCols);
+        ParallelGemm.sgemm(nRows, nCols, innerCount,
+                aData, aOffset, aRowStride, aColStride,
+                bData, bOffset, bRowStride, bColStride,
+                result, 0, nCols);
+        return result;
+    }
+    
+    /**
+     * Multiply an int matrix by a float matrix. The int elements are
+     * converted to float as the blocked kernel packs them, so A is never
+     * converted as a whole.
+     * @return The nRows x nCols product in row-major order as a float[]
+     */
+    public static Object iXfMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, int[] aData, float[] bData, int bColStride, int aRowStride) {
+        float[] result = (float[]) ArrayArena.allocate(float.class, nRows * nCols);
+        ParallelGemm.sgemm(nRows, nCols, innerCount,
+                aData, aOffset, aRowStride, aColStride,
+                bData, bOffset, bRowStride, bColStride,
+                result, 0, nCols);
+        return result;
+    }
+
+    /**
+     * Multiply a float matrix by an int matrix.
+     * @return The nRows x nCols product in row-major order as a float[]
+     * @see #iXfMMUL
+     */
+    public static Object fXiMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, float[] aData, int[] bData, int bColStride, int aRowStride) {
+        float[] result = (float[]) ArrayArena.allocate(float.class, nRows * nCols);
+        ParallelGemm.sgemm(nRows, nCols, innerCount,
+                aData, aOffset, aRowStride, aColStride,
+                bData, bOffset, bRowStride, bColStride,
+                result, 0, nCols);
+        return result;
+    }
+
+    /**
+     * Multiply two double matrices. Large products are split across threads
+     * by {@link ParallelGemm}.
+     * @return The nRows x nCols product in row-major order as a double[]
+     */
+    public static Object dXdMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, double[] aData, double[] bData, int bColStride, int aRowStride) {
+        double[] result = (double[]) ArrayArena.allocate(double.class, nRows * nCols);
+        ParallelGemm.dgemm(nRows, nCols, innerCount,
+                aData, aOffset, aRowStride, aColStride,
+                bData, bOffset, bRowStride, bColStride,
+                result, 0, nCols);
+        return result;
+    }
+
+    /**
+     * Multiply two long matrices.
+     * @return The nRows x nCols product in row-major order as a long[]
+     * @see #dXdMMUL
+     */
+    public static Object lXlMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, long[] aData, long[] bData, int bColStride, int aRowStride) {
+        long[] result = (long[]) ArrayArena.allocate(long.class, nRows * nCols);
+        ParallelGemm.lgemm(nRows, nCols, innerCount,
+                aData, aOffset, aRowStride, aColStride,
+                bData, bOffset, bRowStride, bColStride,
+                result, 0, nCols);
+        return result;
+    }
+
+    /**
+     * Multiply two int matrices held in heap or direct storage.
+     * @see #iXiMMUL(int, int, int, int, int, int, int, int[], int[], int, int)
+     */
+    public static Object iXiMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, Storage aData, Storage bData, int bColStride, int aRowStride) {
+        Operand a = new Operand(aData, aOffset, aRowStride, aColStride, nRows, innerCount);
+        Operand b = new Operand(bData, bOffset, bRowStride, bColStride, innerCount, nCols);
+        return iXiMMUL(nRows, nCols, innerCount, a.offset, a.colStride, b.offset, b.rowStride,
+                (int[]) a.data, (int[]) b.data, b.colStride, a.rowStride);
+    }
+
+    /**
+     * Multiply two float matrices held in heap or direct storage.
+     * @see #fXfMMUL(int, int, int, int, int, int, int, float[], float[], int, int)
+     */
+    public static Object fXfMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, Storage aData, Storage bData, int bColStride, int aRowStride) {
+        Operand a = new Operand(aData, aOffset, aRowStride, aColStride, nRows, innerCount);
+        Operand b = new Operand(bData, bOffset, bRowStride, bColStride, innerCount, nCols);
+        return fXfMMUL(nRows, nCols, innerCount, a.offset, a.colStride, b.offset, b.rowStride,
+                (float[]) a.data, (float[]) b.data, b.colStride, a.rowStride);
+    }
+
+    /**
+     * Multiply an int matrix by a float matrix held in heap or direct
+     * storage.
+     * @see #iXfMMUL(int, int, int, int, int, int, int, int[], float[], int, int)
+     */
+    public static Object iXfMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, Storage aData, Storage bData, int bColStride, int aRowStride) {
+        Operand a = new Operand(aData, aOffset, aRowStride, aColStride, nRows, innerCount);
+        Operand b = new Operand(bData, bOffset, bRowStride, bColStride, innerCount, nCols);
+        return iXfMMUL(nRows, nCols, innerCount, a.offset, a.colStride, b.offset, b.rowStride,
+                (int[]) a.data, (float[]) b.data, b.colStride, a.rowStride);
+    }
+
+    /**
+     * Multiply a float matrix by an int matrix held in heap or direct
+     * storage.
+     * @see #fXiMMUL(int, int, int, int, int, int, int, float[], int[], int, int)
+     */
+    public static Object fXiMMUL(int nRows, int nCols, int innerCount, int aOffset, int aColStride, int bOffset, int bRowStride, Storage aData, Storage bData, int bColStride, int aRowStride) {
+        Operand a = new Operand(aData, aOffset, aRowStride, aColStride, nRows, innerCount);
+        Operand b = new Operand(bData, bOffset, bRowStride, bColStride, innerCount, nCols);
+        return fXiMMUL(nRows, nCols, innerCount, a.offset, a.colStride, b.offset, b.rowStride,
+                (float[]) a.data, (int[]) b.data, b.colStride, a.rowStride);
+    }
+
+    /** Multiply-adds per task when a matrix-vector product is split across threads. */
+    static final int GEMV_GRAIN = 1 << 15;
+
+    /**
+     * Multiply a float matrix by a float vector. Each row is an inner product
+     * computed by {@link #floatXfloatInnerProduct}, so contiguous rows use the
+     * vector kernel when it is available. Large products are split across
+     * threads by rows.
+     * @return The nRows results as a float[]
+     */
+    public static float[] fXfGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, float[] aData, int bOffset, int bStride, float[] bData) {
+        float[] result = (float[]) ArrayArena.allocate(float.class, nRows);
+        Parallel.forRange(nRows, gemvGrain(innerCount), (from, to) -> {
+            int aRowIndex = aOffset + from * aRowStride;
+            for (int i = from; i < to; i++) {
+                result[i] = floatXfloatDot(innerCount, aRowIndex, aColStride,
+                        bOffset, bStride, aData, bData);
+                aRowIndex += aRowStride;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Multiply an int matrix by a float vector.
+     * @return The nRows results as a float[]
+     * @see #fXfGEMV
+     */
+    public static float[] iXfGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, int[] aData, int bOffset, int bStride, float[] bData) {
+        float[] result = (float[]) ArrayArena.allocate(float.class, nRows);
+        Parallel.forRange(nRows, gemvGrain(innerCount), (from, to) -> {
+            int aRowIndex = aOffset + from * aRowStride;
+            for (int i = from; i < to; i++) {
+                result[i] = intXfloatDot(innerCount, aRowIndex, aColStride,
+                        bOffset, bStride, aData, bData);
+                aRowIndex += aRowStride;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Multiply an int matrix by an int vector.
+     * @return The nRows results as an int[]
+     * @see #fXfGEMV
+     */
+    public static int[] iXiGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, int[] aData, int bOffset, int bStride, int[] bData) {
+        int[] result = (int[]) ArrayArena.allocate(int.class, nRows);
+        Parallel.forRange(nRows, gemvGrain(innerCount), (from, to) -> {
+            int aRowIndex = aOffset + from * aRowStride;
+            for (int i = from; i < to; i++) {
+                result[i] = intXintDot(innerCount, aRowIndex, aColStride,
+                        bOffset, bStride, aData, bData);
+                aRowIndex += aRowStride;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Multiply a double matrix by a double vector.
+     * @return The nRows results as a double[]
+     * @see #fXfGEMV
+     */
+    public static double[] dXdGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, double[] aData, int bOffset, int bStride, double[] bData) {
+        double[] result = (double[]) ArrayArena.allocate(double.class, nRows);
+        Parallel.forRange(nRows, gemvGrain(innerCount), (from, to) -> {
+            int aRowIndex = aOffset + from * aRowStride;
+            for (int i = from; i < to; i++) {
+                result[i] = doubleXdoubleDot(innerCount, aRowIndex, aColStride,
+                        bOffset, bStride, aData, bData);
+                aRowIndex += aRowStride;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Multiply a long matrix by a long vector.
+     * @return The nRows results as a long[]
+     * @see #fXfGEMV
+     */
+    public static long[] lXlGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, long[] aData, int bOffset, int bStride, long[] bData) {
+        long[] result = (long[]) ArrayArena.allocate(long.class, nRows);
+        Parallel.forRange(nRows, gemvGrain(innerCount), (from, to) -> {
+            int aRowIndex = aOffset + from * aRowStride;
+            for (int i = from; i < to; i++) {
+                result[i] = longXlongDot(innerCount, aRowIndex, aColStride,
+                        bOffset, bStride, aData, bData);
+                aRowIndex += aRowStride;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Multiply a float matrix by a float vector held in heap or direct
+     * storage.
+     * @see #fXfGEMV(int, int, int, int, int, float[], int, int, float[])
+     */
+    public static float[] fXfGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, Storage aData, int bOffset, int bStride, Storage bData) {
+        Operand a = new Operand(aData, aOffset, aRowStride, aColStride, nRows, innerCount);
+        Operand b = new Operand(bData, bOffset, 0, bStride, 1, innerCount);
+        return fXfGEMV(nRows, innerCount, a.offset, a.rowStride, a.colStride, (float[]) a.data,
+                b.offset, b.colStride, (float[]) b.data);
+    }
+
+    /**
+     * Multiply an int matrix by a float vector held in heap or direct
+     * storage.
+     * @see #iXfGEMV(int, int, int, int, int, int[], int, int, float[])
+     */
+    public static float[] iXfGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, Storage aData, int bOffset, int bStride, Storage bData) {
+        Operand a = new Operand(aData, aOffset, aRowStride, aColStride, nRows, innerCount);
+        Operand b = new Operand(bData, bOffset, 0, bStride, 1, innerCount);
+        return iXfGEMV(nRows, innerCount, a.offset, a.rowStride, a.colStride, (int[]) a.data,
+                b.offset, b.colStride, (float[]) b.data);
+    }
+
+    /**
+     * Multiply an int matrix by an int vector held in heap or direct
+     * storage.
+     * @see #iXiGEMV(int, int, int, int, int, int[], int, int, int[])
+     */
+    public static int[] iXiGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, Storage aData, int bOffset, int bStride, Storage bData) {
+        Operand a = new Operand(aData, aOffset, aRowStride, aColStride, nRows, innerCount);
+        Operand b = new Operand(bData, bOffset, 0, bStride, 1, innerCount);
+        return iXiGEMV(nRows, innerCount, a.offset, a.rowStride, a.colStride, (int[]) a.data,
+                b.offset, b.colStride, (int[]) b.data);
+    }
+
+    /**
+     * Multiply a matrix of a compact integer type or a 16-bit floating
+     * point type by an int or float vector. Each row is widened into a
+     * buffer as it is loaded, so the matrix is never converted as a whole
+     * and a 16-bit matrix is accumulated in float.
+     * @param aType The data type of the matrix, such as {@link UInt8} or
+     * {@link BFloat16}.
+     * @param bData An int[] or float[]
+     * @return The nRows results, an int[] if bData is an int[] and
+     * otherwise a float[]
+     */
+    static Object compactGEMV(int nRows, int innerCount, int aOffset, int aRowStride, int aColStride, Class<?> aType, Object aData, int bOffset, int bStride, Object bData) {
+        if (bData instanceof int[]) {
+            int[] b = (int[]) bData;
+            int[] result = (int[]) ArrayArena.allocate(int.class, nRows);
+            Parallel.forRange(nRows, gemvGrain(innerCount), (from, to) -> {
+                int[] row = new int[innerCount];
+                int aRowIndex = aOffset + from * aRowStride;
+                for (int i = from; i < to; i++) {
+                    DataTypes.loadInts(aType, aData, aRowIndex, aColStride, row, 0, innerCount);
+                    result[i] = intXintDot(innerCount, 0, 1, bOffset, bStride, row, b);
+                    aRowIndex += aRowStride;
                 }
-                bColIndex += bColStride;
-                result[cijIndex] = sum;
-                cijIndex++;
+            });
+            return result;
+        }
+        float[] b = (float[]) bData;
+        float[] result = (float[]) ArrayArena.allocate(float.class, nRows);
+        Parallel.forRange(nRows, gemvGrain(innerCount), (from, to) -> {
+            float[] row = new float[innerCount];
+            int aRowIndex = aOffset + from * aRowStride;
+            for (int i = from; i < to; i++) {
+                DataTypes.loadFloats(aType, aData, aRowIndex, aColStride, row, 0, innerCount);
+                result[i] = floatXfloatDot(innerCount, 0, 1, bOffset, bStride, row, b);
+                aRowIndex += aRowStride;
             }
-            aRowIndex += aRowStride;
+        });
+        return result;
+    }
+
+    private static int gemvGrain(int innerCount) {
+        return Math.max(1, GEMV_GRAIN / Math.max(1, innerCount));
+    }
+
+    /**
+     * A matrix operand held in a Storage. Heap storage is used in place.
+     * Direct storage is copied into a row-major heap matrix, which is one
+     * pass over the operand against the innerCount passes of the product,
+     * in the same way that {@link Gemm} packs its panels.
+     */
+    private static final class Operand {
+
+        final Object data;
+        final int offset;
+        final int rowStride;
+        final int colStride;
+
+        Operand(Storage storage, int offset, int rowStride, int colStride, int nRows, int nCols) {
+            Object array = storage.array();
+            if (array != null) {
+                this.data = array;
+                this.offset = offset;
+                this.rowStride = rowStride;
+                this.colStride = colStride;
+                return;
+            }
+            Object packed = java.lang.reflect.Array.newInstance(storage.getDataType(), nRows * nCols);
+            for (int i = 0; i < nRows; i++) {
+                storage.get(offset + i * rowStride, colStride, packed, i * nCols, nCols);
+            }
+            this.data = packed;
+            this.offset = 0;
+            this.rowStride = nCols;
+            this.colStride = 1;
         }
-        resultData = result;
-        return resultData;
     }
-    
+
 }
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+/**
+ * Kernels for the built-in element-wise arithmetic. Each operator and data
+ * type has its own loop, so every loop body is a single primitive
+ * operation that the JIT can unroll and vectorize, and float values are
+ * never widened to double.
+ * <p>
+ * A run kernel computes z[i] = x[i] op y[i] for n elements, each operand
+ * being given as a data array, the index of its first element and a
+ * stride. The stride of a broadcast operand is 0.
+ *
+ * @author Paul
+ */
+final class ElementwiseKernels {
+
+    /** The built-in binary operators. */
+    enum Op {
+        ADD, SUB, MUL, DIV
+    }
+
+    private ElementwiseKernels() {
+    }
+
+    /**
+     * Compute x op y for float singletons.
+     */
+    static float apply(Op op, float x, float y) {
+        switch (op) {
+            case ADD:
+                return x + y;
+            case SUB:
+                return x - y;
+            case MUL:
+                return x * y;
+            default:
+                return x / y;
+        }
+    }
+
+    /**
+     * Compute x op y for int singletons.
+     */
+    static int apply(Op op, int x, int y) {
+        switch (op) {
+            case ADD:
+                return x + y;
+            case SUB:
+                return x - y;
+            case MUL:
+                return x * y;
+            default:
+                return x / y;
+        }
+    }
+
+    /**
+     * Compute x op y for long singletons.
+     */
+    static long apply(Op op, long x, long y) {
+        switch (op) {
+            case ADD:
+                return x + y;
+            case SUB:
+                return x - y;
+            case MUL:
+                return x * y;
+            default:
+                return x / y;
+        }
+    }
+
+    /**
+     * Compute x op y for double singletons.
+     */
+    static double apply(Op op, double x, double y) {
+        switch (op) {
+            case ADD:
+                return x + y;
+            case SUB:
+                return x - y;
+            case MUL:
+                return x * y;
+            default:
+                return x / y;
+        }
+    }
+
+    /**
+     * Compute z = x op y over a run of n float elements.
+     */
+    static void run(Op op, int n, float[] x, int xIndex, int xStride,
+            float[] y, int yIndex, int yStride, float[] z, int zIndex, int zStride) {
+        switch (op) {
+            case ADD:
+                add(n, x, xIndex, xStride, y, yIndex, yStride, z, zIndex, zStride);
+                break;
+            case SUB:
+                sub(n, x, xIndex, xStride, y, yIndex, yStride, z, zIndex, zStride);
+                break;
+            case MUL:
+                mul(n, x, xIndex, xStride, y, yIndex, yStride, z, zIndex, zStride);
+                break;
+            default:
+                div(n, x, xIndex, xStride, y, yIndex, yStride, z, zIndex, zStride);
+        }
+    }
+
+    /**
+     * Compute z = x op y over a run of n int elements.
+     */
+    static void run(Op op, int n, int[] x, int xIndex, int xStride,
+            int[] y, int yIndex, int yStride, int[] z, int zIndex, int zStride) {
+        switch (op) {
+            case ADD:
+                add(n, x, xIndex, xStride, y, yIndex, yStride, z, zIndex, zStride);
+                break;
+            case SUB:
+                sub(n, x, xIndex, xStride, y, yIndex, yStride, z, zIndex, zStride);
+                break;
+            case MUL:
+                mul(n, x, xIndex, xStride, y, yIndex, yStride, z, zIndex, zStride);
+                break;
+            default:
+                div(n, x, xIndex, xStride, y, yIndex, yStride, z, zIndex, zStride);
+        }
+    }
+
+    static void add(int n, float[] x, int xIndex, int xStride,
+            float[] y, int yIndex, int yStride, float[] z, int zIndex, int zStride) {
+        if (xStride == 1 && yStride == 1 && zStride == 1) {
+            if (Simd.ENABLED) {
+                Simd.add(x, xIndex, y, yIndex, z, zIndex, n);
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] + y[yIndex + i];
+            }
+        } else if (xStride == 1 && yStride == 0 && zStride == 1) {
+            float b = y[yIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] + b;
+            }
+        } else if (xStride == 0 && yStride == 1 && zStride == 1) {
+            float a = x[xIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = a + y[yIndex + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                z[zIndex] = x[xIndex] + y[yIndex];
+                xIndex += xStride;
+                yIndex += yStride;
+                zIndex += zStride;
+            }
+        }
+    }
+
+    static void sub(int n, float[] x, int xIndex, int xStride,
+            float[] y, int yIndex, int yStride, float[] z, int zIndex, int zStride) {
+        if (xStride == 1 && yStride == 1 && zStride == 1) {
+            if (Simd.ENABLED) {
+                Simd.sub(x, xIndex, y, yIndex, z, zIndex, n);
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] - y[yIndex + i];
+            }
+        } else if (xStride == 1 && yStride == 0 && zStride == 1) {
+            float b = y[yIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] - b;
+            }
+        } else if (xStride == 0 && yStride == 1 && zStride == 1) {
+            float a = x[xIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = a - y[yIndex + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                z[zIndex] = x[xIndex] - y[yIndex];
+                xIndex += xStride;
+                yIndex += yStride;
+                zIndex += zStride;
+            }
+        }
+    }
+
+    static void mul(int n, float[] x, int xIndex, int xStride,
+            float[] y, int yIndex, int yStride, float[] z, int zIndex, int zStride) {
+        if (xStride == 1 && yStride == 1 && zStride == 1) {
+            if (Simd.ENABLED) {
+                Simd.mul(x, xIndex, y, yIndex, z, zIndex, n);
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] * y[yIndex + i];
+            }
+        } else if (xStride == 1 && yStride == 0 && zStride == 1) {
+            float b = y[yIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] * b;
+            }
+        } else if (xStride == 0 && yStride == 1 && zStride == 1) {
+            float a = x[xIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = a * y[yIndex + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                z[zIndex] = x[xIndex] * y[yIndex];
+                xIndex += xStride;
+                yIndex += yStride;
+                zIndex += zStride;
+            }
+        }
+    }
+
+    static void div(int n, float[] x, int xIndex, int xStride,
+            float[] y, int yIndex, int yStride, float[] z, int zIndex, int zStride) {
+        if (xStride == 1 && yStride == 1 && zStride == 1) {
+            if (Simd.ENABLED) {
+                Simd.div(x, xIndex, y, yIndex, z, zIndex, n);
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] / y[yIndex + i];
+            }
+        } else if (xStride == 1 && yStride == 0 && zStride == 1) {
+            float b = y[yIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] / b;
+            }
+        } else if (xStride == 0 && yStride == 1 && zStride == 1) {
+            float a = x[xIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = a / y[yIndex + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                z[zIndex] = x[xIndex] / y[yIndex];
+                xIndex += xStride;
+                yIndex += yStride;
+                zIndex += zStride;
+            }
+        }
+    }
+
+    static void add(int n, int[] x, int xIndex, int xStride,
+            int[] y, int yIndex, int yStride, int[] z, int zIndex, int zStride) {
+        if (xStride == 1 && yStride == 1 && zStride == 1) {
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] + y[yIndex + i];
+            }
+        } else if (xStride == 1 && yStride == 0 && zStride == 1) {
+            int b = y[yIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] + b;
+            }
+        } else if (xStride == 0 && yStride == 1 && zStride == 1) {
+            int a = x[xIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = a + y[yIndex + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                z[zIndex] = x[xIndex] + y[yIndex];
+                xIndex += xStride;
+                yIndex += yStride;
+                zIndex += zStride;
+            }
+        }
+    }
+
+    static void sub(int n, int[] x, int xIndex, int xStride,
+            int[] y, int yIndex, int yStride, int[] z, int zIndex, int zStride) {
+        if (xStride == 1 && yStride == 1 && zStride == 1) {
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] - y[yIndex + i];
+            }
+        } else if (xStride == 1 && yStride == 0 && zStride == 1) {
+            int b = y[yIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] - b;
+            }
+        } else if (xStride == 0 && yStride == 1 && zStride == 1) {
+            int a = x[xIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = a - y[yIndex + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                z[zIndex] = x[xIndex] - y[yIndex];
+                xIndex += xStride;
+                yIndex += yStride;
+                zIndex += zStride;
+            }
+        }
+    }
+
+    static void mul(int n, int[] x, int xIndex, int xStride,
+            int[] y, int yIndex, int yStride, int[] z, int zIndex, int zStride) {
+        if (xStride == 1 && yStride == 1 && zStride == 1) {
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] * y[yIndex + i];
+            }
+        } else if (xStride == 1 && yStride == 0 && zStride == 1) {
+            int b = y[yIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] * b;
+            }
+        } else if (xStride == 0 && yStride == 1 && zStride == 1) {
+            int a = x[xIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = a * y[yIndex + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                z[zIndex] = x[xIndex] * y[yIndex];
+                xIndex += xStride;
+                yIndex += yStride;
+                zIndex += zStride;
+            }
+        }
+    }
+
+    static void div(int n, int[] x, int xIndex, int xStride,
+            int[] y, int yIndex, int yStride, int[] z, int zIndex, int zStride) {
+        if (xStride == 1 && yStride == 1 && zStride == 1) {
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] / y[yIndex + i];
+            }
+        } else if (xStride == 1 && yStride == 0 && zStride == 1) {
+            int b = y[yIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = x[xIndex + i] / b;
+            }
+        } else if (xStride == 0 && yStride == 1 && zStride == 1) {
+            int a = x[xIndex];
+            for (int i = 0; i < n; i++) {
+                z[zIndex + i] = a / y[yIndex + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                z[zIndex] = x[xIndex] / y[yIndex];
+                xIndex += xStride;
+                yIndex += yStride;
+                zIndex += zStride;
+            }
+        }
+    }
+
+    /**
+     * Compute z = x op y over a run of n long elements. The long and
+     * double types are chosen for range and accuracy rather than speed, so
+     * they have a single strided loop for each operator.
+     */
+    static void run(Op op, int n, long[] x, int xIndex, int xStride,
+            long[] y, int yIndex, int yStride, long[] z, int zIndex, int zStride) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < n; i++, xIndex += xStride, yIndex += yStride, zIndex += zStride) {
+                    z[zIndex] = x[xIndex] + y[yIndex];
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++, xIndex += xStride, yIndex += yStride, zIndex += zStride) {
+                    z[zIndex] = x[xIndex] - y[yIndex];
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < n; i++, xIndex += xStride, yIndex += yStride, zIndex += zStride) {
+                    z[zIndex] = x[xIndex] * y[yIndex];
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++, xIndex += xStride, yIndex += yStride, zIndex += zStride) {
+                    z[zIndex] = x[xIndex] / y[yIndex];
+                }
+        }
+    }
+
+    /**
+     * Compute z = x op y over a run of n double elements.
+     * @see #run(Op, int, long[], int, int, long[], int, int, long[], int, int)
+     */
+    static void run(Op op, int n, double[] x, int xIndex, int xStride,
+            double[] y, int yIndex, int yStride, double[] z, int zIndex, int zStride) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < n; i++, xIndex += xStride, yIndex += yStride, zIndex += zStride) {
+                    z[zIndex] = x[xIndex] + y[yIndex];
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++, xIndex += xStride, yIndex += yStride, zIndex += zStride) {
+                    z[zIndex] = x[xIndex] - y[yIndex];
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < n; i++, xIndex += xStride, yIndex += yStride, zIndex += zStride) {
+                    z[zIndex] = x[xIndex] * y[yIndex];
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++, xIndex += xStride, yIndex += yStride, zIndex += zStride) {
+                    z[zIndex] = x[xIndex] / y[yIndex];
+                }
+        }
+    }
+
+}
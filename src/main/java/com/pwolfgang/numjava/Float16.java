@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+/**
+ * The data type of an Array of IEEE 754 half precision numbers. The data
+ * is a short[] of the binary16 encodings, with 11 bits of precision and a
+ * largest finite value of 65504. The elements are widened to float when
+ * they are used, and arithmetic on them is done in float. Use
+ * {@link Array#asType(Class)} to convert an Array to this type.
+ *
+ * @author Paul
+ */
+public final class Float16 {
+
+    private Float16() {
+    }
+
+    /**
+     * Widen a half precision value to float. This is exact.
+     */
+    public static float toFloat(short bits) {
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+        }
+        if (exponent == 0) {
+            float subnormal = mantissa * 0x1p-24f;
+            return sign == 0 ? subnormal : -subnormal;
+        }
+        return Float.intBitsToFloat(sign | (exponent + 112) << 23 | mantissa << 13);
+    }
+
+    /**
+     * Round a float to the nearest half precision value, ties to even.
+     * Values too large for half precision become infinite and NaN stays
+     * NaN.
+     */
+    public static short fromFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+        if (magnitude > 0x7f800000) {
+            return (short) (sign | 0x7e00 | (magnitude >>> 13) & 0x3ff);
+        }
+        if (magnitude >= 0x477ff000) {
+            // 65520 and above round to infinity.
+            return (short) (sign | 0x7c00);
+        }
+        if (magnitude < 0x38800000) {
+            // Below 2^-14 the result is subnormal, in units of 2^-24.
+            return (short) (sign | (int) Math.rint(Float.intBitsToFloat(magnitude) * 0x1p24));
+        }
+        int rounded = magnitude + 0xfff + ((magnitude >>> 13) & 1);
+        return (short) (sign | (rounded - (112 << 23)) >>> 13);
+    }
+
+}
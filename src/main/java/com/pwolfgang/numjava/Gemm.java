@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+/**
+ * Cache-blocked matrix multiply. The operands are addressed through an
+ * offset and a row and column stride so that transposes and sub-arrays can
+ * be multiplied without first being copied.
+ * <p>
+ * B is packed into KC x NC panels and A into MC x KC blocks so that the
+ * micro-kernel streams through contiguous memory. The micro-kernel keeps an
+ * MR x NR tile of C in local variables for the whole depth of a panel.
+ * Every element of C is accumulated over k in the same order no matter how
+ * C is partitioned, so computing C one tile at a time gives the same result
+ * as computing it in one call.
+ * <p>
+ * When {@link Simd#ENABLED} is true the float micro-kernel is vectorized
+ * and its tile is {@link #SNR} columns wide.
+ *
+ * @author Paul
+ */
+final class Gemm {
+
+    /** Rows of A packed per block. */
+    static final int MC = 128;
+    /** Depth of a packed panel. */
+    static final int KC = 256;
+    /** Columns of B packed per panel. */
+    static final int NC = 2048;
+    /** Rows of the register tile. */
+    static final int MR = 4;
+    /** Columns of the register tile. */
+    static final int NR = 4;
+    /** Columns of the float register tile, wider when Simd is enabled. */
+    static final int SNR = Simd.ENABLED ? Simd.gemmNR() : NR;
+
+    private Gemm() {
+    }
+
+    /**
+     * Compute C = A * B where A is m x k and B is k x n. A and B may each
+     * be a float[] or an int[]; int elements are converted to float as they
+     * are packed, so a mixed product needs no converted copy of either.
+     *
+     * @param m The number of rows of A and C
+     * @param n The number of columns of B and C
+     * @param k The number of columns of A and rows of B
+     * @param a The data of A
+     * @param aOffset The index of a[0][0]
+     * @param aRowStride The distance between rows of A
+     * @param aColStride The distance between columns of A
+     * @param b The data of B
+     * @param bOffset The index of b[0][0]
+     * @param bRowStride The distance between rows of B
+     * @param bColStride The distance between columns of B
+     * @param c The data of C
+     * @param cOffset The index of c[0][0]
+     * @param cRowStride The distance between rows of C, columns are adjacent.
+     */
+    static void sgemm(int m, int n, int k,
+            Object a, int aOffset, int aRowStride, int aColStride,
+            Object b, int bOffset, int bRowStride, int bColStride,
+            float[] c, int cOffset, int cRowStride) {
+        if (m == 0 || n == 0) {
+            return;
+        }
+        if (k == 0) {
+            for (int i = 0; i < m; i++) {
+                int cIndex = cOffset + i * cRowStride;
+                for (int j = 0; j < n; j++) {
+                    c[cIndex + j] = 0.0f;
+                }
+            }
+            return;
+        }
+        int kcMax = Math.min(k, KC);
+        float[] aPack = new float[roundUp(Math.min(m, MC), MR) * kcMax];
+        float[] bPack = new float[roundUp(Math.min(n, NC), SNR) * kcMax];
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                boolean overwrite = pc == 0;
+                int bIndex = bOffset + pc * bRowStride + jc * bColStride;
+                if (b instanceof int[]) {
+                    packB(kc, nc, (int[]) b, bIndex, bRowStride, bColStride, bPack);
+                } else {
+                    packB(kc, nc, (float[]) b, bIndex, bRowStride, bColStride, bPack);
+                }
+                for (int ic = 0; ic < m; ic += MC) {
+                    int mc = Math.min(MC, m - ic);
+                    int aIndex = aOffset + ic * aRowStride + pc * aColStride;
+                    if (a instanceof int[]) {
+                        packA(mc, kc, (int[]) a, aIndex, aRowStride, aColStride, aPack);
+                    } else {
+                        packA(mc, kc, (float[]) a, aIndex, aRowStride, aColStride, aPack);
+                    }
+                    for (int jr = 0; jr < nc; jr += SNR) {
+                        int nr = Math.min(SNR, nc - jr);
+                        for (int ir = 0; ir < mc; ir += MR) {
+                            int mr = Math.min(MR, mc - ir);
+                            int cIndex = cOffset + (ic + ir) * cRowStride + jc + jr;
+                            if (Simd.ENABLED) {
+                                Simd.sgemmKernel(kc, aPack, ir * kc, bPack, jr * kc,
+                                        c, cIndex, cRowStride, mr, nr, overwrite);
+                            } else {
+                                sKernel(kc, aPack, ir * kc, bPack, jr * kc,
+                                        c, cIndex, cRowStride, mr, nr, overwrite);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute C = A * B where A is m x k and B is k x n.
+     *
+     * @see #sgemm
+     */
+    static void igemm(int m, int n, int k,
+            int[] a, int aOffset, int aRowStride, int aColStride,
+            int[] b, int bOffset, int bRowStride, int bColStride,
+            int[] c, int cOffset, int cRowStride) {
+        if (m == 0 || n == 0) {
+            return;
+        }
+        if (k == 0) {
+            for (int i = 0; i < m; i++) {
+                int cIndex = cOffset + i * cRowStride;
+                for (int j = 0; j < n; j++) {
+                    c[cIndex + j] = 0;
+                }
+            }
+            return;
+        }
+        int kcMax = Math.min(k, KC);
+        int[] aPack = new int[roundUp(Math.min(m, MC), MR) * kcMax];
+        int[] bPack = new int[roundUp(Math.min(n, NC), NR) * kcMax];
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                boolean overwrite = pc == 0;
+                packB(kc, nc, b, bOffset + pc * bRowStride + jc * bColStride,
+                        bRowStride, bColStride, bPack);
+                for (int ic = 0; ic < m; ic += MC) {
+                    int mc = Math.min(MC, m - ic);
+                    packA(mc, kc, a, aOffset + ic * aRowStride + pc * aColStride,
+                            aRowStride, aColStride, aPack);
+                    for (int jr = 0; jr < nc; jr += NR) {
+                        int nr = Math.min(NR, nc - jr);
+                        for (int ir = 0; ir < mc; ir += MR) {
+                            int mr = Math.min(MR, mc - ir);
+                            int cIndex = cOffset + (ic + ir) * cRowStride + jc + jr;
+                            iKernel(kc, aPack, ir * kc, bPack, jr * kc,
+                                    c, cIndex, cRowStride, mr, nr, overwrite);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute C = A * B where A is m x k and B is k x n. The double and long
+     * types are for accuracy rather than speed, so they are not packed:
+     * each row of C is accumulated from the rows of B in turn, which reads
+     * B along its rows when they are contiguous.
+     *
+     * @see #sgemm
+     */
+    static void dgemm(int m, int n, int k,
+            double[] a, int aOffset, int aRowStride, int aColStride,
+            double[] b, int bOffset, int bRowStride, int bColStride,
+            double[] c, int cOffset, int cRowStride) {
+        for (int i = 0; i < m; i++) {
+            int cIndex = cOffset + i * cRowStride;
+            for (int j = 0; j < n; j++) {
+                c[cIndex + j] = 0;
+            }
+            for (int p = 0; p < k; p++) {
+                double aip = a[aOffset + i * aRowStride + p * aColStride];
+                int bIndex = bOffset + p * bRowStride;
+                for (int j = 0; j < n; j++, bIndex += bColStride) {
+                    c[cIndex + j] += aip * b[bIndex];
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute C = A * B where A is m x k and B is k x n.
+     *
+     * @see #dgemm
+     */
+    static void lgemm(int m, int n, int k,
+            long[] a, int aOffset, int aRowStride, int aColStride,
+            long[] b, int bOffset, int bRowStride, int bColStride,
+            long[] c, int cOffset, int cRowStride) {
+        for (int i = 0; i < m; i++) {
+            int cIndex = cOffset + i * cRowStride;
+            for (int j = 0; j < n; j++) {
+                c[cIndex + j] = 0;
+            }
+            for (int p = 0; p < k; p++) {
+                long aip = a[aOffset + i * aRowStride + p * aColStride];
+                int bIndex = bOffset + p * bRowStride;
+                for (int j = 0; j < n; j++, bIndex += bColStride) {
+                    c[cIndex + j] += aip * b[bIndex];
+                }
+            }
+        }
+    }
+
+    static int roundUp(int x, int multiple) {
+        return (x + multiple - 1) / multiple * multiple;
+    }
+
+    /**
+     * Pack an mc x kc block of A into slivers of MR rows. Within a sliver
+     * the MR values of each column are adjacent. Rows past mc are zero.
+     */
+    private static void packA(int mc, int kc, float[] a, int aIndex,
+            int aRowStride, int aColStride, float[] aPack) {
+        int packIndex = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            int rowIndex = aIndex + ir * aRowStride;
+            for (int p = 0; p < kc; p++) {
+                int index = rowIndex + p * aColStride;
+                int i = 0;
+                for (; i < mr; i++) {
+                    aPack[packIndex++] = a[index];
+                    index += aRowStride;
+                }
+                for (; i < MR; i++) {
+                    aPack[packIndex++] = 0.0f;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pack a kc x nc panel of B into slivers of SNR columns. Within a sliver
+     * the SNR values of each row are adjacent. Columns past nc are zero.
+     */
+    private static void packB(int kc, int nc, float[] b, int bIndex,
+            int bRowStride, int bColStride, float[] bPack) {
+        int packIndex = 0;
+        for (int jr = 0; jr < nc; jr += SNR) {
+            int nr = Math.min(SNR, nc - jr);
+            int colIndex = bIndex + jr * bColStride;
+            for (int p = 0; p < kc; p++) {
+                int index = colIndex + p * bRowStride;
+                int j = 0;
+                for (; j < nr; j++) {
+                    bPack[packIndex++] = b[index];
+                    index += bColStride;
+                }
+                for (; j < SNR; j++) {
+                    bPack[packIndex++] = 0.0f;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pack an mc x kc block of an int A into float slivers of MR rows.
+     * @see #packA(int, int, float[], int, int, int, float[])
+     */
+    private static void packA(int mc, int kc, int[] a, int aIndex,
+            int aRowStride, int aColStride, float[] aPack) {
+        int packIndex = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            int rowIndex = aIndex + ir * aRowStride;
+            for (int p = 0; p < kc; p++) {
+                int index = rowIndex + p * aColStride;
+                int i = 0;
+                for (; i < mr; i++) {
+                    aPack[packIndex++] = a[index];
+                    index += aRowStride;
+                }
+                for (; i < MR; i++) {
+                    aPack[packIndex++] = 0.0f;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pack a kc x nc panel of an int B into float slivers of SNR columns.
+     * @see #packB(int, int, float[], int, int, int, float[])
+     */
+    private static void packB(int kc, int nc, int[] b, int bIndex,
+            int bRowStride, int bColStride, float[] bPack) {
+        int packIndex = 0;
+        for (int jr = 0; jr < nc; jr += SNR) {
+            int nr = Math.min(SNR, nc - jr);
+            int colIndex = bIndex + jr * bColStride;
+            for (int p = 0; p < kc; p++) {
+                int index = colIndex + p * bRowStride;
+                int j = 0;
+                for (; j < nr; j++) {
+                    bPack[packIndex++] = b[index];
+                    index += bColStride;
+                }
+                for (; j < SNR; j++) {
+                    bPack[packIndex++] = 0.0f;
+                }
+            }
+        }
+    }
+
+    private static void packA(int mc, int kc, int[] a, int aIndex,
+            int aRowStride, int aColStride, int[] aPack) {
+        int packIndex = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            int rowIndex = aIndex + ir * aRowStride;
+            for (int p = 0; p < kc; p++) {
+                int index = rowIndex + p * aColStride;
+                int i = 0;
+                for (; i < mr; i++) {
+                    aPack[packIndex++] = a[index];
+                    index += aRowStride;
+                }
+                for (; i < MR; i++) {
+                    aPack[packIndex++] = 0;
+                }
+            }
+        }
+    }
+
+    private static void packB(int kc, int nc, int[] b, int bIndex,
+            int bRowStride, int bColStride, int[] bPack) {
+        int packIndex = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            int colIndex = bIndex + jr * bColStride;
+            for (int p = 0; p < kc; p++) {
+                int index = colIndex + p * bRowStride;
+                int j = 0;
+                for (; j < nr; j++) {
+                    bPack[packIndex++] = b[index];
+                    index += bColStride;
+                }
+                for (; j < NR; j++) {
+                    bPack[packIndex++] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiply an MR sliver of packed A by an NR sliver of packed B and
+     * store or add the mr x nr valid part of the product into C.
+     */
+    static void sKernel(int kc, float[] aPack, int aIndex,
+            float[] bPack, int bIndex, float[] c, int cIndex, int cRowStride,
+            int mr, int nr, boolean overwrite) {
+        float c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        float c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        float c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        float c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = 0; p < kc; p++) {
+            float a0 = aPack[aIndex];
+            float a1 = aPack[aIndex + 1];
+            float a2 = aPack[aIndex + 2];
+            float a3 = aPack[aIndex + 3];
+            float b0 = bPack[bIndex];
+            float b1 = bPack[bIndex + 1];
+            float b2 = bPack[bIndex + 2];
+            float b3 = bPack[bIndex + 3];
+            c00 += a0 * b0;
+            c01 += a0 * b1;
+            c02 += a0 * b2;
+            c03 += a0 * b3;
+            c10 += a1 * b0;
+            c11 += a1 * b1;
+            c12 += a1 * b2;
+            c13 += a1 * b3;
+            c20 += a2 * b0;
+            c21 += a2 * b1;
+            c22 += a2 * b2;
+            c23 += a2 * b3;
+            c30 += a3 * b0;
+            c31 += a3 * b1;
+            c32 += a3 * b2;
+            c33 += a3 * b3;
+            aIndex += MR;
+            bIndex += NR;
+        }
+        if (mr == MR && nr == NR) {
+            int c1 = cIndex + cRowStride;
+            int c2 = c1 + cRowStride;
+            int c3 = c2 + cRowStride;
+            if (!overwrite) {
+                c00 += c[cIndex];
+                c01 += c[cIndex + 1];
+                c02 += c[cIndex + 2];
+                c03 += c[cIndex + 3];
+                c10 += c[c1];
+                c11 += c[c1 + 1];
+                c12 += c[c1 + 2];
+                c13 += c[c1 + 3];
+                c20 += c[c2];
+                c21 += c[c2 + 1];
+                c22 += c[c2 + 2];
+                c23 += c[c2 + 3];
+                c30 += c[c3];
+                c31 += c[c3 + 1];
+                c32 += c[c3 + 2];
+                c33 += c[c3 + 3];
+            }
+            c[cIndex] = c00;
+            c[cIndex + 1] = c01;
+            c[cIndex + 2] = c02;
+            c[cIndex + 3] = c03;
+            c[c1] = c10;
+            c[c1 + 1] = c11;
+            c[c1 + 2] = c12;
+            c[c1 + 3] = c13;
+            c[c2] = c20;
+            c[c2 + 1] = c21;
+            c[c2 + 2] = c22;
+            c[c2 + 3] = c23;
+            c[c3] = c30;
+            c[c3 + 1] = c31;
+            c[c3 + 2] = c32;
+            c[c3 + 3] = c33;
+            return;
+        }
+        float[] tile = {
+            c00, c01, c02, c03,
+            c10, c11, c12, c13,
+            c20, c21, c22, c23,
+            c30, c31, c32, c33};
+        for (int i = 0; i < mr; i++) {
+            int rowIndex = cIndex + i * cRowStride;
+            for (int j = 0; j < nr; j++) {
+                if (overwrite) {
+                    c[rowIndex + j] = tile[i * NR + j];
+                } else {
+                    c[rowIndex + j] += tile[i * NR + j];
+                }
+            }
+        }
+    }
+
+    private static void iKernel(int kc, int[] aPack, int aIndex,
+            int[] bPack, int bIndex, int[] c, int cIndex, int cRowStride,
+            int mr, int nr, boolean overwrite) {
+        int c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        int c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        int c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        int c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = 0; p < kc; p++) {
+            int a0 = aPack[aIndex];
+            int a1 = aPack[aIndex + 1];
+            int a2 = aPack[aIndex + 2];
+            int a3 = aPack[aIndex + 3];
+            int b0 = bPack[bIndex];
+            int b1 = bPack[bIndex + 1];
+            int b2 = bPack[bIndex + 2];
+            int b3 = bPack[bIndex + 3];
+            c00 += a0 * b0;
+            c01 += a0 * b1;
+            c02 += a0 * b2;
+            c03 += a0 * b3;
+            c10 += a1 * b0;
+            c11 += a1 * b1;
+            c12 += a1 * b2;
+            c13 += a1 * b3;
+            c20 += a2 * b0;
+            c21 += a2 * b1;
+            c22 += a2 * b2;
+            c23 += a2 * b3;
+            c30 += a3 * b0;
+            c31 += a3 * b1;
+            c32 += a3 * b2;
+            c33 += a3 * b3;
+            aIndex += MR;
+            bIndex += NR;
+        }
+        if (mr == MR && nr == NR) {
+            int c1 = cIndex + cRowStride;
+            int c2 = c1 + cRowStride;
+            int c3 = c2 + cRowStride;
+            if (!overwrite) {
+                c00 += c[cIndex];
+                c01 += c[cIndex + 1];
+                c02 += c[cIndex + 2];
+                c03 += c[cIndex + 3];
+                c10 += c[c1];
+                c11 += c[c1 + 1];
+                c12 += c[c1 + 2];
+                c13 += c[c1 + 3];
+                c20 += c[c2];
+                c21 += c[c2 + 1];
+                c22 += c[c2 + 2];
+                c23 += c[c2 + 3];
+                c30 += c[c3];
+                c31 += c[c3 + 1];
+                c32 += c[c3 + 2];
+                c33 += c[c3 + 3];
+            }
+            c[cIndex] = c00;
+            c[cIndex + 1] = c01;
+            c[cIndex + 2] = c02;
+            c[cIndex + 3] = c03;
+            c[c1] = c10;
+            c[c1 + 1] = c11;
+            c[c1 + 2] = c12;
+            c[c1 + 3] = c13;
+            c[c2] = c20;
+            c[c2 + 1] = c21;
+            c[c2 + 2] = c22;
+            c[c2 + 3] = c23;
+            c[c3] = c30;
+            c[c3 + 1] = c31;
+            c[c3 + 2] = c32;
+            c[c3 + 3] = c33;
+            return;
+        }
+        int[] tile = {
+            c00, c01, c02, c03,
+            c10, c11, c12, c13,
+            c20, c21, c22, c23,
+            c30, c31, c32, c33};
+        for (int i = 0; i < mr; i++) {
+            int rowIndex = cIndex + i * cRowStride;
+            for (int j = 0; j < nr; j++) {
+                if (overwrite) {
+                    c[rowIndex + j] = tile[i * NR + j];
+                } else {
+                    c[rowIndex + j] += tile[i * NR + j];
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped file in the IDX format used by the MNIST data set. The
+ * header is a magic number whose third byte is the element type and whose
+ * fourth byte is the rank, followed by the size of each dimension. The
+ * elements follow in row-major order, big-endian.
+ * <p>
+ * {@link #view()} exposes the elements without copying them: each element
+ * is read from the mapped file and widened when it is used.
+ * {@link #copy()} copies them to the heap in their own type, and
+ * {@link #toFloat(float)} converts them all to a float Array in parallel.
+ * <p>
+ * The file is mapped as a single buffer, so it can be at most 2 GB.
+ *
+ * @author Paul
+ */
+public final class IdxFile {
+
+    public static final int UNSIGNED_BYTE = 0x08;
+    public static final int BYTE = 0x09;
+    public static final int SHORT = 0x0B;
+    public static final int INT = 0x0C;
+    public static final int FLOAT = 0x0D;
+    public static final int DOUBLE = 0x0E;
+
+    /** Elements per task when converting in parallel. */
+    static final int GRAIN = 1 << 16;
+
+    private final int type;
+    private final int[] shape;
+    private final int size;
+    private final ByteBuffer data;
+
+    private IdxFile(int type, int[] shape, int size, ByteBuffer data) {
+        this.type = type;
+        this.shape = shape;
+        this.size = size;
+        this.data = data;
+    }
+
+    /**
+     * Map an IDX file and validate its header.
+     * @param fileName The name of the file
+     * @return The mapped file.
+     * @throws IllegalArgumentException if the header is not valid, the
+     * file is not the size that the header gives, or it is larger than
+     * 2 GB.
+     * @throws UncheckedIOException if the file cannot be read.
+     */
+    public static IdxFile map(String fileName) {
+        return map(Paths.get(fileName));
+    }
+
+    /**
+     * Map an IDX file and validate its header.
+     * @see #map(String)
+     */
+    public static IdxFile map(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        String.format("%s is larger than 2 GB", path));
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            return parse(buffer, path.toString());
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+    }
+
+    /**
+     * Validate the header of an IDX image and view its elements.
+     */
+    static IdxFile parse(ByteBuffer buffer, String name) {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.limit() < 4) {
+            throw new IllegalArgumentException(
+                    String.format("%s is too short for an IDX header", name));
+        }
+        int magicNumber = buffer.getInt(0);
+        int type = (magicNumber >>> 8) & 0xff;
+        int rank = magicNumber & 0xff;
+        if ((magicNumber >>> 16) != 0 || elementSize(type) == 0) {
+            throw new IllegalArgumentException(
+                    String.format("%s has unrecognized magic number 0x%08x", name, magicNumber));
+        }
+        int dataStart = 4 + 4 * rank;
+        if (buffer.limit() < dataStart) {
+            throw new IllegalArgumentException(
+                    String.format("%s is too short for a rank %d header", name, rank));
+        }
+        int[] shape = new int[rank];
+        long size = 1;
+        for (int i = 0; i < rank; i++) {
+            shape[i] = buffer.getInt(4 + 4 * i);
+            if (shape[i] < 0) {
+                throw new IllegalArgumentException(
+                        String.format("%s has negative dimension %d", name, shape[i]));
+            }
+            size *= shape[i];
+        }
+        long expected = dataStart + size * elementSize(type);
+        if (expected != buffer.limit()) {
+            throw new IllegalArgumentException(
+                    String.format("%s of shape %s should be %d bytes but is %d",
+                            name, Arrays.toString(shape), expected, buffer.limit()));
+        }
+        buffer.position(dataStart);
+        ByteBuffer data = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        return new IdxFile(type, shape, (int) size, data);
+    }
+
+    /**
+     * Return the size in bytes of an element of the given type, or 0 if
+     * the type is not an IDX type.
+     */
+    static int elementSize(int type) {
+        switch (type) {
+            case UNSIGNED_BYTE:
+            case BYTE:
+                return 1;
+            case SHORT:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            case DOUBLE:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Return the element type, one of the type constants of this class.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Return the magic number: the element type times 256 plus the rank.
+     * MNIST images are 2051 and labels are 2049.
+     */
+    public int getMagicNumber() {
+        return type << 8 | shape.length;
+    }
+
+    public int[] getShape() {
+        return shape.clone();
+    }
+
+    /**
+     * Return an Array that reads the elements directly from the mapped
+     * file. Bytes keep their type, so unsigned bytes give a {@link UInt8}
+     * Array; shorts are widened to int as they are read. The view is
+     * read-only.
+     * @return An Array with the shape of the file.
+     */
+    public Array view() {
+        Storage storage;
+        if (type == UNSIGNED_BYTE) {
+            storage = Storage.wrap(data, UInt8.class);
+        } else if (type == BYTE) {
+            storage = Storage.wrap(data, byte.class);
+        } else if (type == INT || type == FLOAT) {
+            storage = Storage.wrap(data, type == INT ? int.class : float.class);
+        } else {
+            storage = new Widening(type, data, size);
+        }
+        if (shape.length == 0) {
+            return new Array(storage, 1).getSubArray(0);
+        }
+        return new Array(storage, shape);
+    }
+
+    /**
+     * Copy the elements to a heap Array of the same type, so that unsigned
+     * bytes take one byte each. The types are {@link UInt8}, byte, short,
+     * int, float and double.
+     * @return An Array with the shape of the file.
+     */
+    public Array copy() {
+        Object values;
+        Class<?> dataType;
+        switch (type) {
+            case UNSIGNED_BYTE:
+            case BYTE:
+                values = new byte[size];
+                data.duplicate().get((byte[]) values);
+                dataType = type == BYTE ? byte.class : UInt8.class;
+                break;
+            case SHORT:
+                values = new short[size];
+                data.asShortBuffer().get((short[]) values);
+                dataType = short.class;
+                break;
+            case INT:
+                values = new int[size];
+                data.asIntBuffer().get((int[]) values);
+                dataType = int.class;
+                break;
+            case FLOAT:
+                values = new float[size];
+                data.asFloatBuffer().get((float[]) values);
+                dataType = float.class;
+                break;
+            default:
+                values = new double[size];
+                data.asDoubleBuffer().get((double[]) values);
+                dataType = double.class;
+                break;
+        }
+        if (shape.length == 0) {
+            return new Array(new int[]{1}, new int[]{1}, dataType, 0, values).getSubArray(0);
+        }
+        return new Array(shape.clone(), Array.contiguousStride(shape), dataType, 0, values);
+    }
+
+    /**
+     * Convert the elements to a float Array on the heap, dividing each one
+     * by divisor. The conversion is split across threads.
+     * @param divisor 1 for the values in the file, or 255 to scale unsigned
+     * bytes to [0, 1].
+     * @return A float Array with the shape of the file.
+     */
+    public Array toFloat(float divisor) {
+        float[] result = new float[size];
+        Parallel.forRange(size, GRAIN, (from, to) -> readFloats(from, result, from, to - from, divisor));
+        if (shape.length == 0) {
+            return new Array(result[0]);
+        }
+        return new Array(shape.clone(), Array.contiguousStride(shape), float.class, 0, result);
+    }
+
+    /**
+     * Convert n elements, starting with element from in row-major order,
+     * to float and divide each one by divisor. The file is read with
+     * absolute gets, so any number of threads may read it at once.
+     */
+    void readFloats(int from, float[] dst, int dstIndex, int n, float divisor) {
+        int to = from + n;
+        switch (type) {
+            case UNSIGNED_BYTE:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = (data.get(i) & 0xff) / divisor;
+                }
+                break;
+            case BYTE:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = data.get(i) / divisor;
+                }
+                break;
+            case SHORT:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = data.getShort(2 * i) / divisor;
+                }
+                break;
+            case INT:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = data.getInt(4 * i) / divisor;
+                }
+                break;
+            case FLOAT:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = data.getFloat(4 * i) / divisor;
+                }
+                break;
+            default:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = (float) (data.getDouble(8 * i) / divisor);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Read n elements of an integer type, starting with element from, as
+     * ints.
+     * @throws IllegalArgumentException if the elements are floating point.
+     */
+    void readInts(int from, int[] dst, int dstIndex, int n) {
+        int to = from + n;
+        switch (type) {
+            case UNSIGNED_BYTE:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = data.get(i) & 0xff;
+                }
+                break;
+            case BYTE:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = data.get(i);
+                }
+                break;
+            case SHORT:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = data.getShort(2 * i);
+                }
+                break;
+            case INT:
+                for (int i = from; i < to; i++) {
+                    dst[dstIndex++] = data.getInt(4 * i);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        String.format("IDX type 0x%02x is not an integer type", type));
+        }
+    }
+
+    /**
+     * Read-only storage for the 2 and 8 byte IDX types. The shorts are
+     * widened to int as they are read.
+     */
+    private static final class Widening extends Storage {
+
+        private final int type;
+        private final ByteBuffer data;
+        private final int length;
+
+        Widening(int type, ByteBuffer data, int length) {
+            this.type = type;
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        public Class<?> getDataType() {
+            return type == DOUBLE ? double.class : int.class;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public boolean isDirect() {
+            return true;
+        }
+
+        @Override
+        public float getFloat(int index) {
+            throw new ClassCastException("Storage does not hold float values");
+        }
+
+        @Override
+        double getDouble(int index) {
+            if (type != DOUBLE) {
+                throw new ClassCastException("Storage does not hold double values");
+            }
+            return data.getDouble(8 * index);
+        }
+
+        @Override
+        public int getInt(int index) {
+            if (type != SHORT) {
+                throw new ClassCastException("Storage does not hold int values");
+            }
+            return data.getShort(2 * index);
+        }
+
+        @Override
+        public void setFloat(int index, float value) {
+            throw new ReadOnlyBufferException();
+        }
+
+        @Override
+        public void setInt(int index, int value) {
+            throw new ReadOnlyBufferException();
+        }
+
+        @Override
+        public void getFloats(int index, int stride, float[] dst, int dstIndex, int n) {
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = getFloat(index);
+            }
+        }
+
+        @Override
+        public void getInts(int index, int stride, int[] dst, int dstIndex, int n) {
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = getInt(index);
+            }
+        }
+
+        @Override
+        public void putFloats(int index, int stride, float[] src, int srcIndex, int n) {
+            throw new ReadOnlyBufferException();
+        }
+
+        @Override
+        public void putInts(int index, int stride, int[] src, int srcIndex, int n) {
+            throw new ReadOnlyBufferException();
+        }
+
+        @Override
+        Object array() {
+            return null;
+        }
+    }
+
+}
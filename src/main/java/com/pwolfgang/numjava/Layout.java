@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.Arrays;
+
+/**
+ * The memory layout shared by the operands of an element-wise operation.
+ * Adjacent dimensions are merged whenever every operand steps through them
+ * as if they were one dimension, so the element-wise loops run over as few
+ * and as long inner runs as possible:
+ * <ul>
+ * <li>C-contiguous operands become a single run with stride 1.</li>
+ * <li>Operands with a uniform stride become a single strided run.</li>
+ * <li>Operands whose inner dimensions are contiguous become one run per
+ * outer index.</li>
+ * </ul>
+ *
+ * @author Paul
+ */
+final class Layout {
+
+    /** The merged shape. It always has at least one dimension. */
+    final int[] shape;
+    /** The merged stride of each operand. */
+    final int[][] strides;
+
+    private Layout(int[] shape, int[][] strides) {
+        this.shape = shape;
+        this.strides = strides;
+    }
+
+    /**
+     * Compute the merged layout of operands with a common shape.
+     * @param shape The shape shared by the operands
+     * @param strides The stride of each operand
+     * @return The merged layout.
+     */
+    static Layout of(int[] shape, int[]... strides) {
+        int numOperands = strides.length;
+        int[] newShape = new int[Math.max(1, shape.length)];
+        int[][] newStrides = new int[numOperands][newShape.length];
+        int numDim = 0;
+        newShape[0] = 1;
+        for (int k = 0; k < numOperands; k++) {
+            newStrides[k][0] = 0;
+        }
+        for (int i = 0; i < shape.length; i++) {
+            if (shape[i] == 1) {
+                continue;
+            }
+            boolean merge = numDim > 0;
+            for (int k = 0; merge && k < numOperands; k++) {
+                merge = newStrides[k][numDim - 1] == strides[k][i] * shape[i];
+            }
+            if (merge) {
+                newShape[numDim - 1] *= shape[i];
+                for (int k = 0; k < numOperands; k++) {
+                    newStrides[k][numDim - 1] = strides[k][i];
+                }
+            } else {
+                newShape[numDim] = shape[i];
+                for (int k = 0; k < numOperands; k++) {
+                    newStrides[k][numDim] = strides[k][i];
+                }
+                numDim++;
+            }
+        }
+        if (numDim == 0) {
+            numDim = 1;
+        }
+        if (numDim < newShape.length) {
+            newShape = Arrays.copyOf(newShape, numDim);
+            for (int k = 0; k < numOperands; k++) {
+                newStrides[k] = Arrays.copyOf(newStrides[k], numDim);
+            }
+        }
+        return new Layout(newShape, newStrides);
+    }
+
+    /**
+     * Return the length of each inner run.
+     */
+    int innerSize() {
+        return shape[shape.length - 1];
+    }
+
+    /**
+     * Return the stride of an operand within an inner run.
+     */
+    int innerStride(int operand) {
+        return strides[operand][shape.length - 1];
+    }
+
+    /**
+     * Return a cursor over the start of each inner run of an operand.
+     * @param operand The index of the operand
+     * @param offset The data index of the operand's first element.
+     */
+    OffsetCursor outer(int operand, int offset) {
+        return new OffsetCursor(Arrays.copyOf(shape, shape.length - 1),
+                strides[operand], offset);
+    }
+
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import com.pwolfgang.numjava.ElementwiseKernels.Op;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * An element-wise expression over Arrays that is evaluated on demand.
+ * The add, sub, mul, div and apply methods build an expression tree rather
+ * than computing a result; {@link #eval()}, or the first call to getInt or
+ * getFloat, evaluates the whole tree in one pass.
+ * <p>
+ * The pass reads each input element once and writes each output element
+ * once. The output is processed in blocks of {@link #BLOCK} elements, and
+ * the intermediate values of a block are held in small buffers that stay
+ * in cache. Large expressions are split into blocks on the
+ * {@link Parallel} pool.
+ * <p>
+ * Operands are broadcast and typed as by the eager methods of
+ * {@link Array}: int op int is computed with int arithmetic, any float
+ * operand or apply makes the result float. Only operands that are computed
+ * as int or float are supported; long and double Arrays must use the
+ * eager methods.
+ * <pre>
+ *     Array y = x.lazy().mul(w).add(b).apply(sigmoid).eval();
+ * </pre>
+ *
+ * @author Paul
+ */
+public final class LazyArray {
+
+    /** The number of elements processed together. */
+    static final int BLOCK = 1024;
+    /** Expressions with fewer elements than this are evaluated on one thread. */
+    static final int PARALLEL_THRESHOLD = 1 << 15;
+
+    private final Node node;
+    private Array value;
+
+    /**
+     * Create an expression whose value is the given Array.
+     * @param array The Array.
+     * @throws IllegalArgumentException if the Array is computed as long or
+     * double.
+     */
+    public LazyArray(Array array) {
+        this(new Leaf(array));
+    }
+
+    private LazyArray(Node node) {
+        this.node = node;
+    }
+
+    /**
+     * Return the shape of the result.
+     * @return The shape.
+     */
+    public int[] getShape() {
+        return node.shape.clone();
+    }
+
+    /**
+     * Return the data type of the result.
+     * @return int.class or float.class.
+     */
+    public Class<?> getDataType() {
+        return node.dataType;
+    }
+
+    public LazyArray add(LazyArray other) {
+        return new LazyArray(new Binary(Op.ADD, node, other.node));
+    }
+
+    public LazyArray add(Array other) {
+        return new LazyArray(new Binary(Op.ADD, node, new Leaf(other)));
+    }
+
+    public LazyArray sub(LazyArray other) {
+        return new LazyArray(new Binary(Op.SUB, node, other.node));
+    }
+
+    public LazyArray sub(Array other) {
+        return new LazyArray(new Binary(Op.SUB, node, new Leaf(other)));
+    }
+
+    public LazyArray mul(LazyArray other) {
+        return new LazyArray(new Binary(Op.MUL, node, other.node));
+    }
+
+    public LazyArray mul(Array other) {
+        return new LazyArray(new Binary(Op.MUL, node, new Leaf(other)));
+    }
+
+    public LazyArray div(LazyArray other) {
+        return new LazyArray(new Binary(Op.DIV, node, other.node));
+    }
+
+    public LazyArray div(Array other) {
+        return new LazyArray(new Binary(Op.DIV, node, new Leaf(other)));
+    }
+
+    /**
+     * Apply an operator to each element.
+     * @param op The operator
+     * @return An expression with a float result.
+     */
+    public LazyArray apply(DoubleUnaryOperator op) {
+        return new LazyArray(new Apply(op, node));
+    }
+
+    /**
+     * Evaluate the expression. The result is computed on the first call
+     * and returned by later calls.
+     * @return A new Array holding the result.
+     */
+    public Array eval() {
+        if (value == null) {
+            value = evaluate(node);
+        }
+        return value;
+    }
+
+    public int getInt(int... idx) {
+        return eval().getInt(idx);
+    }
+
+    public float getFloat(int... idx) {
+        return eval().getFloat(idx);
+    }
+
+    @Override
+    public String toString() {
+        return eval().toString();
+    }
+
+    private static Array evaluate(Node root) {
+        // A singleton result is computed as a one element array.
+        int[] shape = root.shape.length == 0 ? new int[]{1} : root.shape;
+        Map<Leaf, Integer> operands = new IdentityHashMap<>();
+        root.collect(operands);
+        int numLeaves = operands.size();
+        Array[] views = new Array[numLeaves];
+        int[][] strides = new int[numLeaves + 1][];
+        int size = Array.product(shape, 0, shape.length);
+        strides[0] = Array.contiguousStride(shape);
+        for (Map.Entry<Leaf, Integer> entry : operands.entrySet()) {
+            int k = entry.getValue();
+            views[k] = entry.getKey().array.broadcastTo(shape);
+            strides[k + 1] = views[k].stride;
+        }
+        Object data = root.dataType == int.class ? new int[size] : new float[size];
+        Layout layout = Layout.of(shape, strides);
+        int n = layout.innerSize();
+        int blocksPerRun = Math.max(1, (n + BLOCK - 1) / BLOCK);
+        int numRuns = layout.outer(0, 0).size();
+        int count = n == 0 ? 0 : numRuns * blocksPerRun;
+        int grain = size < PARALLEL_THRESHOLD ? count
+                : Math.max(1, PARALLEL_THRESHOLD / Math.min(n, BLOCK));
+        Parallel.forRange(count, grain, (from, to) -> {
+            Block block = new Block(layout, operands, views);
+            int run = -1;
+            int outIndex = 0;
+            for (int item = from; item < to; item++) {
+                int r = item / blocksPerRun;
+                if (r != run) {
+                    outIndex = block.seek(r);
+                    run = r;
+                }
+                int start = (item - r * blocksPerRun) * BLOCK;
+                int length = Math.min(BLOCK, n - start);
+                block.position(start);
+                if (data instanceof int[]) {
+                    ((IntNode) root).evalInt(block, (int[]) data, outIndex + start, 0, length);
+                } else {
+                    root.evalFloat(block, (float[]) data, outIndex + start, 0, length);
+                }
+            }
+        });
+        if (root.shape.length == 0) {
+            return data instanceof int[]
+                    ? new Array(((int[]) data)[0]) : new Array(((float[]) data)[0]);
+        }
+        return new Array(shape.clone(), strides[0], root.dataType, 0, data);
+    }
+
+    /**
+     * The position of one block within each operand, and the scratch
+     * buffers for the intermediate values of the block.
+     */
+    private static class Block {
+
+        private final Map<Leaf, Integer> operandIndex;
+        private final Array[] operands;
+        private final OffsetCursor[] cursors;
+        private final int[] runStart;
+        private final int[] index;
+        private final int[] stride;
+        private final List<float[]> floatScratch = new ArrayList<>();
+        private final List<int[]> intScratch = new ArrayList<>();
+
+        Block(Layout layout, Map<Leaf, Integer> operandIndex, Array[] operands) {
+            this.operandIndex = operandIndex;
+            this.operands = operands;
+            int numOperands = operands.length;
+            cursors = new OffsetCursor[numOperands + 1];
+            runStart = new int[numOperands + 1];
+            index = new int[numOperands];
+            stride = new int[numOperands];
+            cursors[0] = layout.outer(0, 0);
+            for (int k = 0; k < numOperands; k++) {
+                cursors[k + 1] = layout.outer(k + 1, operands[k].offset);
+                stride[k] = layout.innerStride(k + 1);
+            }
+        }
+
+        /**
+         * Move to the start of a run and return its output index.
+         */
+        int seek(int run) {
+            for (int k = 0; k < cursors.length; k++) {
+                cursors[k].seek(run);
+                runStart[k] = cursors[k].next();
+            }
+            return runStart[0];
+        }
+
+        /**
+         * Move to an element within the current run.
+         */
+        void position(int start) {
+            for (int k = 0; k < index.length; k++) {
+                index[k] = runStart[k + 1] + start * stride[k];
+            }
+        }
+
+        int operand(Leaf leaf) {
+            return operandIndex.get(leaf);
+        }
+
+        float[] floatScratch(int level) {
+            while (floatScratch.size() <= level) {
+                floatScratch.add(new float[BLOCK]);
+            }
+            return floatScratch.get(level);
+        }
+
+        int[] intScratch(int level) {
+            while (intScratch.size() <= level) {
+                intScratch.add(new int[BLOCK]);
+            }
+            return intScratch.get(level);
+        }
+    }
+
+    /**
+     * A node of the expression tree. Each eval method writes the values of
+     * the current block to out[outIndex, outIndex + n), using the scratch
+     * buffers at level and above for intermediate values.
+     */
+    private abstract static class Node {
+
+        final int[] shape;
+        final Class<?> dataType;
+
+        Node(int[] shape, Class<?> dataType) {
+            this.shape = shape;
+            this.dataType = dataType;
+        }
+
+        /**
+         * Number the distinct leaves of the tree in the order visited.
+         */
+        abstract void collect(Map<Leaf, Integer> operands);
+
+        abstract void evalFloat(Block block, float[] out, int outIndex, int level, int n);
+    }
+
+    /**
+     * A node that can also be evaluated with int arithmetic. Only these
+     * nodes have an int data type, so a node whose data type is int can
+     * always be evaluated as an int.
+     */
+    private abstract static class IntNode extends Node {
+
+        IntNode(int[] shape, Class<?> dataType) {
+            super(shape, dataType);
+        }
+
+        abstract void evalInt(Block block, int[] out, int outIndex, int level, int n);
+    }
+
+    private static class Leaf extends IntNode {
+
+        final Array array;
+
+        Leaf(Array array) {
+            super(array.shape, DataTypes.computeType(array.getDataType()));
+            if (dataType != int.class && dataType != float.class) {
+                throw new IllegalArgumentException(String.format(
+                        "Lazy evaluation does not support %s arrays", array.getDataType()));
+            }
+            this.array = array;
+        }
+
+        @Override
+        void collect(Map<Leaf, Integer> operands) {
+            operands.putIfAbsent(this, operands.size());
+        }
+
+        @Override
+        void evalFloat(Block block, float[] out, int outIndex, int level, int n) {
+            int operand = block.operand(this);
+            Array view = block.operands[operand];
+            int index = block.index[operand];
+            int stride = block.stride[operand];
+            if (view.data instanceof float[]) {
+                float[] data = (float[]) view.data;
+                if (stride == 1) {
+                    System.arraycopy(data, index, out, outIndex, n);
+                } else {
+                    for (int i = 0; i < n; i++, index += stride) {
+                        out[outIndex + i] = data[index];
+                    }
+                }
+            } else if (view.data instanceof Storage) {
+                Storage storage = (Storage) view.data;
+                if (storage.getDataType() == float.class) {
+                    storage.getFloats(index, stride, out, outIndex, n);
+                } else {
+                    for (int i = 0; i < n; i++, index += stride) {
+                        out[outIndex + i] = storage.getInt(index);
+                    }
+                }
+            } else {
+                DataTypes.loadFloats(view.getDataType(), view.data, index, stride, out, outIndex, n);
+            }
+        }
+
+        @Override
+        void evalInt(Block block, int[] out, int outIndex, int level, int n) {
+            int operand = block.operand(this);
+            Array view = block.operands[operand];
+            int index = block.index[operand];
+            int stride = block.stride[operand];
+            if (view.data instanceof Storage) {
+                ((Storage) view.data).getInts(index, stride, out, outIndex, n);
+            } else {
+                DataTypes.loadInts(view.getDataType(), view.data, index, stride, out, outIndex, n);
+            }
+        }
+    }
+
+    private static class Binary extends IntNode {
+
+        final Op op;
+        final Node left;
+        final Node right;
+
+        Binary(Op op, Node left, Node right) {
+            super(Array.broadcastShape(left.shape, right.shape),
+                    left.dataType == int.class && right.dataType == int.class
+                    ? int.class : float.class);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void collect(Map<Leaf, Integer> operands) {
+            left.collect(operands);
+            right.collect(operands);
+        }
+
+        @Override
+        void evalFloat(Block block, float[] out, int outIndex, int level, int n) {
+            if (dataType == int.class) {
+                int[] values = block.intScratch(level);
+                evalInt(block, values, 0, level + 1, n);
+                for (int i = 0; i < n; i++) {
+                    out[outIndex + i] = values[i];
+                }
+                return;
+            }
+            left.evalFloat(block, out, outIndex, level, n);
+            float[] y = block.floatScratch(level);
+            right.evalFloat(block, y, 0, level + 1, n);
+            ElementwiseKernels.run(op, n, out, outIndex, 1, y, 0, 1, out, outIndex, 1);
+        }
+
+        @Override
+        void evalInt(Block block, int[] out, int outIndex, int level, int n) {
+            ((IntNode) left).evalInt(block, out, outIndex, level, n);
+            int[] y = block.intScratch(level);
+            ((IntNode) right).evalInt(block, y, 0, level + 1, n);
+            ElementwiseKernels.run(op, n, out, outIndex, 1, y, 0, 1, out, outIndex, 1);
+        }
+    }
+
+    private static class Apply extends Node {
+
+        final DoubleUnaryOperator op;
+        final Node child;
+
+        Apply(DoubleUnaryOperator op, Node child) {
+            super(child.shape, float.class);
+            this.op = op;
+            this.child = child;
+        }
+
+        @Override
+        void collect(Map<Leaf, Integer> operands) {
+            child.collect(operands);
+        }
+
+        @Override
+        void evalFloat(Block block, float[] out, int outIndex, int level, int n) {
+            child.evalFloat(block, out, outIndex, level, n);
+            for (int i = outIndex; i < outIndex + n; i++) {
+                out[i] = (float) op.applyAsDouble(out[i]);
+            }
+        }
+    }
+
+}
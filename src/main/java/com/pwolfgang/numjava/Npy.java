@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Reads and writes the NumPy .npy and .npz formats, so that Arrays can be
+ * exchanged with Python.
+ * <p>
+ * {@link #load(Path)} maps a .npy file. Its 4-byte float and int elements,
+ * in either byte order, are used in place through a {@link Storage} view
+ * whose shape and strides come from the header, so loading is independent
+ * of the size of the file and a Fortran-ordered file gives a transposed
+ * view. The other types are copied to the heap in the nearest data type.
+ * <p>
+ * {@link #save(Path, Array)} streams the elements of any view, strided or
+ * broadcast, through a fixed-size buffer without copying the view first.
+ * <p>
+ * A .npz file is a zip archive of .npy files. Its members are read into
+ * the heap, since a member may be compressed, and are written compressed.
+ *
+ * @author Paul
+ */
+public final class Npy {
+
+    private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    /** The header and data of a .npy file start on this boundary. */
+    private static final int ALIGNMENT = 64;
+    /** The size in bytes of the buffer that elements are written through. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private static final Pattern DESCR = Pattern.compile("'descr'\\s*:\\s*'([<>|=])([a-z])(\\d+)'");
+    private static final Pattern FORTRAN = Pattern.compile("'fortran_order'\\s*:\\s*(True|False)");
+    private static final Pattern SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(([^)]*)\\)");
+
+    private Npy() {
+    }
+
+    /**
+     * Map a .npy file as an Array.
+     * @param fileName The name of the file
+     * @return An Array with the shape, type and order of the file.
+     * @throws IllegalArgumentException if the file is not a .npy file or its
+     * type is not supported.
+     * @throws UncheckedIOException if the file cannot be read.
+     */
+    public static Array load(String fileName) {
+        return load(Paths.get(fileName));
+    }
+
+    /**
+     * Map a .npy file as an Array.
+     * @see #load(String)
+     */
+    public static Array load(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer prefix = ByteBuffer.allocate((int) Math.min(channel.size(), 12));
+            channel.read(prefix, 0);
+            int headerLength = headerLength(prefix, path.toString());
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            channel.read(header, prefixLength(prefix));
+            header.flip();
+            Header h = Header.parse(header, path.toString());
+            long dataStart = prefixLength(prefix) + headerLength;
+            long dataSize = (long) h.size * h.itemSize;
+            if (channel.size() < dataStart + dataSize) {
+                throw new IllegalArgumentException(
+                        String.format("%s is too short for its shape", path));
+            }
+            // An empty file has nothing to map, so it is read as a heap Array.
+            if (h.size > 0 && h.itemSize == 4 && (h.kind == 'f' || h.kind == 'i')) {
+                Storage storage = Storage.map(channel, dataStart, h.size,
+                        h.kind == 'f' ? float.class : int.class, h.order);
+                return h.wrap(storage);
+            }
+            if (dataSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        String.format("%s is too large to copy to the heap", path));
+            }
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, dataStart, dataSize);
+            return h.copy(data);
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+    }
+
+    /**
+     * Read a .npy image held in a buffer, copying its elements.
+     */
+    static Array read(ByteBuffer buffer, String name) {
+        int headerLength = headerLength(buffer, name);
+        int prefixLength = prefixLength(buffer);
+        ByteBuffer header = buffer.duplicate();
+        header.position(prefixLength);
+        header.limit(prefixLength + headerLength);
+        Header h = Header.parse(header.slice(), name);
+        ByteBuffer data = buffer.duplicate();
+        data.position(prefixLength + headerLength);
+        if (data.remaining() < (long) h.size * h.itemSize) {
+            throw new IllegalArgumentException(
+                    String.format("%s is too short for its shape", name));
+        }
+        return h.copy(data.slice());
+    }
+
+    /**
+     * Write an Array to a .npy file.
+     * @param fileName The name of the file
+     * @param a The Array, which may be any view.
+     * @throws UncheckedIOException if the file cannot be written.
+     */
+    public static void save(String fileName, Array a) {
+        save(Paths.get(fileName), a);
+    }
+
+    /**
+     * Write an Array to a .npy file.
+     * @see #save(String, Array)
+     */
+    public static void save(Path path, Array a) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(a, channel);
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+    }
+
+    /**
+     * Read every Array of a .npz file.
+     * @param fileName The name of the file
+     * @return The Arrays by name, in the order of the archive.
+     * @throws UncheckedIOException if the file cannot be read.
+     */
+    public static Map<String, Array> loadNpz(String fileName) {
+        return loadNpz(Paths.get(fileName));
+    }
+
+    /**
+     * Read every Array of a .npz file.
+     * @see #loadNpz(String)
+     */
+    public static Map<String, Array> loadNpz(Path path) {
+        Map<String, Array> arrays = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (!name.endsWith(".npy")) {
+                    continue;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(readAll(in));
+                    arrays.put(name.substring(0, name.length() - 4), read(buffer, name));
+                }
+            }
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+        return arrays;
+    }
+
+    /**
+     * Write Arrays to a .npz file, each as a compressed member named for
+     * its key.
+     * @param fileName The name of the file
+     * @param arrays The Arrays by name
+     * @throws UncheckedIOException if the file cannot be written.
+     */
+    public static void saveNpz(String fileName, Map<String, Array> arrays) {
+        saveNpz(Paths.get(fileName), arrays);
+    }
+
+    /**
+     * Write Arrays to a .npz file.
+     * @see #saveNpz(String, Map)
+     */
+    public static void saveNpz(Path path, Map<String, Array> arrays) {
+        try (OutputStream out = Files.newOutputStream(path);
+                ZipOutputStream zip = new ZipOutputStream(out)) {
+            WritableByteChannel channel = Channels.newChannel(zip);
+            for (Map.Entry<String, Array> entry : arrays.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey() + ".npy"));
+                write(entry.getValue(), channel);
+                zip.closeEntry();
+            }
+        } catch (IOException ioex) {
+            throw new UncheckedIOException(ioex);
+        }
+    }
+
+    /**
+     * Write an Array in .npy format. The elements are gathered from the
+     * view a run at a time into a buffer of BUFFER_SIZE bytes.
+     */
+    static void write(Array a, WritableByteChannel channel) throws IOException {
+        Class<?> type = a.getDataType();
+        if (type == BFloat16.class) {
+            // NumPy has no bfloat16, so it is written as float32.
+            a = a.asType(float.class);
+            type = float.class;
+        }
+        String descr = descr(type);
+        StringJoiner shape = new StringJoiner(", ", "(", a.numDim == 1 ? ",)" : ")");
+        for (int d : a.shape) {
+            shape.add(Integer.toString(d));
+        }
+        String dict = String.format("{'descr': '%s', 'fortran_order': False, 'shape': %s, }",
+                descr, shape);
+        int version = dict.length() + 11 > 0xffff ? 2 : 1;
+        int prefixLength = version == 1 ? 10 : 12;
+        int headerLength = dict.length() + 1;
+        headerLength += (ALIGNMENT - (prefixLength + headerLength) % ALIGNMENT) % ALIGNMENT;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, prefixLength + headerLength))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC).put((byte) version).put((byte) 0);
+        if (version == 1) {
+            buffer.putShort((short) headerLength);
+        } else {
+            buffer.putInt(headerLength);
+        }
+        buffer.put(dict.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.position() < prefixLength + headerLength - 1) {
+            buffer.put((byte) ' ');
+        }
+        buffer.put((byte) '\n');
+        if (a.numDim == 0) {
+            a = a.broadcastTo(1);
+        }
+        if (a.isDirect() && type != int.class && type != float.class) {
+            // Direct storage is only read in bulk as int or float.
+            a = a.toHeap();
+        }
+        int itemSize = Integer.parseInt(descr.substring(2));
+        Layout layout = Layout.of(a.shape, a.stride);
+        int n = layout.innerSize();
+        int runStride = layout.innerStride(0);
+        OffsetCursor cursor = layout.outer(0, a.offset);
+        while (cursor.hasNext()) {
+            int index = cursor.next();
+            for (int done = 0; done < n; ) {
+                if (buffer.remaining() < itemSize) {
+                    flush(buffer, channel);
+                }
+                int m = Math.min(n - done, buffer.remaining() / itemSize);
+                put(buffer, a, index + done * runStride, runStride, m);
+                done += m;
+            }
+        }
+        flush(buffer, channel);
+    }
+
+    private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Put m elements of a, starting at index and stride apart, into the
+     * buffer in little-endian order.
+     */
+    private static void put(ByteBuffer buffer, Array a, int index, int stride, int m) {
+        Object data = a.data;
+        if (data instanceof Storage) {
+            Storage storage = (Storage) data;
+            if (storage.getDataType() == float.class) {
+                float[] values = new float[m];
+                storage.getFloats(index, stride, values, 0, m);
+                buffer.asFloatBuffer().put(values);
+            } else {
+                int[] values = new int[m];
+                storage.getInts(index, stride, values, 0, m);
+                buffer.asIntBuffer().put(values);
+            }
+            buffer.position(buffer.position() + 4 * m);
+        } else if (data instanceof float[]) {
+            float[] values = (float[]) data;
+            for (int i = 0; i < m; i++, index += stride) {
+                buffer.putFloat(values[index]);
+            }
+        } else if (data instanceof int[]) {
+            int[] values = (int[]) data;
+            for (int i = 0; i < m; i++, index += stride) {
+                buffer.putInt(values[index]);
+            }
+        } else if (data instanceof double[]) {
+            double[] values = (double[]) data;
+            for (int i = 0; i < m; i++, index += stride) {
+                buffer.putDouble(values[index]);
+            }
+        } else if (data instanceof long[]) {
+            long[] values = (long[]) data;
+            for (int i = 0; i < m; i++, index += stride) {
+                buffer.putLong(values[index]);
+            }
+        } else if (data instanceof short[]) {
+            short[] values = (short[]) data;
+            for (int i = 0; i < m; i++, index += stride) {
+                buffer.putShort(values[index]);
+            }
+        } else {
+            byte[] values = (byte[]) data;
+            for (int i = 0; i < m; i++, index += stride) {
+                buffer.put(values[index]);
+            }
+        }
+    }
+
+    /**
+     * Return the NumPy type string of a data type.
+     */
+    private static String descr(Class<?> type) {
+        if (type == float.class) {
+            return "<f4";
+        } else if (type == int.class) {
+            return "<i4";
+        } else if (type == double.class) {
+            return "<f8";
+        } else if (type == long.class) {
+            return "<i8";
+        } else if (type == short.class) {
+            return "<i2";
+        } else if (type == UInt16.class) {
+            return "<u2";
+        } else if (type == Float16.class) {
+            return "<f2";
+        } else if (type == byte.class) {
+            return "|i1";
+        } else if (type == UInt8.class) {
+            return "|u1";
+        }
+        throw new IllegalArgumentException(
+                String.format("%s is not a supported data type", type));
+    }
+
+    /**
+     * Check the magic string of a .npy image and return the length of its
+     * header.
+     */
+    private static int headerLength(ByteBuffer buffer, String name) {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < 10) {
+            throw new IllegalArgumentException(
+                    String.format("%s is too short for a .npy header", name));
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                throw new IllegalArgumentException(
+                        String.format("%s is not a .npy file", name));
+            }
+        }
+        int version = buffer.get(6);
+        if (version == 1) {
+            return buffer.getShort(8) & 0xffff;
+        }
+        if ((version == 2 || version == 3) && buffer.limit() >= 12) {
+            int length = buffer.getInt(8);
+            if (length >= 0) {
+                return length;
+            }
+        }
+        throw new IllegalArgumentException(
+                String.format("%s has unsupported .npy version %d", name, version));
+    }
+
+    private static int prefixLength(ByteBuffer buffer) {
+        return buffer.get(6) == 1 ? 10 : 12;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The type, order and shape given by a .npy header.
+     */
+    private static final class Header {
+
+        final char kind;
+        final int itemSize;
+        final ByteOrder order;
+        final boolean fortranOrder;
+        final int[] shape;
+        final int size;
+
+        private Header(char kind, int itemSize, ByteOrder order, boolean fortranOrder, int[] shape, int size) {
+            this.kind = kind;
+            this.itemSize = itemSize;
+            this.order = order;
+            this.fortranOrder = fortranOrder;
+            this.shape = shape;
+            this.size = size;
+        }
+
+        static Header parse(ByteBuffer buffer, String name) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            String dict = new String(bytes, StandardCharsets.ISO_8859_1);
+            Matcher descr = DESCR.matcher(dict);
+            Matcher fortran = FORTRAN.matcher(dict);
+            Matcher shapeMatcher = SHAPE.matcher(dict);
+            if (!descr.find() || !fortran.find() || !shapeMatcher.find()) {
+                throw new IllegalArgumentException(
+                        String.format("%s has an unrecognized header %s", name, dict.trim()));
+            }
+            char kind = descr.group(2).charAt(0);
+            int itemSize = Integer.parseInt(descr.group(3));
+            if (dataType(kind, itemSize) == null) {
+                throw new IllegalArgumentException(
+                        String.format("%s has unsupported type %s%s", name, descr.group(2), descr.group(3)));
+            }
+            ByteOrder order = descr.group(1).equals(">") ? ByteOrder.BIG_ENDIAN
+                    : descr.group(1).equals("=") ? ByteOrder.nativeOrder() : ByteOrder.LITTLE_ENDIAN;
+            String dims = shapeMatcher.group(1).trim();
+            String[] parts = dims.isEmpty() ? new String[0] : dims.split("\\s*,\\s*");
+            int[] shape = new int[parts.length];
+            long size = 1;
+            for (int i = 0; i < parts.length; i++) {
+                shape[i] = Integer.parseInt(parts[i].trim());
+                size *= shape[i];
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        String.format("%s has more than %d elements", name, Integer.MAX_VALUE));
+            }
+            return new Header(kind, itemSize, order, fortran.group(1).equals("True"), shape, (int) size);
+        }
+
+        /**
+         * Return the data type for a NumPy kind and size, or null if there
+         * is none.
+         */
+        static Class<?> dataType(char kind, int itemSize) {
+            switch (kind) {
+                case 'f':
+                    return itemSize == 2 ? Float16.class : itemSize == 4 ? float.class
+                            : itemSize == 8 ? double.class : null;
+                case 'i':
+                    return itemSize == 1 ? byte.class : itemSize == 2 ? short.class
+                            : itemSize == 4 ? int.class : itemSize == 8 ? long.class : null;
+                case 'u':
+                    return itemSize == 1 ? UInt8.class : itemSize == 2 ? UInt16.class
+                            : itemSize == 4 ? long.class : null;
+                case 'b':
+                    return itemSize == 1 ? UInt8.class : null;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Return the strides of the elements in the file.
+         */
+        int[] stride() {
+            if (!fortranOrder) {
+                return Array.contiguousStride(shape);
+            }
+            int[] stride = new int[shape.length];
+            int s = 1;
+            for (int i = 0; i < shape.length; i++) {
+                stride[i] = s;
+                s *= shape[i];
+            }
+            return stride;
+        }
+
+        /**
+         * Return an Array that views the elements in storage.
+         */
+        Array wrap(Storage storage) {
+            if (shape.length == 0) {
+                return new Array(new int[]{1}, new int[]{1}, storage.getDataType(), 0, storage)
+                        .getSubArray(0);
+            }
+            return new Array(shape, stride(), storage.getDataType(), 0, storage);
+        }
+
+        /**
+         * Copy the elements from a buffer to the heap.
+         */
+        Array copy(ByteBuffer data) {
+            data = data.duplicate().order(order);
+            Class<?> type = dataType(kind, itemSize);
+            int n = Math.max(size, shape.length == 0 ? 1 : 0);
+            Object values = DataTypes.newData(type, n);
+            if (kind == 'u' && itemSize == 4) {
+                long[] longs = (long[]) values;
+                for (int i = 0; i < n; i++) {
+                    longs[i] = data.getInt(4 * i) & 0xffffffffL;
+                }
+            } else if (values instanceof float[]) {
+                data.asFloatBuffer().get((float[]) values);
+            } else if (values instanceof int[]) {
+                data.asIntBuffer().get((int[]) values);
+            } else if (values instanceof double[]) {
+                data.asDoubleBuffer().get((double[]) values);
+            } else if (values instanceof long[]) {
+                data.asLongBuffer().get((long[]) values);
+            } else if (values instanceof short[]) {
+                data.asShortBuffer().get((short[]) values);
+            } else {
+                data.get((byte[]) values);
+            }
+            if (shape.length == 0) {
+                return new Array(new int[]{1}, new int[]{1}, type, 0, values).getSubArray(0);
+            }
+            return new Array(shape, stride(), type, 0, values);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Visits the elements of a strided array in row-major order and returns the
+ * index of each one in the data array. Unlike {@link IndexIterator} it does
+ * not allocate per element: the data index is updated by adding the stride
+ * of the dimension that advanced and subtracting the span of the dimensions
+ * that wrapped.
+ *
+ * @author Paul
+ */
+public final class OffsetCursor {
+
+    private final int numDim;
+    private final int[] shape;
+    private final int[] stride;
+    private final int[] counter;
+    private final int start;
+    private final int size;
+    private int offset;
+    private int position;
+
+    /**
+     * Create a cursor over the elements of an Array.
+     * @param array The array to visit.
+     */
+    public OffsetCursor(Array array) {
+        this(array.shape, array.stride, array.offset);
+    }
+
+    /**
+     * Create a cursor over the given shape and stride.
+     * @param shape The shape
+     * @param stride The stride of each dimension
+     * @param offset The data index of the first element.
+     */
+    public OffsetCursor(int[] shape, int[] stride, int offset) {
+        this.numDim = shape.length;
+        this.shape = shape;
+        this.stride = stride;
+        this.counter = new int[numDim];
+        this.start = offset;
+        this.offset = offset;
+        int s = 1;
+        for (int d : shape) {
+            s *= d;
+        }
+        this.size = s;
+        this.position = 0;
+    }
+
+    public boolean hasNext() {
+        return position < size;
+    }
+
+    /**
+     * Return the data index of the next element and advance.
+     * @return The data index.
+     * @throws NoSuchElementException if every element has been visited.
+     */
+    public int next() {
+        if (position >= size) {
+            throw new NoSuchElementException();
+        }
+        int result = offset;
+        position++;
+        for (int i = numDim - 1; i >= 0; i--) {
+            if (++counter[i] < shape[i]) {
+                offset += stride[i];
+                return result;
+            }
+            counter[i] = 0;
+            offset -= stride[i] * (shape[i] - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Position the cursor so that the next element returned is the one at
+     * the given row-major position.
+     * @param flatIndex The position, between 0 and the number of elements.
+     */
+    public void seek(int flatIndex) {
+        if (flatIndex < 0 || flatIndex > size) {
+            throw new IndexOutOfBoundsException(Integer.toString(flatIndex));
+        }
+        position = flatIndex;
+        offset = start;
+        if (flatIndex == size) {
+            return;
+        }
+        for (int i = numDim - 1; i >= 0; i--) {
+            counter[i] = flatIndex % shape[i];
+            flatIndex /= shape[i];
+            offset += counter[i] * stride[i];
+        }
+    }
+
+    /**
+     * Return the number of elements visited.
+     * @return The total number of elements.
+     */
+    public int size() {
+        return size;
+    }
+
+}
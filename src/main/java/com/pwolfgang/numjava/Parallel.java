@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Controls how the kernels use multiple cores. Work is split into fork/join
+ * tasks and run on the configured pool, which is the common pool unless
+ * another one is set.
+ *
+ * @author Paul
+ */
+public final class Parallel {
+
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+    private static volatile boolean enabled = true;
+    private static volatile boolean deterministic = false;
+
+    private Parallel() {
+    }
+
+    /**
+     * Set the pool that parallel kernels run on.
+     * @param pool The pool to use.
+     */
+    public static void setPool(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool may not be null");
+        }
+        Parallel.pool = pool;
+    }
+
+    /**
+     * Return the pool that parallel kernels run on.
+     * @return The pool.
+     */
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Enable or disable the use of multiple threads.
+     * @param enabled false to run every kernel on the calling thread.
+     */
+    public static void setEnabled(boolean enabled) {
+        Parallel.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Request results that are bit-for-bit identical to the single-threaded
+     * kernels. When false, a kernel may split a sum across threads and
+     * add the partial sums, which rounds differently.
+     * @param deterministic true to require identical results.
+     */
+    public static void setDeterministic(boolean deterministic) {
+        Parallel.deterministic = deterministic;
+    }
+
+    public static boolean isDeterministic() {
+        return deterministic;
+    }
+
+    /**
+     * Return the number of threads a kernel should plan for.
+     * @return 1 if parallelism is disabled, otherwise the pool's parallelism.
+     */
+    static int parallelism() {
+        return enabled ? pool.getParallelism() : 1;
+    }
+
+    /**
+     * Run a task over the range [0, count) split into chunks of at least
+     * grain elements. The chunks are run by the pool and the method returns
+     * when all of them are done.
+     * @param count The size of the range
+     * @param grain The smallest chunk worth giving to a thread.
+     * @param task The task to run on each chunk.
+     */
+    static void forRange(int count, int grain, RangeTask task) {
+        int threads = parallelism();
+        if (threads <= 1 || count <= grain) {
+            task.run(0, count);
+            return;
+        }
+        int leafSize = Math.max(grain, (count + 4 * threads - 1) / (4 * threads));
+        invoke(new RangeAction(task, 0, count, leafSize));
+    }
+
+    /**
+     * Run a fork/join task on the pool, or directly if the caller is
+     * already a worker of the pool. Callers on any other pool, such as a
+     * parallel stream on the common pool, hand the task to the pool.
+     * @param task The task to run.
+     */
+    static void invoke(ForkJoinTask<?> task) {
+        ForkJoinPool target = pool;
+        if (ForkJoinTask.getPool() == target) {
+            task.invoke();
+        } else {
+            target.invoke(task);
+        }
+    }
+
+    /**
+     * A piece of work over a sub-range of indices.
+     */
+    interface RangeTask {
+        void run(int from, int to);
+    }
+
+    private static class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask task;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        RangeAction(RangeTask task, int from, int to, int leafSize) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                task.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeAction(task, from, mid, leafSize),
+                    new RangeAction(task, mid, to, leafSize));
+        }
+    }
+
+}
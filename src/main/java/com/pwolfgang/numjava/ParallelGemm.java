@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multi-threaded matrix multiply. C is split recursively into row and
+ * column tiles which are multiplied by {@link Gemm} on the fork/join pool,
+ * so idle threads steal the remaining tiles.
+ * <p>
+ * Splitting C does not change the order in which any element is summed, so
+ * the result is the same as the serial kernel. When C is too small to give
+ * every thread a tile and {@link Parallel#isDeterministic()} is false, the
+ * inner dimension is split instead and the partial products are added.
+ *
+ * @author Paul
+ */
+final class ParallelGemm {
+
+    /** Products with fewer multiply-adds than this run on one thread. */
+    static final long THRESHOLD = 1L << 18;
+
+    private ParallelGemm() {
+    }
+
+    /**
+     * Compute C = A * B where A is m x k and B is k x n. A and B are each
+     * a float[] or an int[].
+     *
+     * @see Gemm#sgemm
+     */
+    static void sgemm(int m, int n, int k,
+            Object a, int aOffset, int aRowStride, int aColStride,
+            Object b, int bOffset, int bRowStride, int bColStride,
+            float[] c, int cOffset, int cRowStride) {
+        int threads = Parallel.parallelism();
+        long work = (long) m * n * k;
+        if (threads <= 1 || work < THRESHOLD) {
+            Gemm.sgemm(m, n, k, a, aOffset, aRowStride, aColStride,
+                    b, bOffset, bRowStride, bColStride, c, cOffset, cRowStride);
+            return;
+        }
+        int kChunks = innerSplit(m, n, k, threads);
+        if (kChunks > 1) {
+            splitInner(m, n, k, kChunks, a, aOffset, aRowStride, aColStride,
+                    b, bOffset, bRowStride, bColStride, c, cOffset, cRowStride);
+            return;
+        }
+        long leafWork = Math.max(THRESHOLD / 4, work / (4L * threads));
+        Parallel.invoke(new FloatTile(0, m, 0, n, k, leafWork,
+                a, aOffset, aRowStride, aColStride,
+                b, bOffset, bRowStride, bColStride, c, cOffset, cRowStride));
+    }
+
+    /**
+     * Compute C = A * B where A is m x k and B is k x n.
+     *
+     * @see Gemm#igemm
+     */
+    static void igemm(int m, int n, int k,
+            int[] a, int aOffset, int aRowStride, int aColStride,
+            int[] b, int bOffset, int bRowStride, int bColStride,
+            int[] c, int cOffset, int cRowStride) {
+        int threads = Parallel.parallelism();
+        long work = (long) m * n * k;
+        if (threads <= 1 || work < THRESHOLD) {
+            Gemm.igemm(m, n, k, a, aOffset, aRowStride, aColStride,
+                    b, bOffset, bRowStride, bColStride, c, cOffset, cRowStride);
+            return;
+        }
+        // Integer addition is associative so the tile split is always exact.
+        long leafWork = Math.max(THRESHOLD / 4, work / (4L * threads));
+        Parallel.invoke(new IntTile(0, m, 0, n, k, leafWork,
+                a, aOffset, aRowStride, aColStride,
+                b, bOffset, bRowStride, bColStride, c, cOffset, cRowStride));
+    }
+
+    /**
+     * Compute C = A * B where A is m x k and B is k x n. Large products are
+     * split across threads by rows of C.
+     *
+     * @see Gemm#dgemm
+     */
+    static void dgemm(int m, int n, int k,
+            double[] a, int aOffset, int aRowStride, int aColStride,
+            double[] b, int bOffset, int bRowStride, int bColStride,
+            double[] c, int cOffset, int cRowStride) {
+        Parallel.forRange(m, rowGrain(n, k), (from, to) ->
+                Gemm.dgemm(to - from, n, k, a, aOffset + from * aRowStride, aRowStride, aColStride,
+                        b, bOffset, bRowStride, bColStride, c, cOffset + from * cRowStride, cRowStride));
+    }
+
+    /**
+     * Compute C = A * B where A is m x k and B is k x n.
+     *
+     * @see #dgemm
+     */
+    static void lgemm(int m, int n, int k,
+            long[] a, int aOffset, int aRowStride, int aColStride,
+            long[] b, int bOffset, int bRowStride, int bColStride,
+            long[] c, int cOffset, int cRowStride) {
+        Parallel.forRange(m, rowGrain(n, k), (from, to) ->
+                Gemm.lgemm(to - from, n, k, a, aOffset + from * aRowStride, aRowStride, aColStride,
+                        b, bOffset, bRowStride, bColStride, c, cOffset + from * cRowStride, cRowStride));
+    }
+
+    /**
+     * Return the number of rows of C that make up THRESHOLD multiply-adds.
+     */
+    private static int rowGrain(int n, int k) {
+        return (int) Math.max(1, THRESHOLD / Math.max(1L, (long) n * k));
+    }
+
+    /**
+     * Decide how many pieces to split the inner dimension into. This is
+     * only done when the tiles of C cannot keep every thread busy and the
+     * caller has not asked for deterministic results.
+     */
+    static int innerSplit(int m, int n, int k, int threads) {
+        if (Parallel.isDeterministic()) {
+            return 1;
+        }
+        long tiles = (long) ((m + Gemm.MR - 1) / Gemm.MR) * ((n + Gemm.NR - 1) / Gemm.NR);
+        if (tiles >= threads) {
+            return 1;
+        }
+        return Math.max(1, Math.min(threads, k / Gemm.KC));
+    }
+
+    private static void splitInner(int m, int n, int k, int kChunks,
+            Object a, int aOffset, int aRowStride, int aColStride,
+            Object b, int bOffset, int bRowStride, int bColStride,
+            float[] c, int cOffset, int cRowStride) {
+        float[][] partial = new float[kChunks][m * n];
+        Parallel.forRange(kChunks, 1, (from, to) -> {
+            for (int chunk = from; chunk < to; chunk++) {
+                int k0 = (int) ((long) k * chunk / kChunks);
+                int k1 = (int) ((long) k * (chunk + 1) / kChunks);
+                Gemm.sgemm(m, n, k1 - k0,
+                        a, aOffset + k0 * aColStride, aRowStride, aColStride,
+                        b, bOffset + k0 * bRowStride, bRowStride, bColStride,
+                        partial[chunk], 0, n);
+            }
+        });
+        for (int i = 0; i < m; i++) {
+            int cIndex = cOffset + i * cRowStride;
+            for (int j = 0; j < n; j++) {
+                float sum = 0.0f;
+                for (int chunk = 0; chunk < kChunks; chunk++) {
+                    sum += partial[chunk][i * n + j];
+                }
+                c[cIndex + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * Split a range at a multiple of the register tile size.
+     */
+    private static int split(int low, int high, int tileSize) {
+        int mid = low + (high - low) / 2;
+        mid = low + Gemm.roundUp(mid - low, tileSize);
+        return mid < high ? mid : (low + high) >>> 1;
+    }
+
+    private static class FloatTile extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int i0, i1, j0, j1, k;
+        private final long leafWork;
+        private final Object a, b;
+        private final float[] c;
+        private final int aOffset, aRowStride, aColStride;
+        private final int bOffset, bRowStride, bColStride;
+        private final int cOffset, cRowStride;
+
+        FloatTile(int i0, int i1, int j0, int j1, int k, long leafWork,
+                Object a, int aOffset, int aRowStride, int aColStride,
+                Object b, int bOffset, int bRowStride, int bColStride,
+                float[] c, int cOffset, int cRowStride) {
+            this.i0 = i0;
+            this.i1 = i1;
+            this.j0 = j0;
+            this.j1 = j1;
+            this.k = k;
+            this.leafWork = leafWork;
+            this.a = a;
+            this.aOffset = aOffset;
+            this.aRowStride = aRowStride;
+            this.aColStride = aColStride;
+            this.b = b;
+            this.bOffset = bOffset;
+            this.bRowStride = bRowStride;
+            this.bColStride = bColStride;
+            this.c = c;
+            this.cOffset = cOffset;
+            this.cRowStride = cRowStride;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = i1 - i0;
+            int cols = j1 - j0;
+            boolean canSplitRows = rows > Gemm.MR;
+            boolean canSplitCols = cols > Gemm.SNR;
+            if ((long) rows * cols * k <= leafWork || !(canSplitRows || canSplitCols)) {
+                Gemm.sgemm(rows, cols, k,
+                        a, aOffset + i0 * aRowStride, aRowStride, aColStride,
+                        b, bOffset + j0 * bColStride, bRowStride, bColStride,
+                        c, cOffset + i0 * cRowStride + j0, cRowStride);
+                return;
+            }
+            if (canSplitRows && (rows >= cols || !canSplitCols)) {
+                int mid = split(i0, i1, Gemm.MR);
+                invokeAll(tile(i0, mid, j0, j1), tile(mid, i1, j0, j1));
+            } else {
+                int mid = split(j0, j1, Gemm.SNR);
+                invokeAll(tile(i0, i1, j0, mid), tile(i0, i1, mid, j1));
+            }
+        }
+
+        private FloatTile tile(int i0, int i1, int j0, int j1) {
+            return new FloatTile(i0, i1, j0, j1, k, leafWork,
+                    a, aOffset, aRowStride, aColStride,
+                    b, bOffset, bRowStride, bColStride, c, cOffset, cRowStride);
+        }
+    }
+
+    private static class IntTile extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int i0, i1, j0, j1, k;
+        private final long leafWork;
+        private final int[] a, b, c;
+        private final int aOffset, aRowStride, aColStride;
+        private final int bOffset, bRowStride, bColStride;
+        private final int cOffset, cRowStride;
+
+        IntTile(int i0, int i1, int j0, int j1, int k, long leafWork,
+                int[] a, int aOffset, int aRowStride, int aColStride,
+                int[] b, int bOffset, int bRowStride, int bColStride,
+                int[] c, int cOffset, int cRowStride) {
+            this.i0 = i0;
+            this.i1 = i1;
+            this.j0 = j0;
+            this.j1 = j1;
+            this.k = k;
+            this.leafWork = leafWork;
+            this.a = a;
+            this.aOffset = aOffset;
+            this.aRowStride = aRowStride;
+            this.aColStride = aColStride;
+            this.b = b;
+            this.bOffset = bOffset;
+            this.bRowStride = bRowStride;
+            this.bColStride = bColStride;
+            this.c = c;
+            this.cOffset = cOffset;
+            this.cRowStride = cRowStride;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = i1 - i0;
+            int cols = j1 - j0;
+            boolean canSplitRows = rows > Gemm.MR;
+            boolean canSplitCols = cols > Gemm.NR;
+            if ((long) rows * cols * k <= leafWork || !(canSplitRows || canSplitCols)) {
+                Gemm.igemm(rows, cols, k,
+                        a, aOffset + i0 * aRowStride, aRowStride, aColStride,
+                        b, bOffset + j0 * bColStride, bRowStride, bColStride,
+                        c, cOffset + i0 * cRowStride + j0, cRowStride);
+                return;
+            }
+            if (canSplitRows && (rows >= cols || !canSplitCols)) {
+                int mid = split(i0, i1, Gemm.MR);
+                invokeAll(tile(i0, mid, j0, j1), tile(mid, i1, j0, j1));
+            } else {
+                int mid = split(j0, j1, Gemm.NR);
+                invokeAll(tile(i0, i1, j0, mid), tile(i0, i1, mid, j1));
+            }
+        }
+
+        private IntTile tile(int i0, int i1, int j0, int j1) {
+            return new IntTile(i0, i1, j0, j1, k, leafWork,
+                    a, aOffset, aRowStride, aColStride,
+                    b, bOffset, bRowStride, bColStride, c, cOffset, cRowStride);
+        }
+    }
+
+}
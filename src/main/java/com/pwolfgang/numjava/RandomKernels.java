@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.SplittableRandom;
+
+/**
+ * Parallel fills with random values. The elements are divided into chunks
+ * of a fixed size, and each chunk draws from its own SplittableRandom,
+ * split in turn from one made from the seed. The values therefore depend
+ * only on the seed and the number of elements, not on how the chunks are
+ * spread across threads.
+ *
+ * @author Paul
+ */
+final class RandomKernels {
+
+    /** The number of elements drawn from each stream. */
+    static final int CHUNK = 1 << 14;
+
+    private RandomKernels() {
+    }
+
+    /**
+     * Fill dst with values uniformly distributed in [low, high). The value
+     * is computed in float from a float in [0, 1), and drawn again in the
+     * rare case that rounding takes it to high.
+     */
+    static void uniform(long seed, float low, float high, float[] dst) {
+        SplittableRandom[] streams = streams(seed, dst.length);
+        float scale = high - low;
+        Parallel.forRange(streams.length, 1, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                SplittableRandom random = streams[c];
+                int end = Math.min(dst.length, (c + 1) * CHUNK);
+                for (int i = c * CHUNK; i < end; i++) {
+                    float value;
+                    do {
+                        value = low + scale * nextFloat(random);
+                    } while (value >= high);
+                    dst[i] = value;
+                }
+            }
+        });
+    }
+
+    /**
+     * Return a float in [0, 1) with 24 random bits.
+     */
+    private static float nextFloat(SplittableRandom random) {
+        return (random.nextInt() >>> 8) * 0x1.0p-24f;
+    }
+
+    /**
+     * Fill dst with normally distributed values, using the Box-Muller
+     * transform to make them in pairs.
+     */
+    static void normal(long seed, float mean, float std, float[] dst) {
+        SplittableRandom[] streams = streams(seed, dst.length);
+        Parallel.forRange(streams.length, 1, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                SplittableRandom random = streams[c];
+                int end = Math.min(dst.length, (c + 1) * CHUNK);
+                for (int i = c * CHUNK; i < end; i += 2) {
+                    double r = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+                    double theta = 2.0 * Math.PI * random.nextDouble();
+                    dst[i] = (float) (mean + std * r * Math.cos(theta));
+                    if (i + 1 < end) {
+                        dst[i + 1] = (float) (mean + std * r * Math.sin(theta));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Split one stream per chunk of n elements from the seed.
+     */
+    private static SplittableRandom[] streams(long seed, int n) {
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[(n + CHUNK - 1) / CHUNK];
+        for (int c = 0; c < streams.length; c++) {
+            streams[c] = root.split();
+        }
+        return streams;
+    }
+
+}
@@ -17,29 +17,79 @@ import java.io.UncheckedIOException;
  */
 public class ReadMNIST {
 
+    /**
+     * Read a file of images, scaling each pixel to [0, 1]. The file is
+     * memory mapped and converted in parallel.
+     * @param fileName The IDX file
+     * @return A float Array with one row per image.
+     * @see IdxFile
+     */
     public static Array readImages(String fileName) {
-        try (InputStream in = new BufferedInputStream(new FileInputStream(fileName))) {
-            int magicNumber = readInt(in);
-            if (magicNumber != 2051) {
-                throw new RuntimeException("Unrecognized magic number " + magicNumber);
-            }
-            int numItems = readInt(in);
-            int numRows = readInt(in);
-            int numCols = readInt(in);
-            int total = numItems*numRows*numCols;
-            float[] data = new float[total];
-            for (int i = 0; i < total; i++) {
-                data[i] = in.read()/255.0f;
-            }
-            int[] shape = new int[]{numItems, numRows*numCols};
-            int[] stride = new int[]{numRows*numCols, 1};
-            return new Array(shape, stride, float.class, 0, data);
-            
-        } catch (IOException ioex) {
-            throw new UncheckedIOException(ioex);
+        IdxFile file = IdxFile.map(fileName);
+        int magicNumber = file.getMagicNumber();
+        if (magicNumber != 2051) {
+            throw new RuntimeException("Unrecognized magic number " + magicNumber);
         }
+        int[] shape = file.getShape();
+        return file.toFloat(255.0f).reShape(shape[0], shape[1]*shape[2]);
     }
     
+    /**
+     * Read a file of images as unsigned bytes that stay in the mapped file,
+     * instead of the floats of {@link #readImages}. The arithmetic operations widen the bytes as
+     * they are loaded, so <code>images.div(new Array(255.0f))</code>
+     * gives the scaled pixels.
+     * @param fileName The IDX file
+     * @return A {@link UInt8} Array with one row per image.
+     */
+    public static Array readImageBytes(String fileName) {
+        IdxFile file = IdxFile.map(fileName);
+        int magicNumber = file.getMagicNumber();
+        if (magicNumber != 2051) {
+            throw new RuntimeException("Unrecognized magic number " + magicNumber);
+        }
+        int[] shape = file.getShape();
+        return file.view().reShape(shape[0], shape[1]*shape[2]);
+    }
+
+    /**
+     * Read a file of labels as one unsigned byte per label, instead of the
+     * one-hot rows of {@link #readLabels}. The result can be compared with
+     * <code>predictions.argMax(1).countEquals(labels)</code>.
+     * @param fileName The IDX file
+     * @return A {@link UInt8} view of the labels in the mapped file.
+     */
+    public static Array readLabelIndices(String fileName) {
+        IdxFile file = IdxFile.map(fileName);
+        int magicNumber = file.getMagicNumber();
+        if (magicNumber != 2049) {
+            throw new RuntimeException("Unrecognized magic number " + magicNumber);
+        }
+        return file.view();
+    }
+
+    /**
+     * Open a loader that streams mini-batches of images, scaled to [0, 1],
+     * and their labels from the memory-mapped files, instead of reading
+     * the whole data set.
+     * @param imageFile The IDX file of images
+     * @param labelFile The IDX file of labels
+     * @param batchSize The number of images in a batch
+     * @return A loader that reads the images in order for one epoch; use
+     * its shuffle and epochs methods to change this before taking a batch.
+     */
+    public static BatchLoader openBatches(String imageFile, String labelFile, int batchSize) {
+        IdxFile images = IdxFile.map(imageFile);
+        if (images.getMagicNumber() != 2051) {
+            throw new RuntimeException("Unrecognized magic number " + images.getMagicNumber());
+        }
+        IdxFile labels = IdxFile.map(labelFile);
+        if (labels.getMagicNumber() != 2049) {
+            throw new RuntimeException("Unrecognized magic number " + labels.getMagicNumber());
+        }
+        return new BatchLoader(images, labels, batchSize).scale(255.0f);
+    }
+
     public static Array readLabels(String fileName) {
         try (InputStream in = new BufferedInputStream(new FileInputStream(fileName))) {
             int magicNumber = readInt(in);
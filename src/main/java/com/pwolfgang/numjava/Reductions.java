@@ -0,0 +1,926 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reductions of an Array over a set of axes. The source may be any strided
+ * view; it is read in place.
+ * <p>
+ * The elements reduced into one output value are walked as the runs of a
+ * {@link Layout}, each run cut into chunks of at most {@link #CHUNK}
+ * elements. Chunks are combined in a balanced binary tree, and within a
+ * chunk floats are summed pairwise with eight accumulators at the leaves,
+ * so the rounding error of a float sum grows with the logarithm of the
+ * number of elements rather than linearly.
+ * <p>
+ * Large reductions run on the {@link Parallel} pool. When there are enough
+ * output values they are divided among the threads; otherwise the chunk
+ * tree of each output value is split. The tree is the same either way, so
+ * the result does not depend on the number of threads.
+ *
+ * @author Paul
+ */
+final class Reductions {
+
+    /** The kinds of reduction. */
+    enum Kind {
+        SUM, MAX, MIN,
+        /** The sum of (x - c)^2, where c is given for each output value. */
+        SQUARED_DEVIATION
+    }
+
+    /** The largest number of elements in a leaf of the chunk tree. */
+    static final int CHUNK = 1 << 12;
+    /** Reductions of fewer elements than this run on one thread. */
+    static final int PARALLEL_THRESHOLD = 1 << 15;
+    private static final int PAIRWISE_BLOCK = 128;
+
+    private Reductions() {
+    }
+
+    /**
+     * The split of an Array into the axes that are kept and the axes that
+     * are reduced.
+     */
+    private static final class Plan {
+
+        final int[] keptShape;
+        final int[] keptStride;
+        final int outputs;
+        final int inputs;
+        final Layout inner;
+        final int runLength;
+        final int runStride;
+        final int chunksPerRun;
+        final int items;
+
+        Plan(Array a, boolean[] reduced) {
+            int numKept = 0;
+            for (boolean r : reduced) {
+                if (!r) {
+                    numKept++;
+                }
+            }
+            keptShape = new int[numKept];
+            keptStride = new int[numKept];
+            int[] innerShape = new int[reduced.length - numKept];
+            int[] innerStride = new int[reduced.length - numKept];
+            int k = 0;
+            int j = 0;
+            for (int i = 0; i < reduced.length; i++) {
+                if (reduced[i]) {
+                    innerShape[j] = a.shape[i];
+                    innerStride[j++] = a.stride[i];
+                } else {
+                    keptShape[k] = a.shape[i];
+                    keptStride[k++] = a.stride[i];
+                }
+            }
+            outputs = Array.product(keptShape, 0, numKept);
+            inputs = Array.product(innerShape, 0, innerShape.length);
+            inner = Layout.of(innerShape, innerStride);
+            runLength = inner.innerSize();
+            runStride = inner.innerStride(0);
+            chunksPerRun = Math.max(1, (runLength + CHUNK - 1) / CHUNK);
+            items = inputs == 0 ? 0 : inner.outer(0, 0).size() * chunksPerRun;
+        }
+
+        boolean singleRun() {
+            return items == chunksPerRun;
+        }
+
+        /** Return a cursor over the output values' first elements. */
+        OffsetCursor outputs(int offset) {
+            return new OffsetCursor(keptShape, keptStride, offset);
+        }
+
+        /** Return a cursor over the runs, relative to an output's base. */
+        OffsetCursor runs() {
+            return singleRun() ? null : inner.outer(0, 0);
+        }
+
+        /** Return the index of the first element of an item. */
+        int itemStart(int base, OffsetCursor runs, int item) {
+            int run = item / chunksPerRun;
+            int start = base + (item - run * chunksPerRun) * CHUNK * runStride;
+            if (runs != null) {
+                runs.seek(run);
+                start += runs.next();
+            }
+            return start;
+        }
+
+        int itemLength(int item) {
+            int chunk = item % chunksPerRun;
+            return Math.min(CHUNK, runLength - chunk * CHUNK);
+        }
+
+        /** Decide whether to parallelize over the outputs. */
+        boolean splitOutputs() {
+            return outputs >= Parallel.parallelism();
+        }
+
+        boolean parallel() {
+            return Parallel.parallelism() > 1 && (long) outputs * inputs >= PARALLEL_THRESHOLD;
+        }
+
+        int outputGrain() {
+            return parallel() ? Math.max(1, PARALLEL_THRESHOLD / Math.max(1, inputs)) : outputs;
+        }
+    }
+
+    /**
+     * Reduce a float Array.
+     * @param a The source
+     * @param reduced Flags for the axes to reduce
+     * @param kind The reduction
+     * @param center The center of each output value for SQUARED_DEVIATION
+     * @return The output values in row-major order of the kept axes.
+     * @throws IllegalArgumentException if a maximum or minimum is taken
+     * over no elements.
+     */
+    static float[] reduceFloat(Array a, boolean[] reduced, Kind kind, float[] center) {
+        Plan plan = new Plan(a, reduced);
+        checkNotEmpty(plan, kind);
+        float[] data = (float[]) a.data;
+        float[] result = new float[plan.outputs];
+        if (plan.items == 0) {
+            return result;
+        }
+        if (!plan.parallel() || plan.splitOutputs()) {
+            Parallel.forRange(plan.outputs, plan.outputGrain(), (from, to) -> {
+                OffsetCursor outputs = plan.outputs(a.offset);
+                OffsetCursor runs = plan.runs();
+                outputs.seek(from);
+                for (int i = from; i < to; i++) {
+                    float c = center == null ? 0.0f : center[i];
+                    result[i] = reduceItems(plan, kind, data, outputs.next(), runs, c,
+                            0, plan.items);
+                }
+            });
+        } else {
+            OffsetCursor outputs = plan.outputs(a.offset);
+            int leafItems = Math.max(1, plan.items / (4 * Parallel.parallelism()));
+            for (int i = 0; i < plan.outputs; i++) {
+                float c = center == null ? 0.0f : center[i];
+                FloatTree tree = new FloatTree(plan, kind, data, outputs.next(), c,
+                        0, plan.items, leafItems);
+                Parallel.invoke(tree);
+                result[i] = tree.join();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reduce an int Array by SUM, MAX or MIN.
+     * @see #reduceFloat
+     */
+    static int[] reduceInt(Array a, boolean[] reduced, Kind kind) {
+        Plan plan = new Plan(a, reduced);
+        checkNotEmpty(plan, kind);
+        int[] data = (int[]) a.data;
+        int[] result = new int[plan.outputs];
+        if (plan.items == 0) {
+            return result;
+        }
+        if (!plan.parallel() || plan.splitOutputs()) {
+            Parallel.forRange(plan.outputs, plan.outputGrain(), (from, to) -> {
+                OffsetCursor outputs = plan.outputs(a.offset);
+                OffsetCursor runs = plan.runs();
+                outputs.seek(from);
+                for (int i = from; i < to; i++) {
+                    result[i] = reduceItems(plan, kind, data, outputs.next(), runs, 0, plan.items);
+                }
+            });
+        } else {
+            OffsetCursor outputs = plan.outputs(a.offset);
+            int leafItems = Math.max(1, plan.items / (4 * Parallel.parallelism()));
+            for (int i = 0; i < plan.outputs; i++) {
+                IntTree tree = new IntTree(plan, kind, data, outputs.next(),
+                        0, plan.items, leafItems);
+                Parallel.invoke(tree);
+                result[i] = tree.join();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reduce a double Array.
+     * @see #reduceFloat
+     */
+    static double[] reduceDouble(Array a, boolean[] reduced, Kind kind, double[] center) {
+        Plan plan = new Plan(a, reduced);
+        checkNotEmpty(plan, kind);
+        double[] data = (double[]) a.data;
+        double[] result = new double[plan.outputs];
+        if (plan.items == 0) {
+            return result;
+        }
+        if (!plan.parallel() || plan.splitOutputs()) {
+            Parallel.forRange(plan.outputs, plan.outputGrain(), (from, to) -> {
+                OffsetCursor outputs = plan.outputs(a.offset);
+                OffsetCursor runs = plan.runs();
+                outputs.seek(from);
+                for (int i = from; i < to; i++) {
+                    double c = center == null ? 0.0 : center[i];
+                    result[i] = reduceItems(plan, kind, data, outputs.next(), runs, c,
+                            0, plan.items);
+                }
+            });
+        } else {
+            OffsetCursor outputs = plan.outputs(a.offset);
+            int leafItems = Math.max(1, plan.items / (4 * Parallel.parallelism()));
+            for (int i = 0; i < plan.outputs; i++) {
+                double c = center == null ? 0.0 : center[i];
+                DoubleTree tree = new DoubleTree(plan, kind, data, outputs.next(), c,
+                        0, plan.items, leafItems);
+                Parallel.invoke(tree);
+                result[i] = tree.join();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reduce a long Array by SUM, MAX or MIN.
+     * @see #reduceFloat
+     */
+    static long[] reduceLong(Array a, boolean[] reduced, Kind kind) {
+        Plan plan = new Plan(a, reduced);
+        checkNotEmpty(plan, kind);
+        long[] data = (long[]) a.data;
+        long[] result = new long[plan.outputs];
+        if (plan.items == 0) {
+            return result;
+        }
+        if (!plan.parallel() || plan.splitOutputs()) {
+            Parallel.forRange(plan.outputs, plan.outputGrain(), (from, to) -> {
+                OffsetCursor outputs = plan.outputs(a.offset);
+                OffsetCursor runs = plan.runs();
+                outputs.seek(from);
+                for (int i = from; i < to; i++) {
+                    result[i] = reduceItems(plan, kind, data, outputs.next(), runs, 0, plan.items);
+                }
+            });
+        } else {
+            OffsetCursor outputs = plan.outputs(a.offset);
+            int leafItems = Math.max(1, plan.items / (4 * Parallel.parallelism()));
+            for (int i = 0; i < plan.outputs; i++) {
+                LongTree tree = new LongTree(plan, kind, data, outputs.next(),
+                        0, plan.items, leafItems);
+                Parallel.invoke(tree);
+                result[i] = tree.join();
+            }
+        }
+        return result;
+    }
+
+    private static void checkNotEmpty(Plan plan, Kind kind) {
+        if (plan.inputs == 0 && plan.outputs > 0 && (kind == Kind.MAX || kind == Kind.MIN)) {
+            throw new IllegalArgumentException("Cannot take the maximum or minimum of no elements");
+        }
+    }
+
+    private static float reduceItems(Plan plan, Kind kind, float[] data, int base,
+            OffsetCursor runs, float center, int lo, int hi) {
+        if (hi - lo == 1) {
+            int start = plan.itemStart(base, runs, lo);
+            int n = plan.itemLength(lo);
+            switch (kind) {
+                case SUM:
+                    return sum(data, start, plan.runStride, n);
+                case MAX:
+                    return max(data, start, plan.runStride, n);
+                case MIN:
+                    return min(data, start, plan.runStride, n);
+                default:
+                    return squaredDeviation(data, start, plan.runStride, n, center);
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        return combine(kind,
+                reduceItems(plan, kind, data, base, runs, center, lo, mid),
+                reduceItems(plan, kind, data, base, runs, center, mid, hi));
+    }
+
+    private static int reduceItems(Plan plan, Kind kind, int[] data, int base,
+            OffsetCursor runs, int lo, int hi) {
+        int result = kind == Kind.MAX ? Integer.MIN_VALUE
+                : kind == Kind.MIN ? Integer.MAX_VALUE : 0;
+        for (int item = lo; item < hi; item++) {
+            int start = plan.itemStart(base, runs, item);
+            int n = plan.itemLength(item);
+            switch (kind) {
+                case MAX:
+                    result = Math.max(result, max(data, start, plan.runStride, n));
+                    break;
+                case MIN:
+                    result = Math.min(result, min(data, start, plan.runStride, n));
+                    break;
+                default:
+                    result += sum(data, start, plan.runStride, n);
+            }
+        }
+        return result;
+    }
+
+    private static double reduceItems(Plan plan, Kind kind, double[] data, int base,
+            OffsetCursor runs, double center, int lo, int hi) {
+        if (hi - lo == 1) {
+            int start = plan.itemStart(base, runs, lo);
+            int n = plan.itemLength(lo);
+            switch (kind) {
+                case SUM:
+                    return sum(data, start, plan.runStride, n);
+                case MAX:
+                    return max(data, start, plan.runStride, n);
+                case MIN:
+                    return min(data, start, plan.runStride, n);
+                default:
+                    return squaredDeviation(data, start, plan.runStride, n, center);
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        return combine(kind,
+                reduceItems(plan, kind, data, base, runs, center, lo, mid),
+                reduceItems(plan, kind, data, base, runs, center, mid, hi));
+    }
+
+    private static long reduceItems(Plan plan, Kind kind, long[] data, int base,
+            OffsetCursor runs, int lo, int hi) {
+        long result = kind == Kind.MAX ? Long.MIN_VALUE
+                : kind == Kind.MIN ? Long.MAX_VALUE : 0;
+        for (int item = lo; item < hi; item++) {
+            int start = plan.itemStart(base, runs, item);
+            int n = plan.itemLength(item);
+            switch (kind) {
+                case MAX:
+                    result = Math.max(result, max(data, start, plan.runStride, n));
+                    break;
+                case MIN:
+                    result = Math.min(result, min(data, start, plan.runStride, n));
+                    break;
+                default:
+                    result += sum(data, start, plan.runStride, n);
+            }
+        }
+        return result;
+    }
+
+    private static float combine(Kind kind, float x, float y) {
+        switch (kind) {
+            case MAX:
+                return Math.max(x, y);
+            case MIN:
+                return Math.min(x, y);
+            default:
+                return x + y;
+        }
+    }
+
+    private static int combine(Kind kind, int x, int y) {
+        switch (kind) {
+            case MAX:
+                return Math.max(x, y);
+            case MIN:
+                return Math.min(x, y);
+            default:
+                return x + y;
+        }
+    }
+
+    private static double combine(Kind kind, double x, double y) {
+        switch (kind) {
+            case MAX:
+                return Math.max(x, y);
+            case MIN:
+                return Math.min(x, y);
+            default:
+                return x + y;
+        }
+    }
+
+    private static long combine(Kind kind, long x, long y) {
+        switch (kind) {
+            case MAX:
+                return Math.max(x, y);
+            case MIN:
+                return Math.min(x, y);
+            default:
+                return x + y;
+        }
+    }
+
+    /**
+     * Sum n floats pairwise.
+     */
+    static float sum(float[] x, int index, int stride, int n) {
+        if (n > PAIRWISE_BLOCK) {
+            int half = (n / 2 + 7) & ~7;
+            return sum(x, index, stride, half) + sum(x, index + half * stride, stride, n - half);
+        }
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+        int i = 0;
+        for (; i + 8 <= n; i += 8, index += 8 * stride) {
+            s0 += x[index];
+            s1 += x[index + stride];
+            s2 += x[index + 2 * stride];
+            s3 += x[index + 3 * stride];
+            s4 += x[index + 4 * stride];
+            s5 += x[index + 5 * stride];
+            s6 += x[index + 6 * stride];
+            s7 += x[index + 7 * stride];
+        }
+        float s = ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+        for (; i < n; i++, index += stride) {
+            s += x[index];
+        }
+        return s;
+    }
+
+    /**
+     * Sum (x - c)^2 over n floats pairwise.
+     */
+    static float squaredDeviation(float[] x, int index, int stride, int n, float c) {
+        if (n > PAIRWISE_BLOCK) {
+            int half = (n / 2 + 7) & ~7;
+            return squaredDeviation(x, index, stride, half, c)
+                    + squaredDeviation(x, index + half * stride, stride, n - half, c);
+        }
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 4 <= n; i += 4, index += 4 * stride) {
+            float d0 = x[index] - c;
+            float d1 = x[index + stride] - c;
+            float d2 = x[index + 2 * stride] - c;
+            float d3 = x[index + 3 * stride] - c;
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        float s = (s0 + s1) + (s2 + s3);
+        for (; i < n; i++, index += stride) {
+            float d = x[index] - c;
+            s += d * d;
+        }
+        return s;
+    }
+
+    /**
+     * Return the largest of n floats, or NaN if any of them is NaN.
+     */
+    static float max(float[] x, int index, int stride, int n) {
+        float m = Float.NEGATIVE_INFINITY;
+        boolean nan = false;
+        for (int i = 0; i < n; i++, index += stride) {
+            float v = x[index];
+            m = v > m ? v : m;
+            nan |= v != v;
+        }
+        return nan ? Float.NaN : m;
+    }
+
+    /**
+     * Return the smallest of n floats, or NaN if any of them is NaN.
+     */
+    static float min(float[] x, int index, int stride, int n) {
+        float m = Float.POSITIVE_INFINITY;
+        boolean nan = false;
+        for (int i = 0; i < n; i++, index += stride) {
+            float v = x[index];
+            m = v < m ? v : m;
+            nan |= v != v;
+        }
+        return nan ? Float.NaN : m;
+    }
+
+    static int sum(int[] x, int index, int stride, int n) {
+        int s = 0;
+        for (int i = 0; i < n; i++, index += stride) {
+            s += x[index];
+        }
+        return s;
+    }
+
+    static int max(int[] x, int index, int stride, int n) {
+        int m = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++, index += stride) {
+            m = Math.max(m, x[index]);
+        }
+        return m;
+    }
+
+    static int min(int[] x, int index, int stride, int n) {
+        int m = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++, index += stride) {
+            m = Math.min(m, x[index]);
+        }
+        return m;
+    }
+
+    /**
+     * Sum n doubles pairwise.
+     */
+    static double sum(double[] x, int index, int stride, int n) {
+        if (n > PAIRWISE_BLOCK) {
+            int half = (n / 2 + 3) & ~3;
+            return sum(x, index, stride, half) + sum(x, index + half * stride, stride, n - half);
+        }
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 4 <= n; i += 4, index += 4 * stride) {
+            s0 += x[index];
+            s1 += x[index + stride];
+            s2 += x[index + 2 * stride];
+            s3 += x[index + 3 * stride];
+        }
+        double s = (s0 + s1) + (s2 + s3);
+        for (; i < n; i++, index += stride) {
+            s += x[index];
+        }
+        return s;
+    }
+
+    /**
+     * Sum (x - c)^2 over n doubles pairwise.
+     */
+    static double squaredDeviation(double[] x, int index, int stride, int n, double c) {
+        if (n > PAIRWISE_BLOCK) {
+            int half = (n / 2 + 3) & ~3;
+            return squaredDeviation(x, index, stride, half, c)
+                    + squaredDeviation(x, index + half * stride, stride, n - half, c);
+        }
+        double s = 0;
+        for (int i = 0; i < n; i++, index += stride) {
+            double d = x[index] - c;
+            s += d * d;
+        }
+        return s;
+    }
+
+    /**
+     * Return the largest of n doubles, or NaN if any of them is NaN.
+     */
+    static double max(double[] x, int index, int stride, int n) {
+        double m = Double.NEGATIVE_INFINITY;
+        boolean nan = false;
+        for (int i = 0; i < n; i++, index += stride) {
+            double v = x[index];
+            m = v > m ? v : m;
+            nan |= v != v;
+        }
+        return nan ? Double.NaN : m;
+    }
+
+    /**
+     * Return the smallest of n doubles, or NaN if any of them is NaN.
+     */
+    static double min(double[] x, int index, int stride, int n) {
+        double m = Double.POSITIVE_INFINITY;
+        boolean nan = false;
+        for (int i = 0; i < n; i++, index += stride) {
+            double v = x[index];
+            m = v < m ? v : m;
+            nan |= v != v;
+        }
+        return nan ? Double.NaN : m;
+    }
+
+    static long sum(long[] x, int index, int stride, int n) {
+        long s = 0;
+        for (int i = 0; i < n; i++, index += stride) {
+            s += x[index];
+        }
+        return s;
+    }
+
+    static long max(long[] x, int index, int stride, int n) {
+        long m = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++, index += stride) {
+            m = Math.max(m, x[index]);
+        }
+        return m;
+    }
+
+    static long min(long[] x, int index, int stride, int n) {
+        long m = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++, index += stride) {
+            m = Math.min(m, x[index]);
+        }
+        return m;
+    }
+
+    /**
+     * Return the position of the first largest of n floats. A NaN counts as the extreme value.
+     */
+    static int argMax(float[] x, int index, int stride, int n) {
+        int best = 0;
+        float m = x[index];
+        for (int i = 0; i < n; i++, index += stride) {
+            float v = x[index];
+            if (v != v) {
+                return i;
+            }
+            if (v > m) {
+                m = v;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the position of the first smallest of n floats. A NaN counts as the extreme value.
+     */
+    static int argMin(float[] x, int index, int stride, int n) {
+        int best = 0;
+        float m = x[index];
+        for (int i = 0; i < n; i++, index += stride) {
+            float v = x[index];
+            if (v != v) {
+                return i;
+            }
+            if (v < m) {
+                m = v;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the position of the first largest of n ints.
+     */
+    static int argMax(int[] x, int index, int stride, int n) {
+        int best = 0;
+        int m = x[index];
+        for (int i = 0; i < n; i++, index += stride) {
+            int v = x[index];
+            if (v > m) {
+                m = v;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the position of the first smallest of n ints.
+     */
+    static int argMin(int[] x, int index, int stride, int n) {
+        int best = 0;
+        int m = x[index];
+        for (int i = 0; i < n; i++, index += stride) {
+            int v = x[index];
+            if (v < m) {
+                m = v;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the position of the first largest of n doubles. A NaN counts as the extreme value.
+     */
+    static int argMax(double[] x, int index, int stride, int n) {
+        int best = 0;
+        double m = x[index];
+        for (int i = 0; i < n; i++, index += stride) {
+            double v = x[index];
+            if (v != v) {
+                return i;
+            }
+            if (v > m) {
+                m = v;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the position of the first smallest of n doubles. A NaN counts as the extreme value.
+     */
+    static int argMin(double[] x, int index, int stride, int n) {
+        int best = 0;
+        double m = x[index];
+        for (int i = 0; i < n; i++, index += stride) {
+            double v = x[index];
+            if (v != v) {
+                return i;
+            }
+            if (v < m) {
+                m = v;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the position of the first largest of n longs.
+     */
+    static int argMax(long[] x, int index, int stride, int n) {
+        int best = 0;
+        long m = x[index];
+        for (int i = 0; i < n; i++, index += stride) {
+            long v = x[index];
+            if (v > m) {
+                m = v;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the position of the first smallest of n longs.
+     */
+    static int argMin(long[] x, int index, int stride, int n) {
+        int best = 0;
+        long m = x[index];
+        for (int i = 0; i < n; i++, index += stride) {
+            long v = x[index];
+            if (v < m) {
+                m = v;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The chunk tree of one float output value, split across threads down
+     * to leafItems chunks. It combines in the same order as reduceItems.
+     */
+    private static class FloatTree extends RecursiveTask<Float> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Plan plan;
+        private final Kind kind;
+        private final float[] data;
+        private final int base;
+        private final float center;
+        private final int lo;
+        private final int hi;
+        private final int leafItems;
+
+        FloatTree(Plan plan, Kind kind, float[] data, int base, float center,
+                int lo, int hi, int leafItems) {
+            this.plan = plan;
+            this.kind = kind;
+            this.data = data;
+            this.base = base;
+            this.center = center;
+            this.lo = lo;
+            this.hi = hi;
+            this.leafItems = leafItems;
+        }
+
+        @Override
+        protected Float compute() {
+            if (hi - lo <= leafItems) {
+                return reduceItems(plan, kind, data, base, plan.runs(), center, lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            FloatTree left = new FloatTree(plan, kind, data, base, center, lo, mid, leafItems);
+            FloatTree right = new FloatTree(plan, kind, data, base, center, mid, hi, leafItems);
+            left.fork();
+            float r = right.compute();
+            return combine(kind, left.join(), r);
+        }
+    }
+
+    private static class IntTree extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Plan plan;
+        private final Kind kind;
+        private final int[] data;
+        private final int base;
+        private final int lo;
+        private final int hi;
+        private final int leafItems;
+
+        IntTree(Plan plan, Kind kind, int[] data, int base, int lo, int hi, int leafItems) {
+            this.plan = plan;
+            this.kind = kind;
+            this.data = data;
+            this.base = base;
+            this.lo = lo;
+            this.hi = hi;
+            this.leafItems = leafItems;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (hi - lo <= leafItems) {
+                return reduceItems(plan, kind, data, base, plan.runs(), lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            IntTree left = new IntTree(plan, kind, data, base, lo, mid, leafItems);
+            IntTree right = new IntTree(plan, kind, data, base, mid, hi, leafItems);
+            left.fork();
+            int r = right.compute();
+            return combine(kind, left.join(), r);
+        }
+    }
+
+    private static class DoubleTree extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Plan plan;
+        private final Kind kind;
+        private final double[] data;
+        private final int base;
+        private final double center;
+        private final int lo;
+        private final int hi;
+        private final int leafItems;
+
+        DoubleTree(Plan plan, Kind kind, double[] data, int base, double center,
+                int lo, int hi, int leafItems) {
+            this.plan = plan;
+            this.kind = kind;
+            this.data = data;
+            this.base = base;
+            this.center = center;
+            this.lo = lo;
+            this.hi = hi;
+            this.leafItems = leafItems;
+        }
+
+        @Override
+        protected Double compute() {
+            if (hi - lo <= leafItems) {
+                return reduceItems(plan, kind, data, base, plan.runs(), center, lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            DoubleTree left = new DoubleTree(plan, kind, data, base, center, lo, mid, leafItems);
+            DoubleTree right = new DoubleTree(plan, kind, data, base, center, mid, hi, leafItems);
+            left.fork();
+            double r = right.compute();
+            return combine(kind, left.join(), r);
+        }
+    }
+
+    private static class LongTree extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Plan plan;
+        private final Kind kind;
+        private final long[] data;
+        private final int base;
+        private final int lo;
+        private final int hi;
+        private final int leafItems;
+
+        LongTree(Plan plan, Kind kind, long[] data, int base, int lo, int hi, int leafItems) {
+            this.plan = plan;
+            this.kind = kind;
+            this.data = data;
+            this.base = base;
+            this.lo = lo;
+            this.hi = hi;
+            this.leafItems = leafItems;
+        }
+
+        @Override
+        protected Long compute() {
+            if (hi - lo <= leafItems) {
+                return reduceItems(plan, kind, data, base, plan.runs(), lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            LongTree left = new LongTree(plan, kind, data, base, lo, mid, leafItems);
+            LongTree right = new LongTree(plan, kind, data, base, mid, hi, leafItems);
+            left.fork();
+            long r = right.compute();
+            return combine(kind, left.join(), r);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+/**
+ * Hook for vectorized kernels. This is the Java 8 version, which reports
+ * that no vector support is available so callers use their own loops. Its
+ * methods are plain scalar loops with the same contracts as the vectorized
+ * ones. The jar also contains a Java 17 version of this class under
+ * META-INF/versions/17 that is backed by the jdk.incubator.vector module
+ * when that module is present at run time.
+ * <p>
+ * {@link #dot} accumulates in float in both versions, where the scalar
+ * inner products of {@link DotProduct} accumulate in double, so the two
+ * can differ by the rounding of a float sum.
+ *
+ * @author Paul
+ */
+final class Simd {
+
+    /** True if the methods of this class are vectorized. */
+    static final boolean ENABLED = enabled();
+
+    private Simd() {
+    }
+
+    private static boolean enabled() {
+        return false;
+    }
+
+    /**
+     * Return the number of columns in the register tile of the float GEMM
+     * kernel.
+     */
+    static int gemmNR() {
+        return Gemm.NR;
+    }
+
+    /**
+     * Multiply an MR x kc packed sliver of A by a kc x gemmNR() packed sliver
+     * of B and store or add the mr x nr valid part into C.
+     */
+    static void sgemmKernel(int kc, float[] aPack, int aIndex,
+            float[] bPack, int bIndex, float[] c, int cIndex, int cRowStride,
+            int mr, int nr, boolean overwrite) {
+        Gemm.sKernel(kc, aPack, aIndex, bPack, bIndex, c, cIndex, cRowStride,
+                mr, nr, overwrite);
+    }
+
+    /**
+     * Inner product of two contiguous runs of n floats, accumulated in
+     * float.
+     */
+    static float dot(float[] a, int aIndex, float[] b, int bIndex, int n) {
+        float result = 0.0f;
+        for (int i = 0; i < n; i++) {
+            result += a[aIndex + i] * b[bIndex + i];
+        }
+        return result;
+    }
+
+    /**
+     * z[zIndex + i] = x[xIndex + i] + y[yIndex + i] for i in [0, n)
+     */
+    static void add(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        for (int i = 0; i < n; i++) {
+            z[zIndex + i] = x[xIndex + i] + y[yIndex + i];
+        }
+    }
+
+    /**
+     * z[zIndex + i] = x[xIndex + i] - y[yIndex + i] for i in [0, n)
+     */
+    static void sub(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        for (int i = 0; i < n; i++) {
+            z[zIndex + i] = x[xIndex + i] - y[yIndex + i];
+        }
+    }
+
+    /**
+     * z[zIndex + i] = x[xIndex + i] * y[yIndex + i] for i in [0, n)
+     */
+    static void mul(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        for (int i = 0; i < n; i++) {
+            z[zIndex + i] = x[xIndex + i] * y[yIndex + i];
+        }
+    }
+
+    /**
+     * z[zIndex + i] = x[xIndex + i] / y[yIndex + i] for i in [0, n)
+     */
+    static void div(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        for (int i = 0; i < n; i++) {
+            z[zIndex + i] = x[xIndex + i] / y[yIndex + i];
+        }
+    }
+
+}
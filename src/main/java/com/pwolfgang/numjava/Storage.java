@@ -0,0 +1,685 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The elements behind an {@link Array}. Heap storage is a plain int[] or
+ * float[]; direct storage lives outside the Java heap in direct
+ * ByteBuffers, so a large data set is not copied or scanned by the garbage
+ * collector and can be shared with native code. Direct storage may also
+ * hold bytes, signed or {@link UInt8}, such as the pixels of a mapped
+ * image file.
+ * <p>
+ * Direct storage allocated by {@link #allocateDirect} is released as soon
+ * as it is closed rather than when it is collected:
+ * <pre>
+ * try (Storage storage = Storage.allocateDirect(float.class, n)) {
+ *     Array a = new Array(storage, rows, n / rows);
+ *     ...
+ * }
+ * </pre>
+ * Every Array that views a Storage shares it, and none of them may be used
+ * once it has been closed.
+ *
+ * @author Paul
+ */
+public abstract class Storage implements AutoCloseable {
+
+    Storage() {
+    }
+
+    /**
+     * Create storage that uses a float array.
+     * @param data The elements, which are not copied.
+     * @return The storage.
+     */
+    public static Storage of(float[] data) {
+        return new Heap(float.class, data, data.length);
+    }
+
+    /**
+     * Create storage that uses an int array.
+     * @param data The elements, which are not copied.
+     * @return The storage.
+     */
+    public static Storage of(int[] data) {
+        return new Heap(int.class, data, data.length);
+    }
+
+    /**
+     * Wrap the first length elements of the data of an Array, which is an
+     * int[] or a float[].
+     */
+    static Storage of(Object data, int length) {
+        if (data instanceof float[]) {
+            return new Heap(float.class, data, length);
+        }
+        if (data instanceof int[]) {
+            return new Heap(int.class, data, length);
+        }
+        throw new IllegalArgumentException(
+                String.format("%s is not an int[] or float[]", data.getClass().getSimpleName()));
+    }
+
+    /**
+     * Allocate zero-filled storage outside the Java heap. The memory is
+     * released by {@link #close()}, or by the garbage collector if the
+     * storage is never closed.
+     * @param dataType int.class, float.class, byte.class or {@link UInt8}
+     * @param length The number of elements
+     * @return The storage.
+     * @throws IllegalArgumentException if the data type is not supported or
+     * the length is negative.
+     */
+    public static Storage allocateDirect(Class<?> dataType, int length) {
+        checkDataType(dataType);
+        if (length < 0) {
+            throw new IllegalArgumentException(
+                    String.format("length: %d is negative", length));
+        }
+        int bytes = elementBytes(dataType);
+        int numChunks = Math.max(1, (int) (((long) length + Direct.CHUNK - 1) / Direct.CHUNK));
+        ByteBuffer[] buffers = new ByteBuffer[numChunks];
+        for (int c = 0; c < numChunks; c++) {
+            int n = Math.min(Direct.CHUNK, length - c * Direct.CHUNK);
+            buffers[c] = ByteBuffer.allocateDirect(n * bytes).order(ByteOrder.nativeOrder());
+        }
+        return new Direct(dataType, buffers, length, true);
+    }
+
+    /**
+     * Create storage that views the remaining bytes of a ByteBuffer, in the
+     * buffer's byte order. The buffer is not freed when the storage is
+     * closed.
+     * @param buffer The buffer, usually direct or memory mapped.
+     * @param dataType int.class, float.class, byte.class or {@link UInt8}
+     * @return The storage.
+     * @throws IllegalArgumentException if the data type is not supported.
+     */
+    public static Storage wrap(ByteBuffer buffer, Class<?> dataType) {
+        checkDataType(dataType);
+        int bytes = elementBytes(dataType);
+        int length = buffer.remaining() / bytes;
+        int numChunks = Math.max(1, (length + Direct.CHUNK - 1) / Direct.CHUNK);
+        ByteBuffer[] buffers = new ByteBuffer[numChunks];
+        for (int c = 0; c < numChunks; c++) {
+            int n = Math.min(Direct.CHUNK, length - c * Direct.CHUNK);
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(buffer.position() + c * Direct.CHUNK * bytes);
+            slice.limit(slice.position() + n * bytes);
+            buffers[c] = slice.slice().order(buffer.order());
+        }
+        return new Direct(dataType, buffers, length, false);
+    }
+
+    /**
+     * Map a region of a file as read-only storage. Nothing is read until
+     * the elements are used. The region is mapped in chunks, so it may be
+     * larger than the 2 GB limit of a single mapping.
+     * @param channel The file, open for reading. The mapping stays valid
+     * after the channel is closed.
+     * @param position The offset in bytes of the first element
+     * @param length The number of elements
+     * @param dataType int.class, float.class, byte.class or {@link UInt8}
+     * @param order The byte order of the elements in the file
+     * @return The storage.
+     * @throws IllegalArgumentException if the data type is not supported.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static Storage map(FileChannel channel, long position, int length, 
+            Class<?> dataType, ByteOrder order) throws IOException {
+        checkDataType(dataType);
+        int bytes = elementBytes(dataType);
+        int numChunks = Math.max(1, (int) (((long) length + Direct.CHUNK - 1) / Direct.CHUNK));
+        ByteBuffer[] buffers = new ByteBuffer[numChunks];
+        for (int c = 0; c < numChunks; c++) {
+            int n = Math.min(Direct.CHUNK, length - c * Direct.CHUNK);
+            long start = position + (long) c * Direct.CHUNK * bytes;
+            buffers[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, (long) n * bytes)
+                    .order(order);
+        }
+        return new Direct(dataType, buffers, length, false);
+    }
+
+    private static void checkDataType(Class<?> dataType) {
+        if (dataType != int.class && dataType != float.class
+                && dataType != byte.class && dataType != UInt8.class) {
+            throw new IllegalArgumentException(
+                    String.format("%s is not a supported data type", dataType));
+        }
+    }
+
+    /**
+     * Return the size in bytes of an element of direct storage.
+     */
+    private static int elementBytes(Class<?> dataType) {
+        return dataType == byte.class || dataType == UInt8.class ? 1 : 4;
+    }
+
+    /**
+     * Return the type of the elements: int.class or float.class, or for
+     * direct storage also byte.class or {@link UInt8}. The bytes are read
+     * as ints, with unsigned bytes taken as 0 to 255.
+     */
+    public abstract Class<?> getDataType();
+
+    /**
+     * Return the number of elements.
+     */
+    public abstract int length();
+
+    /**
+     * Return true if the elements are held outside the Java heap.
+     */
+    public abstract boolean isDirect();
+
+    public abstract float getFloat(int index);
+
+    public abstract int getInt(int index);
+
+    /**
+     * Return an element of float or double storage as a double.
+     * @throws ClassCastException if this is not float or double storage.
+     */
+    double getDouble(int index) {
+        return getFloat(index);
+    }
+
+    public abstract void setFloat(int index, float value);
+
+    public abstract void setInt(int index, int value);
+
+    /**
+     * Copy n elements starting at index and stride apart into dst.
+     * @param index The index of the first element
+     * @param stride The distance between elements, which may be 0.
+     * @param dst The destination
+     * @param dstIndex The first index in dst
+     * @param n The number of elements.
+     * @throws ClassCastException if this is not float storage.
+     */
+    public abstract void getFloats(int index, int stride, float[] dst, int dstIndex, int n);
+
+    /**
+     * Copy n elements starting at index and stride apart into dst.
+     * @throws ClassCastException if this is not int storage.
+     * @see #getFloats
+     */
+    public abstract void getInts(int index, int stride, int[] dst, int dstIndex, int n);
+
+    /**
+     * Store n consecutive elements of src starting at index and stride
+     * apart.
+     * @param index The index of the first element
+     * @param stride The distance between elements
+     * @param src The source
+     * @param srcIndex The first index in src
+     * @param n The number of elements.
+     * @throws ClassCastException if this is not float storage.
+     */
+    public abstract void putFloats(int index, int stride, float[] src, int srcIndex, int n);
+
+    /**
+     * Store n consecutive elements of src starting at index and stride
+     * apart.
+     * @throws ClassCastException if this is not int storage.
+     * @see #putFloats
+     */
+    public abstract void putInts(int index, int stride, int[] src, int srcIndex, int n);
+
+    /**
+     * Return the int[] or float[] behind heap storage, or null for direct
+     * storage.
+     */
+    abstract Object array();
+
+    /**
+     * Copy elements into an array of the storage class of the storage data
+     * type.
+     */
+    void get(int index, int stride, Object dst, int dstIndex, int n) {
+        if (getDataType() == float.class) {
+            getFloats(index, stride, (float[]) dst, dstIndex, n);
+        } else if (getDataType() == double.class) {
+            double[] values = (double[]) dst;
+            for (int i = 0; i < n; i++, index += stride) {
+                values[dstIndex + i] = getDouble(index);
+            }
+        } else if (dst instanceof byte[]) {
+            byte[] values = (byte[]) dst;
+            for (int i = 0; i < n; i++, index += stride) {
+                values[dstIndex + i] = (byte) getInt(index);
+            }
+        } else {
+            getInts(index, stride, (int[]) dst, dstIndex, n);
+        }
+    }
+
+    /**
+     * Store elements from an array of the storage class of the storage
+     * data type.
+     */
+    void put(int index, int stride, Object src, int srcIndex, int n) {
+        if (getDataType() == float.class) {
+            putFloats(index, stride, (float[]) src, srcIndex, n);
+        } else if (src instanceof byte[]) {
+            byte[] values = (byte[]) src;
+            for (int i = 0; i < n; i++, index += stride) {
+                setInt(index, values[srcIndex + i]);
+            }
+        } else {
+            putInts(index, stride, (int[]) src, srcIndex, n);
+        }
+    }
+
+    /**
+     * Release the elements. Heap storage is left to the garbage collector.
+     */
+    @Override
+    public void close() {
+    }
+
+    private static final class Heap extends Storage {
+
+        private final Class<?> dataType;
+        private final Object data;
+        private final int length;
+
+        Heap(Class<?> dataType, Object data, int length) {
+            this.dataType = dataType;
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        public Class<?> getDataType() {
+            return dataType;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public boolean isDirect() {
+            return false;
+        }
+
+        @Override
+        public float getFloat(int index) {
+            return ((float[]) data)[index];
+        }
+
+        @Override
+        public int getInt(int index) {
+            return ((int[]) data)[index];
+        }
+
+        @Override
+        public void setFloat(int index, float value) {
+            ((float[]) data)[index] = value;
+        }
+
+        @Override
+        public void setInt(int index, int value) {
+            ((int[]) data)[index] = value;
+        }
+
+        @Override
+        public void getFloats(int index, int stride, float[] dst, int dstIndex, int n) {
+            float[] src = (float[]) data;
+            if (stride == 1) {
+                System.arraycopy(src, index, dst, dstIndex, n);
+                return;
+            }
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        }
+
+        @Override
+        public void getInts(int index, int stride, int[] dst, int dstIndex, int n) {
+            int[] src = (int[]) data;
+            if (stride == 1) {
+                System.arraycopy(src, index, dst, dstIndex, n);
+                return;
+            }
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = src[index];
+            }
+        }
+
+        @Override
+        public void putFloats(int index, int stride, float[] src, int srcIndex, int n) {
+            float[] dst = (float[]) data;
+            if (stride == 1) {
+                System.arraycopy(src, srcIndex, dst, index, n);
+                return;
+            }
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[index] = src[srcIndex + i];
+            }
+        }
+
+        @Override
+        public void putInts(int index, int stride, int[] src, int srcIndex, int n) {
+            int[] dst = (int[]) data;
+            if (stride == 1) {
+                System.arraycopy(src, srcIndex, dst, index, n);
+                return;
+            }
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[index] = src[srcIndex + i];
+            }
+        }
+
+        @Override
+        Object array() {
+            return data;
+        }
+    }
+
+    /**
+     * Storage in direct ByteBuffers. A ByteBuffer holds at most 2 GB, so the
+     * elements are split into chunks of CHUNK elements each. Byte storage
+     * reads its chunks directly; the other types go through an int or
+     * float view of each chunk.
+     */
+    private static final class Direct extends Storage {
+
+        static final int SHIFT = 28;
+        static final int CHUNK = 1 << SHIFT;
+        static final int MASK = CHUNK - 1;
+
+        private final Class<?> dataType;
+        private final int length;
+        private final boolean owner;
+        /** Set to null by close, so that a later access from any thread throws. */
+        private volatile ByteBuffer[] buffers;
+        private final FloatBuffer[] floats;
+        private final IntBuffer[] ints;
+
+        Direct(Class<?> dataType, ByteBuffer[] buffers, int length, boolean owner) {
+            this.dataType = dataType;
+            this.buffers = buffers;
+            this.length = length;
+            this.owner = owner;
+            FloatBuffer[] floatViews = null;
+            IntBuffer[] intViews = null;
+            if (dataType == float.class) {
+                floatViews = new FloatBuffer[buffers.length];
+                for (int c = 0; c < buffers.length; c++) {
+                    floatViews[c] = buffers[c].asFloatBuffer();
+                }
+            } else if (dataType == int.class) {
+                intViews = new IntBuffer[buffers.length];
+                for (int c = 0; c < buffers.length; c++) {
+                    intViews[c] = buffers[c].asIntBuffer();
+                }
+            }
+            floats = floatViews;
+            ints = intViews;
+        }
+
+        @Override
+        public Class<?> getDataType() {
+            return dataType;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public boolean isDirect() {
+            return true;
+        }
+
+        private FloatBuffer[] floats() {
+            if (buffers == null) {
+                throw new IllegalStateException("Storage is closed");
+            }
+            if (floats == null) {
+                throw new ClassCastException("Storage does not hold float values");
+            }
+            return floats;
+        }
+
+        private IntBuffer[] ints() {
+            if (buffers == null) {
+                throw new IllegalStateException("Storage is closed");
+            }
+            if (ints == null) {
+                throw new ClassCastException("Storage does not hold int values");
+            }
+            return ints;
+        }
+
+        /**
+         * Return the chunks of byte storage, or null for the other types.
+         */
+        private ByteBuffer[] bytes() {
+            ByteBuffer[] chunks = buffers;
+            if (chunks == null) {
+                throw new IllegalStateException("Storage is closed");
+            }
+            return floats == null && ints == null ? chunks : null;
+        }
+
+        private int getByte(ByteBuffer[] chunks, int index) {
+            byte value = chunks[index >>> SHIFT].get(index & MASK);
+            return dataType == UInt8.class ? value & 0xff : value;
+        }
+
+        @Override
+        public float getFloat(int index) {
+            return floats()[index >>> SHIFT].get(index & MASK);
+        }
+
+        @Override
+        public int getInt(int index) {
+            ByteBuffer[] chunks = bytes();
+            if (chunks != null) {
+                return getByte(chunks, index);
+            }
+            return ints()[index >>> SHIFT].get(index & MASK);
+        }
+
+        @Override
+        public void setFloat(int index, float value) {
+            floats()[index >>> SHIFT].put(index & MASK, value);
+        }
+
+        @Override
+        public void setInt(int index, int value) {
+            ByteBuffer[] chunks = bytes();
+            if (chunks != null) {
+                chunks[index >>> SHIFT].put(index & MASK, (byte) value);
+                return;
+            }
+            ints()[index >>> SHIFT].put(index & MASK, value);
+        }
+
+        @Override
+        public void getFloats(int index, int stride, float[] dst, int dstIndex, int n) {
+            FloatBuffer[] chunks = floats();
+            if (stride == 1) {
+                while (n > 0) {
+                    FloatBuffer chunk = chunks[index >>> SHIFT].duplicate();
+                    int count = Math.min(n, CHUNK - (index & MASK));
+                    chunk.position(index & MASK);
+                    chunk.get(dst, dstIndex, count);
+                    index += count;
+                    dstIndex += count;
+                    n -= count;
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = chunks[index >>> SHIFT].get(index & MASK);
+            }
+        }
+
+        @Override
+        public void getInts(int index, int stride, int[] dst, int dstIndex, int n) {
+            ByteBuffer[] byteChunks = bytes();
+            if (byteChunks != null) {
+                for (int i = 0; i < n; i++, index += stride) {
+                    dst[dstIndex + i] = getByte(byteChunks, index);
+                }
+                return;
+            }
+            IntBuffer[] chunks = ints();
+            if (stride == 1) {
+                while (n > 0) {
+                    IntBuffer chunk = chunks[index >>> SHIFT].duplicate();
+                    int count = Math.min(n, CHUNK - (index & MASK));
+                    chunk.position(index & MASK);
+                    chunk.get(dst, dstIndex, count);
+                    index += count;
+                    dstIndex += count;
+                    n -= count;
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++, index += stride) {
+                dst[dstIndex + i] = chunks[index >>> SHIFT].get(index & MASK);
+            }
+        }
+
+        @Override
+        public void putFloats(int index, int stride, float[] src, int srcIndex, int n) {
+            FloatBuffer[] chunks = floats();
+            if (stride == 1) {
+                while (n > 0) {
+                    FloatBuffer chunk = chunks[index >>> SHIFT].duplicate();
+                    int count = Math.min(n, CHUNK - (index & MASK));
+                    chunk.position(index & MASK);
+                    chunk.put(src, srcIndex, count);
+                    index += count;
+                    srcIndex += count;
+                    n -= count;
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++, index += stride) {
+                chunks[index >>> SHIFT].put(index & MASK, src[srcIndex + i]);
+            }
+        }
+
+        @Override
+        public void putInts(int index, int stride, int[] src, int srcIndex, int n) {
+            ByteBuffer[] byteChunks = bytes();
+            if (byteChunks != null) {
+                for (int i = 0; i < n; i++, index += stride) {
+                    byteChunks[index >>> SHIFT].put(index & MASK, (byte) src[srcIndex + i]);
+                }
+                return;
+            }
+            IntBuffer[] chunks = ints();
+            if (stride == 1) {
+                while (n > 0) {
+                    IntBuffer chunk = chunks[index >>> SHIFT].duplicate();
+                    int count = Math.min(n, CHUNK - (index & MASK));
+                    chunk.position(index & MASK);
+                    chunk.put(src, srcIndex, count);
+                    index += count;
+                    srcIndex += count;
+                    n -= count;
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++, index += stride) {
+                chunks[index >>> SHIFT].put(index & MASK, src[srcIndex + i]);
+            }
+        }
+
+        @Override
+        Object array() {
+            return null;
+        }
+
+        /**
+         * Release the buffers. Memory that this storage allocated is freed
+         * immediately when the JDK allows it; it must not be closed while
+         * another thread is using it.
+         */
+        @Override
+        public synchronized void close() {
+            if (buffers == null) {
+                return;
+            }
+            ByteBuffer[] released = buffers;
+            buffers = null;
+            if (owner) {
+                for (ByteBuffer buffer : released) {
+                    Cleaner.free(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Frees direct buffers with sun.misc.Unsafe.invokeCleaner, which is
+     * available from Java 9. On Java 8 the memory is left for the garbage
+     * collector to release.
+     */
+    private static final class Cleaner {
+
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void free(ByteBuffer buffer) {
+            if (INVOKE_CLEANER == null) {
+                return;
+            }
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                // Leave the buffer to the garbage collector.
+            }
+        }
+    }
+
+}
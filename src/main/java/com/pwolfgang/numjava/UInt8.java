@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+/**
+ * The data type of an Array of unsigned 8-bit integers. The data is a
+ * byte[] whose elements are read as 0 to 255. Use {@link Array#asUnsigned()}
+ * to view a byte Array this way.
+ *
+ * @author Paul
+ */
+public final class UInt8 {
+
+    private UInt8() {
+    }
+
+}
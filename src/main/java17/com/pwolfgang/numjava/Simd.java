@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+/**
+ * Hook for vectorized kernels. This is the Java 17 version. It delegates to
+ * {@link VectorKernels} when the jdk.incubator.vector module has been added
+ * to the run time (--add-modules jdk.incubator.vector) and the system
+ * property numjava.simd is not set to false.
+ * <p>
+ * VectorKernels is only loaded after the module has been found, so this
+ * class links even when the module is absent. As in the Java 8 version,
+ * {@link #dot} accumulates in float.
+ *
+ * @author Paul
+ */
+final class Simd {
+
+    /** True if the methods of this class are vectorized. */
+    static final boolean ENABLED = enabled();
+
+    private Simd() {
+    }
+
+    private static boolean enabled() {
+        if (!Boolean.parseBoolean(System.getProperty("numjava.simd", "true"))) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.incubator.vector.FloatVector");
+            return VectorKernels.LANES >= 4;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    static int gemmNR() {
+        return VectorKernels.GEMM_NR;
+    }
+
+    static void sgemmKernel(int kc, float[] aPack, int aIndex,
+            float[] bPack, int bIndex, float[] c, int cIndex, int cRowStride,
+            int mr, int nr, boolean overwrite) {
+        VectorKernels.sgemmKernel(kc, aPack, aIndex, bPack, bIndex,
+                c, cIndex, cRowStride, mr, nr, overwrite);
+    }
+
+    static float dot(float[] a, int aIndex, float[] b, int bIndex, int n) {
+        return VectorKernels.dot(a, aIndex, b, bIndex, n);
+    }
+
+    static void add(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        VectorKernels.add(x, xIndex, y, yIndex, z, zIndex, n);
+    }
+
+    static void sub(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        VectorKernels.sub(x, xIndex, y, yIndex, z, zIndex, n);
+    }
+
+    static void mul(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        VectorKernels.mul(x, xIndex, y, yIndex, z, zIndex, n);
+    }
+
+    static void div(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        VectorKernels.div(x, xIndex, y, yIndex, z, zIndex, n);
+    }
+
+}
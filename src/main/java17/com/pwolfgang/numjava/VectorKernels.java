@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Float kernels written with the JDK Vector API. The preferred species is
+ * used, so the lane count follows the widest vectors the CPU supports.
+ * <p>
+ * The GEMM kernel uses a separate multiply and add, as the scalar kernel
+ * does, so a product computed here is identical to one computed by the
+ * scalar code for the same tiling.
+ *
+ * @author Paul
+ */
+final class VectorKernels {
+
+    static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    static final int LANES = SPECIES.length();
+    /** The GEMM register tile is Gemm.MR rows by two vectors. */
+    static final int GEMM_NR = 2 * LANES;
+
+    private VectorKernels() {
+    }
+
+    static void sgemmKernel(int kc, float[] aPack, int aIndex,
+            float[] bPack, int bIndex, float[] c, int cIndex, int cRowStride,
+            int mr, int nr, boolean overwrite) {
+        FloatVector c00 = FloatVector.zero(SPECIES);
+        FloatVector c01 = c00;
+        FloatVector c10 = c00;
+        FloatVector c11 = c00;
+        FloatVector c20 = c00;
+        FloatVector c21 = c00;
+        FloatVector c30 = c00;
+        FloatVector c31 = c00;
+        for (int p = 0; p < kc; p++) {
+            FloatVector b0 = FloatVector.fromArray(SPECIES, bPack, bIndex);
+            FloatVector b1 = FloatVector.fromArray(SPECIES, bPack, bIndex + LANES);
+            FloatVector a = FloatVector.broadcast(SPECIES, aPack[aIndex]);
+            c00 = c00.add(a.mul(b0));
+            c01 = c01.add(a.mul(b1));
+            a = FloatVector.broadcast(SPECIES, aPack[aIndex + 1]);
+            c10 = c10.add(a.mul(b0));
+            c11 = c11.add(a.mul(b1));
+            a = FloatVector.broadcast(SPECIES, aPack[aIndex + 2]);
+            c20 = c20.add(a.mul(b0));
+            c21 = c21.add(a.mul(b1));
+            a = FloatVector.broadcast(SPECIES, aPack[aIndex + 3]);
+            c30 = c30.add(a.mul(b0));
+            c31 = c31.add(a.mul(b1));
+            aIndex += Gemm.MR;
+            bIndex += GEMM_NR;
+        }
+        if (mr == Gemm.MR && nr == GEMM_NR) {
+            storeRow(c00, c01, c, cIndex, overwrite);
+            storeRow(c10, c11, c, cIndex + cRowStride, overwrite);
+            storeRow(c20, c21, c, cIndex + 2 * cRowStride, overwrite);
+            storeRow(c30, c31, c, cIndex + 3 * cRowStride, overwrite);
+            return;
+        }
+        float[] tile = new float[Gemm.MR * GEMM_NR];
+        c00.intoArray(tile, 0);
+        c01.intoArray(tile, LANES);
+        c10.intoArray(tile, GEMM_NR);
+        c11.intoArray(tile, GEMM_NR + LANES);
+        c20.intoArray(tile, 2 * GEMM_NR);
+        c21.intoArray(tile, 2 * GEMM_NR + LANES);
+        c30.intoArray(tile, 3 * GEMM_NR);
+        c31.intoArray(tile, 3 * GEMM_NR + LANES);
+        for (int i = 0; i < mr; i++) {
+            int rowIndex = cIndex + i * cRowStride;
+            for (int j = 0; j < nr; j++) {
+                if (overwrite) {
+                    c[rowIndex + j] = tile[i * GEMM_NR + j];
+                } else {
+                    c[rowIndex + j] += tile[i * GEMM_NR + j];
+                }
+            }
+        }
+    }
+
+    private static void storeRow(FloatVector v0, FloatVector v1, float[] c,
+            int index, boolean overwrite) {
+        if (!overwrite) {
+            v0 = v0.add(FloatVector.fromArray(SPECIES, c, index));
+            v1 = v1.add(FloatVector.fromArray(SPECIES, c, index + LANES));
+        }
+        v0.intoArray(c, index);
+        v1.intoArray(c, index + LANES);
+    }
+
+    static float dot(float[] a, int aIndex, float[] b, int bIndex, int n) {
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = acc0;
+        int i = 0;
+        for (; i + 2 * LANES <= n; i += 2 * LANES) {
+            FloatVector a0 = FloatVector.fromArray(SPECIES, a, aIndex + i);
+            FloatVector b0 = FloatVector.fromArray(SPECIES, b, bIndex + i);
+            FloatVector a1 = FloatVector.fromArray(SPECIES, a, aIndex + i + LANES);
+            FloatVector b1 = FloatVector.fromArray(SPECIES, b, bIndex + i + LANES);
+            acc0 = acc0.add(a0.mul(b0));
+            acc1 = acc1.add(a1.mul(b1));
+        }
+        double result = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            result += a[aIndex + i] * b[bIndex + i];
+        }
+        return (float) result;
+    }
+
+    static void add(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            FloatVector.fromArray(SPECIES, x, xIndex + i)
+                    .add(FloatVector.fromArray(SPECIES, y, yIndex + i))
+                    .intoArray(z, zIndex + i);
+        }
+        for (; i < n; i++) {
+            z[zIndex + i] = x[xIndex + i] + y[yIndex + i];
+        }
+    }
+
+    static void sub(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            FloatVector.fromArray(SPECIES, x, xIndex + i)
+                    .sub(FloatVector.fromArray(SPECIES, y, yIndex + i))
+                    .intoArray(z, zIndex + i);
+        }
+        for (; i < n; i++) {
+            z[zIndex + i] = x[xIndex + i] - y[yIndex + i];
+        }
+    }
+
+    static void mul(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            FloatVector.fromArray(SPECIES, x, xIndex + i)
+                    .mul(FloatVector.fromArray(SPECIES, y, yIndex + i))
+                    .intoArray(z, zIndex + i);
+        }
+        for (; i < n; i++) {
+            z[zIndex + i] = x[xIndex + i] * y[yIndex + i];
+        }
+    }
+
+    static void div(float[] x, int xIndex, float[] y, int yIndex,
+            float[] z, int zIndex, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            FloatVector.fromArray(SPECIES, x, xIndex + i)
+                    .div(FloatVector.fromArray(SPECIES, y, yIndex + i))
+                    .intoArray(z, zIndex + i);
+        }
+        for (; i < n; i++) {
+            z[zIndex + i] = x[xIndex + i] / y[yIndex + i];
+        }
+    }
+
+}
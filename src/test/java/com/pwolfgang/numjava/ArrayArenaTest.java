@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class ArrayArenaTest {
+
+    public ArrayArenaTest() {
+    }
+
+    @Test
+    public void resultsAreRecycledWhenTheArenaCloses() {
+        BufferPool pool = new BufferPool(1 << 20);
+        Array a = new Array(new float[][]{{1, 2}, {3, 4}});
+        Object first;
+        try (ArrayArena arena = ArrayArena.open(pool)) {
+            assertSame(arena, ArrayArena.current());
+            Array c = a.dot(a).add(a);
+            assertEquals(new Array(new float[][]{{8, 12}, {18, 26}}), c);
+            first = c.data;
+        }
+        assertNull(ArrayArena.current());
+        try (ArrayArena arena = ArrayArena.open(pool)) {
+            assertSame(arena, ArrayArena.current());
+            Array c = a.dot(a).add(a);
+            assertEquals(new Array(new float[][]{{8, 12}, {18, 26}}), c);
+            assertTrue(pool.getStats().getHits() >= 2);
+            assertNotNull(first);
+        }
+    }
+
+    @Test
+    public void keptResultsSurvive() {
+        BufferPool pool = new BufferPool(1 << 20);
+        Array a = new Array(new int[]{1, 2, 3});
+        Array kept;
+        try (ArrayArena arena = ArrayArena.open(pool)) {
+            kept = arena.keep(a.add(a));
+        }
+        try (ArrayArena arena = ArrayArena.open(pool)) {
+            Array other = arena.zeros(int.class, 3);
+            assertNotSame(kept.data, other.data);
+            assertEquals(new Array(new int[]{0, 0, 0}), other);
+        }
+        assertEquals(new Array(new int[]{2, 4, 6}), kept);
+    }
+
+    @Test
+    public void arenasNest() {
+        try (ArrayArena outer = ArrayArena.open()) {
+            try (ArrayArena inner = ArrayArena.open()) {
+                assertSame(inner, ArrayArena.current());
+            }
+            assertSame(outer, ArrayArena.current());
+        }
+        assertNull(ArrayArena.current());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void arenasCloseInOrder() {
+        ArrayArena outer = ArrayArena.open();
+        ArrayArena inner = ArrayArena.open();
+        try {
+            outer.close();
+        } finally {
+            inner.close();
+            outer.close();
+        }
+    }
+
+    @Test
+    public void storageHasTheLengthOfTheResult() {
+        BufferPool pool = new BufferPool(1 << 20);
+        try (ArrayArena arena = ArrayArena.open(pool)) {
+            Array c = new Array(new float[35]).add(new Array(new float[35]));
+            assertEquals(64, ((float[]) c.data).length);
+            assertEquals(35, c.getStorage().length());
+        }
+    }
+
+}
@@ -401,6 +401,52 @@ public class ArrayTest {
         System.out.println(anArray);
     }
 
+    @Test
+    public void mixedProductsNeedNoConversion() {
+        Array floats = new Array(new float[]{0.5f, 1.5f, 2.5f});
+        Array ints = new Array(new int[]{2, 0, 1});
+        assertEquals(new Array(3.5f), floats.dot(ints));
+        assertEquals(new Array(3.5f), ints.dot(floats));
+        Array oneHot = new Array(new int[][]{{0, 1, 0}, {1, 0, 0}});
+        Array activations = new Array(new float[][]{{1, 2}, {3, 4}, {5, 6}});
+        assertEquals(new Array(new float[][]{{3, 4}, {1, 2}}), oneHot.dot(activations));
+        Array swap = new Array(new int[][]{{0, 1}, {1, 0}});
+        assertEquals(new Array(new float[][]{{2, 1}, {4, 3}, {6, 5}}),
+                activations.dot(swap.transpose()));
+        Array batch = new Array(new int[][][]{{{1, 0}, {0, 1}}, {{0, 1}, {1, 0}}});
+        assertEquals(new Array(new float[][][]{{{1, 2}, {2, 1}}, {{3, 4}, {4, 3}}, {{5, 6}, {6, 5}}}),
+                activations.dot(batch));
+    }
+
+    @Test
+    public void generateFillsInRowMajorOrder() {
+        int[] next = {0};
+        Array a = Array.generate(() -> next[0]++, 2, 3);
+        assertEquals(new Array(new float[][]{{0, 1, 2}, {3, 4, 5}}), a);
+    }
+
+    @Test
+    public void factoriesFillFlatArrays() {
+        assertEquals(new Array(new int[][]{{0, 0}, {0, 0}}), Array.zeros(int.class, 2, 2));
+        assertEquals(new Array(new double[]{1, 1, 1}), Array.ones(double.class, 3));
+        Array bytes = Array.full(UInt8.class, 200, 2);
+        assertEquals(UInt8.class, bytes.getDataType());
+        assertEquals(200, bytes.getInt(1));
+        assertEquals(new Array(new int[]{0, 1, 2, 3}), Array.arange(4));
+        assertEquals(new Array(new int[]{5, 3, 1}), Array.arange(5, 0, -2));
+        assertEquals(0, Array.arange(3, 3, 1).size());
+        assertEquals(new Array(new float[]{0f, 0.25f, 0.5f, 0.75f}), Array.arange(0f, 1f, 0.25f));
+        Array w = Array.uniform(3, -1, 1, 4, 5);
+        assertArrayEquals(new int[]{4, 5}, w.shape);
+        assertEquals(w, Array.uniform(3, -1, 1, 4, 5));
+        assertEquals(float.class, Array.normal(3, 0, 1, 2).getDataType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void raggedArraysAreRejected() {
+        new Array(new float[][]{{1, 2, 3}, {4, 5}});
+    }
+
     @Test
     public void testApply() {
         Array anArray = new Array(new int[][]{{1, 2, 3, 4}, {5, 6, 7, 8}});
@@ -453,4 +499,505 @@ public class ArrayTest {
         Array expected = new Array(subData);
         Array result = anArray.getRange(1, 3);
     }
+
+    @Test
+    public void batchedDotMatchesElementwiseSum() {
+        Random rand = new Random(3);
+        Array a = Array.generate(() -> rand.nextDouble() - 0.5, 2, 3, 5);
+        Array b = Array.generate(() -> rand.nextDouble() - 0.5, 4, 5, 6);
+        Array result = a.dot(b);
+        assertArrayEquals(new int[]{2, 3, 4, 6}, result.getShape());
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                for (int s = 0; s < 4; s++) {
+                    for (int n = 0; n < 6; n++) {
+                        double sum = 0;
+                        for (int k = 0; k < 5; k++) {
+                            sum += a.getFloat(i, j, k) * b.getFloat(s, k, n);
+                        }
+                        assertEquals(sum, result.getFloat(i, j, s, n), 1e-5);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batchedDotOfTransposedViews() {
+        Array a = new Array(new int[][][]{{{1, 2}, {3, 4}}, {{5, 6}, {7, 8}}});
+        Array aT = a.transpose();
+        Array expected = Array.copyOf(aT).dot(Array.copyOf(aT));
+        assertEquals(expected, aT.dot(aT));
+    }
+
+    @Test
+    public void batchedDotOfMixedTypes() {
+        Array a = new Array(new int[][][]{{{1, 0, 1}}, {{0, 1, 0}}});
+        Array b = new Array(new float[][][]{{{1.5f}, {2.5f}, {3.5f}}});
+        Array expected = new Array(new float[][][][]{{{{5.0f}}}, {{{2.5f}}}});
+        assertEquals(expected, a.dot(b));
+    }
+
+    @Test
+    public void nDtimes1DOfTransposedAndMixedOperands() {
+        Array a = new Array(new int[][]{{1, 2, 3}, {4, 5, 6}});
+        Array b = new Array(new float[]{0.5f, 1.5f});
+        Array expected = new Array(new float[]{6.5f, 8.5f, 10.5f});
+        assertEquals(expected, a.transpose().dot(b));
+        Array c = new Array(new float[][]{{1.0f, 2.0f, 3.0f}, {4.0f, 5.0f, 6.0f}});
+        Array d = new Array(new int[]{1, 0, 2});
+        assertEquals(new Array(new float[]{7.0f, 16.0f}), c.dot(d));
+    }
+
+    @Test
+    public void elementwiseOpsOfStridedViews() {
+        Array a = new Array(new float[][]{{1, 2, 3}, {4, 5, 6}});
+        Array b = new Array(new float[][]{{1, 4}, {2, 5}, {3, 6}});
+        Array expected = new Array(new float[][]{{2, 4, 6}, {8, 10, 12}});
+        assertEquals(expected, a.add(b.transpose()));
+        assertEquals(expected, b.transpose().add(a));
+        Array c = new Array(new int[][][]{{{1, 2}, {3, 4}}, {{5, 6}, {7, 8}}});
+        Array cT = c.transpose();
+        assertEquals(Array.copyOf(cT).mul(Array.copyOf(cT)), cT.mul(cT));
+        assertEquals(new Array(new int[][]{{0, 0}, {0, 0}}),
+                c.getSubArray(1).sub(c.getSubArray(1)));
+    }
+
+    @Test
+    public void applyToStridedView() {
+        Array a = new Array(new float[][]{{1, 2, 3}, {4, 5, 6}});
+        Array expected = new Array(new float[][]{{2, 8}, {4, 10}, {6, 12}});
+        assertEquals(expected, a.transpose().apply(x -> 2 * x));
+    }
+
+    @Test
+    public void broadcastColumnPlusRow() {
+        Array col = new Array(new int[][]{{0}, {10}, {20}});
+        Array row = new Array(new int[][]{{1, 2}});
+        Array expected = new Array(new int[][]{{1, 2}, {11, 12}, {21, 22}});
+        assertEquals(expected, col.add(row));
+        assertEquals(expected, row.add(col));
+    }
+
+    @Test
+    public void broadcastBiasAndRowScale() {
+        Array a = new Array(new float[][][]{{{1, 2}, {3, 4}}, {{5, 6}, {7, 8}}});
+        Array bias = new Array(new float[]{10, 20});
+        Array expected = new Array(new float[][][]{{{11, 22}, {13, 24}}, {{15, 26}, {17, 28}}});
+        assertEquals(expected, a.add(bias));
+        Array scale = new Array(new int[][]{{1}, {2}});
+        expected = new Array(new float[][][]{{{1, 2}, {6, 8}}, {{5, 6}, {14, 16}}});
+        assertEquals(expected, a.mul(scale));
+    }
+
+    @Test
+    public void broadcastSingletons() {
+        Array a = new Array(new int[]{1, 2, 3});
+        assertEquals(new Array(new int[]{2, 3, 4}), new Array(1).add(a));
+        assertEquals(new Array(new float[]{0.5f, 1.0f, 1.5f}), a.div(new Array(2.0f)));
+        assertEquals(new Array(7), new Array(3).add(new Array(4)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void broadcastIncompatibleShapes() {
+        new Array(new int[][]{{1, 2, 3}}).add(new Array(new int[]{1, 2}));
+    }
+
+    @Test
+    public void broadcastToUsesZeroStrides() {
+        Array a = new Array(new float[][]{{1}, {2}});
+        Array b = a.broadcastTo(3, 2, 4);
+        assertArrayEquals(new int[]{0, 1, 0}, b.stride);
+        assertEquals(2.0f, b.getFloat(2, 1, 3), 0.0f);
+        assertEquals(new Array(new float[][]{{1, 1}, {2, 2}}), Array.copyOf(a.broadcastTo(2, 2)));
+    }
+
+    @Test
+    public void broadcastViewsInProductsAndIteration() {
+        Array row = new Array(new float[]{2f}).broadcastTo(3);
+        assertEquals(6.0f, row.dot(Array.ones(float.class, 3)).getFloat(), 0.0f);
+        assertEquals(3, new Array(new int[]{3}).broadcastTo(1).dot(new Array(new int[]{1})).getInt());
+        Array column = new Array(new float[][]{{1}, {2}}).broadcastTo(2, 3);
+        Array vector = new Array(new float[]{1, 2, 3});
+        assertEquals(new Array(new float[]{6, 12}), column.dot(vector));
+        assertEquals(new Array(new float[]{6, 12}),
+                new Array(new int[][]{{1}, {2}}).broadcastTo(2, 3).dot(vector));
+        assertEquals(new Array(new float[][]{{3, 3}, {6, 6}}), column.dot(Array.ones(float.class, 3, 2)));
+        assertEquals("{2.0, 2.0, 2.0}", row.toString());
+        assertEquals("{{1.0, 1.0, 1.0}, {2.0, 2.0, 2.0}}", column.toString());
+        PrimitiveIterator.OfDouble iterator = row.iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            assertEquals(2.0, iterator.nextDouble(), 0.0);
+            count++;
+        }
+        assertEquals(3, count);
+        iterator = new Array(new int[]{7}).broadcastTo(2).iterator();
+        assertEquals(7.0, iterator.nextDouble(), 0.0);
+        assertEquals(7.0, iterator.nextDouble(), 0.0);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void inPlaceOpsReplaceValues() {
+        Array a = new Array(new float[][]{{1, 2}, {3, 4}});
+        Array data = a;
+        a.addInPlace(new Array(new float[]{10, 20})).mulInPlace(2).subInPlace(new Array(1.0f));
+        assertSame(data, a);
+        assertEquals(new Array(new float[][]{{21, 43}, {25, 47}}), a);
+        a.divInPlace(a);
+        assertEquals(new Array(new float[][]{{1, 1}, {1, 1}}), a);
+        a.applyInPlace(x -> -x);
+        assertEquals(new Array(new float[][]{{-1, -1}, {-1, -1}}), a);
+    }
+
+    @Test
+    public void inPlaceOpsOnStridedView() {
+        Array a = new Array(new int[][]{{1, 2, 3}, {4, 5, 6}});
+        a.transpose().addInPlace(new Array(new int[][]{{10, 20}, {30, 40}, {50, 60}}));
+        assertEquals(new Array(new int[][]{{11, 32, 53}, {24, 45, 66}}), a);
+        Array b = new Array(new float[][]{{1, 2, 3}, {4, 5, 6}});
+        b.getSubArray(1).mulInPlace(10);
+        assertEquals(new Array(new float[][]{{1, 2, 3}, {40, 50, 60}}), b);
+    }
+
+    @Test
+    public void inPlaceOpsWithAnOverlappingOperand() {
+        Array a = new Array(new float[][]{{1, 2, 3}, {4, 5, 6}, {7, 8, 9}});
+        a.addInPlace(a.transpose());
+        assertEquals(new Array(new float[][]{{2, 6, 10}, {6, 10, 14}, {10, 14, 18}}), a);
+        Array b = new Array(new int[][]{{1, 2}, {3, 4}});
+        b.transpose().subInPlace(b);
+        assertEquals(new Array(new int[][]{{0, -1}, {1, 0}}), b);
+        Array c = new Array(new float[]{1, 2, 3, 4});
+        Array head = new Array(new int[]{3}, new int[]{1}, float.class, 0, c.data);
+        Array tail = new Array(new int[]{3}, new int[]{1}, float.class, 1, c.data);
+        head.mul(tail, tail);
+        assertEquals(new Array(new float[]{1, 2, 6, 12}), c);
+        Array d = new Array(new float[][]{{0, 1}, {2, 3}});
+        d.exp(d.transpose());
+        assertEquals((float) Math.exp(2), d.getFloat(0, 1), 1e-5f);
+        assertEquals((float) Math.exp(1), d.getFloat(1, 0), 1e-5f);
+    }
+
+    @Test
+    public void outParameterOps() {
+        Array a = new Array(new float[][]{{1, 2}, {3, 4}});
+        Array b = new Array(new int[]{1, 2});
+        Array out = new Array(new float[][]{{0, 0}, {0, 0}});
+        assertSame(out, a.add(b, out));
+        assertEquals(a.add(b), out);
+        Array outT = new Array(new float[][]{{0, 0}, {0, 0}});
+        a.mul(a, outT.transpose());
+        assertEquals(Array.copyOf(a.mul(a).transpose()), outT);
+        a.apply(x -> x + 1, out);
+        assertEquals(a.apply(x -> x + 1), out);
+        Array scalar = new Array(0);
+        new Array(3).sub(new Array(1), scalar);
+        assertEquals(new Array(2), scalar);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outParameterShapeMismatch() {
+        Array a = new Array(new float[][]{{1, 2}, {3, 4}});
+        a.add(a, new Array(new float[]{0, 0}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inPlaceCannotStoreFloatInInt() {
+        new Array(new int[]{1, 2}).addInPlace(new Array(new float[]{1, 2}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inPlaceCannotBroadcastThis() {
+        new Array(new int[]{1, 2}).addInPlace(new Array(new int[][]{{1, 2}, {3, 4}}));
+    }
+
+    @Test
+    public void applyBinaryOperator() {
+        Array a = new Array(new int[][]{{1, 2}, {3, 4}});
+        Array b = new Array(new float[]{2, 3});
+        Array expected = new Array(new float[][]{{1, 8}, {9, 64}});
+        assertEquals(expected, a.apply(b, Math::pow));
+        Array out = new Array(new float[][]{{0, 0}, {0, 0}});
+        assertSame(out, a.apply(b, Math::pow, out));
+        assertEquals(expected, out);
+    }
+
+    @Test
+    public void mathFunctions() {
+        Array a = new Array(new int[][]{{-1, 0}, {1, 2}});
+        Array expected = new Array(new float[][]{{0, 0}, {1, 2}});
+        assertEquals(expected, a.relu());
+        Array e = a.transpose().exp();
+        assertEquals((float) Math.E, e.getFloat(0, 1), Math.ulp((float) Math.E));
+        Array out = new Array(new float[][]{{0, 0}, {0, 0}});
+        assertSame(out, e.log(out));
+        assertEquals(Array.copyOf(a.transpose()).apply(x -> x), out.apply(Math::rint));
+        assertEquals(0.5f, new Array(0).sigmoid().getFloat(), 0.0f);
+    }
+
+    @Test
+    public void mathFunctionsOfLargeArrays() {
+        float[] data = new float[300 * 401];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i % 200 - 100) / 10.0f;
+        }
+        Array a = new Array(data);
+        assertEquals(a.apply(x -> MathKernels.tanh((float) x)), a.tanh());
+        Array t = a.reShape(300, 401).transpose();
+        assertEquals(t.apply(x -> MathKernels.softplus((float) x)), t.softplus());
+    }
+
+    @Test
+    public void reductionsOverAxes() {
+        Array a = new Array(new int[][][]{{{1, 2, 3}, {4, 5, 6}}, {{7, 8, 9}, {10, 11, 12}}});
+        assertEquals(new Array(78), a.sum());
+        assertEquals(new Array(new int[][]{{5, 7, 9}, {17, 19, 21}}), a.sum(1));
+        assertEquals(new Array(new int[]{21, 57}), a.sum(1, 2));
+        assertEquals(new Array(new int[][][]{{{21}}, {{57}}}), a.sum(true, -1, -2));
+        assertEquals(new Array(new int[][]{{7, 8, 9}, {10, 11, 12}}), a.max(0));
+        assertEquals(new Array(new int[]{1, 7}), a.min(1, 2));
+        assertEquals(new Array(new float[]{3.5f, 9.5f}), a.mean(1, 2));
+        assertEquals(new Array(new float[][]{{9, 9, 9}, {9, 9, 9}}), a.var(0));
+        assertEquals(new Array(new float[][]{{3, 3, 3}, {3, 3, 3}}), a.std(0));
+    }
+
+    @Test
+    public void reductionsOfStridedView() {
+        Array a = new Array(new float[][]{{1, 2, 3}, {4, 5, 6}});
+        Array t = a.transpose();
+        assertEquals(new Array(new float[]{6, 15}), t.sum(0));
+        assertEquals(new Array(new float[][]{{5}, {7}, {9}}), t.sum(true, 1));
+        assertEquals(new Array(new float[]{4, 5, 6}), t.max(1));
+        assertEquals(new Array(1.0f), t.min());
+    }
+
+    @Test
+    public void reductionsPropagateNaN() {
+        Array a = new Array(new float[]{1, Float.NaN, 3});
+        assertTrue(Float.isNaN(a.max().getFloat()));
+        assertTrue(Float.isNaN(a.min().getFloat()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reductionAxisOutOfRange() {
+        new Array(new int[]{1, 2}).sum(1);
+    }
+
+    @Test
+    public void argMaxOfFlattenedViews() {
+        Array a = new Array(new float[][]{{1, 9, 3}, {4, 5, 6}});
+        assertEquals(1, a.argMax());
+        assertEquals(0, a.argMin());
+        assertEquals(2, a.transpose().argMax());
+        assertEquals(3, a.getSubArray(1).argMax() + 1);
+        assertEquals(1, new Array(new int[]{2, 7, 7}).argMax());
+        assertEquals(1, new Array(new float[]{1, Float.NaN, 5}).argMax());
+    }
+
+    @Test
+    public void argMaxAndArgMinAlongAxis() {
+        Array a = new Array(new int[][]{{1, 9, 3}, {8, 5, 6}});
+        assertEquals(new Array(new int[]{1, 0}), a.argMax(1));
+        assertEquals(new Array(new int[]{1, 0, 1}), a.argMax(0));
+        assertEquals(new Array(new int[]{0, 1}), a.argMin(-1));
+        assertEquals(new Array(new int[]{1, 0}), a.transpose().argMax(0));
+        assertEquals(new Array(1), new Array(new float[]{0, 2, 1}).argMax(0));
+    }
+
+    @Test
+    public void countEqualsOfPredictions() {
+        Array predictions = new Array(new float[][]{{0.1f, 0.7f, 0.2f}, {0.8f, 0.1f, 0.1f},
+            {0.3f, 0.3f, 0.4f}, {0.0f, 1.0f, 0.0f}});
+        Array labels = new Array(new int[]{1, 0, 0, 1});
+        assertEquals(3, predictions.argMax(1).countEquals(labels));
+        assertEquals(2, labels.countEquals(new Array(1)));
+        assertEquals(1, new Array(new float[]{0, 1, 2}).countEquals(new Array(new int[]{5, 1, 7})));
+    }
+
+    @Test
+    public void directArrayArithmetic() {
+        Array a = new Array(new float[][]{{1, 2, 3}, {4, 5, 6}});
+        Array b = new Array(new float[]{10, 20, 30});
+        Array direct = a.toDirect();
+        assertTrue(direct.isDirect());
+        assertEquals(a, direct);
+        assertEquals(a.add(b), direct.add(b));
+        assertEquals(Array.copyOf(a.transpose()), Array.copyOf(direct.transpose()));
+        assertEquals(a.sum(1), direct.sum(1));
+        assertEquals(a.sigmoid(), direct.sigmoid());
+        assertEquals(2, direct.argMax(1).getInt(0));
+        direct.addInPlace(b);
+        direct.getSubArray(0).mulInPlace(2);
+        direct.set(7, 1, 1);
+        assertEquals(new Array(new float[][]{{22, 44, 66}, {14, 7, 36}}), direct);
+        assertEquals(36.0f, direct.getFloat(1, 2), 0.0f);
+        assertEquals("{{22.0, 44.0, 66.0}, {14.0, 7.0, 36.0}}", direct.toString());
+        assertEquals(a.lazy().mul(b).eval(), direct.lazy().sub(direct).add(a).mul(b).eval());
+        direct.getStorage().close();
+    }
+
+    @Test
+    public void directArrayDot() {
+        Array a = new Array(new int[][]{{1, 2, 3}, {4, 5, 6}});
+        Array b = new Array(new int[][]{{1, 0}, {0, 1}, {2, 2}});
+        Array v = new Array(new int[]{1, 1, 1});
+        Array directA = a.toDirect();
+        Array directB = b.toDirect();
+        assertEquals(a.dot(b), directA.dot(directB));
+        assertEquals(a.dot(b), a.dot(directB));
+        assertEquals(b.transpose().dot(a.transpose()), directB.transpose().dot(directA.transpose()));
+        assertEquals(a.dot(v), directA.dot(v.toDirect()));
+        assertEquals(v.dot(v), v.toDirect().dot(v));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedDirectArrayCannotBeUsed() {
+        Array direct = Array.allocateDirect(float.class, 2, 2);
+        direct.getStorage().close();
+        direct.getFloat(0, 0);
+    }
+
+    @Test
+    public void compactTypesInArithmetic() {
+        Array pixels = new Array(new byte[][]{{0, (byte) 128}, {(byte) 255, 1}}).asUnsigned();
+        assertEquals(UInt8.class, pixels.getDataType());
+        assertEquals(255, pixels.getInt(1, 0));
+        assertEquals(new Array(new float[][]{{0, 128 / 255.0f}, {1, 1 / 255.0f}}), 
+                pixels.div(new Array(255.0f)));
+        assertEquals(new Array(new int[][]{{1, 129}, {256, 2}}), pixels.add(new Array(1)));
+        Array signed = pixels.asSigned();
+        assertEquals(byte.class, signed.getDataType());
+        assertEquals(new Array(new int[]{-1, 0}), signed.transpose().getSubArray(0).add(
+                new Array(new short[]{-1, 1})));
+        assertEquals(new Array(new int[]{0, 65535}), 
+                new Array(new short[]{0, -1}).asUnsigned().mul(new Array(new int[]{7, 1})));
+        Array out = new Array(new float[2]);
+        pixels.getSubArray(1).sub(new Array(new float[]{0.5f, 0.5f}), out);
+        assertEquals(new Array(new float[]{254.5f, 0.5f}), out);
+        assertEquals("{{0, 128}, {255, 1}}", pixels.toString());
+    }
+
+    @Test
+    public void compactTypesInDotAndReductions() {
+        Array pixels = new Array(new byte[][]{{1, (byte) 200}, {3, 4}}).asUnsigned();
+        Array widened = new Array(new int[][]{{1, 200}, {3, 4}});
+        Array weights = new Array(new float[]{0.5f, 2});
+        assertEquals(widened.dot(weights), pixels.dot(weights));
+        assertEquals(widened.dot(new Array(new int[]{1, 1})), pixels.dot(new Array(new int[]{1, 1})));
+        assertEquals(widened.dot(widened), pixels.dot(pixels));
+        assertEquals(widened.getSubArray(0).dot(widened.getSubArray(1)), 
+                pixels.getSubArray(0).dot(pixels.getSubArray(1)));
+        assertEquals(widened.sum(0), pixels.sum(0));
+        assertEquals(widened.mean(1), pixels.mean(1));
+        assertEquals(1, pixels.argMax());
+        assertEquals(new Array(new int[]{1, 1}), pixels.argMax(1));
+        assertEquals(widened, pixels.lazy().eval());
+        assertEquals(widened.lazy().mul(weights).eval(), pixels.lazy().mul(weights).eval());
+    }
+
+    @Test
+    public void compactTypesIterateAndStore() {
+        Array labels = new Array(new byte[]{9, (byte) 250}).asUnsigned();
+        PrimitiveIterator.OfDouble itr = labels.iterator();
+        assertEquals(9.0, itr.nextDouble(), 0.0);
+        assertEquals(250.0, itr.nextDouble(), 0.0);
+        assertFalse(itr.hasNext());
+        labels.set(300, 0);
+        assertEquals(44, labels.getInt(0));
+        assertEquals(2, labels.countEquals(new Array(new int[]{44, 250})));
+        assertEquals(new Array(new short[]{1, 2}), Array.copyOf(new Array(new short[]{1, 2})));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void floatCannotBeUnsigned() {
+        new Array(new float[]{1}).asUnsigned();
+    }
+
+    @Test
+    public void doubleAndLongArithmetic() {
+        Array big = new Array(new long[]{1L << 40, -3});
+        assertEquals(new Array(new long[]{(1L << 40) + 1, -2}), big.add(new Array(new int[]{1, 1})));
+        assertEquals(long.class, big.mul(2).getDataType());
+        assertEquals(new Array((1L << 40) - 3), big.sum());
+        assertEquals(0, big.argMax());
+        Array precise = new Array(new double[][]{{1e-9, 1}, {2, 3}});
+        Array sum = precise.add(new Array(new float[]{1, 1}));
+        assertEquals(double.class, sum.getDataType());
+        assertEquals(1 + 1e-9, sum.getDouble(0, 0), 0.0);
+        assertEquals(new Array(new double[]{1 + 1e-9, 5}), precise.sum(1));
+        assertEquals(1.25, precise.var().getDouble(), 1e-8);
+        assertEquals(float.class, big.add(new Array(0.5f)).getDataType());
+        assertEquals(double.class, precise.apply(precise, Math::max).getDataType());
+        Array out = new Array(new double[2]);
+        precise.getSubArray(1).sub(new Array(1.5), out);
+        assertEquals(new Array(new double[]{0.5, 1.5}), out);
+    }
+
+    @Test
+    public void applyKeepsDoublePrecision() {
+        Array precise = new Array(new double[]{1e-9, 2});
+        Array shifted = precise.apply(x -> x + 1);
+        assertEquals(double.class, shifted.getDataType());
+        assertEquals(1 + 1e-9, shifted.getDouble(0), 0.0);
+        precise.applyInPlace(Math::sqrt);
+        assertEquals(Math.sqrt(1e-9), precise.getDouble(0), 0.0);
+        assertEquals(new Array(3.0), new Array(9.0).apply(Math::sqrt));
+        assertEquals(float.class, new Array(new int[]{4}).apply(Math::sqrt).getDataType());
+    }
+
+    @Test
+    public void javaScalarsDoNotWidenAnArray() {
+        Array floats = new Array(new float[]{1, 2});
+        assertEquals(new Array(new float[]{2.5f, 5}), floats.mul(2.5));
+        assertEquals(new Array(new int[]{2, 4}), new Array(new int[]{1, 2}).mul(2L));
+        assertEquals(float.class, new Array(new int[]{1, 2}).mul(2.5).getDataType());
+        assertEquals(long.class, new Array(new int[]{1, 2}).mul(1L << 40).getDataType());
+        assertEquals(double.class, new Array(new double[]{1}).mul(2.5f).getDataType());
+        assertEquals(double.class, floats.mul(new Array(2.5)).getDataType());
+        assertEquals(double.class, floats.dot(new Array(2.5)).getDataType());
+    }
+
+    @Test
+    public void dotPromotesLikeTheElementwiseOps() {
+        Array ints = new Array(new int[][]{{1, 2}, {3, 4}});
+        Array longs = new Array(new long[][]{{1, 2}, {3, 4}});
+        Array doubles = new Array(new double[][]{{0.5, 0}, {0, 0.5}});
+        Array floats = new Array(new float[][]{{1, 0}, {0, 1}});
+        assertEquals(new Array(new long[][]{{7, 10}, {15, 22}}), ints.dot(longs));
+        assertEquals(new Array(new double[][]{{0.5, 1}, {1.5, 2}}), longs.dot(doubles));
+        assertEquals(new Array(new float[][]{{1, 2}, {3, 4}}), ints.dot(floats));
+        assertEquals(new Array(new double[]{1, 2}), doubles.dot(new Array(new int[]{2, 4})));
+        assertEquals(new Array(11L), longs.getSubArray(1).dot(new Array(new int[]{1, 2})));
+        Array batch = new Array(new double[][][]{{{1, 0}, {0, 1}}, {{2, 0}, {0, 2}}});
+        assertEquals(new Array(new double[][][]{{{1, 2}, {2, 4}}, {{3, 4}, {6, 8}}}), ints.dot(batch));
+        assertEquals(ints.dot(floats).getDataType(), ints.add(floats).getDataType());
+        assertEquals(longs.dot(doubles).getDataType(), longs.add(doubles).getDataType());
+    }
+
+    @Test
+    public void halfPrecisionWeightsAccumulateInFloat() {
+        Array weights = new Array(new float[][]{{0.5f, -1.25f, 3}, {1000, 0.1f, 2}});
+        for (Class<?> type : new Class<?>[]{BFloat16.class, Float16.class}) {
+            Array half = weights.asType(type);
+            assertEquals(type, half.getDataType());
+            assertEquals(-1.25f, half.getFloat(0, 1), 0.0f);
+            Array rounded = half.asType(float.class);
+            assertEquals(0.1f, rounded.getFloat(1, 1), 1e-3f);
+            Array x = new Array(new float[]{1, 2, 3});
+            Array y = half.dot(x);
+            assertEquals(float.class, y.getDataType());
+            assertEquals(rounded.dot(x), y);
+            assertEquals(rounded.transpose().dot(rounded), half.transpose().dot(half));
+            assertEquals(rounded.add(x), half.add(x));
+            assertEquals(rounded.sum(0), half.sum(0));
+            assertEquals(rounded.argMax(1), half.argMax(1));
+            assertEquals(rounded.lazy().mul(x).eval(), half.lazy().mul(x).eval());
+            half.set(2.0f, 0, 0);
+            assertEquals(2.0f, half.getFloat(0, 0), 0.0f);
+            assertEquals(rounded.getSubArray(1).toString(), half.getSubArray(1).toString());
+        }
+        assertEquals(new Array(new byte[]{1, -1}), new Array(new float[]{1.7f, 255}).asType(byte.class));
+    }
 }
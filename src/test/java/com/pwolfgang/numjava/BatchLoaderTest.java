@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class BatchLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IdxFile images;
+    private IdxFile labels;
+
+    public BatchLoaderTest() {
+    }
+
+    /**
+     * Write ten 2x2 images whose pixels are all 10 times the label.
+     */
+    @Before
+    public void writeFiles() throws IOException {
+        byte[] pixels = new byte[40];
+        byte[] digits = new byte[10];
+        for (int i = 0; i < 10; i++) {
+            digits[i] = (byte) i;
+            Arrays.fill(pixels, 4 * i, 4 * i + 4, (byte) (10 * i));
+        }
+        images = IdxFile.map(write(IdxFile.UNSIGNED_BYTE, new int[]{10, 2, 2}, pixels));
+        labels = IdxFile.map(write(IdxFile.UNSIGNED_BYTE, new int[]{10}, digits));
+    }
+
+    private String write(int type, int[] shape, byte[] elements) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * shape.length + elements.length);
+        buffer.putInt(type << 8 | shape.length);
+        for (int d : shape) {
+            buffer.putInt(d);
+        }
+        buffer.put(elements);
+        File file = folder.newFile();
+        Files.write(file.toPath(), buffer.array());
+        return file.getPath();
+    }
+
+    @Test
+    public void sequentialBatchesDropTheRemainder() {
+        try (BatchLoader loader = new BatchLoader(images, labels, 3).scale(10.0f)) {
+            assertEquals(3, loader.batchesPerEpoch());
+            for (int b = 0; b < 3; b++) {
+                BatchLoader.Batch batch = loader.next();
+                assertArrayEquals(new int[]{3, 4}, batch.getExamples().getShape());
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(3 * b + i, batch.getLabels().getInt(i));
+                    assertEquals(3 * b + i, batch.getExamples().getFloat(i, 3), 0.0f);
+                }
+            }
+            assertFalse(loader.hasNext());
+        }
+    }
+
+    @Test
+    public void shuffledEpochsVisitEveryExampleOnce() {
+        int[] seen = new int[10];
+        boolean inOrder = true;
+        try (BatchLoader loader = new BatchLoader(images, labels, 5).shuffle(42).epochs(3).prefetch(1)) {
+            int n = 0;
+            while (loader.hasNext()) {
+                BatchLoader.Batch batch = loader.next();
+                for (int i = 0; i < 5; i++) {
+                    int label = batch.getLabels().getInt(i);
+                    assertEquals(10 * label, batch.getExamples().getFloat(i, 0), 0.0f);
+                    inOrder &= label == n % 10;
+                    seen[label]++;
+                    n++;
+                }
+            }
+            assertEquals(30, n);
+        }
+        for (int count : seen) {
+            assertEquals(3, count);
+        }
+        assertFalse(inOrder);
+    }
+
+    @Test
+    public void closingStopsTheLoader() {
+        BatchLoader loader = new BatchLoader(images, labels, 1).epochs(1000);
+        loader.next();
+        loader.close();
+        assertFalse(loader.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void labelsMustMatchTheExamples() throws IOException {
+        new BatchLoader(images, IdxFile.map(write(IdxFile.UNSIGNED_BYTE, new int[]{9}, new byte[9])), 1);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class BufferPoolTest {
+
+    public BufferPoolTest() {
+    }
+
+    @Test
+    public void buffersAreReusedZeroed() {
+        BufferPool pool = new BufferPool(1 << 20);
+        float[] first = (float[]) pool.acquire(float.class, 100);
+        assertEquals(128, first.length);
+        first[5] = 3;
+        pool.release(first);
+        float[] second = (float[]) pool.acquire(float.class, 120);
+        assertSame(first, second);
+        assertEquals(0.0f, second[5], 0.0f);
+        BufferPool.Stats stats = pool.getStats();
+        assertEquals(2, stats.getRequests());
+        assertEquals(1, stats.getHits());
+        assertEquals(0.5, stats.getHitRate(), 0.0);
+        assertEquals(0, stats.getRetainedBytes());
+    }
+
+    @Test
+    public void compactTypesShareTheirStorageClass() {
+        BufferPool pool = new BufferPool(1 << 20);
+        byte[] bytes = (byte[]) pool.acquire(UInt8.class, 64);
+        pool.release(bytes);
+        assertSame(bytes, pool.acquire(byte.class, 10));
+        assertTrue(pool.acquire(short.class, 10) instanceof short[]);
+    }
+
+    @Test
+    public void theRetainedBuffersAreLimited() {
+        int cached = BufferPool.THREAD_CACHE_SIZE * 64 * 4;
+        BufferPool pool = new BufferPool(cached + 64 * 4);
+        for (int i = 0; i < BufferPool.THREAD_CACHE_SIZE + 2; i++) {
+            pool.release(new int[64]);
+        }
+        pool.release(new int[100]);
+        BufferPool.Stats stats = pool.getStats();
+        assertEquals(2, stats.getDiscards());
+        assertEquals(cached + 64 * 4, stats.getRetainedBytes());
+        pool.trim();
+        assertEquals(0, pool.getStats().getRetainedBytes());
+        pool = new BufferPool(0);
+        pool.release(new int[64]);
+        assertEquals(1, pool.getStats().getDiscards());
+        assertEquals(0, pool.getStats().getRetainedBytes());
+    }
+
+    @Test
+    public void largeBuffersAreNotKeptByAThread() throws InterruptedException {
+        BufferPool pool = new BufferPool(1 << 20);
+        float[] buffer = new float[1 << (BufferPool.MAX_CACHED_CLASS + 1)];
+        pool.release(buffer);
+        Object[] taken = new Object[1];
+        Thread thread = new Thread(() -> taken[0] = pool.acquire(float.class, buffer.length));
+        thread.start();
+        thread.join();
+        assertSame(buffer, taken[0]);
+    }
+
+    @Test
+    public void otherThreadsUseTheSharedBuffers() throws InterruptedException {
+        BufferPool pool = new BufferPool(1 << 20);
+        double[][] buffers = new double[BufferPool.THREAD_CACHE_SIZE + 1][];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = (double[]) pool.acquire(double.class, 64);
+        }
+        for (double[] buffer : buffers) {
+            pool.release(buffer);
+        }
+        Object[] taken = new Object[1];
+        Thread thread = new Thread(() -> taken[0] = pool.acquire(double.class, 64));
+        thread.start();
+        thread.join();
+        assertSame(buffers[BufferPool.THREAD_CACHE_SIZE], taken[0]);
+    }
+
+}
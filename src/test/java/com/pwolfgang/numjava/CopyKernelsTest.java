@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class CopyKernelsTest {
+
+    public CopyKernelsTest() {
+    }
+
+    @Test
+    public void transposesAreCopiedInBlocks() {
+        int rows = CopyKernels.BLOCK + 3;
+        int cols = 2 * CopyKernels.BLOCK + 1;
+        double[] src = new double[2 * rows * cols];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i;
+        }
+        // Two cols x rows transposes of row-major rows x cols matrices.
+        double[] dst = new double[src.length];
+        CopyKernels.copy(src, new int[]{2, cols, rows}, new int[]{rows * cols, 1, cols}, 0, dst, 0);
+        for (int s = 0; s < 2; s++) {
+            for (int j = 0; j < cols; j++) {
+                for (int i = 0; i < rows; i++) {
+                    assertEquals(s * rows * cols + i * cols + j, dst[s * rows * cols + j * rows + i], 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void stridedAndBroadcastViews() {
+        short[] src = {0, 1, 2, 3, 4, 5, 6, 7};
+        short[] dst = new short[6];
+        CopyKernels.copy(src, new int[]{2, 3}, new int[]{0, 2}, 1, dst, 0);
+        assertArrayEquals(new short[]{1, 3, 5, 1, 3, 5}, dst);
+        byte[] bytes = {1, 2, 3, 4};
+        byte[] copy = new byte[4];
+        CopyKernels.copy(bytes, new int[]{2, 2}, new int[]{2, 1}, 0, copy, 0);
+        assertArrayEquals(bytes, copy);
+    }
+
+    @Test
+    public void copyOfATransposeIsContiguous() {
+        Array a = new Array(new int[][]{{1, 2, 3}, {4, 5, 6}});
+        Array t = Array.copyOf(a.transpose());
+        assertArrayEquals(new int[]{2, 1}, t.stride);
+        assertArrayEquals(new int[]{1, 4, 2, 5, 3, 6}, (int[]) t.data);
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class DataTypesTest {
+
+    public DataTypesTest() {
+    }
+
+    @Test
+    public void unsignedTypesAreWidened() {
+        byte[] bytes = {-1, 0, 127, -128};
+        int[] ints = new int[4];
+        DataTypes.loadInts(UInt8.class, bytes, 0, 1, ints, 0, 4);
+        assertArrayEquals(new int[]{255, 0, 127, 128}, ints);
+        DataTypes.loadInts(byte.class, bytes, 0, 1, ints, 0, 4);
+        assertArrayEquals(new int[]{-1, 0, 127, -128}, ints);
+        short[] shorts = {-1, 2};
+        float[] floats = new float[2];
+        DataTypes.loadFloats(UInt16.class, shorts, 1, -1, floats, 0, 2);
+        assertArrayEquals(new float[]{2, 65535}, floats, 0.0f);
+    }
+
+    @Test
+    public void storesKeepTheLowOrderBits() {
+        byte[] bytes = new byte[1];
+        DataTypes.setInt(UInt8.class, bytes, 0, 200);
+        assertEquals(200, DataTypes.getInt(UInt8.class, bytes, 0));
+        assertEquals(-56, DataTypes.getInt(byte.class, bytes, 0));
+        assertTrue(DataTypes.newData(UInt16.class, 3) instanceof short[]);
+    }
+
+    @Test
+    public void promotionFollowsTheTable() {
+        assertEquals(int.class, DataTypes.promote(UInt8.class, short.class));
+        assertEquals(long.class, DataTypes.promote(int.class, long.class));
+        assertEquals(float.class, DataTypes.promote(long.class, float.class));
+        assertEquals(float.class, DataTypes.promote(BFloat16.class, int.class));
+        assertEquals(float.class, DataTypes.promote(Float16.class, BFloat16.class));
+        assertEquals(double.class, DataTypes.promote(Float16.class, double.class));
+        assertEquals(double.class, DataTypes.promote(long.class, double.class));
+    }
+
+    @Test
+    public void halfPrecisionRoundsToNearestEven() {
+        assertEquals(1.0f, Float16.toFloat(Float16.fromFloat(1.0f)), 0.0f);
+        assertEquals(65504f, Float16.toFloat(Float16.fromFloat(65504f)), 0.0f);
+        assertEquals(Float.POSITIVE_INFINITY, Float16.toFloat(Float16.fromFloat(65520f)), 0.0f);
+        assertEquals(0x1p-24f, Float16.toFloat(Float16.fromFloat(0x1p-24f)), 0.0f);
+        assertEquals(0.0f, Float16.toFloat(Float16.fromFloat(0x1p-26f)), 0.0f);
+        // 1 + 2^-11 is halfway between 1 and 1 + 2^-10 and rounds to even.
+        assertEquals(1.0f, Float16.toFloat(Float16.fromFloat(1 + 0x1p-11f)), 0.0f);
+        assertEquals(-2.5f, Float16.toFloat(Float16.fromFloat(-2.5f)), 0.0f);
+        assertTrue(Float.isNaN(Float16.toFloat(Float16.fromFloat(Float.NaN))));
+        assertEquals(1.0f, BFloat16.toFloat(BFloat16.fromFloat(1 + 0x1p-8f)), 0.0f);
+        assertEquals(1 + 0x1p-6f, BFloat16.toFloat(BFloat16.fromFloat(1 + 0x1p-6f + 0x1p-8f)), 0.0f);
+        assertEquals(3.0e38f, BFloat16.toFloat(BFloat16.fromFloat(3.0e38f)), 1.0e36f);
+        assertTrue(Float.isNaN(BFloat16.toFloat(BFloat16.fromFloat(Float.NaN))));
+    }
+
+}
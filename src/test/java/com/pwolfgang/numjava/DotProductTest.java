@@ -17,6 +17,8 @@
 package com.pwolfgang.numjava;
 
 import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
 /**
@@ -73,4 +75,154 @@ public class DotProductTest {
         long end = System.nanoTime();
         return end-start;
     }
+    
+    /**
+     * The blocked kernel must agree with a naive triple loop, including for
+     * sizes that leave partial tiles and panels and for transposed operands.
+     */
+    @Test
+    public void testFXfMMULMatchesNaive() {
+        int[][] sizes = {{1, 1, 1}, {3, 5, 7}, {17, 9, 300}, {130, 67, 260}};
+        for (int[] size : sizes) {
+            int m = size[0];
+            int n = size[1];
+            int k = size[2];
+            float[] a = randomFloats(m * k);
+            float[] b = randomFloats(k * n);
+            float[] expected = naiveMMUL(m, n, k, a, 0, k, 1, b, 0, n, 1);
+            float[] result = (float[]) DotProduct.fXfMMUL(m, n, k, 0, 1, 0, n, a, b, 1, k);
+            assertArrayEquals(expected, result, 1e-3f * k);
+            // A stored column-major, B stored column-major
+            float[] aT = transpose(a, m, k);
+            float[] bT = transpose(b, k, n);
+            result = (float[]) DotProduct.fXfMMUL(m, n, k, 0, m, 0, 1, aT, bT, k, 1);
+            assertArrayEquals(expected, result, 1e-3f * k);
+        }
+    }
+
+    @Test
+    public void testIXiMMULMatchesNaive() {
+        int m = 37;
+        int n = 41;
+        int k = 513;
+        int[] a = new int[m * k];
+        int[] b = new int[k * n];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextInt(21) - 10;
+        }
+        for (int i = 0; i < b.length; i++) {
+            b[i] = random.nextInt(21) - 10;
+        }
+        int[] result = (int[]) DotProduct.iXiMMUL(m, n, k, 0, 1, 0, n, a, b, 1, k);
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                int sum = 0;
+                for (int p = 0; p < k; p++) {
+                    sum += a[i * k + p] * b[p * n + j];
+                }
+                assertEquals(sum, result[i * n + j]);
+            }
+        }
+    }
+
+    @Test
+    public void testFXfGEMVMatchesNaive() {
+        int m = 70;
+        int k = 33;
+        float[] a = randomFloats(m * k);
+        float[] b = randomFloats(2 * k);
+        float[] expected = naiveMMUL(m, 1, k, a, 0, k, 1, b, 0, 2, 1);
+        // b is read with stride 2
+        float[] result = DotProduct.fXfGEMV(m, k, 0, k, 1, a, 0, 2, b);
+        assertArrayEquals(expected, result, 1e-4f);
+        // a is read as the transpose of a k x m matrix
+        float[] aT = transpose(a, m, k);
+        result = DotProduct.fXfGEMV(m, k, 0, 1, m, aT, 0, 2, b);
+        assertArrayEquals(expected, result, 1e-4f);
+    }
+
+    /**
+     * The mixed kernels must give exactly what the float kernel gives for
+     * the converted operands, including when the product is split across
+     * threads.
+     */
+    @Test
+    public void testMixedMMULMatchesConverted() {
+        int m = 130;
+        int n = 67;
+        int k = 260;
+        int[] labels = new int[m * k];
+        for (int i = 0; i < m; i++) {
+            labels[i * k + random.nextInt(k)] = 1;
+        }
+        float[] labelsAsFloat = new float[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            labelsAsFloat[i] = labels[i];
+        }
+        float[] b = randomFloats(k * n);
+        float[] expected = (float[]) DotProduct.fXfMMUL(m, n, k, 0, 1, 0, n, labelsAsFloat, b, 1, k);
+        float[] result = (float[]) DotProduct.iXfMMUL(m, n, k, 0, 1, 0, n, labels, b, 1, k);
+        assertArrayEquals(expected, result, 0.0f);
+        // labels transposed on the right: (n x k) times (k x m)
+        float[] a = randomFloats(n * k);
+        expected = (float[]) DotProduct.fXfMMUL(n, m, k, 0, 1, 0, 1, a, labelsAsFloat, k, k);
+        result = (float[]) DotProduct.fXiMMUL(n, m, k, 0, 1, 0, 1, a, labels, k, k);
+        assertArrayEquals(expected, result, 0.0f);
+        float dot = DotProduct.floatXintInnerProduct(1, k, 0, 1, 0, b, labels);
+        assertEquals(DotProduct.intXfloatInnerProduct(1, k, 0, 1, 0, labels, b), dot, 0.0f);
+    }
+
+    /**
+     * The vector and scalar inner products accumulate in different
+     * precisions; both must stay within the error bound of a float sum.
+     */
+    @Test
+    public void innerProductIsWithinFloatRounding() {
+        int n = 10007;
+        float[] a = randomFloats(n);
+        float[] b = randomFloats(n);
+        double exact = 0;
+        double magnitude = 0;
+        for (int i = 0; i < n; i++) {
+            exact += (double) a[i] * b[i];
+            magnitude += Math.abs((double) a[i] * b[i]);
+        }
+        double bound = n * Math.ulp(1.0f) / 2 * magnitude;
+        assertEquals(exact, DotProduct.floatXfloatInnerProduct(1, n, 0, 1, 0, a, b), bound);
+        assertEquals(exact, Simd.dot(a, 0, b, 0, n), bound);
+    }
+
+    float[] randomFloats(int size) {
+        float[] data = new float[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = random.nextFloat() - 0.5f;
+        }
+        return data;
+    }
+
+    static float[] transpose(float[] data, int nRows, int nCols) {
+        float[] result = new float[data.length];
+        for (int i = 0; i < nRows; i++) {
+            for (int j = 0; j < nCols; j++) {
+                result[j * nRows + i] = data[i * nCols + j];
+            }
+        }
+        return result;
+    }
+
+    static float[] naiveMMUL(int m, int n, int k, float[] a, int aOffset, int aRowStride, int aColStride,
+            float[] b, int bOffset, int bRowStride, int bColStride) {
+        float[] result = new float[m * n];
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0;
+                for (int p = 0; p < k; p++) {
+                    sum += a[aOffset + i * aRowStride + p * aColStride]
+                            * b[bOffset + p * bRowStride + j * bColStride];
+                }
+                result[i * n + j] = (float) sum;
+            }
+        }
+        return result;
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import com.pwolfgang.numjava.ElementwiseKernels.Op;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class ElementwiseKernelsTest {
+
+    private static final int N = 37;
+    private static final int[][] STRIDES = {{1, 1, 1}, {1, 0, 1}, {0, 1, 1}, {2, 3, 2}};
+
+    public ElementwiseKernelsTest() {
+    }
+
+    /**
+     * Every float kernel must round exactly as the operator computed in
+     * double and cast back to float.
+     */
+    @Test
+    public void testFloatKernelsMatchDouble() {
+        Random rand = new Random(3);
+        float[] x = new float[3 * N];
+        float[] y = new float[3 * N];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = rand.nextFloat() * 10 - 5;
+            y[i] = rand.nextFloat() * 10 + 1;
+        }
+        for (Op op : Op.values()) {
+            for (int[] s : STRIDES) {
+                float[] z = new float[3 * N];
+                ElementwiseKernels.run(op, N, x, 1, s[0], y, 2, s[1], z, 3, s[2]);
+                for (int i = 0; i < N; i++) {
+                    double a = x[1 + i * s[0]];
+                    double b = y[2 + i * s[1]];
+                    double expected;
+                    switch (op) {
+                        case ADD: expected = a + b; break;
+                        case SUB: expected = a - b; break;
+                        case MUL: expected = a * b; break;
+                        default: expected = a / b;
+                    }
+                    assertEquals(op + " " + i, (float) expected, z[3 + i * s[2]], 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIntKernels() {
+        int[] x = new int[3 * N];
+        int[] y = new int[3 * N];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = 5 * i - 40;
+            y[i] = i % 7 + 1;
+        }
+        for (Op op : Op.values()) {
+            for (int[] s : STRIDES) {
+                int[] z = new int[3 * N];
+                ElementwiseKernels.run(op, N, x, 1, s[0], y, 2, s[1], z, 3, s[2]);
+                for (int i = 0; i < N; i++) {
+                    int a = x[1 + i * s[0]];
+                    int b = y[2 + i * s[1]];
+                    assertEquals(ElementwiseKernels.apply(op, a, b), z[3 + i * s[2]]);
+                }
+            }
+        }
+        assertEquals(-2, ElementwiseKernels.apply(Op.DIV, -7, 3));
+    }
+
+}
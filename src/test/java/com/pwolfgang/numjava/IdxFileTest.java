@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class IdxFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public IdxFileTest() {
+    }
+
+    /**
+     * Write an IDX file with the given header and element bytes.
+     */
+    private String write(int type, int[] shape, ByteBuffer elements) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * shape.length + elements.capacity());
+        buffer.putInt(type << 8 | shape.length);
+        for (int d : shape) {
+            buffer.putInt(d);
+        }
+        buffer.put(elements.array());
+        File file = folder.newFile();
+        Files.write(file.toPath(), buffer.array());
+        return file.getPath();
+    }
+
+    @Test
+    public void unsignedBytesAreViewedAndConverted() throws IOException {
+        byte[] pixels = {0, 1, 127, (byte) 128, (byte) 254, (byte) 255};
+        String name = write(IdxFile.UNSIGNED_BYTE, new int[]{1, 2, 3}, ByteBuffer.wrap(pixels));
+        IdxFile file = IdxFile.map(name);
+        assertEquals(2051, file.getMagicNumber());
+        assertArrayEquals(new int[]{1, 2, 3}, file.getShape());
+        Array view = file.view();
+        assertTrue(view.isDirect());
+        assertEquals(UInt8.class, view.getDataType());
+        assertEquals(255, view.getInt(0, 1, 2));
+        Array bytes = file.copy();
+        assertEquals(UInt8.class, bytes.getDataType());
+        assertEquals(128, bytes.getInt(0, 1, 0));
+        assertEquals(bytes, view);
+        assertEquals(bytes, Array.copyOf(view));
+        assertEquals("{{{0, 1, 127}, {128, 254, 255}}}", view.toString());
+        assertEquals(new Array(765), view.sum());
+        assertEquals(5, view.argMax());
+        assertEquals(new Array(new float[]{128 / 255.0f, 254 / 255.0f, 1}),
+                view.getSubArray(0).getSubArray(1).div(new Array(255.0f)));
+        Array rows = view.reShape(2, 3);
+        assertEquals(new Array(new int[]{128, 637}), rows.dot(new Array(new int[]{1, 1, 1})));
+        assertEquals(new Array(new int[]{1, 254}), rows.lazy().mul(new Array(new int[]{0, 1, 0})).eval().sum(1));
+        Array scaled = file.toFloat(255.0f);
+        assertEquals(128 / 255.0f, scaled.getFloat(0, 1, 0), 0.0f);
+        assertEquals(1.0f, scaled.getFloat(0, 1, 2), 0.0f);
+    }
+
+    @Test
+    public void signedAndWideTypes() throws IOException {
+        ByteBuffer shorts = ByteBuffer.allocate(6).putShort((short) -2).putShort((short) 300).putShort((short) 7);
+        assertEquals(new Array(new int[]{-2, 300, 7}),
+                IdxFile.map(write(IdxFile.SHORT, new int[]{3}, shorts)).view());
+        ByteBuffer bytes = ByteBuffer.wrap(new byte[]{-1, 5});
+        Array signed = IdxFile.map(write(IdxFile.BYTE, new int[]{2}, bytes)).view();
+        assertEquals(byte.class, signed.getDataType());
+        assertEquals(-1, signed.getInt(0));
+        assertEquals(new Array(new int[]{-1, 5}), signed.add(new Array(0)));
+        ByteBuffer ints = ByteBuffer.allocate(16).putInt(1).putInt(-2).putInt(3).putInt(1 << 20);
+        assertEquals(new Array(new int[][]{{1, -2}, {3, 1 << 20}}),
+                IdxFile.map(write(IdxFile.INT, new int[]{2, 2}, ints)).view());
+        ByteBuffer floats = ByteBuffer.allocate(8).putFloat(1.5f).putFloat(-0.25f);
+        assertEquals(new Array(new float[]{1.5f, -0.25f}),
+                IdxFile.map(write(IdxFile.FLOAT, new int[]{2}, floats)).view());
+        ByteBuffer doubles = ByteBuffer.allocate(16).putDouble(0.1).putDouble(3.0);
+        IdxFile file = IdxFile.map(write(IdxFile.DOUBLE, new int[]{2}, doubles));
+        Array view = file.view();
+        assertEquals(double.class, view.getDataType());
+        assertEquals(0.1, view.getDouble(0), 0.0);
+        assertEquals(new Array(new double[]{0.1, 3.0}), view);
+        assertEquals(new Array(new double[]{0.1, 3.0}), file.copy());
+        File npy = folder.newFile("doubles.npy");
+        Npy.save(npy.getPath(), view);
+        assertEquals(file.copy(), Npy.load(npy.getPath()));
+        assertEquals(new Array(new float[]{0.05f, 1.5f}), file.toFloat(2.0f));
+    }
+
+    @Test
+    public void largeFileIsConvertedInParallel() throws IOException {
+        int n = 3 * IdxFile.GRAIN + 17;
+        byte[] values = new byte[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = (byte) i;
+        }
+        IdxFile file = IdxFile.map(write(IdxFile.UNSIGNED_BYTE, new int[]{n}, ByteBuffer.wrap(values)));
+        Array converted = file.toFloat(1.0f);
+        Array view = file.view();
+        for (int i = 0; i < n; i += 1001) {
+            assertEquals(i & 0xff, converted.getFloat(i), 0.0f);
+            assertEquals(i & 0xff, view.getInt(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTypeIsRejected() throws IOException {
+        IdxFile.map(write(0x0A, new int[]{1}, ByteBuffer.allocate(1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedFileIsRejected() throws IOException {
+        IdxFile.map(write(IdxFile.INT, new int[]{2}, ByteBuffer.allocate(7)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void viewIsReadOnly() throws IOException {
+        IdxFile.map(write(IdxFile.UNSIGNED_BYTE, new int[]{2}, ByteBuffer.allocate(2)))
+                .view().set(1, 0);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class LayoutTest {
+
+    public LayoutTest() {
+    }
+
+    @Test
+    public void testContiguousIsOneRun() {
+        Layout layout = Layout.of(new int[]{2, 3, 4}, new int[]{12, 4, 1}, new int[]{12, 4, 1});
+        assertArrayEquals(new int[]{24}, layout.shape);
+        assertEquals(1, layout.innerStride(0));
+        assertEquals(1, layout.innerStride(1));
+    }
+
+    @Test
+    public void testUniformStrideIsOneRun() {
+        Layout layout = Layout.of(new int[]{3, 4}, new int[]{8, 2});
+        assertArrayEquals(new int[]{12}, layout.shape);
+        assertEquals(2, layout.innerStride(0));
+    }
+
+    @Test
+    public void testTransposedOperandIsNotMerged() {
+        Layout layout = Layout.of(new int[]{2, 3}, new int[]{3, 1}, new int[]{1, 2});
+        assertArrayEquals(new int[]{2, 3}, layout.shape);
+        assertEquals(2, layout.innerStride(1));
+        OffsetCursor outer = layout.outer(1, 5);
+        assertEquals(5, outer.next());
+        assertEquals(6, outer.next());
+        assertFalse(outer.hasNext());
+    }
+
+    @Test
+    public void testSizeOneDimensionsAreDropped() {
+        Layout layout = Layout.of(new int[]{1, 1}, new int[]{1, 1});
+        assertArrayEquals(new int[]{1}, layout.shape);
+        assertEquals(1, layout.outer(0, 0).size());
+        layout = Layout.of(new int[]{4, 1, 5}, new int[]{5, 99, 1});
+        assertArrayEquals(new int[]{20}, layout.shape);
+    }
+
+}
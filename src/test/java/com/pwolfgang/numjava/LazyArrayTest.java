@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class LazyArrayTest {
+
+    public LazyArrayTest() {
+    }
+
+    private static Array randomFloats(Random rand, int... shape) {
+        float[] data = new float[Array.product(shape, 0, shape.length)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rand.nextFloat() - 0.5f;
+        }
+        return new Array(data).reShape(shape);
+    }
+
+    @Test
+    public void testChainMatchesEager() {
+        Random rand = new Random(7);
+        Array x = randomFloats(rand, 300, 257);
+        Array w = randomFloats(rand, 300, 257);
+        Array b = randomFloats(rand, 257);
+        DoubleUnaryOperator sigmoid = v -> 1.0 / (1.0 + Math.exp(-v));
+        Array expected = x.mul(w).add(b).apply(sigmoid);
+        Array result = x.lazy().mul(w).add(b).apply(sigmoid).eval();
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void testStridedAndBroadcastOperands() {
+        Random rand = new Random(11);
+        Array a = randomFloats(rand, 40, 30);
+        Array col = randomFloats(rand, 30, 1);
+        Array expected = a.transpose().sub(col).div(a.transpose());
+        assertEquals(expected, a.transpose().lazy().sub(col).div(a.transpose()).eval());
+    }
+
+    @Test
+    public void testIntArithmetic() {
+        Array a = new Array(new int[][]{{7, 8, 9}, {10, 11, 12}});
+        Array b = new Array(new int[]{2, 3, 4});
+        LazyArray quotient = a.lazy().div(b);
+        assertEquals(int.class, quotient.getDataType());
+        assertEquals(a.div(b), quotient.eval());
+        Array half = new Array(new float[]{0.5f, 0.5f, 0.5f});
+        assertEquals(a.div(b).add(half), quotient.add(half).eval());
+        assertEquals(3, quotient.getInt(0, 0));
+    }
+
+    @Test
+    public void testSharedSubexpression() {
+        Array a = new Array(new float[]{1, 2, 3});
+        LazyArray x = a.lazy().add(a);
+        assertEquals(new Array(new float[]{4, 16, 36}), x.mul(x).eval());
+    }
+
+    @Test
+    public void testSingletons() {
+        assertEquals(new Array(5), new Array(2).lazy().add(new Array(3)).eval());
+        assertEquals(6.0f, new Array(new float[]{1, 2}).lazy().add(new Array(4.0f)).getFloat(1), 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleShapes() {
+        new Array(new int[]{1, 2, 3}).lazy().add(new Array(new int[]{1, 2}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDoubleOperandIsRejected() {
+        new Array(new int[]{1, 2}).lazy().add(new Array(new double[]{1, 2}));
+    }
+
+    @Test
+    public void testApplyInsideIntExpression() {
+        Array a = new Array(new int[]{1, 2, 3});
+        Array result = a.lazy().add(a.lazy().apply(x -> x * 0.5)).eval();
+        assertEquals(float.class, result.getDataType());
+        assertEquals(4.5f, result.getFloat(2), 0.0f);
+    }
+
+}
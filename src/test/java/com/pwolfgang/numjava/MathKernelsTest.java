@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class MathKernelsTest {
+
+    public MathKernelsTest() {
+    }
+
+    private interface FloatFunction {
+        float apply(float x);
+    }
+
+    /**
+     * Return the largest error, in ulps of the correctly rounded result, of
+     * f over random inputs in [low, high).
+     */
+    private static double maxUlpError(FloatFunction f, DoubleUnaryOperator exact,
+            float low, float high) {
+        Random rand = new Random(17);
+        double max = 0.0;
+        for (int i = 0; i < 200000; i++) {
+            float x = low + rand.nextFloat() * (high - low);
+            double expected = exact.applyAsDouble(x);
+            float rounded = (float) expected;
+            if (rounded == 0.0f || Float.isInfinite(rounded)
+                    || Math.abs(rounded) < Float.MIN_NORMAL) {
+                continue;
+            }
+            max = Math.max(max, Math.abs(f.apply(x) - expected) / Math.ulp(rounded));
+        }
+        return max;
+    }
+
+    @Test
+    public void testExp() {
+        assertTrue(maxUlpError(MathKernels::exp, Math::exp, -87.0f, 88.0f) <= 1.03);
+        assertEquals(1.0f, MathKernels.exp(0.0f), 0.0f);
+        assertEquals(Float.POSITIVE_INFINITY, MathKernels.exp(100.0f), 0.0f);
+        assertEquals(0.0f, MathKernels.exp(Float.NEGATIVE_INFINITY), 0.0f);
+        assertTrue(Float.isNaN(MathKernels.exp(Float.NaN)));
+        assertEquals((float) Math.exp(-100.0), MathKernels.exp(-100.0f), Math.ulp((float) Math.exp(-100.0)));
+    }
+
+    @Test
+    public void testLog() {
+        assertTrue(maxUlpError(MathKernels::log, Math::log, 1.0e-30f, 1.0e30f) <= 0.96);
+        assertTrue(maxUlpError(MathKernels::log, Math::log, 0.5f, 2.0f) <= 0.96);
+        assertEquals(0.0f, MathKernels.log(1.0f), 0.0f);
+        assertEquals(Float.NEGATIVE_INFINITY, MathKernels.log(0.0f), 0.0f);
+        assertTrue(Float.isNaN(MathKernels.log(-1.0f)));
+        assertEquals((float) Math.log(Float.MIN_VALUE), MathKernels.log(Float.MIN_VALUE), 0.0f);
+    }
+
+    @Test
+    public void testTanh() {
+        assertTrue(maxUlpError(MathKernels::tanh, Math::tanh, -10.0f, 10.0f) <= 1.94);
+        assertTrue(maxUlpError(MathKernels::tanh, Math::tanh, -0.6f, 0.6f) <= 1.94);
+        assertEquals(1.0f, MathKernels.tanh(50.0f), 0.0f);
+        assertEquals(-1.0f, MathKernels.tanh(Float.NEGATIVE_INFINITY), 0.0f);
+    }
+
+    @Test
+    public void testSigmoidAndSoftplus() {
+        assertTrue(maxUlpError(MathKernels::sigmoid, x -> 1.0 / (1.0 + Math.exp(-x)),
+                -100.0f, 100.0f) <= 2.83);
+        assertTrue(maxUlpError(MathKernels::softplus,
+                x -> Math.max(x, 0.0) + Math.log1p(Math.exp(-Math.abs(x))),
+                -100.0f, 100.0f) <= 2.81);
+        assertEquals(0.5f, MathKernels.sigmoid(0.0f), 0.0f);
+        assertEquals(0.0f, MathKernels.sigmoid(-200.0f), 0.0f);
+        assertEquals(200.0f, MathKernels.softplus(200.0f), 0.0f);
+    }
+
+    @Test
+    public void testRelu() {
+        assertEquals(0.0f, MathKernels.relu(-3.0f), 0.0f);
+        assertEquals(3.0f, MathKernels.relu(3.0f), 0.0f);
+    }
+
+}
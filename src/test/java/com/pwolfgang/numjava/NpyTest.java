@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class NpyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public NpyTest() {
+    }
+
+    @Test
+    public void floatFilesAreMapped() throws IOException {
+        Path path = folder.newFile("a.npy").toPath();
+        Array a = new Array(new float[][]{{1, 2, 3}, {4, 5, 6}});
+        Npy.save(path, a);
+        assertEquals(0, Files.size(path) - 24 & 63);
+        Array b = Npy.load(path);
+        assertTrue(b.data instanceof Storage);
+        assertTrue(((Storage) b.data).isDirect());
+        assertEquals(a, b);
+    }
+
+    @Test
+    public void stridedViewsAreWrittenInOrder() throws IOException {
+        Path path = folder.newFile("t.npy").toPath();
+        Array a = new Array(new int[][]{{1, 2, 3}, {4, 5, 6}}).transpose();
+        Npy.save(path, a);
+        Array b = Npy.load(path);
+        assertEquals(new Array(new int[][]{{1, 4}, {2, 5}, {3, 6}}), b);
+    }
+
+    @Test
+    public void otherTypesRoundTrip() throws IOException {
+        Array[] arrays = {
+            new Array(new double[]{1.5, -2.25}),
+            new Array(new long[]{1L << 40, -7}),
+            new Array(new short[]{-3, 300}).asType(short.class),
+            new Array(new int[]{0, 255}).asType(UInt8.class),
+            new Array(new float[]{0.5f, -1}).asType(Float16.class),
+            new Array(3.5)
+        };
+        for (Array a : arrays) {
+            Path path = folder.newFile().toPath();
+            Npy.save(path, a);
+            Array b = Npy.load(path);
+            assertEquals(a.getDataType(), b.getDataType());
+            assertEquals(a, b);
+        }
+    }
+
+    @Test
+    public void emptyArraysRoundTrip() throws IOException {
+        Array[] arrays = {Array.zeros(float.class, 0), Array.zeros(int.class, 2, 0),
+            Array.zeros(double.class, 0)};
+        for (Array a : arrays) {
+            Path path = folder.newFile().toPath();
+            Npy.save(path, a);
+            Array b = Npy.load(path);
+            assertEquals(a.getDataType(), b.getDataType());
+            assertArrayEquals(a.shape, b.shape);
+        }
+    }
+
+    @Test
+    public void fortranOrderGivesAView() throws IOException {
+        String dict = "{'descr': '>i4', 'fortran_order': True, 'shape': (2, 3), }";
+        ByteBuffer file = ByteBuffer.allocate(152).order(ByteOrder.LITTLE_ENDIAN);
+        file.put(new byte[]{(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0});
+        file.putShort((short) 118);
+        file.put(dict.getBytes(StandardCharsets.US_ASCII));
+        while (file.position() < 127) {
+            file.put((byte) ' ');
+        }
+        file.put((byte) '\n');
+        file.order(ByteOrder.BIG_ENDIAN);
+        for (int v : new int[]{1, 4, 2, 5, 3, 6}) {
+            file.putInt(v);
+        }
+        Path path = folder.newFile("f.npy").toPath();
+        Files.write(path, file.array());
+        Array b = Npy.load(path);
+        assertArrayEquals(new int[]{1, 2}, b.stride);
+        assertEquals(new Array(new int[][]{{1, 4}, {2, 5}, {3, 6}}).transpose(), b);
+    }
+
+    @Test
+    public void npzKeepsTheNames() throws IOException {
+        Path path = folder.newFile("a.npz").toPath();
+        Map<String, Array> arrays = new LinkedHashMap<>();
+        arrays.put("weights", new Array(new float[][]{{1, 2}, {3, 4}}));
+        arrays.put("bias", new Array(new int[]{5, 6}));
+        Npy.saveNpz(path, arrays);
+        Map<String, Array> loaded = Npy.loadNpz(path);
+        assertEquals(arrays.keySet(), loaded.keySet());
+        assertEquals(arrays.get("weights"), loaded.get("weights"));
+        assertEquals(arrays.get("bias"), loaded.get("bias"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherFilesAreRejected() throws IOException {
+        Path path = folder.newFile("x.npy").toPath();
+        Files.write(path, "not a numpy file".getBytes(StandardCharsets.US_ASCII));
+        Npy.load(path);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.NoSuchElementException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class OffsetCursorTest {
+
+    public OffsetCursorTest() {
+    }
+
+    /**
+     * The cursor must visit the same data indices as IndexIterator followed
+     * by a stride computation.
+     */
+    @Test
+    public void testNextMatchesIndexIterator() {
+        int[] shape = {2, 3, 4};
+        int[] stride = {1, 8, 2};
+        int offset = 5;
+        OffsetCursor cursor = new OffsetCursor(shape, stride, offset);
+        IndexIterator itr = new IndexIterator(shape);
+        while (itr.hasNext()) {
+            int[] idx = itr.next();
+            int expected = offset + idx[0] * stride[0] + idx[1] * stride[1] + idx[2] * stride[2];
+            assertTrue(cursor.hasNext());
+            assertEquals(expected, cursor.next());
+        }
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testTransposedView() {
+        Array a = new Array(new int[][]{{1, 2, 3}, {4, 5, 6}}).transpose();
+        OffsetCursor cursor = new OffsetCursor(a);
+        int[] expected = {0, 3, 1, 4, 2, 5};
+        for (int e : expected) {
+            assertEquals(e, cursor.next());
+        }
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testSeek() {
+        OffsetCursor cursor = new OffsetCursor(new int[]{3, 4}, new int[]{1, 3}, 0);
+        cursor.seek(6);
+        assertEquals(7, cursor.next());
+        assertEquals(10, cursor.next());
+        assertEquals(2, cursor.next());
+        cursor.seek(12);
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testSingletonAndEmpty() {
+        OffsetCursor singleton = new OffsetCursor(new int[0], new int[0], 7);
+        assertEquals(7, singleton.next());
+        assertFalse(singleton.hasNext());
+        OffsetCursor empty = new OffsetCursor(new int[]{3, 0}, new int[]{0, 1}, 0);
+        assertFalse(empty.hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testNextPastEnd() {
+        OffsetCursor cursor = new OffsetCursor(new int[]{1}, new int[]{1}, 0);
+        cursor.next();
+        cursor.next();
+    }
+
+}
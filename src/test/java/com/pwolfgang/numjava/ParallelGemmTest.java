@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class ParallelGemmTest {
+
+    Random random = new Random(42);
+    ForkJoinPool savedPool;
+    ForkJoinPool testPool;
+
+    public ParallelGemmTest() {
+    }
+
+    @Before
+    public void setUp() {
+        savedPool = Parallel.getPool();
+        testPool = new ForkJoinPool(4);
+        Parallel.setPool(testPool);
+    }
+
+    @After
+    public void tearDown() {
+        Parallel.setPool(savedPool);
+        Parallel.setDeterministic(false);
+        testPool.shutdown();
+    }
+
+    @Test
+    public void deterministicMatchesSerialBitForBit() {
+        Parallel.setDeterministic(true);
+        int[][] sizes = {{200, 150, 300}, {8, 6, 4000}, {301, 7, 520}};
+        for (int[] size : sizes) {
+            int m = size[0];
+            int n = size[1];
+            int k = size[2];
+            float[] a = randomFloats(m * k);
+            float[] b = randomFloats(k * n);
+            float[] serial = new float[m * n];
+            float[] parallel = new float[m * n];
+            Gemm.sgemm(m, n, k, a, 0, k, 1, b, 0, n, 1, serial, 0, n);
+            ParallelGemm.sgemm(m, n, k, a, 0, k, 1, b, 0, n, 1, parallel, 0, n);
+            assertArrayEquals(serial, parallel, 0.0f);
+        }
+    }
+
+    @Test
+    public void innerSplitIsCloseToSerial() {
+        int m = 4;
+        int n = 4;
+        int k = 1 << 15;
+        assertTrue(ParallelGemm.innerSplit(m, n, k, 4) > 1);
+        float[] a = randomFloats(m * k);
+        float[] b = randomFloats(k * n);
+        float[] serial = new float[m * n];
+        float[] parallel = new float[m * n];
+        Gemm.sgemm(m, n, k, a, 0, k, 1, b, 0, n, 1, serial, 0, n);
+        ParallelGemm.sgemm(m, n, k, a, 0, k, 1, b, 0, n, 1, parallel, 0, n);
+        assertArrayEquals(serial, parallel, 1e-2f);
+    }
+
+    @Test
+    public void intProductIsExact() {
+        int m = 150;
+        int n = 130;
+        int k = 70;
+        int[] a = new int[m * k];
+        int[] b = new int[k * n];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextInt(100);
+        }
+        for (int i = 0; i < b.length; i++) {
+            b[i] = random.nextInt(100);
+        }
+        int[] serial = new int[m * n];
+        int[] parallel = new int[m * n];
+        // B is read as its transpose to exercise strided access.
+        Gemm.igemm(m, n, k, a, 0, k, 1, b, 0, 1, k, serial, 0, n);
+        ParallelGemm.igemm(m, n, k, a, 0, k, 1, b, 0, 1, k, parallel, 0, n);
+        assertArrayEquals(serial, parallel);
+    }
+
+    @Test
+    public void smallProductStaysSerial() {
+        Array a = new Array(new float[][]{{1.0f, 2.0f}, {3.0f, 4.0f}});
+        Array expected = new Array(new float[][]{{7.0f, 10.0f}, {15.0f, 22.0f}});
+        assertEquals(expected, a.dot(a));
+        // The pool starts its workers on the first task it is given.
+        assertEquals(0, testPool.getPoolSize());
+    }
+
+    @Test
+    public void callerOnAnotherPoolUsesTheConfiguredPool() throws Exception {
+        ForkJoinPool otherPool = new ForkJoinPool(2);
+        AtomicBoolean wrongPool = new AtomicBoolean();
+        try {
+            otherPool.submit(() -> Parallel.forRange(1000, 1, (from, to) -> {
+                if (ForkJoinTask.getPool() != testPool) {
+                    wrongPool.set(true);
+                }
+            })).get();
+        } finally {
+            otherPool.shutdown();
+        }
+        assertFalse(wrongPool.get());
+    }
+
+    float[] randomFloats(int size) {
+        float[] data = new float[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = random.nextFloat() - 0.5f;
+        }
+        return data;
+    }
+
+}
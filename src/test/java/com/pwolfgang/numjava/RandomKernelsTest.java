@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class RandomKernelsTest {
+
+    public RandomKernelsTest() {
+    }
+
+    @Test
+    public void valuesDoNotDependOnThreads() {
+        int n = 5 * RandomKernels.CHUNK + 7;
+        float[] parallel = new float[n];
+        float[] serial = new float[n];
+        RandomKernels.normal(42, 0, 1, parallel);
+        Parallel.setEnabled(false);
+        try {
+            RandomKernels.normal(42, 0, 1, serial);
+        } finally {
+            Parallel.setEnabled(true);
+        }
+        assertArrayEquals(serial, parallel, 0.0f);
+        float[] other = new float[n];
+        RandomKernels.normal(43, 0, 1, other);
+        assertNotEquals(parallel[0], other[0], 0.0f);
+    }
+
+    @Test
+    public void uniformValuesAreInRange() {
+        float[] values = new float[3 * RandomKernels.CHUNK];
+        RandomKernels.uniform(1, -2, 3, values);
+        double sum = 0;
+        for (float v : values) {
+            assertTrue(v >= -2 && v < 3);
+            sum += v;
+        }
+        assertEquals(0.5, sum / values.length, 0.05);
+    }
+
+    @Test
+    public void uniformValuesNeverRoundToHigh() {
+        // Half of low + ulp * u rounds up to high.
+        float low = 1.0f;
+        float high = Math.nextUp(low);
+        float[] values = new float[2 * RandomKernels.CHUNK];
+        RandomKernels.uniform(5, low, high, values);
+        for (float v : values) {
+            assertEquals(low, v, 0.0f);
+        }
+    }
+
+    @Test
+    public void normalValuesHaveTheMoments() {
+        float[] values = new float[4 * RandomKernels.CHUNK + 1];
+        RandomKernels.normal(7, 1, 2, values);
+        double sum = 0;
+        double sumSquares = 0;
+        for (float v : values) {
+            sum += v;
+            sumSquares += v * v;
+        }
+        double mean = sum / values.length;
+        assertEquals(1.0, mean, 0.05);
+        assertEquals(2.0, Math.sqrt(sumSquares / values.length - mean * mean), 0.05);
+    }
+
+}
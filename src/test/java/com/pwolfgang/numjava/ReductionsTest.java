@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class ReductionsTest {
+
+    private ForkJoinPool savedPool;
+    private ForkJoinPool pool;
+
+    public ReductionsTest() {
+    }
+
+    @Before
+    public void setUp() {
+        savedPool = Parallel.getPool();
+        pool = new ForkJoinPool(4);
+        Parallel.setPool(pool);
+    }
+
+    @After
+    public void tearDown() {
+        Parallel.setPool(savedPool);
+        pool.shutdown();
+    }
+
+    private static Array randomFloats(int n) {
+        Random rand = new Random(5);
+        float[] data = new float[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = rand.nextFloat();
+        }
+        return new Array(data);
+    }
+
+    /**
+     * A pairwise sum of a million values must stay within a few ulps of the
+     * exact sum, where a running float sum is off by thousands.
+     */
+    @Test
+    public void testPairwiseSumIsAccurate() {
+        Array a = randomFloats(1 << 20);
+        float[] data = (float[]) a.data;
+        double exact = 0.0;
+        for (float v : data) {
+            exact += v;
+        }
+        float sum = a.sum().getFloat();
+        assertEquals(exact, sum, 4 * Math.ulp((float) exact));
+    }
+
+    @Test
+    public void testResultIndependentOfThreads() {
+        Array a = randomFloats(3 * (1 << 18)).reShape(3, 1 << 18);
+        Array parallel = a.sum(1);
+        Array full = a.sum();
+        Array variance = a.var(1);
+        Parallel.setEnabled(false);
+        try {
+            assertEquals(a.sum(1), parallel);
+            assertEquals(a.sum(), full);
+            assertEquals(a.var(1), variance);
+        } finally {
+            Parallel.setEnabled(true);
+        }
+    }
+
+    @Test
+    public void testManyOutputsOfStridedView() {
+        Array a = randomFloats(600 * 300).reShape(600, 300);
+        Array t = a.transpose();
+        Array sums = t.sum(1);
+        Array maxes = t.max(1);
+        for (int j = 0; j < 300; j += 37) {
+            double s = 0;
+            float m = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < 600; i++) {
+                s += a.getFloat(i, j);
+                m = Math.max(m, a.getFloat(i, j));
+            }
+            assertEquals(s, sums.getFloat(j), 1.0e-3);
+            assertEquals(m, maxes.getFloat(j), 0.0f);
+        }
+    }
+
+    @Test
+    public void testIntReductions() {
+        int[] data = new int[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 1000 - 500;
+        }
+        Array a = new Array(data);
+        assertEquals(new Array(-50000), a.sum());
+        assertEquals(new Array(499), a.max());
+        assertEquals(new Array(-500), a.min());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxOfEmpty() {
+        new Array(new float[0]).max();
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2019 Paul Wolfgang
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pwolfgang.numjava;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Paul
+ */
+public class StorageTest {
+
+    public StorageTest() {
+    }
+
+    @Test
+    public void heapStorageUsesTheArray() {
+        float[] data = {1, 2, 3};
+        Storage storage = Storage.of(data);
+        assertFalse(storage.isDirect());
+        storage.setFloat(1, 5);
+        assertEquals(5.0f, data[1], 0.0f);
+        assertSame(data, new Array(storage, 3).data);
+    }
+
+    @Test
+    public void directStridedCopies() {
+        try (Storage storage = Storage.allocateDirect(int.class, 10)) {
+            assertTrue(storage.isDirect());
+            assertEquals(10, storage.length());
+            storage.putInts(0, 1, new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, 0, 10);
+            int[] even = new int[5];
+            storage.getInts(0, 2, even, 0, 5);
+            assertArrayEquals(new int[]{0, 2, 4, 6, 8}, even);
+            storage.putInts(1, 3, new int[]{-1, -2, -3}, 0, 3);
+            assertEquals(-3, storage.getInt(7));
+            int[] repeated = new int[3];
+            storage.getInts(4, 0, repeated, 0, 3);
+            assertArrayEquals(new int[]{-2, -2, -2}, repeated);
+        }
+    }
+
+    @Test
+    public void directBytes() {
+        try (Storage storage = Storage.allocateDirect(UInt8.class, 4)) {
+            assertEquals(UInt8.class, storage.getDataType());
+            storage.putInts(0, 1, new int[]{0, 200, 255, 7}, 0, 4);
+            assertEquals(200, storage.getInt(1));
+            int[] odd = new int[2];
+            storage.getInts(1, 2, odd, 0, 2);
+            assertArrayEquals(new int[]{200, 7}, odd);
+        }
+        Array pixels = new Array(new int[]{3, 250}).asType(UInt8.class);
+        Array direct = pixels.toDirect();
+        assertTrue(direct.isDirect());
+        assertEquals(UInt8.class, direct.getDataType());
+        assertEquals(pixels, direct.toHeap());
+        direct.set(-1, 0);
+        assertEquals(255, direct.getInt(0));
+        Storage signed = Storage.wrap(ByteBuffer.wrap(new byte[]{-3, 4}), byte.class);
+        assertEquals(2, signed.length());
+        assertEquals(-3, signed.getInt(0));
+    }
+
+    @Test
+    public void wrapUsesTheBufferOrder() {
+        ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putFloat(4, 2.5f);
+        Storage storage = Storage.wrap(buffer, float.class);
+        assertEquals(4, storage.length());
+        assertEquals(2.5f, storage.getFloat(1), 0.0f);
+        storage.close();
+        assertEquals(2.5f, buffer.getFloat(4), 0.0f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedStorageCannotBeRead() {
+        Storage storage = Storage.allocateDirect(float.class, 4);
+        storage.close();
+        storage.getFloat(0);
+    }
+
+    @Test
+    public void closeIsSeenByOtherThreads() throws Exception {
+        Storage storage = Storage.allocateDirect(int.class, 4);
+        storage.close();
+        Throwable[] thrown = new Throwable[1];
+        Thread reader = new Thread(() -> {
+            try {
+                storage.getInt(0);
+            } catch (Throwable t) {
+                thrown[0] = t;
+            }
+        });
+        reader.start();
+        reader.join();
+        assertTrue(thrown[0] instanceof IllegalStateException);
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void wrongTypeIsRejected() {
+        Storage.allocateDirect(int.class, 4).getFloat(0);
+    }
+
+}